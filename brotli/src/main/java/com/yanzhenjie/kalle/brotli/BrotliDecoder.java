@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.brotli;
+
+import com.yanzhenjie.kalle.connect.ContentDecoder;
+
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Decode the br content coding (RFC 7932), add it by
+ * {@link com.yanzhenjie.kalle.KalleConfig.Builder#addContentDecoder(ContentDecoder)},
+ * then the requests accept br as well.
+ * </p>
+ */
+public final class BrotliDecoder implements ContentDecoder {
+
+    public static final BrotliDecoder INSTANCE = new BrotliDecoder();
+
+    private BrotliDecoder() {
+    }
+
+    @Override
+    public String encoding() {
+        return "br";
+    }
+
+    @Override
+    public InputStream decode(InputStream stream) throws IOException {
+        return new BrotliInputStream(stream);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A HTTP/1.1 server on the loopback for the tests, each connection is served by a thread and kept alive.
+ * </p>
+ */
+public class LocalServer implements Closeable {
+
+    public interface Handler {
+
+        Reply reply(Recorded request) throws Exception;
+    }
+
+    /**
+     * A request the server has received.
+     */
+    public static class Recorded {
+
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers;
+        public final byte[] body;
+        /**
+         * The number of the connection, starts at 1.
+         */
+        public final int connection;
+
+        private Recorded(String method, String path, Map<String, String> headers, byte[] body, int connection) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.connection = connection;
+        }
+
+        public String header(String key) {
+            return headers.get(key.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * The response of a request.
+     */
+    public static class Reply {
+
+        private int mCode = 200;
+        private final Map<String, String> mHeaders = new LinkedHashMap<>();
+        private byte[] mBody = new byte[0];
+        private long mDelayMillis;
+        private boolean mClose;
+
+        public Reply code(int code) {
+            this.mCode = code;
+            return this;
+        }
+
+        public Reply header(String key, String value) {
+            mHeaders.put(key, value);
+            return this;
+        }
+
+        public Reply body(String body) {
+            this.mBody = body.getBytes();
+            return this;
+        }
+
+        /**
+         * Wait before sending the response.
+         */
+        public Reply delay(long millis) {
+            this.mDelayMillis = millis;
+            return this;
+        }
+
+        /**
+         * Close the connection after the response without telling the client, then the client sees a stale connection.
+         */
+        public Reply close() {
+            this.mClose = true;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final List<Recorded> mRequests = Collections.synchronizedList(new ArrayList<Recorded>());
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    public LocalServer(Handler handler) throws IOException {
+        this.mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.mHandler = handler;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LocalServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Get the count of accepted connections.
+     */
+    public int connectionCount() {
+        return mConnections.get();
+    }
+
+    public List<Recorded> requests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) socket.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = mServerSocket.accept();
+                final int connection = mConnections.incrementAndGet();
+                mSockets.add(socket);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, connection);
+                    }
+                }, "LocalServer #" + connection);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(Socket socket, int connection) {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(input);
+                if (requestLine == null) break;
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new LinkedHashMap<>();
+                String line;
+                while ((line = readLine(input)).length() > 0) {
+                    int index = line.indexOf(':');
+                    headers.put(line.substring(0, index).trim().toLowerCase(Locale.ENGLISH), line.substring(index + 1).trim());
+                }
+                Recorded request = new Recorded(parts[0], parts[1], headers, readBody(input, headers), connection);
+                mRequests.add(request);
+
+                Reply reply = mHandler.reply(request);
+                if (reply.mDelayMillis > 0) Thread.sleep(reply.mDelayMillis);
+                StringBuilder head = new StringBuilder();
+                head.append("HTTP/1.1 ").append(reply.mCode).append(" OK\r\n");
+                for (Map.Entry<String, String> entry : reply.mHeaders.entrySet()) {
+                    head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+                }
+                head.append("Content-Length: ").append(reply.mBody.length).append("\r\n\r\n");
+                output.write(head.toString().getBytes("ISO-8859-1"));
+                output.write(reply.mBody);
+                output.flush();
+                if (reply.mClose) break;
+            }
+        } catch (Exception ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream input, Map<String, String> headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String length = headers.get("content-length");
+        if (length != null) {
+            copy(input, body, Long.parseLong(length));
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            long size;
+            while ((size = Long.parseLong(readLine(input).split(";")[0].trim(), 16)) > 0) {
+                copy(input, body, size);
+                readLine(input);
+            }
+            while (readLine(input).length() > 0) {
+                // Skip the trailers.
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void copy(InputStream input, OutputStream output, long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            int b = input.read();
+            if (b == -1) throw new EOFException();
+            output.write(b);
+        }
+    }
+
+    /**
+     * @return null if the connection is closed before a line.
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') builder.setLength(length - 1);
+                return builder.toString();
+            }
+            builder.append((char) b);
+        }
+        if (builder.length() == 0) return null;
+        throw new EOFException();
+    }
+}
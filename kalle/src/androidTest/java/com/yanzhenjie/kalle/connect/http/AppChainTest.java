@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.UrlRequest;
+import com.yanzhenjie.kalle.connect.Interceptor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class AppChainTest {
+
+    private final Request mFirst = request("/first");
+    private final Request mSecond = request("/second");
+    private final Request mThird = request("/third");
+
+    @Test
+    public void replacedRequestReachesTheNextInterceptors() throws Exception {
+        Recorder recorder = new Recorder();
+        Terminal terminal = new Terminal();
+        AppChain chain = chain(new Replace(mSecond), recorder, terminal);
+
+        chain.proceed(mFirst);
+        assertEquals(Arrays.asList(mSecond), recorder.mRequests);
+        assertEquals(Arrays.asList(mSecond), terminal.mRequests);
+    }
+
+    @Test
+    public void requestIsRestoredAfterProceed() throws Exception {
+        final List<Request> seen = new ArrayList<>();
+        Interceptor outer = new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                seen.add(chain.request());
+                Response response = chain.proceed(mSecond);
+                seen.add(chain.request());
+                return response;
+            }
+        };
+        AppChain chain = chain(outer, new Terminal());
+
+        chain.proceed(mFirst);
+        assertEquals(Arrays.asList(mFirst, mFirst), seen);
+        assertSame(mFirst, chain.request());
+    }
+
+    @Test
+    public void proceedSeveralTimes() throws Exception {
+        // Like a retry or a redirect, every hop walks the rest of the chain again.
+        Interceptor retry = new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                chain.proceed(mSecond);
+                return chain.proceed(mThird);
+            }
+        };
+        Recorder recorder = new Recorder();
+        Terminal terminal = new Terminal();
+        AppChain chain = chain(retry, new Replace(null), recorder, terminal);
+
+        chain.proceed(mFirst);
+        assertEquals(Arrays.asList(mSecond, mThird), recorder.mRequests);
+        assertEquals(Arrays.asList(mSecond, mThird), terminal.mRequests);
+    }
+
+    @Test
+    public void proceedAfterTheLastInterceptor() throws Exception {
+        Interceptor terminal = new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                return chain.proceed(chain.request());
+            }
+        };
+        AppChain chain = chain(terminal);
+        try {
+            chain.proceed(mFirst);
+            fail("The chain went past the last interceptor.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void proceedAsyncCompletesWithTheResponse() throws Exception {
+        Terminal terminal = new Terminal();
+        AppChain chain = chain(terminal);
+
+        assertEquals(200, chain.proceedAsync(mFirst).await().code());
+        assertEquals(Arrays.asList(mFirst), terminal.mRequests);
+    }
+
+    @SuppressWarnings("deprecation")
+    private AppChain chain(Interceptor... interceptors) {
+        return new AppChain(Arrays.asList(interceptors), 0, mFirst);
+    }
+
+    private static Request request(String path) {
+        return UrlRequest.newBuilder(Url.newBuilder("http://chain.example.com" + path), RequestMethod.GET).build();
+    }
+
+    /**
+     * Record the request, then proceed with it.
+     */
+    private static class Recorder implements Interceptor {
+
+        final List<Request> mRequests = new ArrayList<>();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            mRequests.add(chain.request());
+            return chain.proceed(chain.request());
+        }
+    }
+
+    /**
+     * Record the request and respond instead of connecting.
+     */
+    private static class Terminal extends Recorder {
+
+        @Override
+        public Response intercept(Chain chain) {
+            mRequests.add(chain.request());
+            return Response.newBuilder().code(200).headers(new Headers()).build();
+        }
+    }
+
+    /**
+     * Proceed with another request, or with the same request if it is null.
+     */
+    private static class Replace implements Interceptor {
+
+        private final Request mRequest;
+
+        private Replace(Request request) {
+            this.mRequest = request;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            return chain.proceed(mRequest == null ? chain.request() : mRequest);
+        }
+    }
+}
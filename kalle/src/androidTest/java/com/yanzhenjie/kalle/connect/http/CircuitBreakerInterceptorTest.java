@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.UrlRequest;
+import com.yanzhenjie.kalle.exception.CircuitOpenError;
+import com.yanzhenjie.kalle.exception.ConnectException;
+import com.yanzhenjie.kalle.exception.NetworkError;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerInterceptorTest {
+
+    private final CircuitBreakerInterceptor mBreaker = CircuitBreakerInterceptor.newBuilder()
+            .window(4)
+            .minimumCalls(2)
+            .failureRate(0.5)
+            .openDuration(1, TimeUnit.MINUTES)
+            .build();
+    private final Request mRequest = UrlRequest.newBuilder(Url.newBuilder("http://circuit.example.com/"), RequestMethod.GET).build();
+
+    @Test
+    public void offlineDoesNotOpen() throws Exception {
+        FakeChain chain = new FakeChain(mRequest);
+        chain.mFailure = new NetworkError("The network is not available.");
+        for (int i = 0; i < 10; i++) {
+            assertFails(chain, NetworkError.class);
+        }
+
+        // The network is back, the origin is called.
+        chain.mFailure = null;
+        assertEquals(200, mBreaker.intercept(chain).code());
+        assertEquals(11, chain.mCalls);
+    }
+
+    @Test
+    public void originFailuresOpen() throws Exception {
+        FakeChain chain = new FakeChain(mRequest);
+        chain.mFailure = new ConnectException("Connection refused.");
+        assertFails(chain, ConnectException.class);
+        assertFails(chain, ConnectException.class);
+
+        chain.mFailure = null;
+        assertFails(chain, CircuitOpenError.class);
+        assertEquals(2, chain.mCalls);
+    }
+
+    private void assertFails(FakeChain chain, Class<? extends IOException> type) {
+        try {
+            mBreaker.intercept(chain);
+            fail("The call succeeded.");
+        } catch (IOException e) {
+            assertEquals(type, e.getClass());
+        }
+    }
+
+    private static final class FakeChain implements Chain {
+
+        private final Request mRequest;
+        private IOException mFailure;
+        private int mCalls;
+
+        private FakeChain(Request request) {
+            this.mRequest = request;
+        }
+
+        @Override
+        public Request request() {
+            return mRequest;
+        }
+
+        @Override
+        public Response proceed(Request request) throws IOException {
+            mCalls++;
+            if (mFailure != null) throw mFailure;
+            return Response.newBuilder().code(200).headers(new Headers()).build();
+        }
+
+        @Override
+        public Call newCall() {
+            return null;
+        }
+    }
+}
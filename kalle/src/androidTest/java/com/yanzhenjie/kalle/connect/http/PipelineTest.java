@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.KalleConfig;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.Interceptor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PipelineTest {
+
+    @Test
+    public void compiledOncePerConfig() {
+        KalleConfig config = KalleConfig.newBuilder().build();
+        Pipeline pipeline = Pipeline.get(config);
+        assertSame(pipeline, Pipeline.get(config));
+        assertNotSame(pipeline, Pipeline.get(KalleConfig.newBuilder().build()));
+    }
+
+    @Test
+    public void connectInterceptorIsLast() {
+        Interceptor interceptor = RetryInterceptor.newBuilder().build();
+        KalleConfig config = KalleConfig.newBuilder().addInterceptor(interceptor).build();
+        Interceptor[] interceptors = Pipeline.get(config).interceptors();
+
+        assertEquals(2, interceptors.length);
+        assertSame(interceptor, interceptors[0]);
+        assertSame(Pipeline.get(config).connectInterceptor(), interceptors[1]);
+        assertTrue(Pipeline.get(config).isAsync());
+    }
+
+    @Test
+    public void blockingInterceptorMakesItBlocking() {
+        Interceptor blocking = new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                return chain.proceed(chain.request());
+            }
+        };
+        KalleConfig config = KalleConfig.newBuilder().addInterceptor(blocking).build();
+        assertFalse(Pipeline.get(config).isAsync());
+    }
+}
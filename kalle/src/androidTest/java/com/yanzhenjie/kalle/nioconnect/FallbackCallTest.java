@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.BodyRequest;
+import com.yanzhenjie.kalle.LocalServer;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.StringBody;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.UrlRequest;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.socketconnect.SocketConnectFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FallbackCallTest {
+
+    private LocalServer mServer;
+    private final SocketConnectFactory mFactory = SocketConnectFactory.newBuilder().build();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                LocalServer.Reply reply = new LocalServer.Reply().body(request.method + " " + new String(request.body));
+                return request.path.equals("/slow") ? reply.delay(3000) : reply;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void response() throws Exception {
+        // The length is set by the connect interceptor before the factory is called.
+        Request request = BodyRequest.newBuilder(Url.newBuilder(mServer.url("/")), RequestMethod.POST)
+                .setHeader(KEY_CONTENT_LENGTH, "5")
+                .body(new StringBody("hello"))
+                .build();
+        Callback callback = new Callback();
+        new FallbackCall(mFactory, request, callback).run();
+
+        assertEquals("[]", callback.mFailures.toString());
+        assertEquals(1, callback.mResponses.size());
+        Response response = callback.mResponses.get(0);
+        assertEquals(200, response.code());
+        assertEquals("POST hello", response.body().string());
+    }
+
+    @Test
+    public void cancelWhileWaiting() throws Exception {
+        Callback callback = new Callback();
+        final FallbackCall call = new FallbackCall(mFactory, get("/slow"), callback);
+        Thread thread = new Thread(call);
+        thread.start();
+        Thread.sleep(300);
+
+        long start = System.nanoTime();
+        call.cancel();
+        thread.join(2000);
+        assertFalse(thread.isAlive());
+        assertTrue(System.nanoTime() - start < 2000000000L);
+        assertTrue(call.isCancelled());
+        assertEquals(0, callback.mResponses.size());
+        assertEquals(1, callback.mFailures.size());
+        assertTrue(callback.mFailures.get(0) instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void cancelBeforeRun() throws Exception {
+        Callback callback = new Callback();
+        FallbackCall call = new FallbackCall(mFactory, get("/"), callback);
+        call.cancel();
+        call.run();
+
+        assertEquals(0, mServer.connectionCount());
+        assertEquals(0, callback.mResponses.size());
+        assertEquals(1, callback.mFailures.size());
+    }
+
+    private UrlRequest get(String path) {
+        return UrlRequest.newBuilder(Url.newBuilder(mServer.url(path)), RequestMethod.GET).build();
+    }
+
+    private static class Callback implements ConnectCallback {
+
+        private final List<Response> mResponses = new ArrayList<>();
+        private final List<IOException> mFailures = new ArrayList<>();
+
+        @Override
+        public synchronized void onResponse(Response response) {
+            mResponses.add(response);
+        }
+
+        @Override
+        public synchronized void onFailure(IOException e) {
+            mFailures.add(e);
+        }
+    }
+}
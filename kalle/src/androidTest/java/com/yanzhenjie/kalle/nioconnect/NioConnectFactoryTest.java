@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.BodyRequest;
+import com.yanzhenjie.kalle.LocalServer;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.StringBody;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.UrlRequest;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class NioConnectFactoryTest {
+
+    private LocalServer mServer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) mServer.close();
+    }
+
+    @Test
+    public void blockingConnectionIsKeptAlive() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body(request.path);
+            }
+        });
+        NioConnectFactory factory = NioConnectFactory.newBuilder().build();
+
+        assertEquals("/a", read(factory.connect(get("/a"))));
+        assertEquals("/b", read(factory.connect(get("/b"))));
+        assertEquals(1, mServer.connectionCount());
+    }
+
+    @Test
+    public void enqueueSendsTheBody() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().code(201).body(request.method + " " + new String(request.body));
+            }
+        });
+        NioConnectFactory factory = NioConnectFactory.newBuilder().build();
+        Request request = BodyRequest.newBuilder(Url.newBuilder(mServer.url("/")), RequestMethod.POST)
+                .body(new StringBody("hello"))
+                .build();
+
+        Result result = new Result();
+        factory.enqueue(request, result);
+        result.await();
+        assertEquals("POST hello", result.body());
+        assertEquals(201, result.mResponse.code());
+    }
+
+    @Test
+    public void exchangesWaitForTheConnectionsOfTheRoute() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body(request.path).delay(50);
+            }
+        });
+        NioConnectFactory factory = NioConnectFactory.newBuilder().ioThreads(1).maxConnectionsPerRoute(2).build();
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Result result = new Result();
+            factory.enqueue(get("/" + i), result);
+            results.add(result);
+        }
+        for (int i = 0; i < 10; i++) {
+            Result result = results.get(i);
+            result.await();
+            assertEquals("/" + i, result.body());
+        }
+        assertTrue(mServer.connectionCount() <= 2);
+    }
+
+    @Test
+    public void refusedConnectionFails() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        NioConnectFactory factory = NioConnectFactory.newBuilder().build();
+
+        Result result = new Result();
+        factory.enqueue(UrlRequest.newBuilder(Url.newBuilder("http://127.0.0.1:" + port + "/"), RequestMethod.GET).build(), result);
+        result.await();
+        assertNull(result.mResponse);
+        assertNotNull(result.mFailure);
+    }
+
+    @Test
+    public void tlsHandshakeFailureIsReported() throws Exception {
+        // The server does not speak TLS, the handshake fails instead of hanging.
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body("plain");
+            }
+        });
+        NioConnectFactory factory = NioConnectFactory.newBuilder().build();
+        String url = mServer.url("/").replace("http://", "https://");
+
+        Result result = new Result();
+        factory.enqueue(UrlRequest.newBuilder(Url.newBuilder(url), RequestMethod.GET).readTimeout(5, TimeUnit.SECONDS).build(), result);
+        result.await();
+        assertNull(result.mResponse);
+        assertNotNull(result.mFailure);
+    }
+
+    @Test
+    public void socksProxyFallsBack() throws Exception {
+        final List<Request> fallbackRequests = new ArrayList<>();
+        ConnectFactory fallback = new ConnectFactory() {
+            @Override
+            public Connection connect(Request request) throws IOException {
+                fallbackRequests.add(request);
+                throw new IOException("The fallback is not connected.");
+            }
+        };
+        NioConnectFactory factory = NioConnectFactory.newBuilder().fallback(fallback).build();
+        Proxy proxy = new Proxy(Proxy.Type.SOCKS, new InetSocketAddress("127.0.0.1", 1080));
+        Request request = UrlRequest.newBuilder(Url.newBuilder("http://fallback.example.com/"), RequestMethod.GET)
+                .proxy(proxy)
+                .build();
+
+        Result result = new Result();
+        factory.enqueue(request, result);
+        result.await();
+        assertNotNull(result.mFailure);
+        assertEquals(1, fallbackRequests.size());
+        assertEquals(request, fallbackRequests.get(0));
+    }
+
+    private UrlRequest get(String path) {
+        return UrlRequest.newBuilder(Url.newBuilder(mServer.url(path)), RequestMethod.GET).build();
+    }
+
+    private static String read(Connection connection) throws IOException {
+        try {
+            assertEquals(200, connection.getCode());
+            return IOUtils.toString(connection.getInputStream());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * The callback runs on the I/O thread, so the body is read by the test after {@link #await()}.
+     */
+    private static class Result implements ConnectCallback {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private Response mResponse;
+        private IOException mFailure;
+
+        @Override
+        public void onResponse(Response response) {
+            mResponse = response;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            mFailure = e;
+            mLatch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+        }
+
+        private String body() throws IOException {
+            assertNull(mFailure);
+            return mResponse.body().string();
+        }
+    }
+}
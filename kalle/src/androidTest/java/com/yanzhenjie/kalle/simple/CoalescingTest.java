@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.LocalServer;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.connect.http.ResponseFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class CoalescingTest {
+
+    private LocalServer mServer;
+    private final ConcurrentMap<String, AtomicInteger> mHits = new ConcurrentHashMap<>();
+    private final Coalescing mCoalescing = new Coalescing(new Hedging());
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                int hit = hits(request.path).incrementAndGet();
+                return new LocalServer.Reply().body(request.path + " " + hit).delay(500);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void identicalRequestsShareOneCall() throws Exception {
+        List<ResponseFuture> callers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            callers.add(enqueue(request("/shared").build()).mResult);
+        }
+
+        // Every caller reads its own response of the body.
+        for (ResponseFuture caller : callers) {
+            Response response = caller.await();
+            assertEquals(200, response.code());
+            assertEquals("/shared 1", response.body().string());
+        }
+        assertEquals(1, hits("/shared").get());
+
+        // The call is finished, the next request starts another one.
+        assertEquals("/shared 2", mCoalescing.execute(request("/shared").build()).body().string());
+    }
+
+    @Test
+    public void differentHeadersAreNotShared() throws Exception {
+        Caller first = enqueue(request("/headers").setHeader("Accept-Language", "en").build());
+        Caller second = enqueue(request("/headers").setHeader("Accept-Language", "fr").build());
+        first.mResult.await().close();
+        second.mResult.await().close();
+        assertEquals(2, hits("/headers").get());
+    }
+
+    @Test
+    public void callSurvivesUntilTheLastCallerCancels() throws Exception {
+        Caller first = enqueue(request("/cancel-one").build());
+        Caller second = enqueue(request("/cancel-one").build());
+        first.mCanceller.cancel();
+
+        assertFails(first.mResult);
+        assertEquals("/cancel-one 1", second.mResult.await().body().string());
+        assertEquals(1, hits("/cancel-one").get());
+    }
+
+    @Test
+    public void callIsCancelledWithTheLastCaller() throws Exception {
+        Caller first = enqueue(request("/cancel-all").build());
+        Caller second = enqueue(request("/cancel-all").build());
+        first.mCanceller.cancel();
+        second.mCanceller.cancel();
+        assertFails(first.mResult);
+        assertFails(second.mResult);
+
+        // The cancelled call is not joined, the next request starts another one.
+        Response response = mCoalescing.execute(request("/cancel-all").build());
+        assertEquals(200, response.code());
+        assertTrue(response.body().string().startsWith("/cancel-all "));
+    }
+
+    @Test
+    public void onlyReadsAreCoalesced() {
+        assertTrue(Coalescing.isCoalesced(request("/").build()));
+        assertFalse(Coalescing.isCoalesced(SimpleUrlRequest.newApi(Url.newBuilder(mServer.url("/")), RequestMethod.POST)
+                .coalesce()
+                .build()));
+        assertFalse(Coalescing.isCoalesced(SimpleUrlRequest.newApi(Url.newBuilder(mServer.url("/")), RequestMethod.GET)
+                .build()));
+    }
+
+    private Caller enqueue(SimpleUrlRequest request) {
+        ResponseFuture result = new ResponseFuture();
+        return new Caller(mCoalescing.enqueue(request, result), result);
+    }
+
+    private SimpleUrlRequest.Api request(String path) {
+        return SimpleUrlRequest.newApi(Url.newBuilder(mServer.url(path)), RequestMethod.GET).coalesce();
+    }
+
+    private AtomicInteger hits(String path) {
+        mHits.putIfAbsent(path, new AtomicInteger());
+        return mHits.get(path);
+    }
+
+    private static void assertFails(ResponseFuture future) {
+        try {
+            future.await();
+            fail("The caller received a response.");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static class Caller {
+
+        private final Canceller mCanceller;
+        private final ResponseFuture mResult;
+
+        private Caller(Canceller canceller, ResponseFuture result) {
+            this.mCanceller = canceller;
+            this.mResult = result;
+        }
+    }
+}
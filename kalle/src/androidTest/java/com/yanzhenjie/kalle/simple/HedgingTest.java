@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.LocalServer;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.Url;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HedgingTest {
+
+    private LocalServer mServer;
+    private final ConcurrentMap<String, AtomicInteger> mHits = new ConcurrentHashMap<>();
+    private final Hedging mHedging = new Hedging();
+
+    @Before
+    public void setUp() throws IOException {
+        // The first request of a slow path waits, the hedge of it is answered at once.
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                int hit = hits(request.path).incrementAndGet();
+                LocalServer.Reply reply = new LocalServer.Reply().body(Integer.toString(hit));
+                if (hit > 1) return reply;
+                if (request.path.startsWith("/slow")) return reply.delay(2000);
+                if (request.path.startsWith("/budget")) return reply.delay(300);
+                return reply;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        long start = System.nanoTime();
+        Response response = mHedging.execute(request("/slow").hedge(100, TimeUnit.MILLISECONDS).build());
+
+        assertEquals("2", response.body().string());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(2, hits("/slow").get());
+    }
+
+    @Test
+    public void fastRequestIsNotHedged() throws Exception {
+        Response response = mHedging.execute(request("/fast").hedge(500, TimeUnit.MILLISECONDS).build());
+
+        assertEquals("1", response.body().string());
+        Thread.sleep(700);
+        assertEquals(1, hits("/fast").get());
+    }
+
+    @Test
+    public void budgetLimitsTheHedges() throws Exception {
+        // The budget starts with 10 hedges, each request earns a tenth of one.
+        int hedged = 0;
+        for (int i = 0; i < 20; i++) {
+            String path = "/budget" + i;
+            mHedging.execute(request(path).hedge(10, TimeUnit.MILLISECONDS).build()).close();
+            if (hits(path).get() == 2) hedged++;
+        }
+        assertTrue("hedged " + hedged, hedged >= 10 && hedged <= 12);
+    }
+
+    @Test
+    public void adaptiveDelayWaitsForTheLatencies() throws Exception {
+        // Nothing is hedged until the p95 of the host is known from 20 responses.
+        for (int i = 0; i < 19; i++) {
+            mHedging.execute(request("/fast" + i).hedge().build()).close();
+        }
+        long start = System.nanoTime();
+        mHedging.execute(request("/slow-unknown").hedge().build()).close();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(2000));
+        assertEquals(1, hits("/slow-unknown").get());
+
+        start = System.nanoTime();
+        Response response = mHedging.execute(request("/slow-known").hedge().build());
+        assertEquals("2", response.body().string());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test
+    public void postIsNotHedged() {
+        assertFalse(Hedging.isHedged(SimpleUrlRequest.newApi(Url.newBuilder(mServer.url("/")), RequestMethod.POST)
+                .hedge(10, TimeUnit.MILLISECONDS)
+                .build()));
+    }
+
+    private SimpleUrlRequest.Api request(String path) {
+        return SimpleUrlRequest.newApi(Url.newBuilder(mServer.url(path)), RequestMethod.GET);
+    }
+
+    private AtomicInteger hits(String path) {
+        mHits.putIfAbsent(path, new AtomicInteger());
+        return mHits.get(path);
+    }
+}
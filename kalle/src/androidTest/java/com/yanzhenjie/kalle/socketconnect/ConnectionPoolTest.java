@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.LocalServer;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.UrlRequest;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ConnectionPoolTest {
+
+    private LocalServer mServer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) mServer.close();
+    }
+
+    @Test
+    public void keepAlive() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body(request.path);
+            }
+        });
+        ConnectionPool pool = new ConnectionPool();
+        SocketConnectFactory factory = SocketConnectFactory.newBuilder().connectionPool(pool).build();
+
+        assertEquals("/a", get(factory, "/a"));
+        assertEquals(1, pool.idleConnectionCount());
+        assertEquals("/b", get(factory, "/b"));
+        assertEquals(1, pool.idleConnectionCount());
+        assertEquals(1, mServer.connectionCount());
+    }
+
+    @Test
+    public void expiredConnectionIsEvicted() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body("ok");
+            }
+        });
+        ConnectionPool pool = new ConnectionPool(5, 100, TimeUnit.MILLISECONDS);
+        SocketConnectFactory factory = SocketConnectFactory.newBuilder().connectionPool(pool).build();
+
+        get(factory, "/");
+        assertEquals(1, pool.idleConnectionCount());
+        Thread.sleep(500);
+        assertEquals(0, pool.idleConnectionCount());
+
+        get(factory, "/");
+        assertEquals(2, mServer.connectionCount());
+    }
+
+    @Test
+    public void idleConnectionsAreBounded() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                return new LocalServer.Reply().body("ok");
+            }
+        });
+        ConnectionPool pool = new ConnectionPool(1, 1, TimeUnit.MINUTES);
+        SocketConnectFactory factory = SocketConnectFactory.newBuilder().connectionPool(pool).build();
+
+        Connection first = factory.connect(request("/"));
+        Connection second = factory.connect(request("/"));
+        read(first);
+        read(second);
+        assertEquals(2, mServer.connectionCount());
+        assertEquals(1, pool.idleConnectionCount());
+    }
+
+    @Test
+    public void staleConnectionIsReplaced() throws Exception {
+        mServer = new LocalServer(new LocalServer.Handler() {
+            @Override
+            public LocalServer.Reply reply(LocalServer.Recorded request) {
+                LocalServer.Reply reply = new LocalServer.Reply().body(request.path);
+                // The first connection is closed after its response, the client does not know it.
+                return request.connection == 1 ? reply.close() : reply;
+            }
+        });
+        ConnectionPool pool = new ConnectionPool();
+        SocketConnectFactory factory = SocketConnectFactory.newBuilder().connectionPool(pool).build();
+
+        assertEquals("/a", get(factory, "/a"));
+        assertEquals(1, pool.idleConnectionCount());
+        assertEquals("/b", get(factory, "/b"));
+
+        List<LocalServer.Recorded> requests = mServer.requests();
+        assertEquals(2, requests.size());
+        assertEquals(2, requests.get(1).connection);
+    }
+
+    private String get(SocketConnectFactory factory, String path) throws IOException {
+        return read(factory.connect(request(path)));
+    }
+
+    private UrlRequest request(String path) {
+        return UrlRequest.newBuilder(Url.newBuilder(mServer.url(path)), RequestMethod.GET).build();
+    }
+
+    private static String read(Connection connection) throws IOException {
+        try {
+            assertEquals(200, connection.getCode());
+            return IOUtils.toString(connection.getInputStream());
+        } finally {
+            connection.close();
+        }
+    }
+}
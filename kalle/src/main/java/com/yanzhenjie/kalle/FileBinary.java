@@ -21,9 +21,7 @@ import android.webkit.MimeTypeMap;
 import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -63,8 +61,6 @@ public class FileBinary extends BasicOutData<FileBinary> implements Binary {
 
     @Override
     protected void onWrite(OutputStream writer) throws IOException {
-        InputStream stream = new FileInputStream(mFile);
-        IOUtils.write(stream, writer);
-        IOUtils.closeQuietly(stream);
+        IOUtils.write(mFile, writer);
     }
 }
@@ -21,9 +21,7 @@ import android.webkit.MimeTypeMap;
 import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -54,8 +52,6 @@ public class FileBody extends BasicOutData<FileBody> implements RequestBody {
 
     @Override
     protected void onWrite(OutputStream writer) throws IOException {
-        InputStream reader = new FileInputStream(mFile);
-        IOUtils.write(reader, writer);
-        IOUtils.closeQuietly(reader);
+        IOUtils.write(mFile, writer);
     }
 }
\ No newline at end of file
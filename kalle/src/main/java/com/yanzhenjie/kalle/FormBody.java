@@ -17,14 +17,12 @@ package com.yanzhenjie.kalle;
 
 import android.text.TextUtils;
 
-import com.yanzhenjie.kalle.util.IOUtils;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_FORM;
 
@@ -43,11 +41,33 @@ public class FormBody extends BasicOutData<FormBody> implements RequestBody {
 
     private String mBoundary;
 
+    /**
+     * The layout of the parts, the encoded blocks are between the binaries, so there is one more block.
+     */
+    private final byte[][] mBlocks;
+    private final Binary[] mBinaries;
+
     private FormBody(Builder builder) {
         this.mCharset = builder.mCharset == null ? Kalle.getConfig().getCharset() : builder.mCharset;
         this.mContentType = TextUtils.isEmpty(builder.mContentType) ? VALUE_APPLICATION_FORM : builder.mContentType;
         this.mParams = builder.mParams.build();
         this.mBoundary = createBoundary();
+
+        List<byte[]> blocks = new ArrayList<>();
+        List<Binary> binaries = new ArrayList<>();
+        layout(blocks, binaries);
+        this.mBlocks = blocks.toArray(new byte[blocks.size()][]);
+        this.mBinaries = binaries.toArray(new Binary[binaries.size()]);
+    }
+
+    /**
+     * Does it contain {@link FileBinary}.
+     */
+    public boolean hasFile() {
+        for (Binary binary : mBinaries) {
+            if (binary instanceof FileBinary) return true;
+        }
+        return false;
     }
 
     /**
@@ -57,14 +77,47 @@ public class FormBody extends BasicOutData<FormBody> implements RequestBody {
         return mParams;
     }
 
+    /**
+     * Encode the boundaries, the headers and the strings once,
+     * the consecutive strings and the headers of the next binary share one block.
+     */
+    private void layout(List<byte[]> blocks, List<Binary> binaries) {
+        StringBuilder block = new StringBuilder();
+        for (int i = 0; i < mParams.size(); i++) {
+            String key = mParams.keyAt(i);
+            Object value = mParams.valueAt(i);
+            if (value instanceof String) {
+                block.append("--").append(mBoundary).append("\r\n");
+                block.append("Content-Disposition: form-data; name=\"").append(key).append("\"\r\n\r\n");
+                block.append((String) value);
+            } else if (value instanceof Binary) {
+                Binary binary = (Binary) value;
+                block.append("--").append(mBoundary).append("\r\n");
+                block.append("Content-Disposition: form-data; name=\"").append(key);
+                block.append("\"; filename=\"").append(binary.name()).append("\"\r\n");
+                block.append("Content-Type: ").append(binary.contentType()).append("\r\n\r\n");
+                blocks.add(block.toString().getBytes(mCharset));
+                binaries.add(binary);
+                block.setLength(0);
+            }
+            block.append("\r\n");
+        }
+        block.append("--").append(mBoundary).append("--");
+        blocks.add(block.toString().getBytes(mCharset));
+    }
+
     @Override
     public long length() {
-        CounterStream stream = new CounterStream();
-        try {
-            onWrite(stream);
-        } catch (IOException ignored) {
+        long length = 0;
+        for (byte[] block : mBlocks) {
+            length += block.length;
+        }
+        for (Binary binary : mBinaries) {
+            long binaryLength = binary.length();
+            if (binaryLength < 0) return -1;
+            length += binaryLength;
         }
-        return stream.getLength();
+        return length;
     }
 
     @Override
@@ -74,42 +127,11 @@ public class FormBody extends BasicOutData<FormBody> implements RequestBody {
 
     @Override
     protected void onWrite(OutputStream writer) throws IOException {
-        Set<String> keys = mParams.keySet();
-        for (String key : keys) {
-            List<Object> values = mParams.get(key);
-            for (Object value : values) {
-                if (value instanceof String) {
-                    writeFormString(writer, key, (String) value);
-                } else if (value instanceof Binary) {
-                    writeFormBinary(writer, key, (Binary) value);
-                }
-                IOUtils.write(writer, "\r\n", mCharset);
-            }
-        }
-        IOUtils.write(writer, "--" + mBoundary + "--", mCharset);
-    }
-
-    private void writeFormString(OutputStream writer, String key, String value) throws IOException {
-        IOUtils.write(writer, "--" + mBoundary + "\r\n", mCharset);
-        IOUtils.write(writer, "Content-Disposition: form-data; name=\"", mCharset);
-        IOUtils.write(writer, key, mCharset);
-        IOUtils.write(writer, "\"\r\n\r\n", mCharset);
-        IOUtils.write(writer, value, mCharset);
-    }
-
-    private void writeFormBinary(OutputStream writer, String key, Binary value) throws IOException {
-        IOUtils.write(writer, "--" + mBoundary + "\r\n", mCharset);
-        IOUtils.write(writer, "Content-Disposition: form-data; name=\"", mCharset);
-        IOUtils.write(writer, key, mCharset);
-        IOUtils.write(writer, "\"; filename=\"", mCharset);
-        IOUtils.write(writer, value.name(), mCharset);
-        IOUtils.write(writer, "\"\r\n", mCharset);
-        IOUtils.write(writer, "Content-Type: " + value.contentType() + "\r\n\r\n", mCharset);
-        if (writer instanceof CounterStream) {
-            ((CounterStream) writer).write(value.length());
-        } else {
-            value.writeTo(writer);
+        for (int i = 0; i < mBinaries.length; i++) {
+            writer.write(mBlocks[i]);
+            mBinaries[i].writeTo(writer);
         }
+        writer.write(mBlocks[mBinaries.length]);
     }
 
     private static String createBoundary() {
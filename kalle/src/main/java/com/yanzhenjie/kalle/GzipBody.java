@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Compress another body with gzip when it reaches the threshold, the server must accept the gzip requests.
+ * The compressed length is unknown until the data is written, so a compressed body is always sent in chunks.
+ * </p>
+ */
+public class GzipBody extends BasicOutData<GzipBody> implements RequestBody {
+
+    /**
+     * The smaller bodies are not worth compressing.
+     */
+    public static final long DEFAULT_THRESHOLD = 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final RequestBody mBody;
+    private final long mThreshold;
+
+    private boolean mMeasured;
+    private long mBodyLength;
+
+    public GzipBody(RequestBody body) {
+        this(body, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param body      the body to be compressed.
+     * @param threshold the body shorter than it is sent as it is.
+     */
+    public GzipBody(RequestBody body, long threshold) {
+        this.mBody = body;
+        this.mThreshold = threshold;
+    }
+
+    /**
+     * Whether the body is compressed, then the request has the {@code Content-Encoding: gzip}.
+     */
+    public boolean isCompressed() {
+        if (!mMeasured) {
+            mBodyLength = mBody.length();
+            mMeasured = true;
+        }
+        return mBodyLength < 0 || mBodyLength >= mThreshold;
+    }
+
+    /**
+     * @return the length of the body which is not compressed, -1 if the body is compressed.
+     */
+    @Override
+    public long length() {
+        return isCompressed() ? -1 : mBodyLength;
+    }
+
+    @Override
+    public String contentType() {
+        return mBody.contentType();
+    }
+
+    @Override
+    protected void onWrite(OutputStream writer) throws IOException {
+        if (isCompressed()) compress(writer);
+        else mBody.writeTo(writer);
+    }
+
+    private void compress(OutputStream writer) throws IOException {
+        CompressStream stream = new CompressStream(writer);
+        try {
+            mBody.writeTo(stream);
+            stream.finish();
+            writer.flush();
+        } finally {
+            stream.release();
+        }
+    }
+
+    /**
+     * The native deflater is released without closing the writer, which is left to the caller.
+     */
+    private static class CompressStream extends GZIPOutputStream {
+
+        private CompressStream(OutputStream writer) throws IOException {
+            super(writer, BUFFER_SIZE);
+        }
+
+        private void release() {
+            def.end();
+        }
+    }
+}
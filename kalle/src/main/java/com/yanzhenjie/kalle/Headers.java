@@ -18,6 +18,7 @@ package com.yanzhenjie.kalle;
 import android.os.Build;
 import android.text.TextUtils;
 
+import com.yanzhenjie.kalle.util.HttpDate;
 import com.yanzhenjie.kalle.util.ListMap;
 
 import org.json.JSONArray;
@@ -26,11 +27,10 @@ import org.json.JSONObject;
 
 import java.net.HttpCookie;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.TreeMap;
 
 /**
@@ -62,6 +63,7 @@ public class Headers extends ListMap<String, String> {
     public static final String KEY_COOKIE = "Cookie";
     public static final String KEY_CONTENT_DISPOSITION = "Content-Disposition";
     public static final String KEY_CONTENT_ENCODING = "Content-Encoding";
+    public static final String VALUE_GZIP = "gzip";
     public static final String KEY_CONTENT_LENGTH = "Content-Length";
     public static final String KEY_CONTENT_RANGE = "Content-Range";
     public static final String KEY_CONTENT_TYPE = "Content-Type";
@@ -83,7 +85,10 @@ public class Headers extends ListMap<String, String> {
     public static final String KEY_LAST_MODIFIED = "Last-Modified";
     public static final String KEY_LOCATION = "Location";
     public static final String KEY_RANGE = "Range";
+    public static final String KEY_RETRY_AFTER = "Retry-After";
     public static final String KEY_SET_COOKIE = "Set-Cookie";
+    public static final String KEY_TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String VALUE_CHUNKED = "chunked";
     public static final String KEY_USER_AGENT = "User-Agent";
     public static final String VALUE_USER_AGENT = getUserAgent();
 
@@ -199,6 +204,14 @@ public class Headers extends ListMap<String, String> {
         return Long.parseLong(contentLength);
     }
 
+    /**
+     * {@value #KEY_TRANSFER_ENCODING}, whether the body is sent in chunks without a length.
+     */
+    public boolean isChunked() {
+        String transferEncoding = getFirst(KEY_TRANSFER_ENCODING);
+        return transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains(VALUE_CHUNKED);
+    }
+
     /**
      * {@value #KEY_CONTENT_TYPE}.
      *
@@ -262,6 +275,27 @@ public class Headers extends ListMap<String, String> {
         return getFirst(KEY_LOCATION);
     }
 
+    /**
+     * {@value #KEY_RETRY_AFTER}, it is the seconds or the date.
+     *
+     * @return the milliseconds to wait from now, -1 if there is no valid value.
+     */
+    public long getRetryAfter() {
+        String value = getFirst(KEY_RETRY_AFTER);
+        if (TextUtils.isEmpty(value)) return -1;
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return Math.max(0, formatGMTToMillis(value) - System.currentTimeMillis());
+        } catch (ParseException ignored) {
+        }
+        return -1;
+    }
+
     /**
      * <p>
      * Returns the date value in milliseconds since 1970.1.1, 00:00h corresponding to the header field field. The
@@ -282,24 +316,60 @@ public class Headers extends ListMap<String, String> {
     }
 
     /**
-     * Format to Hump-shaped words.
+     * The well-known keys by length, a key matching one of them in any case is formatted to the constant.
+     */
+    private static final String[][] KNOWN_KEYS = knownKeys(KEY_ACCEPT, KEY_ACCEPT_ENCODING, KEY_ACCEPT_LANGUAGE,
+            KEY_ACCEPT_RANGE, KEY_COOKIE, KEY_CONTENT_DISPOSITION, KEY_CONTENT_ENCODING, KEY_CONTENT_LENGTH,
+            KEY_CONTENT_RANGE, KEY_CONTENT_TYPE, KEY_CACHE_CONTROL, KEY_CONNECTION, KEY_DATE, KEY_EXPIRES, KEY_E_TAG,
+            KEY_HOST, KEY_IF_MODIFIED_SINCE, KEY_IF_NONE_MATCH, KEY_LAST_MODIFIED, KEY_LOCATION, KEY_RANGE,
+            KEY_RETRY_AFTER, KEY_SET_COOKIE, KEY_TRANSFER_ENCODING, KEY_USER_AGENT);
+
+    private static String[][] knownKeys(String... keys) {
+        int maxLength = 0;
+        for (String key : keys) {
+            maxLength = Math.max(maxLength, key.length());
+        }
+        String[][] table = new String[maxLength + 1][0];
+        for (String key : keys) {
+            String[] bucket = table[key.length()];
+            String[] newBucket = Arrays.copyOf(bucket, bucket.length + 1);
+            newBucket[bucket.length] = key;
+            table[key.length()] = newBucket;
+        }
+        return table;
+    }
+
+    /**
+     * Format to Hump-shaped words, the well-known keys and the formatted keys are returned without allocating.
      */
     public static String formatKey(String key) {
         if (TextUtils.isEmpty(key)) return null;
 
-        key = key.toLowerCase(Locale.ENGLISH);
-        String[] words = key.split("-");
-
-        StringBuilder builder = new StringBuilder();
-        for (String word : words) {
-            String first = word.substring(0, 1);
-            String end = word.substring(1, word.length());
-            builder.append(first.toUpperCase(Locale.ENGLISH)).append(end).append("-");
+        int length = key.length();
+        if (length < KNOWN_KEYS.length) {
+            for (String knownKey : KNOWN_KEYS[length]) {
+                if (knownKey.regionMatches(true, 0, key, 0, length)) return knownKey;
+            }
         }
-        if (builder.length() > 0) {
-            builder.deleteCharAt(builder.lastIndexOf("-"));
+
+        boolean wordStart = true;
+        char[] chars = null;
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            char formatted = wordStart ? toUpperCase(c) : toLowerCase(c);
+            if (formatted != c && chars == null) chars = key.toCharArray();
+            if (chars != null) chars[i] = formatted;
+            wordStart = c == '-';
         }
-        return builder.toString();
+        return chars == null ? key : new String(chars);
+    }
+
+    private static char toUpperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
     }
 
     /**
@@ -398,20 +468,14 @@ public class Headers extends ListMap<String, String> {
      * Parse the time in GMT format to milliseconds.
      */
     public static long formatGMTToMillis(String gmtTime) throws ParseException {
-        SimpleDateFormat formatter = new SimpleDateFormat(TIME_FORMAT_HTTP, Locale.US);
-        formatter.setTimeZone(TIME_ZONE_GMT);
-        Date date = formatter.parse(gmtTime);
-        return date.getTime();
+        return HttpDate.parse(gmtTime);
     }
 
     /**
      * Parse the time in milliseconds to GMT format.
      */
     public static String formatMillisToGMT(long milliseconds) {
-        Date date = new Date(milliseconds);
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(TIME_FORMAT_HTTP, Locale.US);
-        simpleDateFormat.setTimeZone(TIME_ZONE_GMT);
-        return simpleDateFormat.format(date);
+        return HttpDate.format(milliseconds);
     }
 
     /**
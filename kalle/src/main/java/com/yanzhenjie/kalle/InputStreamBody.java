@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_STREAM;
+
+/**
+ * <p>
+ * Send the data of a stream, the stream is closed after it is written.
+ * </p>
+ */
+public class InputStreamBody extends OneShotBody<InputStreamBody> {
+
+    private final InputStream mStream;
+
+    public InputStreamBody(InputStream stream) {
+        this(stream, -1, VALUE_APPLICATION_STREAM);
+    }
+
+    public InputStreamBody(InputStream stream, String contentType) {
+        this(stream, -1, contentType);
+    }
+
+    /**
+     * @param stream      the data.
+     * @param length      the length of the data, -1 if it is unknown.
+     * @param contentType the content type of the data.
+     */
+    public InputStreamBody(InputStream stream, long length, String contentType) {
+        super(length, contentType);
+        this.mStream = stream;
+    }
+
+    @Override
+    protected void onWriteOnce(OutputStream writer) throws IOException {
+        try {
+            IOUtils.write(mStream, writer);
+        } finally {
+            IOUtils.closeQuietly(mStream);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * <p>
+ * Serialize an object to json for {@link JsonStreamBody}, such as a streaming writer of Gson or Jackson.
+ * </p>
+ */
+public interface JsonSerializer {
+
+    /**
+     * Default serializer, writes the {@link Object#toString()} of the object,
+     * such as {@link org.json.JSONObject} and {@link org.json.JSONArray}.
+     * The string is encoded as it is written, but the string itself is held in memory.
+     */
+    JsonSerializer DEFAULT = new JsonSerializer() {
+        @Override
+        public void serialize(Object value, OutputStream output) throws IOException {
+            Writer writer = new OutputStreamWriter(output, "UTF-8");
+            writer.write(String.valueOf(value));
+            writer.flush();
+        }
+    };
+
+    /**
+     * Write the json of the object.
+     *
+     * @param value  the object.
+     * @param output the body of the request, the json is written in UTF-8, do not close it.
+     * @throws IOException the object can not be serialized or written.
+     */
+    void serialize(Object value, OutputStream output) throws IOException;
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_JSON;
+
+/**
+ * <p>
+ * The object is serialized straight to the connection, with a streaming {@link JsonSerializer}
+ * the json is never held in memory, the {@link JsonSerializer#DEFAULT} holds the string of the object.
+ * By default the length is unknown and the body is sent in chunks,
+ * or the object is serialized once more to count the length for the servers do not accept chunks.
+ * </p>
+ */
+public class JsonStreamBody extends BasicOutData<JsonStreamBody> implements RequestBody {
+
+    private final Object mValue;
+    private final JsonSerializer mSerializer;
+    private final boolean mCountLength;
+
+    private long mLength = -1;
+
+    public JsonStreamBody(Object value) {
+        this(value, Kalle.getConfig().getJsonSerializer());
+    }
+
+    public JsonStreamBody(Object value, JsonSerializer serializer) {
+        this(value, serializer, false);
+    }
+
+    /**
+     * @param value       the object.
+     * @param serializer  serialize the object.
+     * @param countLength count the length before sending, the object is serialized twice.
+     */
+    public JsonStreamBody(Object value, JsonSerializer serializer, boolean countLength) {
+        this.mValue = value;
+        this.mSerializer = serializer;
+        this.mCountLength = countLength;
+    }
+
+    @Override
+    public long length() {
+        if (!mCountLength) return -1;
+        if (mLength < 0) {
+            CounterStream stream = new CounterStream();
+            try {
+                mSerializer.serialize(mValue, stream);
+                mLength = stream.getLength();
+            } catch (IOException ignored) {
+                // The failure is thrown when the body is written.
+            }
+        }
+        return mLength;
+    }
+
+    @Override
+    public String contentType() {
+        return VALUE_APPLICATION_JSON;
+    }
+
+    @Override
+    protected void onWrite(OutputStream writer) throws IOException {
+        mSerializer.serialize(mValue, writer);
+    }
+}
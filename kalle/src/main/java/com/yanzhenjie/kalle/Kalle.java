@@ -24,6 +24,9 @@ import com.yanzhenjie.kalle.simple.RequestManager;
 import com.yanzhenjie.kalle.simple.SimpleBodyRequest;
 import com.yanzhenjie.kalle.simple.SimpleUrlRequest;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * <p>
  * Kalle.
@@ -52,6 +55,24 @@ public final class Kalle {
         return sConfig;
     }
 
+    /**
+     * Prepare the client in the background: build the config, initialize the SSL, start the work threads,
+     * resolve the hosts of the urls and open the connections if the {@link com.yanzhenjie.kalle.connect.ConnectFactory}
+     * keeps them alive.
+     *
+     * @param urls the origins the first requests go to, such as {@code https://api.example.com}.
+     */
+    public static void warmUp(String... urls) {
+        warmUp(Arrays.asList(urls));
+    }
+
+    /**
+     * @see #warmUp(String...)
+     */
+    public static void warmUp(List<String> urls) {
+        new WarmUp(urls).start();
+    }
+
     public static SimpleUrlRequest.Api get(String url) {
         return SimpleUrlRequest.newApi(Url.newBuilder(url), RequestMethod.GET);
     }
@@ -15,7 +15,11 @@
  */
 package com.yanzhenjie.kalle;
 
+import com.yanzhenjie.kalle.connect.CacheDns;
 import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.ContentDecoder;
+import com.yanzhenjie.kalle.connect.ContentDecoders;
+import com.yanzhenjie.kalle.connect.Dns;
 import com.yanzhenjie.kalle.connect.Interceptor;
 import com.yanzhenjie.kalle.connect.Network;
 import com.yanzhenjie.kalle.cookie.CookieStore;
@@ -75,11 +79,14 @@ public final class KalleConfig {
     private final CacheStore mCacheStore;
 
     private final Network mNetwork;
+    private final Dns mDns;
+    private final ContentDecoders mContentDecoders;
     private final ConnectFactory mConnectFactory;
     private final CookieStore mCookieStore;
     private final List<Interceptor> mInterceptors;
 
     private final Converter mConverter;
+    private final JsonSerializer mJsonSerializer;
 
     private KalleConfig(Builder builder) {
         this.mWorkExecutor = builder.mWorkExecutor == null ? new WorkExecutor() : builder.mWorkExecutor;
@@ -97,11 +104,18 @@ public final class KalleConfig {
         this.mCacheStore = builder.mCacheStore == null ? CacheStore.DEFAULT : builder.mCacheStore;
 
         this.mNetwork = builder.mNetwork == null ? Network.DEFAULT : builder.mNetwork;
+        this.mDns = builder.mDns == null ? CacheDns.newBuilder().build() : builder.mDns;
+        this.mContentDecoders = new ContentDecoders(builder.mContentDecoders);
+        // The default Accept-Encoding advertises the decoders, including the added ones.
+        if (VALUE_ACCEPT_ENCODING.equals(mHeaders.getFirst(KEY_ACCEPT_ENCODING))) {
+            mHeaders.set(KEY_ACCEPT_ENCODING, mContentDecoders.acceptEncoding());
+        }
         this.mConnectFactory = builder.mConnectFactory == null ? URLConnectionFactory.newBuilder().build() : builder.mConnectFactory;
         this.mCookieStore = builder.mCookieStore == null ? CookieStore.DEFAULT : builder.mCookieStore;
         this.mInterceptors = Collections.unmodifiableList(builder.mInterceptors);
 
         this.mConverter = builder.mConverter == null ? Converter.DEFAULT : builder.mConverter;
+        this.mJsonSerializer = builder.mJsonSerializer == null ? JsonSerializer.DEFAULT : builder.mJsonSerializer;
     }
 
     public Executor getWorkExecutor() {
@@ -152,6 +166,14 @@ public final class KalleConfig {
         return mNetwork;
     }
 
+    public Dns getDns() {
+        return mDns;
+    }
+
+    public ContentDecoders getContentDecoders() {
+        return mContentDecoders;
+    }
+
     public ConnectFactory getConnectFactory() {
         return mConnectFactory;
     }
@@ -168,6 +190,10 @@ public final class KalleConfig {
         return mConverter;
     }
 
+    public JsonSerializer getJsonSerializer() {
+        return mJsonSerializer;
+    }
+
     public final static class Builder {
 
         private Executor mWorkExecutor;
@@ -185,16 +211,22 @@ public final class KalleConfig {
         private CacheStore mCacheStore;
 
         private Network mNetwork;
+        private Dns mDns;
+        private List<ContentDecoder> mContentDecoders;
         private ConnectFactory mConnectFactory;
         private CookieStore mCookieStore;
         private List<Interceptor> mInterceptors;
 
         private Converter mConverter;
+        private JsonSerializer mJsonSerializer;
 
         private Builder() {
             this.mHeaders = new Headers();
             this.mParams = Params.newBuilder();
             this.mInterceptors = new ArrayList<>();
+            this.mContentDecoders = new ArrayList<>();
+            mContentDecoders.add(ContentDecoder.GZIP);
+            mContentDecoders.add(ContentDecoder.DEFLATE);
 
             mHeaders.set(KEY_ACCEPT, VALUE_ACCEPT_ALL);
             mHeaders.set(KEY_ACCEPT_ENCODING, VALUE_ACCEPT_ENCODING);
@@ -310,6 +342,22 @@ public final class KalleConfig {
             return this;
         }
 
+        /**
+         * Global dns, the default is a {@link CacheDns}.
+         */
+        public Builder dns(Dns dns) {
+            this.mDns = dns;
+            return this;
+        }
+
+        /**
+         * Add the decoder of a content coding such as br, the gzip and deflate are supported by default.
+         */
+        public Builder addContentDecoder(ContentDecoder decoder) {
+            mContentDecoders.add(decoder);
+            return this;
+        }
+
         /**
          * Global cookie store.
          */
@@ -350,6 +398,14 @@ public final class KalleConfig {
             return this;
         }
 
+        /**
+         * The serializer of {@link JsonStreamBody}.
+         */
+        public Builder jsonSerializer(JsonSerializer serializer) {
+            this.mJsonSerializer = serializer;
+            return this;
+        }
+
         public KalleConfig build() {
             return new KalleConfig(this);
         }
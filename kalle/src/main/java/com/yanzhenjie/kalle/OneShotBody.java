@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * The body reads its data from a source while it is written, so it can be written only once,
+ * a request with it can not be retried or redirected with the body.
+ * When the length is unknown, the body is sent in chunks.
+ * </p>
+ */
+public abstract class OneShotBody<T extends OneShotBody<T>> extends BasicOutData<T> implements RequestBody {
+
+    private final long mLength;
+    private final String mContentType;
+    private final AtomicBoolean mWritten = new AtomicBoolean();
+
+    /**
+     * @param length      the length of the data, -1 if it is unknown.
+     * @param contentType the content type of the data.
+     */
+    protected OneShotBody(long length, String contentType) {
+        this.mLength = length;
+        this.mContentType = contentType;
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public String contentType() {
+        return mContentType;
+    }
+
+    @Override
+    protected final void onWrite(OutputStream writer) throws IOException {
+        if (!mWritten.compareAndSet(false, true)) throw new IOException("The body can only be written once.");
+        onWriteOnce(writer);
+    }
+
+    /**
+     * Write the data from the source.
+     */
+    protected abstract void onWriteOnce(OutputStream writer) throws IOException;
+}
@@ -24,7 +24,7 @@ import java.io.OutputStream;
 public interface OutData {
 
     /**
-     * Returns the size of the data.
+     * Returns the size of the data, -1 if it is unknown until the data is written, then it is sent in chunks.
      */
     long length();
 
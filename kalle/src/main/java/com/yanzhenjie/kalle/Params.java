@@ -15,11 +15,13 @@
  */
 package com.yanzhenjie.kalle;
 
-import android.net.Uri;
 import android.text.TextUtils;
 
+import com.yanzhenjie.kalle.util.UrlUtils;
+
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,6 +29,10 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+ * <p>
+ * The parameters are kept in flat arrays, the values of a key are grouped in the order of the first addition.
+ * The parameters are immutable, the encoded query is created once.
+ * </p>
  * Created by YanZhenjie on 2018/2/23.
  */
 public class Params {
@@ -35,10 +41,57 @@ public class Params {
         return new Builder();
     }
 
-    private final Map<String, List<Object>> mMap;
+    private final String[] mKeys;
+    private final Object[] mValues;
+
+    private volatile Map<String, List<Object>> mMap;
+    private volatile String mQuery;
 
     private Params(Builder builder) {
-        this.mMap = builder.mMap;
+        int size = builder.mSize;
+        this.mKeys = new String[size];
+        this.mValues = new Object[size];
+
+        // Group the values by the keys, stable, the hashes of the strings are cached.
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = builder.mKeys[i].hashCode();
+        }
+        boolean[] copied = new boolean[size];
+        int index = 0;
+        for (int i = 0; i < size; i++) {
+            if (copied[i]) continue;
+            String key = builder.mKeys[i];
+            for (int j = i; j < size; j++) {
+                if (!copied[j] && hashes[j] == hashes[i] && key.equals(builder.mKeys[j])) {
+                    mKeys[index] = key;
+                    mValues[index] = builder.mValues[j];
+                    copied[j] = true;
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the count of the parameters, a key with several values is counted several times.
+     */
+    public int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * Get the key of the parameter at the index.
+     */
+    public String keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Get the value of the parameter at the index, a {@link CharSequence} or a {@link Binary}.
+     */
+    public Object valueAt(int index) {
+        return mValues[index];
     }
 
     /**
@@ -48,9 +101,7 @@ public class Params {
      * @return if the key does not exist, it may be null.
      */
     public List<Object> get(String key) {
-        List<Object> valueList = mMap.get(key);
-        if (valueList == null) return null;
-        return Collections.unmodifiableList(valueList);
+        return toMap().get(key);
     }
 
     /**
@@ -60,9 +111,9 @@ public class Params {
      * @return if the key does not exist, it may be null.
      */
     public Object getFirst(String key) {
-        List<Object> values = mMap.get(key);
-        if (values != null && values.size() > 0)
-            return values.get(0);
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i].equals(key)) return mValues[i];
+        }
         return null;
     }
 
@@ -73,7 +124,7 @@ public class Params {
      * @see Map#entrySet()
      */
     public Set<Map.Entry<String, List<Object>>> entrySet() {
-        return Collections.unmodifiableSet(mMap.entrySet());
+        return toMap().entrySet();
     }
 
     /**
@@ -83,7 +134,7 @@ public class Params {
      * @see Map#keySet()
      */
     public Set<String> keySet() {
-        return Collections.unmodifiableSet(mMap.keySet());
+        return toMap().keySet();
     }
 
     /**
@@ -93,7 +144,7 @@ public class Params {
      * @see Map#isEmpty()
      */
     public boolean isEmpty() {
-        return mMap.isEmpty();
+        return mKeys.length == 0;
     }
 
     /**
@@ -103,18 +154,18 @@ public class Params {
      * @return true if there contains the key.
      */
     public boolean containsKey(String key) {
-        return mMap.containsKey(key);
+        for (String k : mKeys) {
+            if (k.equals(key)) return true;
+        }
+        return false;
     }
 
     /**
      * Does it contain {@link Binary}.
      */
     public boolean hasBinary() {
-        for (Map.Entry<String, List<Object>> entry : entrySet()) {
-            List<Object> values = entry.getValue();
-            if (values.size() > 0) {
-                for (Object value : values) if (value instanceof Binary) return true;
-            }
+        for (Object value : mValues) {
+            if (value instanceof Binary) return true;
         }
         return false;
     }
@@ -137,42 +188,70 @@ public class Params {
      * ReBuilder.
      */
     public Builder builder() {
-        Map<String, List<Object>> map = new LinkedHashMap<>();
-        for (Map.Entry<String, List<Object>> entry : mMap.entrySet()) {
-            List<Object> valueList = new ArrayList<>();
-            valueList.addAll(entry.getValue());
-            map.put(entry.getKey(), valueList);
+        return new Builder(this);
+    }
+
+    /**
+     * The map view is only created when it is asked for.
+     */
+    private Map<String, List<Object>> toMap() {
+        Map<String, List<Object>> map = mMap;
+        if (map == null) {
+            Map<String, List<Object>> grouped = new LinkedHashMap<>();
+            for (int i = 0; i < mKeys.length; i++) {
+                List<Object> values = grouped.get(mKeys[i]);
+                if (values == null) {
+                    values = new ArrayList<>(1);
+                    grouped.put(mKeys[i], values);
+                }
+                values.add(mValues[i]);
+            }
+            for (Map.Entry<String, List<Object>> entry : grouped.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            map = Collections.unmodifiableMap(grouped);
+            mMap = map;
         }
-        return new Builder(map);
+        return map;
     }
 
+    /**
+     * The encoded query of the text parameters, the binaries are skipped.
+     */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        Set<String> keySet = keySet();
-        for (String key : keySet) {
-            List<Object> values = get(key);
-            for (Object value : values) {
-                if (value != null && value instanceof CharSequence) {
-                    String textValue = Uri.encode(value.toString());
-                    builder.append("&").append(key).append("=").append(textValue);
-                }
+        String query = mQuery;
+        if (query == null) {
+            StringBuilder builder = new StringBuilder(mKeys.length * 16);
+            for (int i = 0; i < mKeys.length; i++) {
+                Object value = mValues[i];
+                if (!(value instanceof CharSequence)) continue;
+                if (builder.length() > 0) builder.append('&');
+                UrlUtils.percentEncode(builder, mKeys[i]).append('=');
+                UrlUtils.percentEncode(builder, (CharSequence) value);
             }
+            query = builder.toString();
+            mQuery = query;
         }
-        if (builder.length() > 0) builder.deleteCharAt(0);
-        return builder.toString();
+        return query;
     }
 
     public static class Builder {
 
-        private Map<String, List<Object>> mMap;
+        private String[] mKeys;
+        private Object[] mValues;
+        private int mSize;
 
         private Builder() {
-            this.mMap = new LinkedHashMap<>();
+            this.mKeys = new String[8];
+            this.mValues = new Object[8];
         }
 
-        private Builder(Map<String, List<Object>> map) {
-            this.mMap = map;
+        private Builder(Params params) {
+            int capacity = Math.max(8, params.mKeys.length + 4);
+            this.mKeys = Arrays.copyOf(params.mKeys, capacity);
+            this.mValues = Arrays.copyOf(params.mValues, capacity);
+            this.mSize = params.mKeys.length;
         }
 
         /**
@@ -244,12 +323,15 @@ public class Params {
          */
         private Builder add(String key, Object value) {
             if (!TextUtils.isEmpty(key)) {
-                if (!mMap.containsKey(key)) {
-                    mMap.put(key, new ArrayList<>(1));
-                }
                 if (value == null) value = "";
                 if (value instanceof File) value = new FileBinary((File) value);
-                mMap.get(key).add(value);
+                if (mSize == mKeys.length) {
+                    mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                    mValues = Arrays.copyOf(mValues, mSize * 2);
+                }
+                mKeys[mSize] = key;
+                mValues[mSize] = value;
+                mSize++;
             }
             return this;
         }
@@ -258,10 +340,8 @@ public class Params {
          * Add parameters.
          */
         public Builder add(Params params) {
-            for (Map.Entry<String, List<Object>> entry : params.entrySet()) {
-                String key = entry.getKey();
-                List<Object> valueList = entry.getValue();
-                for (Object value : valueList) add(key, value);
+            for (int i = 0; i < params.mKeys.length; i++) {
+                add(params.mKeys[i], params.mValues[i]);
             }
             return this;
         }
@@ -307,7 +387,16 @@ public class Params {
          * Remove parameters by key.
          */
         public Builder remove(String key) {
-            mMap.remove(key);
+            int size = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (mKeys[i].equals(key)) continue;
+                mKeys[size] = mKeys[i];
+                mValues[size] = mValues[i];
+                size++;
+            }
+            Arrays.fill(mKeys, size, mSize, null);
+            Arrays.fill(mValues, size, mSize, null);
+            mSize = size;
             return this;
         }
 
@@ -315,7 +404,9 @@ public class Params {
          * Remove all parameters.
          */
         public Builder clear() {
-            mMap.clear();
+            Arrays.fill(mKeys, 0, mSize, null);
+            Arrays.fill(mValues, 0, mSize, null);
+            mSize = 0;
             return this;
         }
 
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_STREAM;
+
+/**
+ * <p>
+ * The data is written to the {@link #sink()} by another thread while the request sends it,
+ * closing the sink ends the body. When sending the body fails, writing the sink fails too.
+ * </p>
+ */
+public class PipeBody extends OneShotBody<PipeBody> {
+
+    private final Pipe mPipe;
+    private final OutputStream mSink;
+
+    public PipeBody() throws IOException {
+        this(-1, VALUE_APPLICATION_STREAM);
+    }
+
+    public PipeBody(String contentType) throws IOException {
+        this(-1, contentType);
+    }
+
+    /**
+     * @param length      the length of the data, -1 if it is unknown.
+     * @param contentType the content type of the data.
+     */
+    public PipeBody(long length, String contentType) throws IOException {
+        super(length, contentType);
+        this.mPipe = Pipe.open();
+        this.mSink = Channels.newOutputStream(mPipe.sink());
+    }
+
+    /**
+     * Get the stream the data is written to, close it when all the data is written.
+     */
+    public OutputStream sink() {
+        return mSink;
+    }
+
+    /**
+     * Stop the body, the writer of the sink gets an exception, such as the request is canceled before it is sent.
+     */
+    public void close() {
+        IOUtils.closeQuietly(mPipe.source());
+    }
+
+    @Override
+    protected void onWriteOnce(OutputStream writer) throws IOException {
+        InputStream source = Channels.newInputStream(mPipe.source());
+        try {
+            IOUtils.write(source, writer);
+        } finally {
+            IOUtils.closeQuietly(source);
+        }
+    }
+}
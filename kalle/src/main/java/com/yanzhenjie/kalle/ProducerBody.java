@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_STREAM;
+
+/**
+ * <p>
+ * The data is produced on the thread of the request, straight into the connection.
+ * </p>
+ */
+public class ProducerBody extends OneShotBody<ProducerBody> {
+
+    private final Producer mProducer;
+
+    public ProducerBody(Producer producer) {
+        this(producer, -1, VALUE_APPLICATION_STREAM);
+    }
+
+    public ProducerBody(Producer producer, String contentType) {
+        this(producer, -1, contentType);
+    }
+
+    /**
+     * @param producer    produce the data.
+     * @param length      the length of the data, -1 if it is unknown.
+     * @param contentType the content type of the data.
+     */
+    public ProducerBody(Producer producer, long length, String contentType) {
+        super(length, contentType);
+        this.mProducer = producer;
+    }
+
+    @Override
+    protected void onWriteOnce(OutputStream writer) throws IOException {
+        mProducer.produce(writer);
+    }
+
+    public interface Producer {
+
+        /**
+         * Write the data, flushing the writer sends the data written so far.
+         *
+         * @param writer the body of the request, do not close it.
+         */
+        void produce(OutputStream writer) throws IOException;
+    }
+}
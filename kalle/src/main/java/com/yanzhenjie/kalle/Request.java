@@ -27,6 +27,8 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public abstract class Request {
 
+    public static final int DEFAULT_PRIORITY = 16;
+
     private final RequestMethod mMethod;
     private final Headers mHeaders;
 
@@ -35,7 +37,9 @@ public abstract class Request {
     private final HostnameVerifier mHostnameVerifier;
     private final int mConnectTimeout;
     private final int mReadTimeout;
+    private final int mPriority;
     private final Object mTag;
+    private final Boolean mIdempotent;
 
     protected <T extends Api<T>> Request(Api<T> api) {
         this.mMethod = api.mMethod;
@@ -46,7 +50,27 @@ public abstract class Request {
         this.mHostnameVerifier = api.mHostnameVerifier;
         this.mConnectTimeout = api.mConnectTimeout;
         this.mReadTimeout = api.mReadTimeout;
+        this.mPriority = api.mPriority;
         this.mTag = api.mTag;
+        this.mIdempotent = api.mIdempotent;
+    }
+
+    /**
+     * Copy the options of the request, the headers are copied so that the copy can be sent at the same time.
+     */
+    protected Request(Request request) {
+        this.mMethod = request.mMethod;
+        this.mHeaders = new Headers();
+        this.mHeaders.add(request.mHeaders);
+
+        this.mProxy = request.mProxy;
+        this.mSSLSocketFactory = request.mSSLSocketFactory;
+        this.mHostnameVerifier = request.mHostnameVerifier;
+        this.mConnectTimeout = request.mConnectTimeout;
+        this.mReadTimeout = request.mReadTimeout;
+        this.mPriority = request.mPriority;
+        this.mTag = request.mTag;
+        this.mIdempotent = request.mIdempotent;
     }
 
     /**
@@ -113,6 +137,13 @@ public abstract class Request {
         return mReadTimeout;
     }
 
+    /**
+     * Get the priority weight, from 1 to 256.
+     */
+    public int priority() {
+        return mPriority;
+    }
+
     /**
      * Get tag.
      */
@@ -120,6 +151,13 @@ public abstract class Request {
         return mTag;
     }
 
+    /**
+     * Whether the request can be sent again after a failure, it follows the method unless it is marked.
+     */
+    public boolean isIdempotent() {
+        return mIdempotent == null ? mMethod.isIdempotent() : mIdempotent;
+    }
+
     public static abstract class Api<T extends Api<T>> {
 
         private final RequestMethod mMethod;
@@ -129,7 +167,9 @@ public abstract class Request {
         private HostnameVerifier mHostnameVerifier = Kalle.getConfig().getHostnameVerifier();
         private int mConnectTimeout = Kalle.getConfig().getConnectTimeout();
         private int mReadTimeout = Kalle.getConfig().getReadTimeout();
+        private int mPriority = DEFAULT_PRIORITY;
         private Object mTag;
+        private Boolean mIdempotent;
 
         protected Api(RequestMethod method) {
             this.mMethod = method;
@@ -318,6 +358,16 @@ public abstract class Request {
             return (T) this;
         }
 
+        /**
+         * The priority weight of this request, from 1 to 256, the default is 16.
+         * When the requests share a HTTP/2 connection, the server gives the bandwidth in proportion to the weight.
+         */
+        public T priority(int weight) {
+            if (weight < 1 || weight > 256) throw new IllegalArgumentException("The weight must be from 1 to 256.");
+            this.mPriority = weight;
+            return (T) this;
+        }
+
         /**
          * Tag.
          */
@@ -325,5 +375,14 @@ public abstract class Request {
             this.mTag = tag;
             return (T) this;
         }
+
+        /**
+         * Mark whether the request can be retried, such as a POST carrying an idempotency key.
+         * The default follows {@link RequestMethod#isIdempotent()}.
+         */
+        public T idempotent(boolean idempotent) {
+            this.mIdempotent = idempotent;
+            return (T) this;
+        }
     }
 }
\ No newline at end of file
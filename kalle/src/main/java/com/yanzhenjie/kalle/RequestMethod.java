@@ -66,6 +66,21 @@ public enum RequestMethod {
         }
     }
 
+    /**
+     * Whether sending the request several times has the same effect as sending it once, RFC 7231 4.2.2.
+     */
+    public boolean isIdempotent() {
+        switch (this) {
+            case POST:
+            case PATCH: {
+                return false;
+            }
+            default: {
+                return true;
+            }
+        }
+    }
+
     public static RequestMethod reverse(String method) {
         method = method.toUpperCase(Locale.ENGLISH);
         switch (method) {
@@ -17,8 +17,6 @@ package com.yanzhenjie.kalle;
 
 import android.text.TextUtils;
 
-import com.yanzhenjie.kalle.util.IOUtils;
-
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
@@ -26,6 +24,10 @@ import java.nio.charset.Charset;
 import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_STREAM;
 
 /**
+ * <p>
+ * The string is encoded once when its length or data is needed first,
+ * then the bytes are reused by the length, the progress, the retries and the redirects.
+ * </p>
  * Created by YanZhenjie on 2018/2/11.
  */
 public class StringBody extends BasicOutData<StringBody> implements RequestBody {
@@ -34,6 +36,8 @@ public class StringBody extends BasicOutData<StringBody> implements RequestBody
     private final Charset mCharset;
     private final String mContentType;
 
+    private volatile byte[] mBytes;
+
     public StringBody(String body) {
         this(body, Kalle.getConfig().getCharset());
     }
@@ -54,8 +58,7 @@ public class StringBody extends BasicOutData<StringBody> implements RequestBody
 
     @Override
     public long length() {
-        if (TextUtils.isEmpty(mBody)) return 0;
-        return IOUtils.toByteArray(mBody, mCharset).length;
+        return bytes().length;
     }
 
     @Override
@@ -65,6 +68,16 @@ public class StringBody extends BasicOutData<StringBody> implements RequestBody
 
     @Override
     protected void onWrite(OutputStream writer) throws IOException {
-        IOUtils.write(writer, mBody, mCharset);
+        writer.write(bytes());
+    }
+
+    private byte[] bytes() {
+        byte[] bytes = mBytes;
+        if (bytes == null) {
+            // Encoding twice on a race gives the same bytes.
+            bytes = TextUtils.isEmpty(mBody) ? new byte[0] : mBody.getBytes(mCharset);
+            mBytes = bytes;
+        }
+        return bytes;
     }
 }
\ No newline at end of file
@@ -15,15 +15,18 @@
  */
 package com.yanzhenjie.kalle;
 
-import android.net.Uri;
 import android.text.TextUtils;
 import android.webkit.URLUtil;
 
+import com.yanzhenjie.kalle.util.UrlUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Add the mPath to the URL, such as:
@@ -52,6 +55,7 @@ import java.util.Locale;
  * ...
  * The new url is: <code>http://www.example.com/get?name=abc</code>.
  * </pre>
+ * The url is immutable, its encoded form and the {@link URI} are created once and reused.
  * Created by YanZhenjie on 2018/2/9.
  */
 public class Url {
@@ -67,11 +71,16 @@ public class Url {
     private final Params mQuery;
     private final String mFragment;
 
+    private volatile String mEncodedPath;
+    private volatile String mEncodedQuery;
+    private volatile String mString;
+    private volatile URI mURI;
+
     private Url(Builder builder) {
         this.mScheme = builder.mScheme;
         this.mHost = builder.mHost;
         this.mPort = builder.mPort;
-        this.mPath = builder.mPath;
+        this.mPath = Collections.unmodifiableList(new ArrayList<>(builder.mPath));
         this.mQuery = builder.mQuery.build();
         this.mFragment = builder.mFragment;
     }
@@ -88,16 +97,32 @@ public class Url {
         return mPort;
     }
 
+    /**
+     * Get the encoded path, such as {@code /xx/yy}, empty if there is no path.
+     */
     public String getPath() {
-        return path(mPath);
+        String path = mEncodedPath;
+        if (path == null) {
+            path = path(mPath);
+            mEncodedPath = path;
+        }
+        return path;
     }
 
     public List<String> copyPath() {
-        return Collections.unmodifiableList(mPath);
+        return mPath;
     }
 
+    /**
+     * Get the encoded query with the leading {@code ?}, empty if there is no query.
+     */
     public String getQuery() {
-        return query(mQuery);
+        String query = mEncodedQuery;
+        if (query == null) {
+            query = query(mQuery);
+            mEncodedQuery = query;
+        }
+        return query;
     }
 
     public Params copyQuery() {
@@ -108,13 +133,54 @@ public class Url {
         return mFragment;
     }
 
+    /**
+     * Get the origin, such as {@code https://www.example.com:8080}.
+     */
+    public String getOrigin() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mScheme).append("://").append(mHost);
+        if (mPort >= 0) builder.append(':').append(mPort);
+        return builder.toString();
+    }
+
+    /**
+     * Get the key of the cache, the url without the fragment.
+     */
+    public String getCacheKey() {
+        String url = toString();
+        int fragment = url.indexOf('#');
+        return fragment < 0 ? url : url.substring(0, fragment);
+    }
+
+    /**
+     * Get the {@link URI} of the url.
+     *
+     * @throws URISyntaxException the url is not a valid URI.
+     */
+    public URI toURI() throws URISyntaxException {
+        URI uri = mURI;
+        if (uri == null) {
+            uri = new URI(toString());
+            mURI = uri;
+        }
+        return uri;
+    }
+
     public Builder builder() {
-        return new Builder(toString());
+        return new Builder(this);
     }
 
     @Override
     public String toString() {
-        return mScheme + "://" + mHost + port(mPort) + path(mPath) + query(mQuery) + fragment(mFragment);
+        String url = mString;
+        if (url == null) {
+            StringBuilder builder = new StringBuilder(getOrigin());
+            builder.append(getPath()).append(getQuery());
+            if (!TextUtils.isEmpty(mFragment)) UrlUtils.percentEncode(builder.append('#'), mFragment);
+            url = builder.toString();
+            mString = url;
+        }
+        return url;
     }
 
     public Url location(String location) {
@@ -127,13 +193,13 @@ public class Url {
         URI newUri = URI.create(location);
         if (location.startsWith("/")) {
             return builder()
-                    .setPath(newUri.getPath())
-                    .setQuery(newUri.getQuery())
+                    .setPath(newUri.getRawPath())
+                    .setQuery(newUri.getRawQuery())
                     .setFragment(newUri.getFragment())
                     .build();
         } else if (location.contains("../")) {
             List<String> oldPathList = convertPath(getPath());
-            List<String> newPathList = convertPath(newUri.getPath());
+            List<String> newPathList = convertPath(newUri.getRawPath());
 
             int start = newPathList.lastIndexOf("..");
             newPathList = newPathList.subList(start + 1, newPathList.size());
@@ -143,23 +209,23 @@ public class Url {
                 String path = TextUtils.join("/", oldPathList);
                 return builder()
                         .setPath(path)
-                        .setQuery(newUri.getQuery())
+                        .setQuery(newUri.getRawQuery())
                         .setFragment(newUri.getFragment())
                         .build();
             }
             String path = TextUtils.join("/", newPathList);
             return builder()
                     .setPath(path)
-                    .setQuery(newUri.getQuery())
+                    .setQuery(newUri.getRawQuery())
                     .setFragment(newUri.getFragment())
                     .build();
         } else {
             List<String> oldPathList = convertPath(getPath());
-            oldPathList.addAll(convertPath(newUri.getPath()));
+            oldPathList.addAll(convertPath(newUri.getRawPath()));
             String path = TextUtils.join("/", oldPathList);
             return builder()
                     .setPath(path)
-                    .setQuery(newUri.getQuery())
+                    .setQuery(newUri.getRawQuery())
                     .setFragment(newUri.getFragment())
                     .build();
         }
@@ -175,13 +241,98 @@ public class Url {
         private String mFragment;
 
         private Builder(String url) {
-            URI uri = URI.create(url);
-            this.mScheme = uri.getScheme();
-            this.mHost = uri.getHost();
-            this.mPort = uri.getPort();
-            this.mPath = convertPath(uri.getPath());
-            this.mQuery = convertQuery(uri.getQuery());
-            this.mFragment = uri.getFragment();
+            this.mPath = new ArrayList<>();
+            parse(url);
+        }
+
+        private Builder(Url url) {
+            this.mScheme = url.mScheme;
+            this.mHost = url.mHost;
+            this.mPort = url.mPort;
+            this.mPath = new ArrayList<>(url.mPath);
+            this.mQuery = url.mQuery.builder();
+            this.mFragment = url.mFragment;
+        }
+
+        /**
+         * Parse the url in one pass, the path, the query and the fragment are decoded.
+         */
+        private void parse(String url) {
+            int length = url.length();
+            int schemeEnd = url.indexOf("://");
+            int index = 0;
+            this.mPort = -1;
+            if (schemeEnd > 0 && isScheme(url, schemeEnd)) {
+                this.mScheme = url.substring(0, schemeEnd);
+                int authorityStart = schemeEnd + 3;
+                int authorityEnd = indexOf(url, authorityStart, length, "/?#");
+                parseAuthority(url, authorityStart, authorityEnd);
+                index = authorityEnd;
+            }
+
+            int pathEnd = indexOf(url, index, length, "?#");
+            setPath(url, index, pathEnd);
+            index = pathEnd;
+
+            int queryEnd = indexOf(url, index, length, "#");
+            this.mQuery = Params.newBuilder();
+            if (index < queryEnd && url.charAt(index) == '?') addQuery(url, index + 1, queryEnd);
+            index = queryEnd;
+
+            if (index < length) this.mFragment = decode(url, index + 1, length);
+        }
+
+        private void parseAuthority(String url, int start, int end) {
+            // The user info is dropped.
+            int userInfo = url.lastIndexOf('@', end - 1);
+            if (userInfo >= start) start = userInfo + 1;
+
+            int hostEnd;
+            if (start < end && url.charAt(start) == '[') {
+                hostEnd = url.indexOf(']', start);
+                if (hostEnd < 0 || hostEnd >= end) throw new IllegalArgumentException("Invalid IPv6 host: " + url);
+                hostEnd++;
+            } else {
+                hostEnd = indexOf(url, start, end, ":");
+            }
+            this.mHost = start < hostEnd ? url.substring(start, hostEnd) : null;
+
+            if (hostEnd + 1 < end && url.charAt(hostEnd) == ':') {
+                int port = 0;
+                for (int i = hostEnd + 1; i < end; i++) {
+                    char c = url.charAt(i);
+                    if (c < '0' || c > '9') throw new IllegalArgumentException("Invalid port: " + url);
+                    port = port * 10 + (c - '0');
+                    if (port > 65535) throw new IllegalArgumentException("Invalid port: " + url);
+                }
+                this.mPort = port;
+            }
+        }
+
+        private void setPath(String url, int start, int end) {
+            mPath.clear();
+            int segmentStart = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || url.charAt(i) == '/') {
+                    if (segmentStart < i) mPath.add(decode(url, segmentStart, i));
+                    segmentStart = i + 1;
+                }
+            }
+        }
+
+        private void addQuery(String url, int start, int end) {
+            int paramStart = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || url.charAt(i) == '&') {
+                    if (paramStart < i) {
+                        int equals = indexOf(url, paramStart, i, "=");
+                        String key = decode(url, paramStart, equals);
+                        String value = equals < i ? decode(url, equals + 1, i) : "";
+                        if (!TextUtils.isEmpty(key)) mQuery.add(key, value);
+                    }
+                    paramStart = i + 1;
+                }
+            }
         }
 
         public Builder setScheme(String scheme) {
@@ -224,17 +375,17 @@ public class Url {
         }
 
         public Builder addPath(CharSequence path) {
-            mPath.add(path.toString());
-            return this;
+            return addPath(path.toString());
         }
 
         public Builder addPath(String path) {
-            mPath.add(path);
+            if (!TextUtils.isEmpty(path)) mPath.add(path);
             return this;
         }
 
         public Builder setPath(String path) {
-            mPath = convertPath(path);
+            if (path == null) path = "";
+            setPath(path, 0, path.length());
             return this;
         }
 
@@ -287,12 +438,16 @@ public class Url {
         }
 
         public Builder setQuery(String query) {
-            mQuery = convertQuery(query);
+            mQuery = Params.newBuilder();
+            if (!TextUtils.isEmpty(query)) addQuery(query, 0, query.length());
             return this;
         }
 
         public Builder addQuery(Params query) {
-            mQuery = query.builder();
+            for (int i = 0; i < query.size(); i++) {
+                Object value = query.valueAt(i);
+                if (value instanceof CharSequence) mQuery.add(query.keyAt(i), (CharSequence) value);
+            }
             return this;
         }
 
@@ -321,70 +476,96 @@ public class Url {
         }
     }
 
+    /**
+     * Split the encoded path to the segments.
+     */
     private static List<String> convertPath(String path) {
-        List<String> pathList = new LinkedList<String>() {
-            @Override
-            public boolean add(String o) {
-                return !TextUtils.isEmpty(o) && super.add(o);
-            }
-
-            @Override
-            public void add(int index, String element) {
-                if (!TextUtils.isEmpty(element)) {
-                    super.add(index, element);
+        List<String> pathList = new ArrayList<>();
+        if (!TextUtils.isEmpty(path)) {
+            int start = 0;
+            for (int i = 0; i <= path.length(); i++) {
+                if (i == path.length() || path.charAt(i) == '/') {
+                    if (start < i) pathList.add(path.substring(start, i));
+                    start = i + 1;
                 }
             }
-        };
-        if (!TextUtils.isEmpty(path)) {
-            while (path.startsWith("/")) path = path.substring(1);
-            while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
-            String[] pathArray = path.split("/");
-            Collections.addAll(pathList, pathArray);
         }
         return pathList;
     }
 
-    private static Params.Builder convertQuery(String query) {
-        Params.Builder params = Params.newBuilder();
-        if (!TextUtils.isEmpty(query)) {
-            String[] paramArray = query.split("&");
-            for (String param : paramArray) {
-                String key;
-                String value = "";
-                int end;
-                if ((end = param.indexOf("=")) > 0) {
-                    key = param.substring(0, end);
-                    if (end < param.length() - 1) {
-                        value = param.substring(end + 1, param.length());
-                    }
-                } else {
-                    key = param;
-                }
-                params.add(key, value);
+    private static boolean isScheme(String url, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = url.charAt(i);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!letter && (i == 0 || !((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the first of the chars in the range, or the end.
+     */
+    private static int indexOf(String url, int start, int end, String chars) {
+        for (int i = start; i < end; i++) {
+            if (chars.indexOf(url.charAt(i)) >= 0) return i;
+        }
+        return end;
+    }
+
+    /**
+     * Decode the percent-encoded UTF-8 of the range, the malformed escapes are kept as they are.
+     */
+    private static String decode(String url, int start, int end) {
+        int percent = indexOf(url, start, end, "%");
+        if (percent == end) return url.substring(start, end);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(url, start, percent);
+        for (int i = percent; i < end; ) {
+            char c = url.charAt(i);
+            if (c == '%' && i + 2 < end && hex(url, i + 1) >= 0 && hex(url, i + 2) >= 0) {
+                bytes.write(hex(url, i + 1) << 4 | hex(url, i + 2));
+                i += 3;
+                continue;
             }
+            flush(bytes, builder);
+            builder.append(c);
+            i++;
         }
-        return params;
+        flush(bytes, builder);
+        return builder.toString();
+    }
+
+    private static void flush(ByteArrayOutputStream bytes, StringBuilder builder) {
+        if (bytes.size() == 0) return;
+        try {
+            builder.append(bytes.toString("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        bytes.reset();
     }
 
-    private static String port(int port) {
-        return port < 0 ? "" : String.format(Locale.getDefault(), ":%d", port);
+    private static int hex(String url, int index) {
+        char c = url.charAt(index);
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
     }
 
     private static String path(List<String> pathList) {
         if (pathList.isEmpty()) return "";
         StringBuilder builder = new StringBuilder();
         for (String path : pathList) {
-            builder.append("/").append(Uri.encode(path));
+            UrlUtils.percentEncode(builder.append('/'), path);
         }
         return builder.toString();
     }
 
     private static String query(Params params) {
         String query = params.toString();
-        return TextUtils.isEmpty(query) ? "" : String.format("?%s", query);
-    }
-
-    private static String fragment(String fragment) {
-        return TextUtils.isEmpty(fragment) ? "" : String.format("#%s", Uri.encode(fragment));
+        return TextUtils.isEmpty(query) ? "" : "?" + query;
     }
-}
\ No newline at end of file
+}
@@ -17,8 +17,6 @@ package com.yanzhenjie.kalle;
 
 import android.text.TextUtils;
 
-import com.yanzhenjie.kalle.util.IOUtils;
-
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
@@ -27,6 +25,9 @@ import java.util.List;
 import static com.yanzhenjie.kalle.Headers.VALUE_APPLICATION_URLENCODED;
 
 /**
+ * <p>
+ * The parameters are encoded once, the bytes are reused by the length and the writing.
+ * </p>
  * Created by YanZhenjie on 2018/2/24.
  */
 public class UrlBody extends BasicOutData<StringBody> implements RequestBody {
@@ -39,6 +40,8 @@ public class UrlBody extends BasicOutData<StringBody> implements RequestBody {
     private final Charset mCharset;
     private final String mContentType;
 
+    private volatile byte[] mBytes;
+
     private UrlBody(Builder builder) {
         this.mParams = builder.mParams.build();
         this.mCharset = builder.mCharset == null ? Kalle.getConfig().getCharset() : builder.mCharset;
@@ -54,9 +57,7 @@ public class UrlBody extends BasicOutData<StringBody> implements RequestBody {
 
     @Override
     public long length() {
-        String body = mParams.toString();
-        if (TextUtils.isEmpty(body)) return 0;
-        return IOUtils.toByteArray(body, mCharset).length;
+        return bytes().length;
     }
 
     @Override
@@ -66,8 +67,17 @@ public class UrlBody extends BasicOutData<StringBody> implements RequestBody {
 
     @Override
     protected void onWrite(OutputStream writer) throws IOException {
-        String body = mParams.toString();
-        IOUtils.write(writer, body, mCharset);
+        writer.write(bytes());
+    }
+
+    private byte[] bytes() {
+        byte[] bytes = mBytes;
+        if (bytes == null) {
+            String body = mParams.toString();
+            bytes = TextUtils.isEmpty(body) ? new byte[0] : body.getBytes(mCharset);
+            mBytes = bytes;
+        }
+        return bytes;
     }
 
     public static class Builder {
@@ -33,6 +33,11 @@ public class UrlRequest extends Request {
         this.mUrl = api.mUrl.build();
     }
 
+    protected UrlRequest(UrlRequest request) {
+        super(request);
+        this.mUrl = request.mUrl;
+    }
+
     @Override
     public Url url() {
         return mUrl;
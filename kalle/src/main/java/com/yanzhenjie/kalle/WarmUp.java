@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.PreconnectFactory;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.util.WorkExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Prepare everything the first requests need, the config, the SSL, the work threads,
+ * then the addresses and the connections of the origins.
+ * </p>
+ */
+final class WarmUp implements Runnable {
+
+    private final List<String> mUrls;
+
+    WarmUp(List<String> urls) {
+        this.mUrls = new ArrayList<>(new LinkedHashSet<>(urls));
+    }
+
+    void start() {
+        // Building the default config is a part of the work, the caller does not wait for it.
+        Thread thread = new Thread(this, "Kalle WarmUp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        KalleConfig config = Kalle.getConfig();
+        Executor executor = config.getWorkExecutor();
+        if (executor instanceof WorkExecutor) ((WorkExecutor) executor).prestart();
+
+        for (final String url : mUrls) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp(url);
+                }
+            });
+        }
+    }
+
+    private static void warmUp(String url) {
+        KalleConfig config = Kalle.getConfig();
+        try {
+            Request request = UrlRequest.newBuilder(Url.newBuilder(url), RequestMethod.GET).build();
+            ConnectFactory factory = config.getConnectFactory();
+            if (factory instanceof PreconnectFactory) {
+                ((PreconnectFactory) factory).preconnect(request);
+            } else {
+                // The connections of the factory are out of reach, at least the host is resolved.
+                Route.get(request).addresses(config.getDns());
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Request;
+
+/**
+ * <p>
+ * The factory can execute a request without occupying the calling thread while waiting for the server.
+ * </p>
+ */
+public interface AsyncConnectFactory extends ConnectFactory {
+
+    /**
+     * Send the request in the background, the response is delivered when its headers arrive.
+     *
+     * @param request  target request, the headers and body have been prepared.
+     * @param callback receive the result, it is called on the I/O thread and should return quickly,
+     *                 the body may still be arriving, so it is read on another thread.
+     * @return this request corresponds to the task cancel handle.
+     */
+    Canceller enqueue(Request request, ConnectCallback callback);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.connect.http.AsyncChain;
+import com.yanzhenjie.kalle.connect.http.ResponseFuture;
+
+/**
+ * <p>
+ * An {@link Interceptor} which does not hold the thread while waiting, such as for a token or a signature.
+ * An asynchronous call uses {@link #interceptAsync(AsyncChain)}, a blocking call uses {@link #intercept(com.yanzhenjie.kalle.connect.http.Chain)}.
+ * When all the interceptors are asynchronous and the factory is an {@link AsyncConnectFactory},
+ * a call does not occupy a thread from the start to the end.
+ * </p>
+ */
+public interface AsyncInterceptor extends Interceptor {
+
+    /**
+     * Intercept the {@link AsyncChain}, return the future of the response without waiting for it.
+     *
+     * The callbacks of the futures may run on the I/O thread of the factory, they must return quickly without blocking,
+     * the work which may block, such as reading the body or sending another request, is handed to another thread.
+     *
+     * @param chain request chain, the next interceptor is reached by {@link AsyncChain#proceedAsync(com.yanzhenjie.kalle.Request)}.
+     * @return the future of the response, the failures are delivered by it instead of thrown.
+     */
+    ResponseFuture interceptAsync(AsyncChain chain);
+}
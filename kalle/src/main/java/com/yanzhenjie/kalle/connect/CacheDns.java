@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.util.IOExecutor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * A {@link Dns} keeps the results of another dns for a while.
+ * The concurrent lookups of a hostname share one query, the failures are remembered for a shorter while,
+ * and the last known addresses can be used when the query fails or times out.
+ * </p>
+ */
+public class CacheDns implements Dns {
+
+    private static final int MAX_RECORDS = 256;
+    private static final int LOOKUP_THREADS = 4;
+    private static final int PREFETCH_THREADS = 2;
+
+    /**
+     * The lookups are waited for with a timeout, so they have their own bounded threads instead of running on the caller.
+     */
+    private static final ThreadFactory THREAD_FACTORY = IOExecutor.threadFactory("Kalle Dns");
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final Dns mDns;
+    private final long mTtl;
+    private final long mNegativeTtl;
+    private final long mMaxStale;
+    private final long mTimeout;
+
+    private final Map<String, Record> mRecords = new LinkedHashMap<String, Record>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_RECORDS;
+        }
+    };
+    private final Map<String, FutureTask<List<InetAddress>>> mPending = new HashMap<>();
+    private ThreadPoolExecutor mExecutor;
+    private ThreadPoolExecutor mPrefetchExecutor;
+
+    private CacheDns(Builder builder) {
+        this.mDns = builder.mDns == null ? Dns.SYSTEM : builder.mDns;
+        this.mTtl = builder.mTtl;
+        this.mNegativeTtl = builder.mNegativeTtl;
+        this.mMaxStale = builder.mMaxStale;
+        this.mTimeout = builder.mTimeout;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (hostname == null) throw new UnknownHostException("The hostname is null.");
+        String host = hostname.toLowerCase(Locale.ENGLISH);
+
+        FutureTask<List<InetAddress>> task;
+        boolean owner = false;
+        synchronized (this) {
+            Record record = mRecords.get(host);
+            long now = System.nanoTime();
+            if (record != null) {
+                if (record.isFresh(now)) return record.mAddresses;
+                if (record.isFailed(now)) return stale(record, now, record.mError);
+            }
+
+            task = mPending.get(host);
+            if (task == null) {
+                task = newTask(host);
+                mPending.put(host, task);
+                owner = true;
+            }
+        }
+
+        try {
+            if (mTimeout <= 0) {
+                if (owner) task.run();
+                return task.get();
+            }
+            if (owner) executor().execute(task);
+            return task.get(mTimeout, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            UnknownHostException exception;
+            if (cause instanceof UnknownHostException) {
+                exception = (UnknownHostException) cause;
+            } else {
+                exception = new UnknownHostException("Unable to resolve host " + host + ".");
+                exception.initCause(cause);
+            }
+            return stale(host, exception);
+        } catch (TimeoutException e) {
+            return stale(host, new UnknownHostException("Resolving host " + host + " timed out."));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return stale(host, new UnknownHostException("Resolving host " + host + " is interrupted."));
+        }
+    }
+
+    /**
+     * Resolve the hostnames in the background, the later requests to them do not wait for the dns.
+     */
+    public void prefetch(String... hostnames) {
+        prefetch(Arrays.asList(hostnames));
+    }
+
+    /**
+     * Resolve the hostnames in the background, the later requests to them do not wait for the dns.
+     * The queries run on threads of their own, so they never delay the lookups of the requests.
+     */
+    public void prefetch(List<String> hostnames) {
+        for (String hostname : hostnames) {
+            if (hostname == null) continue;
+            String host = hostname.toLowerCase(Locale.ENGLISH);
+
+            FutureTask<List<InetAddress>> task;
+            synchronized (this) {
+                Record record = mRecords.get(host);
+                long now = System.nanoTime();
+                if (record != null && (record.isFresh(now) || record.isFailed(now))) continue;
+                // A request is resolving it, or it has been prefetched.
+                if (mPending.containsKey(host)) continue;
+
+                task = newTask(host);
+                mPending.put(host, task);
+            }
+            prefetchExecutor().execute(task);
+        }
+    }
+
+    /**
+     * Forget the results of the hostname.
+     */
+    public synchronized void evict(String hostname) {
+        mRecords.remove(hostname.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Forget all the results, such as the network has changed.
+     */
+    public synchronized void evictAll() {
+        mRecords.clear();
+    }
+
+    private FutureTask<List<InetAddress>> newTask(final String host) {
+        return new FutureTask<>(new Callable<List<InetAddress>>() {
+            @Override
+            public List<InetAddress> call() throws Exception {
+                try {
+                    List<InetAddress> addresses = mDns.lookup(host);
+                    if (addresses == null || addresses.isEmpty()) {
+                        throw new UnknownHostException("No address of host " + host + ".");
+                    }
+                    addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+                    synchronized (CacheDns.this) {
+                        mRecords.put(host, new Record(addresses, System.nanoTime()));
+                    }
+                    return addresses;
+                } catch (UnknownHostException e) {
+                    synchronized (CacheDns.this) {
+                        Record record = mRecords.get(host);
+                        if (record == null) {
+                            record = new Record(null, 0);
+                            mRecords.put(host, record);
+                        }
+                        record.mError = e;
+                        record.mFailedAt = System.nanoTime();
+                    }
+                    throw e;
+                } finally {
+                    synchronized (CacheDns.this) {
+                        mPending.remove(host);
+                    }
+                }
+            }
+        });
+    }
+
+    private synchronized List<InetAddress> stale(String host, UnknownHostException e) throws UnknownHostException {
+        Record record = mRecords.get(host);
+        if (record == null) throw e;
+        return stale(record, System.nanoTime(), e);
+    }
+
+    private List<InetAddress> stale(Record record, long now, UnknownHostException e) throws UnknownHostException {
+        if (record.mAddresses != null && now - record.mResolvedAt < mTtl + mMaxStale) return record.mAddresses;
+        throw e;
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (mExecutor == null) {
+            mExecutor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mExecutor;
+    }
+
+    private synchronized ThreadPoolExecutor prefetchExecutor() {
+        if (mPrefetchExecutor == null) {
+            mPrefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+            mPrefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mPrefetchExecutor;
+    }
+
+    private final class Record {
+
+        private final List<InetAddress> mAddresses;
+        private final long mResolvedAt;
+        private UnknownHostException mError;
+        private long mFailedAt;
+
+        private Record(List<InetAddress> addresses, long resolvedAt) {
+            this.mAddresses = addresses;
+            this.mResolvedAt = resolvedAt;
+        }
+
+        private boolean isFresh(long now) {
+            return mAddresses != null && mError == null && now - mResolvedAt < mTtl;
+        }
+
+        private boolean isFailed(long now) {
+            return mError != null && now - mFailedAt < mNegativeTtl;
+        }
+    }
+
+    public static class Builder {
+
+        private Dns mDns;
+        private long mTtl = TimeUnit.MINUTES.toNanos(5);
+        private long mNegativeTtl = TimeUnit.SECONDS.toNanos(10);
+        private long mMaxStale = TimeUnit.DAYS.toNanos(1);
+        private long mTimeout;
+
+        private Builder() {
+        }
+
+        /**
+         * The dns queried when the result is absent or expired, the default is {@link Dns#SYSTEM}.
+         */
+        public Builder dns(Dns dns) {
+            this.mDns = dns;
+            return this;
+        }
+
+        /**
+         * How long the addresses are used without querying again, the default is 5 minutes.
+         */
+        public Builder ttl(long time, TimeUnit timeUnit) {
+            this.mTtl = timeUnit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * How long a failure is thrown without querying again, the default is 10 seconds, 0 means not to remember it.
+         */
+        public Builder negativeTtl(long time, TimeUnit timeUnit) {
+            this.mNegativeTtl = timeUnit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * How long the expired addresses can be used when the query fails, the default is 1 day, 0 means never.
+         */
+        public Builder maxStale(long time, TimeUnit timeUnit) {
+            this.mMaxStale = timeUnit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * The time to wait for the query, the default is 0, the query of the platform is waited to the end.
+         */
+        public Builder timeout(long time, TimeUnit timeUnit) {
+            this.mTimeout = timeUnit.toNanos(time);
+            return this;
+        }
+
+        public CacheDns build() {
+            return new CacheDns(this);
+        }
+    }
+}
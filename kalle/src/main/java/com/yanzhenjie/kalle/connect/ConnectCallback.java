@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.Response;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Receive the result of {@link AsyncConnectFactory#enqueue(com.yanzhenjie.kalle.Request, ConnectCallback)}.
+ * </p>
+ */
+public interface ConnectCallback {
+
+    /**
+     * The status and headers of the response have arrived, the body may still be arriving.
+     */
+    void onResponse(Response response);
+
+    /**
+     * An exception occurred when connecting, writing or reading.
+     */
+    void onFailure(IOException e);
+}
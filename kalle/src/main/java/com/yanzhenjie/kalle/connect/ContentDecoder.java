@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.connect.stream.DeflateInputStream;
+import com.yanzhenjie.kalle.connect.stream.GzipInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Decode the body of a response in one of the content codings, such as gzip.
+ * </p>
+ */
+public interface ContentDecoder {
+
+    ContentDecoder GZIP = new ContentDecoder() {
+        @Override
+        public String encoding() {
+            return "gzip";
+        }
+
+        @Override
+        public InputStream decode(InputStream stream) throws IOException {
+            return new GzipInputStream(stream);
+        }
+    };
+
+    ContentDecoder DEFLATE = new ContentDecoder() {
+        @Override
+        public String encoding() {
+            return "deflate";
+        }
+
+        @Override
+        public InputStream decode(InputStream stream) throws IOException {
+            return new DeflateInputStream(stream);
+        }
+    };
+
+    /**
+     * Get the name of the coding in the Content-Encoding header, such as gzip, br.
+     */
+    String encoding();
+
+    /**
+     * Wrap the encoded stream.
+     *
+     * @param stream the encoded data.
+     * @return the decoded data, closing it closes the encoded stream.
+     */
+    InputStream decode(InputStream stream) throws IOException;
+}
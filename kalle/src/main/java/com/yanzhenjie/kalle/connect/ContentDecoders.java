@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import android.text.TextUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * The decoders of the content codings, the codings of a response are undone in the reverse order they were applied.
+ * </p>
+ */
+public final class ContentDecoders {
+
+    private static final String IDENTITY = "identity";
+
+    private final Map<String, ContentDecoder> mDecoders;
+    private final String mAcceptEncoding;
+
+    /**
+     * @param decoders the decoders, a later decoder replaces the former one of the same coding.
+     */
+    public ContentDecoders(List<ContentDecoder> decoders) {
+        Map<String, ContentDecoder> map = new LinkedHashMap<>();
+        for (ContentDecoder decoder : decoders) {
+            map.put(decoder.encoding().toLowerCase(Locale.ENGLISH), decoder);
+        }
+        this.mDecoders = Collections.unmodifiableMap(map);
+        this.mAcceptEncoding = TextUtils.join(", ", map.keySet());
+    }
+
+    /**
+     * Get the value of the Accept-Encoding header, such as {@code gzip, deflate}.
+     */
+    public String acceptEncoding() {
+        return mAcceptEncoding;
+    }
+
+    /**
+     * Decode the body of the response.
+     *
+     * @param contentEncoding the value of the Content-Encoding header, such as {@code gzip} or {@code deflate, gzip}.
+     * @param stream          the body.
+     * @return the decoded body, or the body itself if one of the codings is unknown.
+     */
+    public InputStream decode(String contentEncoding, InputStream stream) throws IOException {
+        if (TextUtils.isEmpty(contentEncoding)) return stream;
+
+        List<ContentDecoder> decoders = null;
+        for (String coding : contentEncoding.split(",")) {
+            coding = coding.trim().toLowerCase(Locale.ENGLISH);
+            if (coding.length() == 0 || IDENTITY.equals(coding)) continue;
+            ContentDecoder decoder = mDecoders.get(coding);
+            // Decoding a part of the codings would not get the content either.
+            if (decoder == null) return stream;
+            if (decoders == null) decoders = new ArrayList<>(2);
+            decoders.add(decoder);
+        }
+        if (decoders == null) return stream;
+
+        for (int i = decoders.size() - 1; i >= 0; i--) {
+            stream = decoders.get(i).decode(stream);
+        }
+        return stream;
+    }
+}
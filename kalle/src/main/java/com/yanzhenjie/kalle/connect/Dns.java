@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Resolve the hostname to the addresses.
+ * </p>
+ */
+public interface Dns {
+
+    /**
+     * Resolve by the resolver of the platform.
+     */
+    Dns SYSTEM = new Dns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            if (hostname == null) throw new UnknownHostException("The hostname is null.");
+            return Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+    };
+
+    /**
+     * Get the addresses of the hostname, the addresses are attempted in order.
+     *
+     * @param hostname hostname.
+     * @return the addresses, not empty.
+     * @throws UnknownHostException the hostname can not be resolved.
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+}
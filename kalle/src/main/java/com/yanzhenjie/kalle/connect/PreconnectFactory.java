@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.Request;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * The factory keeps the connections alive, so it can open a connection before any request needs it.
+ * </p>
+ */
+public interface PreconnectFactory extends ConnectFactory {
+
+    /**
+     * Open a connection to the server of the request and keep it for the later requests,
+     * nothing is sent to the server and nothing happens if the factory already has a connection to it.
+     *
+     * @param request the request provides the url, the proxy, the SSL configurations and the timeouts.
+     */
+    void preconnect(Request request) throws IOException;
+}
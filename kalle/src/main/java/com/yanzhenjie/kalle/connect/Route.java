@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Url;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * <p>
+ * The target of a connection, connections are only shared between requests of the same route.
+ * </p>
+ */
+public final class Route {
+
+    public static Route get(Request request) {
+        Url url = request.url();
+        boolean secure = "https".equalsIgnoreCase(url.getScheme());
+        int port = url.getPort() < 0 ? (secure ? 443 : 80) : url.getPort();
+        Proxy proxy = request.proxy() == null ? Proxy.NO_PROXY : request.proxy();
+        SSLSocketFactory sslSocketFactory = secure ? request.sslSocketFactory() : null;
+        HostnameVerifier hostnameVerifier = secure ? request.hostnameVerifier() : null;
+        return new Route(url.getHost(), port, proxy, sslSocketFactory, hostnameVerifier);
+    }
+
+    private final String mHost;
+    private final int mPort;
+    private final Proxy mProxy;
+    private final SSLSocketFactory mSSLSocketFactory;
+    private final HostnameVerifier mHostnameVerifier;
+
+    public Route(String host, int port, Proxy proxy, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+        this.mHost = host.toLowerCase(Locale.ENGLISH);
+        this.mPort = port;
+        this.mProxy = proxy;
+        this.mSSLSocketFactory = sslSocketFactory;
+        this.mHostnameVerifier = hostnameVerifier;
+    }
+
+    public String host() {
+        return mHost;
+    }
+
+    public int port() {
+        return mPort;
+    }
+
+    public Proxy proxy() {
+        return mProxy;
+    }
+
+    public SSLSocketFactory sslSocketFactory() {
+        return mSSLSocketFactory;
+    }
+
+    public HostnameVerifier hostnameVerifier() {
+        return mHostnameVerifier;
+    }
+
+    /**
+     * The route needs TLS.
+     */
+    public boolean isSecure() {
+        return mSSLSocketFactory != null;
+    }
+
+    /**
+     * Get the addresses to connect, they are the server or the http proxy resolved by the dns,
+     * the server is left unresolved for the socks proxy.
+     */
+    public List<InetSocketAddress> addresses(Dns dns) throws IOException {
+        switch (mProxy.type()) {
+            case HTTP: {
+                InetSocketAddress address = (InetSocketAddress) mProxy.address();
+                if (!address.isUnresolved()) return Collections.singletonList(address);
+                return resolve(dns, address.getHostName(), address.getPort());
+            }
+            case SOCKS: {
+                return Collections.singletonList(InetSocketAddress.createUnresolved(mHost, mPort));
+            }
+            case DIRECT:
+            default: {
+                return resolve(dns, mHost, mPort);
+            }
+        }
+    }
+
+    private static List<InetSocketAddress> resolve(Dns dns, String host, int port) throws IOException {
+        List<InetAddress> addresses = dns.lookup(host);
+        List<InetSocketAddress> socketAddresses = new ArrayList<>(addresses.size());
+        for (InetAddress address : addresses) {
+            socketAddresses.add(new InetSocketAddress(address, port));
+        }
+        return socketAddresses;
+    }
+
+    /**
+     * The value of the {@code Host} header for this route.
+     */
+    public String hostHeader() {
+        int defaultPort = isSecure() ? 443 : 80;
+        return mPort == defaultPort ? mHost : mHost + ":" + mPort;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Route)) return false;
+        Route other = (Route) o;
+        return mPort == other.mPort
+                && mHost.equals(other.mHost)
+                && mProxy.equals(other.mProxy)
+                && mSSLSocketFactory == other.mSSLSocketFactory
+                && mHostnameVerifier == other.mHostnameVerifier;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mHost.hashCode();
+        result = 31 * result + mPort;
+        result = 31 * result + mProxy.hashCode();
+        result = 31 * result + (mSSLSocketFactory == null ? 0 : mSSLSocketFactory.hashCode());
+        result = 31 * result + (mHostnameVerifier == null ? 0 : mHostnameVerifier.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return (isSecure() ? "https://" : "http://") + hostHeader() + (mProxy.type() == Proxy.Type.DIRECT ? "" : " via " + mProxy);
+    }
+}
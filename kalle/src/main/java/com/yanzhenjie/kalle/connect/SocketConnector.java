@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import com.yanzhenjie.kalle.util.IOExecutor;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Open the TCP connection of a {@link Route} for the socket based factories.
+ * When there are several addresses, they are raced like Happy Eyeballs (RFC 8305):
+ * the attempts start one by one with a short delay, the first connected socket wins and the others are closed.
+ * </p>
+ */
+public final class SocketConnector {
+
+    /**
+     * The delay before starting the next attempt, unless the running attempts have failed.
+     */
+    private static final long ATTEMPT_DELAY = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int MAX_FAMILIES = 256;
+
+    /**
+     * When all its threads are busy the attempt runs on the racing thread, then the addresses are tried one by one.
+     */
+    private static final Executor EXECUTOR = IOExecutor.get();
+
+    /**
+     * Whether the last winner of the host is IPv6.
+     */
+    private static final Map<String, Boolean> FAMILIES = new LinkedHashMap<String, Boolean>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_FAMILIES;
+        }
+    };
+
+    private SocketConnector() {
+    }
+
+    /**
+     * Connect to the addresses of the route, until one of them is connected.
+     *
+     * @param route          the route.
+     * @param dns            resolve the host of the route.
+     * @param connectTimeout the timeout of each address.
+     * @return the connected socket, no TLS is applied.
+     */
+    public static Socket connect(Route route, Dns dns, int connectTimeout) throws IOException {
+        return connect(route, dns, connectTimeout, false);
+    }
+
+    /**
+     * Connect to the addresses of the route, until one of them is connected.
+     *
+     * @param route          the route.
+     * @param dns            resolve the host of the route.
+     * @param connectTimeout the timeout of each address.
+     * @param channel        whether the socket is opened by a {@link SocketChannel}, so the files can be sent through it.
+     * @return the connected socket, no TLS is applied.
+     */
+    public static Socket connect(Route route, Dns dns, int connectTimeout, boolean channel) throws IOException {
+        List<InetSocketAddress> addresses = sort(route, route.addresses(dns));
+        if (addresses.isEmpty()) throw new IOException("No address of " + route + ".");
+        if (addresses.size() == 1) {
+            InetSocketAddress address = addresses.get(0);
+            Socket socket = newSocket(route, channel);
+            try {
+                socket.connect(address, connectTimeout);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (IOException e) {
+                IOUtils.closeQuietly(socket);
+                throw e;
+            }
+        }
+        return new Race(route, addresses, connectTimeout, channel).run();
+    }
+
+    /**
+     * Sort the addresses for connecting, the address families alternate,
+     * and the family which connected last time comes first.
+     */
+    public static List<InetSocketAddress> sort(Route route, List<InetSocketAddress> addresses) {
+        if (addresses.size() < 2) return addresses;
+
+        List<InetSocketAddress> ipv6 = new ArrayList<>();
+        List<InetSocketAddress> ipv4 = new ArrayList<>();
+        for (InetSocketAddress address : addresses) {
+            if (address.getAddress() instanceof Inet6Address) ipv6.add(address);
+            else ipv4.add(address);
+        }
+        if (ipv6.isEmpty() || ipv4.isEmpty()) return addresses;
+
+        Boolean preferIpv6;
+        synchronized (FAMILIES) {
+            preferIpv6 = FAMILIES.get(familyKey(route));
+        }
+        // The order of the resolver is respected until a family has won.
+        if (preferIpv6 == null) preferIpv6 = addresses.get(0).getAddress() instanceof Inet6Address;
+        List<InetSocketAddress> first = preferIpv6 ? ipv6 : ipv4;
+        List<InetSocketAddress> second = preferIpv6 ? ipv4 : ipv6;
+
+        List<InetSocketAddress> sorted = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) sorted.add(first.get(i));
+            if (i < second.size()) sorted.add(second.get(i));
+        }
+        return sorted;
+    }
+
+    /**
+     * Remember the family of the address which connected to the route, it is tried first next time.
+     */
+    public static void remember(Route route, InetSocketAddress address) {
+        if (address.getAddress() == null) return;
+        synchronized (FAMILIES) {
+            FAMILIES.put(familyKey(route), address.getAddress() instanceof Inet6Address);
+        }
+    }
+
+    private static String familyKey(Route route) {
+        Proxy proxy = route.proxy();
+        return proxy.type() == Proxy.Type.HTTP ? proxy.address().toString() : route.host();
+    }
+
+    /**
+     * The socket of a channel is only opened for sending files, the read timeout of a plain socket is more reliable.
+     * A socket through a socks proxy never has a channel.
+     */
+    private static Socket newSocket(Route route, boolean channel) throws IOException {
+        Proxy proxy = route.proxy();
+        if (proxy.type() == Proxy.Type.SOCKS) return new Socket(proxy);
+        return channel ? SocketChannel.open().socket() : new Socket();
+    }
+
+    /**
+     * The attempts of a connection, the fields are guarded by the race.
+     */
+    private static final class Race {
+
+        private final Route mRoute;
+        private final List<InetSocketAddress> mAddresses;
+        private final int mConnectTimeout;
+        private final boolean mChannel;
+
+        private final List<Socket> mConnecting = new ArrayList<>();
+        private Socket mWinner;
+        private IOException mFailure;
+        private boolean mFinished;
+
+        private Race(Route route, List<InetSocketAddress> addresses, int connectTimeout, boolean channel) {
+            this.mRoute = route;
+            this.mAddresses = addresses;
+            this.mConnectTimeout = connectTimeout;
+            this.mChannel = channel;
+        }
+
+        private synchronized Socket run() throws IOException {
+            int next = 0;
+            long nextStart = System.nanoTime();
+            try {
+                while (mWinner == null) {
+                    long now = System.nanoTime();
+                    boolean hasNext = next < mAddresses.size();
+                    if (hasNext && (mConnecting.isEmpty() || now - nextStart >= 0)) {
+                        start(mAddresses.get(next++));
+                        nextStart = now + ATTEMPT_DELAY;
+                        continue;
+                    }
+                    if (mConnecting.isEmpty()) break;
+
+                    if (hasNext) TimeUnit.NANOSECONDS.timedWait(this, nextStart - now);
+                    else wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The connecting is interrupted.");
+            } finally {
+                mFinished = true;
+                for (Socket socket : mConnecting) {
+                    IOUtils.closeQuietly(socket);
+                }
+                mConnecting.clear();
+            }
+
+            if (mWinner != null) return mWinner;
+            throw mFailure;
+        }
+
+        private void start(final InetSocketAddress address) throws IOException {
+            final Socket socket = newSocket(mRoute, mChannel);
+            mConnecting.add(socket);
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IOException failure = null;
+                    try {
+                        socket.connect(address, mConnectTimeout);
+                        socket.setTcpNoDelay(true);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+
+                    boolean won = false;
+                    synchronized (Race.this) {
+                        mConnecting.remove(socket);
+                        if (failure == null && mWinner == null && !mFinished) {
+                            mWinner = socket;
+                            won = true;
+                        } else if (failure != null && mFailure == null) {
+                            mFailure = failure;
+                        }
+                        Race.this.notifyAll();
+                    }
+
+                    if (won) remember(mRoute, address);
+                    else IOUtils.closeQuietly(socket);
+                }
+            });
+        }
+    }
+}
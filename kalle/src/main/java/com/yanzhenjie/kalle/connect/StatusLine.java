@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import java.net.ProtocolException;
+
+/**
+ * <p>
+ * The status line of the response, such as {@code HTTP/1.1 200 OK}.
+ * </p>
+ */
+public final class StatusLine {
+
+    public static StatusLine parse(String statusLine) throws ProtocolException {
+        // HTTP/1.1 200 OK, the reason phrase may be absent.
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+        int minor = statusLine.charAt(7) - '0';
+        if (minor != 0 && minor != 1) throw new ProtocolException("Unexpected status line: " + statusLine);
+
+        int code;
+        try {
+            code = Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+
+        String message = "";
+        if (statusLine.length() > 12) {
+            if (statusLine.charAt(12) != ' ') throw new ProtocolException("Unexpected status line: " + statusLine);
+            message = statusLine.substring(13);
+        }
+        return new StatusLine(minor == 1, code, message);
+    }
+
+    private final boolean mHttp11;
+    private final int mCode;
+    private final String mMessage;
+
+    private StatusLine(boolean http11, int code, String message) {
+        this.mHttp11 = http11;
+        this.mCode = code;
+        this.mMessage = message;
+    }
+
+    /**
+     * The server speaks HTTP/1.1, otherwise HTTP/1.0.
+     */
+    public boolean isHttp11() {
+        return mHttp11;
+    }
+
+    public int code() {
+        return mCode;
+    }
+
+    public String message() {
+        return mMessage;
+    }
+}
@@ -17,24 +17,49 @@ package com.yanzhenjie.kalle.connect.http;
 
 import com.yanzhenjie.kalle.Request;
 import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.Connection;
 import com.yanzhenjie.kalle.connect.Interceptor;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 
 /**
+ * <p>
+ * The chain of a call walks the interceptors of the {@link Pipeline}, one chain serves all the hops.
+ * The position and the request are set before an interceptor is invoked and restored after it returns,
+ * so an interceptor can proceed several times, and it is used by one thread at a time.
+ * Every interceptor is called by its blocking method, so the waits of a blocking call stay on its thread.
+ * </p>
  * Created by YanZhenjie on 2018/3/6.
  */
-public class AppChain implements Chain {
+public class AppChain implements AsyncChain {
 
-    private final List<Interceptor> mInterceptors;
-    private final int mTargetIndex;
-    private final Request mRequest;
+    private final Interceptor[] mInterceptors;
+    private final Call mCall;
+    private int mTargetIndex;
+    private Request mRequest;
 
+    /**
+     * @param interceptors the interceptors, the last one connects.
+     * @param targetIndex  the position of the interceptor invoked by the first {@link #proceed(Request)}.
+     * @param request      the request.
+     * @deprecated the chain of a call is created by {@link Call}, it walks the compiled {@link Pipeline}.
+     */
+    @Deprecated
     public AppChain(List<Interceptor> interceptors, int targetIndex, Request request) {
+        this(interceptors.toArray(new Interceptor[interceptors.size()]), targetIndex, request, null);
+    }
+
+    AppChain(Pipeline pipeline, Request request, Call call) {
+        this(pipeline.interceptors(), 0, request, call);
+    }
+
+    private AppChain(Interceptor[] interceptors, int targetIndex, Request request, Call call) {
         this.mInterceptors = interceptors;
         this.mTargetIndex = targetIndex;
         this.mRequest = request;
+        this.mCall = call;
     }
 
     @Override
@@ -44,13 +69,48 @@ public class AppChain implements Chain {
 
     @Override
     public Response proceed(Request request) throws IOException {
-        Interceptor interceptor = mInterceptors.get(mTargetIndex);
-        AppChain chain = new AppChain(mInterceptors, mTargetIndex + 1, mRequest);
-        return interceptor.intercept(chain);
+        int index = mTargetIndex;
+        if (index >= mInterceptors.length) throw new IllegalStateException("No interceptor after the connection.");
+
+        Request previous = mRequest;
+        mTargetIndex = index + 1;
+        mRequest = request;
+        try {
+            return mInterceptors[index].intercept(this);
+        } finally {
+            mTargetIndex = index;
+            mRequest = previous;
+        }
+    }
+
+    /**
+     * The rest of the chain is executed on the calling thread, the future is completed when it returns.
+     */
+    @Override
+    public ResponseFuture proceedAsync(Request request) {
+        try {
+            return ResponseFuture.completed(proceed(request));
+        } catch (IOException e) {
+            return ResponseFuture.failed(e);
+        }
+    }
+
+    /**
+     * The connection of the current hop, cancelling the call closes it.
+     */
+    void attach(Connection connection) throws InterruptedIOException {
+        if (mCall != null) mCall.attach(connection);
+    }
+
+    /**
+     * Whether the call of the chain is cancelled, its connection is closed and the failures are not to be retried.
+     */
+    boolean isCancelled() {
+        return mCall != null && mCall.isCancelled();
     }
 
     @Override
     public Call newCall() {
         return new Call(mRequest);
     }
-}
\ No newline at end of file
+}
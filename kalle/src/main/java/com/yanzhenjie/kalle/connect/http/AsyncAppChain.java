@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.Interceptor;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * The chain of an asynchronous call, the interceptors may proceed on any thread, so each hop has its own chain.
+ * A blocking interceptor runs on the thread which reaches it, and waits for the rest of the chain there.
+ * </p>
+ */
+final class AsyncAppChain implements AsyncChain {
+
+    private final Pipeline mPipeline;
+    private final int mTargetIndex;
+    private final Request mRequest;
+
+    AsyncAppChain(Pipeline pipeline, int targetIndex, Request request) {
+        this.mPipeline = pipeline;
+        this.mTargetIndex = targetIndex;
+        this.mRequest = request;
+    }
+
+    @Override
+    public Request request() {
+        return mRequest;
+    }
+
+    @Override
+    public Response proceed(Request request) throws IOException {
+        return proceedAsync(request).await();
+    }
+
+    @Override
+    public ResponseFuture proceedAsync(Request request) {
+        Interceptor[] interceptors = mPipeline.interceptors();
+        if (mTargetIndex >= interceptors.length) throw new IllegalStateException("No interceptor after the connection.");
+
+        Interceptor interceptor = interceptors[mTargetIndex];
+        if (interceptor == mPipeline.connectInterceptor()) {
+            return mPipeline.connectInterceptor().enqueue(request);
+        }
+
+        AsyncAppChain chain = new AsyncAppChain(mPipeline, mTargetIndex + 1, request);
+        if (interceptor instanceof AsyncInterceptor) {
+            return ((AsyncInterceptor) interceptor).interceptAsync(chain);
+        }
+        try {
+            return ResponseFuture.completed(interceptor.intercept(chain));
+        } catch (IOException e) {
+            return ResponseFuture.failed(e);
+        }
+    }
+
+    @Override
+    public Call newCall() {
+        return new Call(mRequest);
+    }
+}
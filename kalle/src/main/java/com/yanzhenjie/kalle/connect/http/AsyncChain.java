@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import com.yanzhenjie.kalle.Request;
+
+/**
+ * <p>
+ * The {@link Chain} given to {@link com.yanzhenjie.kalle.connect.AsyncInterceptor}.
+ * </p>
+ */
+public interface AsyncChain extends Chain {
+
+    /**
+     * Proceed to the next request processing without waiting for the response.
+     *
+     * @param request target request.
+     * @return the future of the response, it is completed on the thread which reads the response.
+     */
+    ResponseFuture proceedAsync(Request request);
+}
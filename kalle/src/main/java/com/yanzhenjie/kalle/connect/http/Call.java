@@ -15,22 +15,30 @@
  */
 package com.yanzhenjie.kalle.connect.http;
 
+import com.yanzhenjie.kalle.Canceller;
 import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.KalleConfig;
 import com.yanzhenjie.kalle.Request;
 import com.yanzhenjie.kalle.Response;
-import com.yanzhenjie.kalle.connect.Interceptor;
+import com.yanzhenjie.kalle.connect.AsyncConnectFactory;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InterruptedIOException;
 
 /**
  * Created by YanZhenjie on 2018/2/24.
  */
-public class Call {
+public class Call implements Canceller {
 
     private final Request mRequest;
 
+    private boolean mCancelled;
+    private Connection mConnection;
+
     public Call(Request request) {
         this.mRequest = request;
     }
@@ -39,10 +47,80 @@ public class Call {
      * Execute request.
      */
     public Response execute() throws IOException {
-        List<Interceptor> interceptors = new ArrayList<>(Kalle.getConfig().getInterceptor());
-        interceptors.add(new ConnectInterceptor());
+        AppChain chain = new AppChain(Pipeline.get(Kalle.getConfig()), mRequest, this);
+        try {
+            return chain.proceed(mRequest);
+        } catch (IOException e) {
+            if (!isCancelled()) throw e;
+            InterruptedIOException cancelled = new InterruptedIOException("The call is cancelled.");
+            cancelled.initCause(e);
+            throw cancelled;
+        }
+    }
+
+    /**
+     * Cancel the {@link #execute()}, the connection is closed, so the thread blocked in writing or reading returns.
+     */
+    @Override
+    public void cancel() {
+        Connection connection;
+        synchronized (this) {
+            if (mCancelled) return;
+            mCancelled = true;
+            connection = mConnection;
+        }
+        IOUtils.closeQuietly(connection);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * The call is using the connection, it is closed if the call is cancelled.
+     */
+    void attach(Connection connection) throws InterruptedIOException {
+        synchronized (this) {
+            if (!mCancelled) {
+                mConnection = connection;
+                return;
+            }
+        }
+        IOUtils.closeQuietly(connection);
+        throw new InterruptedIOException("The call is cancelled.");
+    }
+
+    /**
+     * Execute request without occupying the calling thread.
+     *
+     * @return the future of the response, it is completed on the I/O thread.
+     * @see #isAsyncSupported()
+     */
+    public ResponseFuture executeAsync() {
+        if (!isAsyncSupported()) throw new IllegalStateException("The ConnectFactory does not support enqueue.");
+        AsyncAppChain chain = new AsyncAppChain(Pipeline.get(Kalle.getConfig()), 0, mRequest);
+        return chain.proceedAsync(mRequest);
+    }
 
-        AppChain chain = new AppChain(interceptors, 0, mRequest);
-        return chain.proceed(mRequest);
+    /**
+     * Execute request without occupying the calling thread, the callback is called on the I/O thread.
+     *
+     * @throws IOException never thrown now, the exceptions of the request go to the callback.
+     * @see #isAsyncSupported()
+     */
+    public Canceller enqueue(ConnectCallback callback) throws IOException {
+        ResponseFuture future = executeAsync();
+        future.addCallback(callback);
+        return future;
+    }
+
+    /**
+     * The {@link #enqueue(ConnectCallback)} requires a {@link AsyncConnectFactory},
+     * and the interceptors should be {@link AsyncInterceptor}s.
+     */
+    public static boolean isAsyncSupported() {
+        KalleConfig config = Kalle.getConfig();
+        return config.getConnectFactory() instanceof AsyncConnectFactory && Pipeline.get(config).isAsync();
     }
 }
\ No newline at end of file
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.exception.CircuitOpenError;
+import com.yanzhenjie.kalle.exception.NetworkError;
+import com.yanzhenjie.kalle.exception.URLError;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Stop sending requests to an origin which keeps failing or responding slowly.
+ * The circuit of an origin opens when the failures or the slow calls of the recent calls reach a rate,
+ * then the requests fail at once with {@link CircuitOpenError} instead of waiting for the timeouts.
+ * After a while a few trial requests are let through, the circuit closes if they succeed.
+ * The simple requests read the cache instead when the circuit is open, unless the cache mode is network only.
+ * </p>
+ */
+public class CircuitBreakerInterceptor implements AsyncInterceptor {
+
+    private static final int MAX_CIRCUITS = 256;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final int mWindow;
+    private final int mMinimumCalls;
+    private final double mFailureRate;
+    private final long mSlowCallDuration;
+    private final double mSlowCallRate;
+    private final long mOpenDuration;
+    private final int mTrialCalls;
+
+    private final Map<String, Circuit> mCircuits = new LinkedHashMap<String, Circuit>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Circuit> eldest) {
+            return size() > MAX_CIRCUITS;
+        }
+    };
+
+    private CircuitBreakerInterceptor(Builder builder) {
+        this.mWindow = builder.mWindow;
+        this.mMinimumCalls = Math.min(builder.mMinimumCalls, builder.mWindow);
+        this.mFailureRate = builder.mFailureRate;
+        this.mSlowCallDuration = builder.mSlowCallDuration;
+        this.mSlowCallRate = builder.mSlowCallRate;
+        this.mOpenDuration = builder.mOpenDuration;
+        this.mTrialCalls = builder.mTrialCalls;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Circuit circuit = circuit(request);
+        long permit = circuit.acquire(request);
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            circuit.onFailure(permit, e);
+            throw e;
+        } catch (RuntimeException e) {
+            circuit.release(permit);
+            throw e;
+        }
+        circuit.onResponse(permit, response, start);
+        return response;
+    }
+
+    @Override
+    public ResponseFuture interceptAsync(AsyncChain chain) {
+        Request request = chain.request();
+        final Circuit circuit = circuit(request);
+        final long permit;
+        try {
+            permit = circuit.acquire(request);
+        } catch (CircuitOpenError e) {
+            return ResponseFuture.failed(e);
+        }
+
+        final long start = System.nanoTime();
+        ResponseFuture future = chain.proceedAsync(request);
+        future.addCallback(new ConnectCallback() {
+            @Override
+            public void onResponse(Response response) {
+                circuit.onResponse(permit, response, start);
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                circuit.onFailure(permit, e);
+            }
+        });
+        return future;
+    }
+
+    private Circuit circuit(Request request) {
+        String origin = request.url().getOrigin().toLowerCase(Locale.ENGLISH);
+        synchronized (mCircuits) {
+            Circuit circuit = mCircuits.get(origin);
+            if (circuit == null) {
+                circuit = new Circuit(origin);
+                mCircuits.put(origin, circuit);
+            }
+            return circuit;
+        }
+    }
+
+    /**
+     * The state of an origin, the outcomes of the recent calls are kept in a ring.
+     * A permit carries the generation of the state, the outcomes of an older state are ignored.
+     */
+    private final class Circuit {
+
+        private final String mOrigin;
+        private final boolean[] mFailures = new boolean[mWindow];
+        private final boolean[] mSlowCalls = new boolean[mWindow];
+        private int mCount;
+        private int mIndex;
+        private int mFailureCount;
+        private int mSlowCallCount;
+
+        private int mState = CLOSED;
+        private long mGeneration;
+        private long mOpenedAt;
+        private int mPermits;
+        private int mSuccesses;
+
+        private Circuit(String origin) {
+            this.mOrigin = origin;
+        }
+
+        private synchronized long acquire(Request request) throws CircuitOpenError {
+            if (mState == OPEN) {
+                long remaining = mOpenDuration - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mOpenedAt);
+                if (remaining > 0) {
+                    throw new CircuitOpenError(String.format("The circuit of %1$s is open, retry after %2$dms: %3$s.",
+                            mOrigin, remaining, request.url()), remaining);
+                }
+                transit(HALF_OPEN);
+                mPermits = mTrialCalls;
+                mSuccesses = 0;
+            }
+            if (mState == HALF_OPEN) {
+                if (mPermits == 0) {
+                    throw new CircuitOpenError(String.format("The circuit of %1$s is being tried: %2$s.",
+                            mOrigin, request.url()), 0);
+                }
+                mPermits--;
+            }
+            return mGeneration;
+        }
+
+        private void onResponse(long permit, Response response, long start) {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            record(permit, response.code() >= 500, mSlowCallDuration > 0 && duration >= mSlowCallDuration);
+        }
+
+        private void onFailure(long permit, IOException e) {
+            if (isFailure(e)) record(permit, true, false);
+            else release(permit);
+        }
+
+        private synchronized void record(long permit, boolean failed, boolean slow) {
+            if (permit != mGeneration) return;
+            if (mState == HALF_OPEN) {
+                if (failed || slow) transit(OPEN);
+                else if (++mSuccesses >= mTrialCalls) transit(CLOSED);
+                return;
+            }
+
+            if (mCount == mWindow) {
+                if (mFailures[mIndex]) mFailureCount--;
+                if (mSlowCalls[mIndex]) mSlowCallCount--;
+            } else {
+                mCount++;
+            }
+            mFailures[mIndex] = failed;
+            mSlowCalls[mIndex] = slow;
+            if (failed) mFailureCount++;
+            if (slow) mSlowCallCount++;
+            mIndex = (mIndex + 1) % mWindow;
+
+            if (mCount >= mMinimumCalls
+                    && (mFailureCount >= mFailureRate * mCount || mSlowCallCount >= mSlowCallRate * mCount)) {
+                transit(OPEN);
+            }
+        }
+
+        /**
+         * The call ended without an outcome, such as it is cancelled, the trial permit is given back.
+         */
+        private synchronized void release(long permit) {
+            if (permit == mGeneration && mState == HALF_OPEN) mPermits++;
+        }
+
+        private void transit(int state) {
+            mState = state;
+            mGeneration++;
+            if (state == OPEN) mOpenedAt = System.nanoTime();
+            if (state == CLOSED) {
+                mCount = 0;
+                mIndex = 0;
+                mFailureCount = 0;
+                mSlowCallCount = 0;
+            }
+        }
+    }
+
+    private static boolean isFailure(IOException e) {
+        // The device is offline, the origin is not to blame.
+        if (e instanceof URLError || e instanceof NetworkError || e instanceof CircuitOpenError) return false;
+        // The call is cancelled, the origin is not to blame.
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    public static class Builder {
+
+        private int mWindow = 20;
+        private int mMinimumCalls = 10;
+        private double mFailureRate = 0.5;
+        private long mSlowCallDuration = TimeUnit.SECONDS.toMillis(5);
+        private double mSlowCallRate = 0.8;
+        private long mOpenDuration = TimeUnit.SECONDS.toMillis(30);
+        private int mTrialCalls = 3;
+
+        private Builder() {
+        }
+
+        /**
+         * The count of the recent calls whose outcomes are counted, the default is 20.
+         */
+        public Builder window(int calls) {
+            if (calls < 1) throw new IllegalArgumentException("The window must be greater than 0.");
+            this.mWindow = calls;
+            return this;
+        }
+
+        /**
+         * The circuit does not open before so many calls are counted, the default is 10.
+         */
+        public Builder minimumCalls(int calls) {
+            if (calls < 1) throw new IllegalArgumentException("The minimum calls must be greater than 0.");
+            this.mMinimumCalls = calls;
+            return this;
+        }
+
+        /**
+         * The rate of the failures which opens the circuit, from 0 to 1, the default is 0.5.
+         * The exceptions and the responses of 5xx are failures.
+         */
+        public Builder failureRate(double rate) {
+            if (rate <= 0 || rate > 1) throw new IllegalArgumentException("The rate must be from 0 to 1.");
+            this.mFailureRate = rate;
+            return this;
+        }
+
+        /**
+         * A call longer than the duration is slow, and the rate of the slow calls which opens the circuit,
+         * the defaults are 5s and 0.8, the duration 0 means that the latency is not counted.
+         */
+        public Builder slowCall(long duration, TimeUnit timeUnit, double rate) {
+            if (rate <= 0 || rate > 1) throw new IllegalArgumentException("The rate must be from 0 to 1.");
+            this.mSlowCallDuration = timeUnit.toMillis(duration);
+            this.mSlowCallRate = rate;
+            return this;
+        }
+
+        /**
+         * How long the circuit stays open before the trial calls, the default is 30s.
+         */
+        public Builder openDuration(long time, TimeUnit timeUnit) {
+            this.mOpenDuration = timeUnit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * The count of the trial calls which close the circuit when they all succeed, the default is 3.
+         */
+        public Builder trialCalls(int calls) {
+            if (calls < 1) throw new IllegalArgumentException("The trial calls must be greater than 0.");
+            this.mTrialCalls = calls;
+            return this;
+        }
+
+        public CircuitBreakerInterceptor build() {
+            return new CircuitBreakerInterceptor(this);
+        }
+    }
+}
@@ -15,18 +15,24 @@
  */
 package com.yanzhenjie.kalle.connect.http;
 
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.GzipBody;
 import com.yanzhenjie.kalle.Headers;
 import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.KalleConfig;
 import com.yanzhenjie.kalle.Request;
 import com.yanzhenjie.kalle.RequestBody;
 import com.yanzhenjie.kalle.RequestMethod;
 import com.yanzhenjie.kalle.Response;
 import com.yanzhenjie.kalle.ResponseBody;
+import com.yanzhenjie.kalle.connect.AsyncConnectFactory;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
 import com.yanzhenjie.kalle.connect.ConnectFactory;
 import com.yanzhenjie.kalle.connect.Connection;
 import com.yanzhenjie.kalle.connect.Interceptor;
 import com.yanzhenjie.kalle.connect.Network;
 import com.yanzhenjie.kalle.connect.StreamBody;
+import com.yanzhenjie.kalle.connect.stream.ChannelOutput;
 import com.yanzhenjie.kalle.cookie.CookieManager;
 import com.yanzhenjie.kalle.exception.ConnectException;
 import com.yanzhenjie.kalle.exception.ConnectTimeoutError;
@@ -39,20 +45,27 @@ import com.yanzhenjie.kalle.exception.WriteException;
 import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
 import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
 import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_TYPE;
 import static com.yanzhenjie.kalle.Headers.KEY_COOKIE;
 import static com.yanzhenjie.kalle.Headers.KEY_HOST;
 import static com.yanzhenjie.kalle.Headers.KEY_SET_COOKIE;
+import static com.yanzhenjie.kalle.Headers.KEY_TRANSFER_ENCODING;
+import static com.yanzhenjie.kalle.Headers.VALUE_CHUNKED;
+import static com.yanzhenjie.kalle.Headers.VALUE_GZIP;
 
 /**
  * Created by YanZhenjie on 2018/2/20.
@@ -62,11 +75,19 @@ public class ConnectInterceptor implements Interceptor {
     private final CookieManager mCookieManager;
     private final ConnectFactory mFactory;
     private final Network mNetwork;
+    /**
+     * The cookies of the manager added to the requests, they are replaced when a request is prepared again.
+     */
+    private final Map<Request, List<String>> mAddedCookies = new WeakHashMap<>();
 
     public ConnectInterceptor() {
-        this.mCookieManager = new CookieManager(Kalle.getConfig().getCookieStore());
-        this.mFactory = Kalle.getConfig().getConnectFactory();
-        this.mNetwork = Kalle.getConfig().getNetwork();
+        this(Kalle.getConfig());
+    }
+
+    public ConnectInterceptor(KalleConfig config) {
+        this.mCookieManager = new CookieManager(config.getCookieStore());
+        this.mFactory = config.getConnectFactory();
+        this.mNetwork = config.getNetwork();
     }
 
     @Override
@@ -76,18 +97,50 @@ public class ConnectInterceptor implements Interceptor {
 
         Connection connection;
         if (method.allowBody()) {
-            Headers headers = request.headers();
             RequestBody body = request.body();
-            headers.set(KEY_CONTENT_LENGTH, Long.toString(body.length()));
-            headers.set(KEY_CONTENT_TYPE, body.contentType());
+            setBodyHeaders(request.headers(), body);
             connection = connect(request);
+            attach(chain, connection);
             writeBody(connection, body);
         } else {
             connection = connect(request);
+            attach(chain, connection);
         }
         return readResponse(connection, request);
     }
 
+    /**
+     * Execute the request with the {@link AsyncConnectFactory}, the future is completed on the I/O thread.
+     *
+     * @param request target request.
+     * @return the future of the response, cancelling it cancels the request.
+     */
+    ResponseFuture enqueue(final Request request) {
+        final ResponseFuture future = new ResponseFuture();
+        try {
+            if (request.method().allowBody()) setBodyHeaders(request.headers(), request.body());
+            prepare(request);
+        } catch (ConnectException e) {
+            future.fail(e);
+            return future;
+        }
+
+        Canceller canceller = ((AsyncConnectFactory) mFactory).enqueue(request, new ConnectCallback() {
+            @Override
+            public void onResponse(Response response) {
+                saveCookies(request, response.headers());
+                future.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                future.fail(e);
+            }
+        });
+        future.setCanceller(canceller);
+        return future;
+    }
+
     /**
      * Connect to the server to change the connection anomalies occurred.
      *
@@ -96,19 +149,10 @@ public class ConnectInterceptor implements Interceptor {
      * @throws ConnectException anomalies that occurred during the connection.
      */
     private Connection connect(Request request) throws ConnectException {
-        if (!mNetwork.isAvailable())
-            throw new NetworkError(String.format("Network Unavailable: %1$s.", request.url()));
+        prepare(request);
 
         try {
-            Headers headers = request.headers();
-            URI uri = new URI(request.url().toString());
-            List<String> cookieHeader = mCookieManager.get(uri);
-            if (cookieHeader != null && !cookieHeader.isEmpty())
-                headers.add(KEY_COOKIE, cookieHeader);
-            headers.set(KEY_HOST, uri.getHost());
             return mFactory.connect(request);
-        } catch (URISyntaxException e) {
-            throw new URLError(String.format("The url syntax error: %1$s.", request.url()), e);
         } catch (MalformedURLException e) {
             throw new URLError(String.format("The url is malformed: %1$s.", request.url()), e);
         } catch (UnknownHostException e) {
@@ -120,12 +164,92 @@ public class ConnectInterceptor implements Interceptor {
         }
     }
 
+    /**
+     * Let the call close the connection when it is cancelled, the thread blocked in the connection returns.
+     */
+    private static void attach(Chain chain, Connection connection) throws InterruptedIOException {
+        if (chain instanceof AppChain) ((AppChain) chain).attach(connection);
+    }
+
+    /**
+     * Check the network and add the cookies and host to the headers.
+     */
+    private void prepare(Request request) throws ConnectException {
+        if (!mNetwork.isAvailable())
+            throw new NetworkError(String.format("Network Unavailable: %1$s.", request.url()));
+
+        try {
+            Headers headers = request.headers();
+            URI uri = request.url().toURI();
+            List<String> cookieHeader = mCookieManager.get(uri);
+            addCookies(request, headers, cookieHeader);
+            headers.set(KEY_HOST, uri.getHost());
+        } catch (URISyntaxException e) {
+            throw new URLError(String.format("The url syntax error: %1$s.", request.url()), e);
+        }
+    }
+
+    /**
+     * The request may be prepared again, such as when it is retried, the cookies added last time are replaced,
+     * and the cookies set by the caller are kept.
+     */
+    private void addCookies(Request request, Headers headers, List<String> cookieHeader) {
+        List<String> previous;
+        synchronized (mAddedCookies) {
+            previous = mAddedCookies.remove(request);
+        }
+        List<String> current = headers.get(KEY_COOKIE);
+        List<String> cookies = current == null ? new ArrayList<String>() : new ArrayList<>(current);
+        if (previous != null) {
+            for (String cookie : previous) {
+                cookies.remove(cookie);
+            }
+        }
+
+        List<String> added = new ArrayList<>();
+        if (cookieHeader != null) {
+            for (String cookie : cookieHeader) {
+                if (!cookies.contains(cookie)) {
+                    cookies.add(cookie);
+                    added.add(cookie);
+                }
+            }
+        }
+        if (!added.isEmpty()) {
+            synchronized (mAddedCookies) {
+                mAddedCookies.put(request, added);
+            }
+        }
+
+        if (cookies.isEmpty()) headers.remove(KEY_COOKIE);
+        else headers.set(KEY_COOKIE, cookies);
+    }
+
+    private static void setBodyHeaders(Headers headers, RequestBody body) {
+        long length = body.length();
+        if (length < 0) {
+            headers.remove(KEY_CONTENT_LENGTH);
+            headers.set(KEY_TRANSFER_ENCODING, VALUE_CHUNKED);
+        } else {
+            headers.remove(KEY_TRANSFER_ENCODING);
+            headers.set(KEY_CONTENT_LENGTH, Long.toString(length));
+        }
+        headers.set(KEY_CONTENT_TYPE, body.contentType());
+        if (body instanceof GzipBody && ((GzipBody) body).isCompressed()) {
+            headers.set(KEY_CONTENT_ENCODING, VALUE_GZIP);
+        }
+    }
+
     private void writeBody(Connection connection, RequestBody body) throws WriteException {
         try {
             OutputStream stream = connection.getOutputStream();
-            body.writeTo(IOUtils.toBufferedOutputStream(stream));
+            // The channel output is buffered by the connection, the files are not copied through this buffer.
+            OutputStream buffered = stream instanceof ChannelOutput ? stream : IOUtils.toBufferedOutputStream(stream);
+            body.writeTo(buffered);
+            buffered.flush();
             IOUtils.closeQuietly(stream);
         } catch (Exception e) {
+            IOUtils.closeQuietly(connection);
             throw new WriteException(e);
         }
     }
@@ -134,21 +258,30 @@ public class ConnectInterceptor implements Interceptor {
         try {
             int code = connection.getCode();
             Headers headers = parseResponseHeaders(connection.getHeaders());
-
-            List<String> cookieList = headers.get(KEY_SET_COOKIE);
-            if (cookieList != null && !cookieList.isEmpty())
-                mCookieManager.add(URI.create(request.url().toString()), cookieList);
+            saveCookies(request, headers);
 
             String contentType = headers.getContentType();
             ResponseBody body = new StreamBody(contentType, connection.getInputStream());
             return Response.newBuilder().code(code).headers(headers).body(body).build();
         } catch (SocketTimeoutException e) {
+            IOUtils.closeQuietly(connection);
             throw new ReadTimeoutError(String.format("Read data time out: %1$s.", request.url()), e);
         } catch (Exception e) {
+            IOUtils.closeQuietly(connection);
             throw new ReadException(e);
         }
     }
 
+    private void saveCookies(Request request, Headers headers) {
+        List<String> cookieList = headers.get(KEY_SET_COOKIE);
+        if (cookieList == null || cookieList.isEmpty()) return;
+        try {
+            mCookieManager.add(request.url().toURI(), cookieList);
+        } catch (URISyntaxException ignored) {
+            // The url has been checked when the request was prepared.
+        }
+    }
+
     private Headers parseResponseHeaders(Map<String, List<String>> headersMap) {
         Headers headers = new Headers();
         for (Map.Entry<String, List<String>> entry : headersMap.entrySet()) {
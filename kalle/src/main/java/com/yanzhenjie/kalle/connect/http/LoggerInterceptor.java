@@ -21,7 +21,8 @@ import android.util.Log;
 import com.yanzhenjie.kalle.Headers;
 import com.yanzhenjie.kalle.Request;
 import com.yanzhenjie.kalle.Response;
-import com.yanzhenjie.kalle.connect.Interceptor;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
 
 import java.io.IOException;
 import java.util.List;
@@ -31,7 +32,7 @@ import java.util.Map;
 /**
  * Created by YanZhenjie on 2018/3/26.
  */
-public class LoggerInterceptor implements Interceptor {
+public class LoggerInterceptor implements AsyncInterceptor {
 
     private final String mTag;
     private final boolean isEnable;
@@ -45,33 +46,61 @@ public class LoggerInterceptor implements Interceptor {
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
         if (isEnable) {
-            String url = request.url().toString();
+            printRequest(request);
+            Response response = chain.proceed(request);
+            printResponse(request, response);
+            return response;
+        }
+        return chain.proceed(request);
+    }
 
-            StringBuilder requestLog = new StringBuilder(String.format(" \nPrint Request: %1$s.", url));
-            requestLog.append(String.format("\nMethod: %1$s.", request.method().name()));
+    @Override
+    public ResponseFuture interceptAsync(AsyncChain chain) {
+        final Request request = chain.request();
+        if (!isEnable) return chain.proceedAsync(request);
 
-            Headers toHeaders = request.headers();
-            for (Map.Entry<String, List<String>> entry : toHeaders.entrySet()) {
-                String key = entry.getKey();
-                List<String> values = entry.getValue();
-                requestLog.append(String.format("\n%1$s: %2$s.", key, TextUtils.join(";", values)));
+        printRequest(request);
+        ResponseFuture future = chain.proceedAsync(request);
+        future.addCallback(new ConnectCallback() {
+            @Override
+            public void onResponse(Response response) {
+                printResponse(request, response);
             }
-            Log.i(mTag, requestLog.toString());
 
-            Response response = chain.proceed(request);
-            StringBuilder responseLog = new StringBuilder(String.format(" \nPrint Response: %1$s.", url));
-            responseLog.append(String.format(Locale.getDefault(), "\nCode: %1$d", response.code()));
-
-            Headers fromHeaders = response.headers();
-            for (Map.Entry<String, List<String>> entry : fromHeaders.entrySet()) {
-                String key = entry.getKey();
-                List<String> values = entry.getValue();
-                responseLog.append(String.format("\n%1$s: %2$s.", key, TextUtils.join(";", values)));
+            @Override
+            public void onFailure(IOException e) {
             }
-            Log.i(mTag, responseLog.toString());
-            return response;
+        });
+        return future;
+    }
+
+    private void printRequest(Request request) {
+        String url = request.url().toString();
+
+        StringBuilder requestLog = new StringBuilder(String.format(" \nPrint Request: %1$s.", url));
+        requestLog.append(String.format("\nMethod: %1$s.", request.method().name()));
+
+        Headers toHeaders = request.headers();
+        for (Map.Entry<String, List<String>> entry : toHeaders.entrySet()) {
+            String key = entry.getKey();
+            List<String> values = entry.getValue();
+            requestLog.append(String.format("\n%1$s: %2$s.", key, TextUtils.join(";", values)));
         }
-        return chain.proceed(request);
+        Log.i(mTag, requestLog.toString());
     }
 
+    private void printResponse(Request request, Response response) {
+        String url = request.url().toString();
+
+        StringBuilder responseLog = new StringBuilder(String.format(" \nPrint Response: %1$s.", url));
+        responseLog.append(String.format(Locale.getDefault(), "\nCode: %1$d", response.code()));
+
+        Headers fromHeaders = response.headers();
+        for (Map.Entry<String, List<String>> entry : fromHeaders.entrySet()) {
+            String key = entry.getKey();
+            List<String> values = entry.getValue();
+            responseLog.append(String.format("\n%1$s: %2$s.", key, TextUtils.join(";", values)));
+        }
+        Log.i(mTag, responseLog.toString());
+    }
 }
\ No newline at end of file
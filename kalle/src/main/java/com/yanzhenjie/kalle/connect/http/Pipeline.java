@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import com.yanzhenjie.kalle.KalleConfig;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.Interceptor;
+
+import java.util.List;
+
+/**
+ * <p>
+ * The interceptors of a {@link KalleConfig} followed by the {@link ConnectInterceptor}.
+ * It is compiled once for the config and shared by all the calls, nothing of it changes after that.
+ * </p>
+ */
+final class Pipeline {
+
+    private static volatile Pipeline sPipeline;
+
+    /**
+     * Get the pipeline of the config, it is compiled when the config is used the first time.
+     */
+    static Pipeline get(KalleConfig config) {
+        Pipeline pipeline = sPipeline;
+        if (pipeline == null || pipeline.mConfig != config) {
+            pipeline = new Pipeline(config);
+            sPipeline = pipeline;
+        }
+        return pipeline;
+    }
+
+    private final KalleConfig mConfig;
+    private final Interceptor[] mInterceptors;
+    private final ConnectInterceptor mConnectInterceptor;
+    private final boolean isAsync;
+
+    private Pipeline(KalleConfig config) {
+        this.mConfig = config;
+        this.mConnectInterceptor = new ConnectInterceptor(config);
+
+        List<Interceptor> interceptors = config.getInterceptor();
+        this.mInterceptors = interceptors.toArray(new Interceptor[interceptors.size() + 1]);
+        this.mInterceptors[interceptors.size()] = mConnectInterceptor;
+
+        boolean async = true;
+        for (Interceptor interceptor : interceptors) {
+            async &= interceptor instanceof AsyncInterceptor;
+        }
+        this.isAsync = async;
+    }
+
+    /**
+     * The interceptors in order, the last one is the {@link ConnectInterceptor}.
+     */
+    Interceptor[] interceptors() {
+        return mInterceptors;
+    }
+
+    /**
+     * The terminal interceptor, it connects the network.
+     */
+    ConnectInterceptor connectInterceptor() {
+        return mConnectInterceptor;
+    }
+
+    /**
+     * Whether all the interceptors before the {@link ConnectInterceptor} are {@link AsyncInterceptor}s.
+     */
+    boolean isAsync() {
+        return isAsync;
+    }
+}
@@ -22,17 +22,25 @@ import com.yanzhenjie.kalle.RequestMethod;
 import com.yanzhenjie.kalle.Response;
 import com.yanzhenjie.kalle.Url;
 import com.yanzhenjie.kalle.UrlRequest;
-import com.yanzhenjie.kalle.connect.Interceptor;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.util.IOExecutor;
 import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import static com.yanzhenjie.kalle.Headers.KEY_COOKIE;
 
 /**
  * Created by YanZhenjie on 2018/3/6.
  */
-public class RedirectInterceptor implements Interceptor {
+public class RedirectInterceptor implements AsyncInterceptor {
+
+    /**
+     * The responses arrive on the I/O thread, the next request is sent from here so the I/O thread is not held.
+     */
+    private static final Executor EXECUTOR = IOExecutor.get();
 
     public RedirectInterceptor() {
     }
@@ -42,27 +50,60 @@ public class RedirectInterceptor implements Interceptor {
         Request request = chain.request();
         Response response = chain.proceed(request);
         if (response.isRedirect()) {
-            Url oldUrl = request.url();
-            Url url = oldUrl.location(response.headers().getLocation());
-            Headers headers = request.headers();
-            headers.remove(KEY_COOKIE);
-
-            RequestMethod method = request.method();
-            Request newRequest;
-            if (method.allowBody()) {
-                newRequest = BodyRequest.newBuilder(url.builder(), method)
-                        .setHeaders(headers)
-                        .setParams(request.copyParams())
-                        .body(request.body())
-                        .build();
-            } else {
-                newRequest = UrlRequest.newBuilder(url.builder(), method)
-                        .setHeaders(headers)
-                        .build();
-            }
+            Request newRequest = redirect(request, response);
             IOUtils.closeQuietly(response);
             return chain.proceed(newRequest);
         }
         return response;
     }
+
+    @Override
+    public ResponseFuture interceptAsync(final AsyncChain chain) {
+        final Request request = chain.request();
+        final ResponseFuture future = new ResponseFuture();
+        ResponseFuture first = chain.proceedAsync(request);
+        future.setCanceller(first);
+        first.addCallback(new ConnectCallback() {
+            @Override
+            public void onResponse(final Response response) {
+                if (!response.isRedirect()) {
+                    future.onResponse(response);
+                    return;
+                }
+                IOUtils.closeQuietly(response);
+                EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (future.isCancelled()) return;
+                        future.completeWith(chain.proceedAsync(redirect(request, response)));
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                future.fail(e);
+            }
+        });
+        return future;
+    }
+
+    private static Request redirect(Request request, Response response) {
+        Url oldUrl = request.url();
+        Url url = oldUrl.location(response.headers().getLocation());
+        Headers headers = request.headers();
+        headers.remove(KEY_COOKIE);
+
+        RequestMethod method = request.method();
+        if (method.allowBody()) {
+            return BodyRequest.newBuilder(url.builder(), method)
+                    .setHeaders(headers)
+                    .setParams(request.copyParams())
+                    .body(request.body())
+                    .build();
+        }
+        return UrlRequest.newBuilder(url.builder(), method)
+                .setHeaders(headers)
+                .build();
+    }
 }
\ No newline at end of file
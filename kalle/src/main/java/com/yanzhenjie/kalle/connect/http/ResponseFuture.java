@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.http;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>
+ * The response of an asynchronous call, it is completed once with a response or an exception.
+ * The callbacks are called on the thread which completes it, or at once if it has been completed.
+ * Cancelling it cancels the work producing the response.
+ * </p>
+ */
+public final class ResponseFuture implements Canceller, ConnectCallback {
+
+    public static ResponseFuture completed(Response response) {
+        ResponseFuture future = new ResponseFuture();
+        future.complete(response);
+        return future;
+    }
+
+    public static ResponseFuture failed(IOException e) {
+        ResponseFuture future = new ResponseFuture();
+        future.fail(e);
+        return future;
+    }
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    private List<ConnectCallback> mCallbacks;
+    private Canceller mCanceller;
+    private boolean mDone;
+    private volatile boolean mCancelled;
+
+    private Response mResponse;
+    private IOException mException;
+
+    public ResponseFuture() {
+    }
+
+    /**
+     * Complete with the response.
+     *
+     * @return false if it has been completed, then the response is not taken.
+     */
+    public boolean complete(Response response) {
+        return finish(response, null);
+    }
+
+    /**
+     * Complete with the exception.
+     *
+     * @return false if it has been completed.
+     */
+    public boolean fail(IOException e) {
+        return finish(null, e);
+    }
+
+    /**
+     * Complete with the result of another future, cancelling this one cancels the other.
+     */
+    public void completeWith(ResponseFuture future) {
+        setCanceller(future);
+        future.addCallback(this);
+    }
+
+    /**
+     * Set the work producing the response, it is cancelled with this future.
+     */
+    public void setCanceller(Canceller canceller) {
+        boolean cancelled;
+        synchronized (this) {
+            mCanceller = canceller;
+            cancelled = mCancelled;
+        }
+        if (cancelled) canceller.cancel();
+    }
+
+    /**
+     * Receive the result, the response belongs to the callbacks, one of them should close it.
+     */
+    public void addCallback(ConnectCallback callback) {
+        synchronized (this) {
+            if (!mDone) {
+                if (mCallbacks == null) mCallbacks = new ArrayList<>(2);
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        dispatch(callback);
+    }
+
+    /**
+     * Wait for the result, the waiting thread is occupied.
+     *
+     * @return the response.
+     * @throws IOException the exception of the call, or the waiting is interrupted.
+     */
+    public Response await() throws IOException {
+        try {
+            mLatch.await();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The call is interrupted.");
+        }
+        if (mException != null) throw mException;
+        return mResponse;
+    }
+
+    /**
+     * Whether the result is available.
+     */
+    public boolean isDone() {
+        return mLatch.getCount() == 0;
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        // A response arriving after the cancellation is not delivered.
+        if (!complete(response)) IOUtils.closeQuietly(response);
+    }
+
+    @Override
+    public void onFailure(IOException e) {
+        fail(e);
+    }
+
+    @Override
+    public void cancel() {
+        Canceller canceller;
+        synchronized (this) {
+            if (mDone) return;
+            mCancelled = true;
+            canceller = mCanceller;
+        }
+        if (canceller != null) canceller.cancel();
+        fail(new InterruptedIOException("The call is cancelled."));
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private boolean finish(Response response, IOException e) {
+        List<ConnectCallback> callbacks;
+        synchronized (this) {
+            if (mDone) return false;
+            mDone = true;
+            mResponse = response;
+            mException = e;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+        }
+        mLatch.countDown();
+        if (callbacks != null) {
+            for (ConnectCallback callback : callbacks) {
+                dispatch(callback);
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(ConnectCallback callback) {
+        if (mException != null) callback.onFailure(mException);
+        else callback.onResponse(mResponse);
+    }
+}
@@ -15,32 +15,342 @@
  */
 package com.yanzhenjie.kalle.connect.http;
 
+import com.yanzhenjie.kalle.OneShotBody;
+import com.yanzhenjie.kalle.Request;
 import com.yanzhenjie.kalle.Response;
-import com.yanzhenjie.kalle.connect.Interceptor;
+import com.yanzhenjie.kalle.connect.AsyncInterceptor;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.exception.CircuitOpenError;
+import com.yanzhenjie.kalle.exception.NetworkError;
+import com.yanzhenjie.kalle.exception.URLError;
+import com.yanzhenjie.kalle.util.IOExecutor;
+import com.yanzhenjie.kalle.util.IOUtils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * <p>
+ * Send the request again when it fails or the server is temporarily unavailable.
+ * The attempts of a call wait longer and longer with a random jitter, and a {@value com.yanzhenjie.kalle.Headers#KEY_RETRY_AFTER}
+ * of the server is respected. Only the idempotent requests are retried, see {@link Request#isIdempotent()}.
+ * Each host has a budget of retries, it is refilled by the successful responses, so an outage is not amplified.
+ * </p>
  * Created by YanZhenjie on 2018/3/6.
  */
-public class RetryInterceptor implements Interceptor {
+public class RetryInterceptor implements AsyncInterceptor {
 
-    private int mCount;
+    private static final int MAX_BUDGETS = 256;
 
+    private static final ThreadFactory THREAD_FACTORY = IOExecutor.threadFactory("Kalle Retry");
+
+    private static ScheduledExecutorService sScheduler;
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (sScheduler == null) sScheduler = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+        return sScheduler;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final int mMaxRetries;
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int[] mStatusCodes;
+    private final long mMaxRetryAfter;
+    private final double mBudgetCapacity;
+    private final double mBudgetRefill;
+
+    private final Random mRandom = new Random();
+    private final Map<String, Budget> mBudgets = new LinkedHashMap<String, Budget>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Budget> eldest) {
+            return size() > MAX_BUDGETS;
+        }
+    };
+
+    /**
+     * Retry the failures up to the count with the default backoff and budget.
+     */
     public RetryInterceptor(int count) {
-        this.mCount = count;
+        this(newBuilder().maxRetries(count));
+    }
+
+    private RetryInterceptor(Builder builder) {
+        this.mMaxRetries = builder.mMaxRetries;
+        this.mInitialDelay = builder.mInitialDelay;
+        this.mMaxDelay = builder.mMaxDelay;
+        this.mMultiplier = builder.mMultiplier;
+        this.mJitter = builder.mJitter;
+        this.mStatusCodes = builder.mStatusCodes.clone();
+        Arrays.sort(mStatusCodes);
+        this.mMaxRetryAfter = builder.mMaxRetryAfter;
+        this.mBudgetCapacity = builder.mBudgetCapacity;
+        this.mBudgetRefill = builder.mBudgetRefill;
     }
 
     @Override
     public Response intercept(Chain chain) throws IOException {
-        try {
-            return chain.proceed(chain.request());
-        } catch (IOException e) {
-            if (mCount > 0) {
-                mCount--;
-                return intercept(chain);
+        Request request = chain.request();
+        Budget budget = budget(request);
+        for (int attempt = 0; ; attempt++) {
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            // Cancelling the call closes the connection, the failure looks like a broken connection.
+            long delay = isCancelled(chain) ? -1 : retryDelay(request, budget, attempt, response, failure);
+            if (delay < 0) {
+                if (failure != null) throw failure;
+                return response;
+            }
+            IOUtils.closeQuietly(response);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The retry is interrupted.");
+            }
+            if (isCancelled(chain)) throw new InterruptedIOException("The call is cancelled.");
+        }
+    }
+
+    private static boolean isCancelled(Chain chain) {
+        return chain instanceof AppChain && ((AppChain) chain).isCancelled();
+    }
+
+    @Override
+    public ResponseFuture interceptAsync(AsyncChain chain) {
+        Attempts attempts = new Attempts(chain);
+        attempts.run();
+        return attempts.mFuture;
+    }
+
+    /**
+     * Decide whether to send the request again.
+     *
+     * @return the milliseconds to wait before the next attempt, -1 if the result is final.
+     */
+    private long retryDelay(Request request, Budget budget, int attempt, Response response, IOException failure) {
+        long retryAfter = 0;
+        if (failure != null) {
+            if (!isRetryable(failure)) return -1;
+        } else {
+            int code = response.code();
+            if (Arrays.binarySearch(mStatusCodes, code) < 0) {
+                // Only a success refills the budget, the client errors and the other server errors leave it as it is.
+                if (code < 400) budget.refill();
+                return -1;
+            }
+            retryAfter = response.headers().getRetryAfter();
+            if (retryAfter > mMaxRetryAfter) return -1;
+        }
+
+        if (attempt >= mMaxRetries || !request.isIdempotent()) return -1;
+        if (request.method().allowBody() && request.body() instanceof OneShotBody) return -1;
+        if (!budget.acquire()) return -1;
+        return Math.max(backoff(attempt), retryAfter);
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof URLError || e instanceof NetworkError || e instanceof CircuitOpenError) return false;
+        // The call is cancelled or interrupted, but a timeout is worth another attempt.
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    private long backoff(int attempt) {
+        double delay = Math.min(mMaxDelay, mInitialDelay * Math.pow(mMultiplier, attempt));
+        double random;
+        synchronized (mRandom) {
+            random = mRandom.nextDouble();
+        }
+        return (long) (delay * (1 - mJitter * random));
+    }
+
+    private Budget budget(Request request) {
+        String host = request.url().getHost();
+        String key = host == null ? "" : host.toLowerCase(Locale.ENGLISH);
+        synchronized (mBudgets) {
+            Budget budget = mBudgets.get(key);
+            if (budget == null) {
+                budget = new Budget();
+                mBudgets.put(key, budget);
+            }
+            return budget;
+        }
+    }
+
+    /**
+     * The retries of a host, each retry takes a token, and each successful response puts back a part of a token.
+     */
+    private final class Budget {
+
+        private double mTokens = mBudgetCapacity;
+
+        private synchronized boolean acquire() {
+            if (mTokens < 1) return false;
+            mTokens -= 1;
+            return true;
+        }
+
+        private synchronized void refill() {
+            mTokens = Math.min(mBudgetCapacity, mTokens + mBudgetRefill);
+        }
+    }
+
+    /**
+     * The attempts of an asynchronous call, the waiting between them does not hold a thread.
+     */
+    private final class Attempts implements Runnable, ConnectCallback {
+
+        private final AsyncChain mChain;
+        private final Request mRequest;
+        private final Budget mBudget;
+        private final ResponseFuture mFuture = new ResponseFuture();
+        private int mAttempt;
+
+        private Attempts(AsyncChain chain) {
+            this.mChain = chain;
+            this.mRequest = chain.request();
+            this.mBudget = budget(mRequest);
+        }
+
+        @Override
+        public void run() {
+            if (mFuture.isDone()) return;
+            ResponseFuture future = mChain.proceedAsync(mRequest);
+            mFuture.setCanceller(future);
+            future.addCallback(this);
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            if (mFuture.isCancelled()) {
+                IOUtils.closeQuietly(response);
+                return;
+            }
+            long delay = retryDelay(mRequest, mBudget, mAttempt, response, null);
+            if (delay < 0) {
+                mFuture.onResponse(response);
+            } else {
+                IOUtils.closeQuietly(response);
+                retry(delay);
             }
-            throw e;
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            // The future has failed when it is cancelled.
+            if (mFuture.isCancelled()) return;
+            long delay = retryDelay(mRequest, mBudget, mAttempt, null, e);
+            if (delay < 0) mFuture.fail(e);
+            else retry(delay);
+        }
+
+        private void retry(long delay) {
+            mAttempt++;
+            scheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static class Builder {
+
+        private int mMaxRetries = 2;
+        private long mInitialDelay = 200;
+        private long mMaxDelay = TimeUnit.SECONDS.toMillis(10);
+        private double mMultiplier = 2;
+        private double mJitter = 0.5;
+        private int[] mStatusCodes = {408, 429, 502, 503, 504};
+        private long mMaxRetryAfter = TimeUnit.SECONDS.toMillis(30);
+        private double mBudgetCapacity = 10;
+        private double mBudgetRefill = 0.1;
+
+        private Builder() {
+        }
+
+        /**
+         * The retries of a call after the first attempt, the default is 2.
+         */
+        public Builder maxRetries(int count) {
+            if (count < 0) throw new IllegalArgumentException("The count can not be negative.");
+            this.mMaxRetries = count;
+            return this;
+        }
+
+        /**
+         * The wait before the first retry and the upper limit of the waits, the defaults are 200ms and 10s.
+         */
+        public Builder backoff(long initialDelay, long maxDelay, TimeUnit timeUnit) {
+            this.mInitialDelay = timeUnit.toMillis(initialDelay);
+            this.mMaxDelay = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * The wait is multiplied by it after each retry, the default is 2.
+         */
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) throw new IllegalArgumentException("The multiplier can not be less than 1.");
+            this.mMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * The part of the wait which is random, from 0 to 1, the default is 0.5.
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("The jitter must be from 0 to 1.");
+            this.mJitter = jitter;
+            return this;
+        }
+
+        /**
+         * The response codes which are retried, the default is 408, 429, 502, 503 and 504.
+         */
+        public Builder statusCodes(int... codes) {
+            this.mStatusCodes = codes.clone();
+            return this;
+        }
+
+        /**
+         * The longest {@value com.yanzhenjie.kalle.Headers#KEY_RETRY_AFTER} which is waited for,
+         * the response is returned if the server asks for longer, the default is 30s.
+         */
+        public Builder maxRetryAfter(long time, TimeUnit timeUnit) {
+            this.mMaxRetryAfter = timeUnit.toMillis(time);
+            return this;
+        }
+
+        /**
+         * The retry budget of each host, the defaults are 10 retries, and 0.1 retry is earned by a successful response.
+         */
+        public Builder budget(int capacity, double refill) {
+            if (capacity < 0 || refill < 0) throw new IllegalArgumentException("The budget can not be negative.");
+            this.mBudgetCapacity = capacity;
+            this.mBudgetRefill = refill;
+            return this;
+        }
+
+        public RetryInterceptor build() {
+            return new RetryInterceptor(this);
         }
     }
-}
\ No newline at end of file
+}
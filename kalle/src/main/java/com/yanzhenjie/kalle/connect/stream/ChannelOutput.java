@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.stream;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * The output takes the data of a file without copying it through the heap when it can,
+ * such as a plain socket sends the file by sendfile.
+ * </p>
+ */
+public interface ChannelOutput {
+
+    /**
+     * Write the bytes of the file, the written bytes are flushed.
+     *
+     * @param channel  the channel of the file.
+     * @param position the position of the first byte in the file.
+     * @param count    the count of the bytes.
+     */
+    void transferFrom(FileChannel channel, long position, long count) throws IOException;
+}
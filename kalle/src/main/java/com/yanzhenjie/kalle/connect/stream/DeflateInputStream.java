@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>
+ * Decompress the deflate data of HTTP, it should be zlib data, but some servers send the raw deflate data,
+ * the format is detected by the first two bytes. The inflater is taken from a pool and returned when
+ * the stream is closed. An empty stream is read as empty data.
+ * </p>
+ */
+public class DeflateInputStream extends InflaterInputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final boolean mNowrap;
+    private final boolean mEmpty;
+    private boolean mClosed;
+
+    public DeflateInputStream(InputStream in) throws IOException {
+        this(new PushbackInputStream(in, 2));
+    }
+
+    private DeflateInputStream(PushbackInputStream in) throws IOException {
+        this(in, peek(in));
+    }
+
+    private DeflateInputStream(InputStream in, int header) {
+        super(in, InflaterPool.obtain(header >= 0 && !isZlib(header)), BUFFER_SIZE);
+        this.mNowrap = header >= 0 && !isZlib(header);
+        this.mEmpty = header < 0;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (mClosed) throw new IOException("Stream closed.");
+        if (mEmpty) return -1;
+        return super.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            super.close();
+        } finally {
+            InflaterPool.recycle(inf, mNowrap);
+        }
+    }
+
+    /**
+     * Read the first two bytes and push them back.
+     *
+     * @return the two bytes in big-endian, -1 if the stream is empty.
+     */
+    private static int peek(PushbackInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) return -1;
+        int second = in.read();
+        if (second == -1) {
+            in.unread(first);
+            return first << 8;
+        }
+        in.unread(second);
+        in.unread(first);
+        return (first << 8) | second;
+    }
+
+    /**
+     * The zlib header has the deflate method, a valid window size and a check value (RFC 1950).
+     */
+    private static boolean isZlib(int header) {
+        return (header & 0x0f00) == 0x0800 && (header >> 12) <= 7 && header % 31 == 0;
+    }
+}
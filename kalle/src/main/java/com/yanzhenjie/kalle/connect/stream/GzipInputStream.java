@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * Decompress the gzip data like {@link java.util.zip.GZIPInputStream}, the inflater is taken from a pool
+ * and returned when the stream is closed. An empty stream is read as empty data.
+ * </p>
+ */
+public class GzipInputStream extends InflaterInputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final CRC32 mCrc = new CRC32();
+    private boolean mEof;
+    private boolean mClosed;
+
+    public GzipInputStream(InputStream in) throws IOException {
+        super(in, InflaterPool.obtain(true), BUFFER_SIZE);
+        try {
+            mEof = readHeader(in) < 0;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (mClosed) throw new IOException("Stream closed.");
+        if (mEof) return -1;
+
+        int count = super.read(b, off, len);
+        if (count == -1) {
+            if (readTrailer()) {
+                mEof = true;
+            } else {
+                return read(b, off, len);
+            }
+        } else {
+            mCrc.update(b, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            super.close();
+        } finally {
+            InflaterPool.recycle(inf, true);
+        }
+    }
+
+    /**
+     * Read the header of a member.
+     *
+     * @return the length of the header, -1 if the stream ends before it.
+     */
+    private int readHeader(InputStream stream) throws IOException {
+        mCrc.reset();
+        CheckedInputStream in = new CheckedInputStream(stream, mCrc);
+        int id = in.read();
+        if (id == -1) return -1;
+        if (id != 0x1f || readUByte(in) != 0x8b) throw new ZipException("Not in GZIP format.");
+        if (readUByte(in) != 8) throw new ZipException("Unsupported compression method.");
+        int flags = readUByte(in);
+        // Modification time, extra flags and operating system.
+        skipBytes(in, 6);
+        int length = 10;
+        if ((flags & FEXTRA) == FEXTRA) {
+            int extra = readUShort(in);
+            skipBytes(in, extra);
+            length += extra + 2;
+        }
+        if ((flags & FNAME) == FNAME) {
+            do {
+                length++;
+            } while (readUByte(in) != 0);
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            do {
+                length++;
+            } while (readUByte(in) != 0);
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            int value = (int) mCrc.getValue() & 0xffff;
+            if (readUShort(in) != value) throw new ZipException("Corrupt GZIP header.");
+            length += 2;
+        }
+        mCrc.reset();
+        return length;
+    }
+
+    /**
+     * Check the trailer of the member, and start the next member if there is one.
+     *
+     * @return true if the stream ends.
+     */
+    private boolean readTrailer() throws IOException {
+        InputStream in = this.in;
+        int remaining = inf.getRemaining();
+        // The inflater has read ahead, the trailer begins in the buffer.
+        if (remaining > 0) in = new SequenceInputStream(new ByteArrayInputStream(buf, len - remaining, remaining), in);
+
+        if (readUInt(in) != mCrc.getValue() || readUInt(in) != (inf.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer.");
+        }
+
+        if (this.in.available() > 0 || remaining > 8) {
+            int consumed = 8;
+            try {
+                int header = readHeader(in);
+                if (header < 0) return true;
+                consumed += header;
+            } catch (IOException e) {
+                // The bytes after the member are not a member, they are ignored.
+                return true;
+            }
+            inf.reset();
+            if (remaining > consumed) inf.setInput(buf, len - remaining + consumed, remaining - consumed);
+            return false;
+        }
+        return true;
+    }
+
+    private static long readUInt(InputStream in) throws IOException {
+        long low = readUShort(in);
+        return ((long) readUShort(in) << 16) | low;
+    }
+
+    private static int readUShort(InputStream in) throws IOException {
+        int low = readUByte(in);
+        return (readUByte(in) << 8) | low;
+    }
+
+    private static int readUByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) throw new EOFException("Unexpected end of GZIP stream.");
+        return b;
+    }
+
+    private static void skipBytes(InputStream in, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readUByte(in);
+        }
+    }
+}
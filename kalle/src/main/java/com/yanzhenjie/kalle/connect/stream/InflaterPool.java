@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.stream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Keep a few idle {@link Inflater}s, the native state of zlib is reused by the next responses.
+ * </p>
+ */
+final class InflaterPool {
+
+    private static final int MAX_IDLE = 4;
+
+    private static final Deque<Inflater> WRAPPED = new ArrayDeque<>();
+    private static final Deque<Inflater> NOWRAP = new ArrayDeque<>();
+
+    private InflaterPool() {
+    }
+
+    /**
+     * Take an idle inflater, or create one.
+     *
+     * @param nowrap true for the raw deflate data, such as gzip, false for the zlib data.
+     */
+    static Inflater obtain(boolean nowrap) {
+        Deque<Inflater> idle = nowrap ? NOWRAP : WRAPPED;
+        synchronized (idle) {
+            Inflater inflater = idle.pollFirst();
+            if (inflater != null) return inflater;
+        }
+        return new Inflater(nowrap);
+    }
+
+    /**
+     * Return the inflater, it must not be used by the caller any more.
+     *
+     * @param nowrap the same as it was obtained.
+     */
+    static void recycle(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        Deque<Inflater> idle = nowrap ? NOWRAP : WRAPPED;
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE) {
+                idle.addFirst(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+}
@@ -33,17 +33,17 @@ public class NullStream extends InputStream {
 
     @Override
     public int read() {
-        return 0;
+        return -1;
     }
 
     @Override
     public int read(byte[] b) {
-        return 0;
+        return -1;
     }
 
     @Override
     public int read(byte[] b, int off, int len) {
-        return 0;
+        return -1;
     }
 
     @Override
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.exception;
+
+/**
+ * <p>
+ * The request is not sent, because the circuit of the origin is open after too many failures.
+ * </p>
+ */
+public class CircuitOpenError extends ConnectException {
+
+    private final long mRetryAfter;
+
+    public CircuitOpenError(String message, long retryAfter) {
+        super(message);
+        this.mRetryAfter = retryAfter;
+    }
+
+    /**
+     * The milliseconds until the circuit lets a trial request through.
+     */
+    public long getRetryAfter() {
+        return mRetryAfter;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import android.text.TextUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * <p>
+ * Application-Layer Protocol Negotiation, the API is only public on Android 10,
+ * the sockets of Conscrypt on Android 5 to 9 support it with the hidden methods.
+ * </p>
+ */
+final class Alpn {
+
+    private Alpn() {
+    }
+
+    /**
+     * Offer the protocols in the handshake, nothing happens if the platform does not support ALPN.
+     */
+    static void enable(SSLSocket socket, String... protocols) {
+        try {
+            Method method = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            SSLParameters parameters = socket.getSSLParameters();
+            method.invoke(parameters, (Object) protocols);
+            socket.setSSLParameters(parameters);
+            return;
+        } catch (Exception ignored) {
+        }
+
+        try {
+            Method method = socket.getClass().getMethod("setAlpnProtocols", byte[].class);
+            method.invoke(socket, (Object) lengthPrefixed(protocols));
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Get the protocol selected by the server, null if there is not.
+     */
+    static String selected(SSLSocket socket) {
+        try {
+            Method method = SSLSocket.class.getMethod("getApplicationProtocol");
+            String protocol = (String) method.invoke(socket);
+            if (!TextUtils.isEmpty(protocol)) return protocol;
+        } catch (Exception ignored) {
+        }
+
+        try {
+            Method method = socket.getClass().getMethod("getAlpnSelectedProtocol");
+            byte[] protocol = (byte[]) method.invoke(socket);
+            if (protocol != null) return new String(protocol, "US-ASCII");
+        } catch (Exception ignored) {
+        }
+        return null;
+    }
+
+    private static byte[] lengthPrefixed(String... protocols) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (String protocol : protocols) {
+            stream.write(protocol.length());
+            for (int i = 0; i < protocol.length(); i++) {
+                stream.write(protocol.charAt(i));
+            }
+        }
+        return stream.toByteArray();
+    }
+}
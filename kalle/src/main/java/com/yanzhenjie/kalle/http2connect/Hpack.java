@@ -0,0 +1,315 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Header compression of HTTP/2, see RFC 7541.
+ * </p>
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /**
+     * The first index of the name in the static table.
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Encode the header blocks, the dynamic table of the peer is never used, so the encoder has no state but the
+     * size update required by the peer.
+     */
+    static final class Writer {
+
+        private int mPendingTableSize = -1;
+
+        /**
+         * The peer changed the SETTINGS_HEADER_TABLE_SIZE.
+         */
+        void setMaxTableSize(int size) {
+            if (size < DEFAULT_TABLE_SIZE) mPendingTableSize = size;
+        }
+
+        /**
+         * @param headers the name and value pairs, the names are lowercase.
+         */
+        byte[] encode(List<String[]> headers) throws IOException {
+            ByteArrayOutputStream sink = new ByteArrayOutputStream(256);
+            if (mPendingTableSize >= 0) {
+                writeInt(sink, mPendingTableSize, 5, 0x20);
+                mPendingTableSize = -1;
+            }
+
+            for (String[] header : headers) {
+                String name = header[0];
+                String value = header[1];
+                Integer nameIndex = STATIC_NAMES.get(name);
+                if (nameIndex != null) {
+                    int index = staticIndex(nameIndex, name, value);
+                    if (index > 0) {
+                        writeInt(sink, index, 7, 0x80);
+                        continue;
+                    }
+                    // Literal header field without indexing, the name is indexed.
+                    writeInt(sink, nameIndex, 4, 0x00);
+                } else {
+                    sink.write(0x00);
+                    writeString(sink, name);
+                }
+                writeString(sink, value);
+            }
+            return sink.toByteArray();
+        }
+
+        private static int staticIndex(int first, String name, String value) {
+            for (int i = first - 1; i < STATIC_TABLE.length && STATIC_TABLE[i][0].equals(name); i++) {
+                if (STATIC_TABLE[i][1].equals(value)) return i + 1;
+            }
+            return 0;
+        }
+
+        private static void writeString(ByteArrayOutputStream sink, String value) throws UnsupportedEncodingException {
+            byte[] bytes = value.getBytes("UTF-8");
+            int huffmanLength = Huffman.encodedLength(bytes);
+            if (huffmanLength < bytes.length) {
+                writeInt(sink, huffmanLength, 7, 0x80);
+                Huffman.encode(bytes, sink);
+            } else {
+                writeInt(sink, bytes.length, 7, 0x00);
+                sink.write(bytes, 0, bytes.length);
+            }
+        }
+
+        private static void writeInt(ByteArrayOutputStream sink, int value, int prefixBits, int pattern) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                sink.write(pattern | value);
+                return;
+            }
+            sink.write(pattern | max);
+            value -= max;
+            while (value >= 0x80) {
+                sink.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            sink.write(value);
+        }
+    }
+
+    /**
+     * Decode the header blocks of the peer, it keeps the dynamic table, so a connection has only one reader.
+     */
+    static final class Reader {
+
+        private final LinkedList<String[]> mDynamicTable = new LinkedList<>();
+        private final int mMaxTableSize;
+        private int mTableLimit;
+        private int mTableSize;
+
+        private byte[] mSource;
+        private int mPosition;
+        private int mLimit;
+
+        Reader(int maxTableSize) {
+            this.mMaxTableSize = maxTableSize;
+            this.mTableLimit = maxTableSize;
+        }
+
+        /**
+         * @return the name and value pairs.
+         */
+        List<String[]> decode(byte[] source, int offset, int length) throws IOException {
+            mSource = source;
+            mPosition = offset;
+            mLimit = offset + length;
+
+            List<String[]> headers = new ArrayList<>();
+            while (mPosition < mLimit) {
+                int b = mSource[mPosition] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    headers.add(entry(readInt(7)));
+                } else if ((b & 0x40) != 0) {
+                    String[] header = readLiteral(6);
+                    insert(header);
+                    headers.add(header);
+                } else if ((b & 0x20) != 0) {
+                    int size = readInt(5);
+                    if (size > mMaxTableSize) throw new ProtocolException("Invalid dynamic table size: " + size);
+                    mTableLimit = size;
+                    evict(0);
+                } else {
+                    headers.add(readLiteral(4));
+                }
+            }
+            mSource = null;
+            return headers;
+        }
+
+        private String[] readLiteral(int prefixBits) throws IOException {
+            int index = readInt(prefixBits);
+            String name = index == 0 ? readString() : entry(index)[0];
+            return new String[]{name, readString()};
+        }
+
+        private String[] entry(int index) throws ProtocolException {
+            if (index <= 0) throw new ProtocolException("Invalid header index: " + index);
+            if (index <= STATIC_TABLE.length) return STATIC_TABLE[index - 1];
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (dynamicIndex >= mDynamicTable.size()) throw new ProtocolException("Invalid header index: " + index);
+            return mDynamicTable.get(dynamicIndex);
+        }
+
+        private void insert(String[] header) throws UnsupportedEncodingException {
+            int size = size(header);
+            if (size > mTableLimit) {
+                mDynamicTable.clear();
+                mTableSize = 0;
+                return;
+            }
+            evict(size);
+            mDynamicTable.addFirst(header);
+            mTableSize += size;
+        }
+
+        private void evict(int incoming) throws UnsupportedEncodingException {
+            while (!mDynamicTable.isEmpty() && mTableSize + incoming > mTableLimit) {
+                mTableSize -= size(mDynamicTable.removeLast());
+            }
+        }
+
+        private static int size(String[] header) throws UnsupportedEncodingException {
+            return header[0].getBytes("UTF-8").length + header[1].getBytes("UTF-8").length + 32;
+        }
+
+        private String readString() throws IOException {
+            if (mPosition >= mLimit) throw new ProtocolException("Unexpected end of header block.");
+            boolean huffman = (mSource[mPosition] & 0x80) != 0;
+            int length = readInt(7);
+            if (length < 0 || mLimit - mPosition < length) throw new ProtocolException("Unexpected end of header block.");
+
+            String value;
+            if (huffman) {
+                value = new String(Huffman.decode(mSource, mPosition, length), "UTF-8");
+            } else {
+                value = new String(mSource, mPosition, length, "UTF-8");
+            }
+            mPosition += length;
+            return value;
+        }
+
+        private int readInt(int prefixBits) throws ProtocolException {
+            int max = (1 << prefixBits) - 1;
+            int value = mSource[mPosition++] & max;
+            if (value < max) return value;
+
+            int shift = 0;
+            while (true) {
+                if (mPosition >= mLimit) throw new ProtocolException("Unexpected end of header block.");
+                int b = mSource[mPosition++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+                if (shift > 28) throw new ProtocolException("The integer is too large.");
+            }
+            if (value < 0) throw new ProtocolException("The integer is too large.");
+            return value;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.PreconnectFactory;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.connect.SocketConnector;
+import com.yanzhenjie.kalle.urlconnect.URLConnectionFactory;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * <p>
+ * Network connection actuator of HTTP/2, the requests to one origin share a single connection.
+ * The https servers are negotiated by ALPN, the plain servers are only used when they are known to speak HTTP/2,
+ * the other requests are executed by the fallback factory.
+ * </p>
+ */
+public class Http2ConnectFactory implements PreconnectFactory {
+
+    private static final String PROTOCOL_HTTP_2 = "h2";
+    private static final String PROTOCOL_HTTP_1_1 = "http/1.1";
+
+    /**
+     * The headers are specific to a HTTP/1 connection, they are not allowed in HTTP/2.
+     */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>();
+
+    static {
+        CONNECTION_HEADERS.add("host");
+        CONNECTION_HEADERS.add("connection");
+        CONNECTION_HEADERS.add("keep-alive");
+        CONNECTION_HEADERS.add("proxy-connection");
+        CONNECTION_HEADERS.add("transfer-encoding");
+        CONNECTION_HEADERS.add("upgrade");
+        CONNECTION_HEADERS.add("te");
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final ConnectFactory mFallback;
+    private final boolean mPriorKnowledge;
+
+    private final Map<Route, Http2Connection> mConnections = new HashMap<>();
+    private final Map<Route, FutureTask<Http2Connection>> mPending = new HashMap<>();
+    private final Set<Route> mHttp1Routes = Collections.synchronizedSet(new HashSet<Route>());
+
+    private Http2ConnectFactory(Builder builder) {
+        this.mFallback = builder.mFallback == null ? URLConnectionFactory.newBuilder().build() : builder.mFallback;
+        this.mPriorKnowledge = builder.mPriorKnowledge;
+    }
+
+    /**
+     * Get the count of the HTTP/2 connections which can carry new streams.
+     */
+    public int connectionCount() {
+        synchronized (mConnections) {
+            int count = 0;
+            for (Http2Connection connection : mConnections.values()) {
+                if (connection.isHealthy()) count++;
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public Connection connect(Request request) throws IOException {
+        Route route = Route.get(request);
+        if (!supportsHttp2(route)) return mFallback.connect(request);
+
+        List<String[]> headers = requestHeaders(request, route);
+        boolean hasBody = request.method().allowBody();
+        for (int i = 0; i < 2; i++) {
+            Http2Connection connection = connection(route, request);
+            if (connection == null) return mFallback.connect(request);
+
+            Http2Stream stream = connection.newStream(request, headers, hasBody);
+            if (stream != null) return stream;
+            // The connection was shutdown meanwhile, the stream is refused before it is sent.
+            release(connection);
+        }
+        throw new IOException("The connection to " + route + " is shutdown.");
+    }
+
+    /**
+     * The HTTP/2 connection is shared by all the requests of the origin, so only one is opened.
+     */
+    @Override
+    public void preconnect(Request request) throws IOException {
+        Route route = Route.get(request);
+        if (supportsHttp2(route) && connection(route, request) != null) return;
+        if (mFallback instanceof PreconnectFactory) ((PreconnectFactory) mFallback).preconnect(request);
+    }
+
+    private boolean supportsHttp2(Route route) {
+        // The https requests through the http proxy need a tunnel, they are left to the fallback.
+        if (route.proxy().type() == Proxy.Type.HTTP) return false;
+        if (!route.isSecure() && !mPriorKnowledge) return false;
+        return !mHttp1Routes.contains(route);
+    }
+
+    /**
+     * Get the shared connection of the route, a new connection is opened if there is not.
+     *
+     * @return the connection, null if the server does not speak HTTP/2.
+     */
+    private Http2Connection connection(final Route route, final Request request) throws IOException {
+        FutureTask<Http2Connection> task;
+        boolean owner = false;
+        synchronized (mConnections) {
+            Http2Connection connection = mConnections.get(route);
+            if (connection != null && connection.isHealthy()) return connection;
+            if (connection != null) mConnections.remove(route);
+
+            task = mPending.get(route);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<Http2Connection>() {
+                    @Override
+                    public Http2Connection call() throws Exception {
+                        return open(route, request);
+                    }
+                });
+                mPending.put(route, task);
+                owner = true;
+            }
+        }
+
+        // The handshake runs outside the lock, the concurrent requests of the route wait for the one connection,
+        // and the requests of the other routes are not blocked.
+        if (owner) {
+            task.run();
+            synchronized (mConnections) {
+                mPending.remove(route);
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The connecting is interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private Http2Connection open(Route route, Request request) throws IOException {
+        Socket socket = openSocket(route, request);
+        if (socket == null) return null;
+        Http2Connection connection = new Http2Connection(route, socket);
+        try {
+            connection.start();
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        synchronized (mConnections) {
+            mConnections.put(route, connection);
+        }
+        return connection;
+    }
+
+    private void release(Http2Connection connection) {
+        synchronized (mConnections) {
+            if (mConnections.get(connection.route()) == connection) mConnections.remove(connection.route());
+        }
+    }
+
+    private Socket openSocket(Route route, Request request) throws IOException {
+        Socket socket = SocketConnector.connect(route, Kalle.getConfig().getDns(), request.connectTimeout());
+        try {
+            if (!route.isSecure()) return socket;
+
+            SSLSocket sslSocket = (SSLSocket) route.sslSocketFactory().createSocket(socket, route.host(), route.port(), true);
+            socket = sslSocket;
+            Alpn.enable(sslSocket, PROTOCOL_HTTP_2, PROTOCOL_HTTP_1_1);
+            sslSocket.startHandshake();
+            HostnameVerifier hostnameVerifier = route.hostnameVerifier();
+            if (hostnameVerifier != null && !hostnameVerifier.verify(route.host(), sslSocket.getSession())) {
+                throw new SSLPeerUnverifiedException("Hostname " + route.host() + " not verified.");
+            }
+
+            if (!PROTOCOL_HTTP_2.equals(Alpn.selected(sslSocket))) {
+                mHttp1Routes.add(route);
+                IOUtils.closeQuietly(sslSocket);
+                return null;
+            }
+            return sslSocket;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private static List<String[]> requestHeaders(Request request, Route route) {
+        Url url = request.url();
+        String path = url.getPath();
+        String target = (TextUtils.isEmpty(path) ? "/" : path) + url.getQuery();
+
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[]{":method", request.method().toString()});
+        headers.add(new String[]{":scheme", route.isSecure() ? "https" : "http"});
+        headers.add(new String[]{":authority", route.hostHeader()});
+        headers.add(new String[]{":path", target});
+
+        Map<String, String> requestHeaders = Headers.getRequestHeaders(request.headers());
+        for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+            String key = entry.getKey().toLowerCase(Locale.ENGLISH);
+            if (CONNECTION_HEADERS.contains(key)) continue;
+            headers.add(new String[]{key, entry.getValue()});
+        }
+        return headers;
+    }
+
+    public static class Builder {
+
+        private ConnectFactory mFallback;
+        private boolean mPriorKnowledge;
+
+        private Builder() {
+        }
+
+        /**
+         * The factory executes the requests which can not be sent by HTTP/2, the default is {@link URLConnectionFactory}.
+         */
+        public Builder fallback(ConnectFactory fallback) {
+            this.mFallback = fallback;
+            return this;
+        }
+
+        /**
+         * The plain servers speak HTTP/2 without the upgrade, the default is false, then plain requests use the fallback.
+         */
+        public Builder priorKnowledge(boolean priorKnowledge) {
+            this.mPriorKnowledge = priorKnowledge;
+            return this;
+        }
+
+        public Http2ConnectFactory build() {
+            return new Http2ConnectFactory(this);
+        }
+    }
+}
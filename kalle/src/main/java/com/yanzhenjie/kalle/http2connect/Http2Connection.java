@@ -0,0 +1,604 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A HTTP/2 connection, the requests to one route are multiplexed as streams on it.
+ * A reader thread reads all the frames, the frames are written by the threads of the streams.
+ * </p>
+ */
+final class Http2Connection implements Closeable, Runnable {
+
+    private static final byte[] PREFACE = {
+            'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n',
+            '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'
+    };
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int ERROR_NO_ERROR = 0x0;
+    static final int ERROR_PROTOCOL = 0x1;
+    static final int ERROR_FLOW_CONTROL = 0x3;
+    static final int ERROR_REFUSED_STREAM = 0x7;
+    static final int ERROR_CANCEL = 0x8;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int MAX_FRAME_SIZE = 16384;
+    /**
+     * The receive window of each stream, it bounds the bytes buffered for a stream which is not read.
+     */
+    private static final int STREAM_WINDOW_SIZE = 256 * 1024;
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final Route mRoute;
+    private final Socket mSocket;
+    private final DataInputStream mInput;
+    private final DataOutputStream mOutput;
+    private final Object mWriteLock = new Object();
+    private final Hpack.Writer mHpackWriter = new Hpack.Writer();
+    private final Hpack.Reader mHpackReader = new Hpack.Reader(Hpack.DEFAULT_TABLE_SIZE);
+
+    private final Map<Integer, Http2Stream> mStreams = new HashMap<>();
+    private int mNextStreamId = 1;
+    private int mReservedStreams;
+    private boolean mShutdown;
+    private IOException mFailure;
+
+    private int mPeerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private int mPeerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int mPeerMaxFrameSize = MAX_FRAME_SIZE;
+    private long mSendWindow = DEFAULT_WINDOW_SIZE;
+    private int mUnacknowledged;
+
+    Http2Connection(Route route, Socket socket) throws IOException {
+        this.mRoute = route;
+        this.mSocket = socket;
+        this.mInput = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024));
+        this.mOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 16 * 1024));
+    }
+
+    Route route() {
+        return mRoute;
+    }
+
+    /**
+     * Send the connection preface and start reading the frames.
+     */
+    void start() throws IOException {
+        synchronized (mWriteLock) {
+            mOutput.write(PREFACE);
+            writeFrameHeader(18, TYPE_SETTINGS, 0, 0);
+            writeSetting(SETTINGS_ENABLE_PUSH, 0);
+            writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeSetting(SETTINGS_MAX_FRAME_SIZE, MAX_FRAME_SIZE);
+            writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, 0);
+            mOutput.writeInt(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            mOutput.flush();
+        }
+
+        Thread thread = new Thread(this, "Kalle Http2 " + mRoute);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The connection can carry new streams.
+     */
+    synchronized boolean isHealthy() {
+        return !mShutdown && !mSocket.isClosed();
+    }
+
+    /**
+     * Open a stream and send the headers of the request.
+     *
+     * @return the stream, null if the connection has been shutdown.
+     */
+    Http2Stream newStream(Request request, List<String[]> headers, boolean hasBody) throws IOException {
+        long deadline = deadline(request.connectTimeout());
+        synchronized (this) {
+            while (!mShutdown && mStreams.size() + mReservedStreams >= mPeerMaxConcurrentStreams) {
+                waitUntil(deadline);
+            }
+            if (mShutdown) return null;
+            mReservedStreams++;
+        }
+
+        try {
+            synchronized (mWriteLock) {
+                Http2Stream stream;
+                synchronized (this) {
+                    if (mShutdown) return null;
+                    stream = new Http2Stream(this, mNextStreamId, request, mPeerInitialWindowSize, !hasBody);
+                    mStreams.put(mNextStreamId, stream);
+                    mNextStreamId += 2;
+                }
+                try {
+                    writeHeaders(stream.id(), mHpackWriter.encode(headers), !hasBody, request.priority());
+                    mOutput.flush();
+                } catch (IOException e) {
+                    remove(stream);
+                    throw e;
+                }
+                return stream;
+            }
+        } finally {
+            synchronized (this) {
+                mReservedStreams--;
+            }
+        }
+    }
+
+    private void writeHeaders(int streamId, byte[] block, boolean endStream, int weight) throws IOException {
+        int length = Math.min(block.length, mPeerMaxFrameSize - 5);
+        int flags = FLAG_PRIORITY;
+        if (endStream) flags |= FLAG_END_STREAM;
+        if (length == block.length) flags |= FLAG_END_HEADERS;
+        writeFrameHeader(length + 5, TYPE_HEADERS, flags, streamId);
+        // No dependency, the weight is shared with the sibling streams.
+        mOutput.writeInt(0);
+        mOutput.writeByte(weight - 1);
+        mOutput.write(block, 0, length);
+
+        int offset = length;
+        while (offset < block.length) {
+            length = Math.min(block.length - offset, mPeerMaxFrameSize);
+            boolean last = offset + length == block.length;
+            writeFrameHeader(length, TYPE_CONTINUATION, last ? FLAG_END_HEADERS : 0, streamId);
+            mOutput.write(block, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Wait for the send windows of the connection and the stream, then take the bytes from them.
+     *
+     * @return the count of bytes that can be sent.
+     */
+    int acquireSendWindow(Http2Stream stream, int count, long deadline) throws IOException {
+        synchronized (this) {
+            while (true) {
+                IOException error = stream.error();
+                if (error != null) throw error;
+                if (mFailure != null) throw mFailure;
+
+                long window = Math.min(mSendWindow, stream.mSendWindow);
+                if (window > 0) {
+                    int acquired = (int) Math.min(Math.min(count, window), mPeerMaxFrameSize);
+                    mSendWindow -= acquired;
+                    stream.mSendWindow -= acquired;
+                    return acquired;
+                }
+                waitUntil(deadline);
+            }
+        }
+    }
+
+    void writeData(int streamId, byte[] buffer, int offset, int count, boolean endStream) throws IOException {
+        synchronized (mWriteLock) {
+            writeFrameHeader(count, TYPE_DATA, endStream ? FLAG_END_STREAM : 0, streamId);
+            mOutput.write(buffer, offset, count);
+            mOutput.flush();
+        }
+    }
+
+    void writeReset(int streamId, int errorCode) {
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(4, TYPE_RST_STREAM, 0, streamId);
+                mOutput.writeInt(errorCode);
+                mOutput.flush();
+            }
+        } catch (IOException ignored) {
+            // The reader fails the streams when the connection is broken.
+        }
+    }
+
+    /**
+     * The bytes of the stream have been consumed, return them to the peer when enough of them are consumed.
+     *
+     * @param stream the stream, null if the bytes are not for any stream.
+     */
+    void consumed(Http2Stream stream, int count) {
+        if (count <= 0) return;
+        int streamIncrement = 0;
+        int connectionIncrement = 0;
+        synchronized (this) {
+            if (stream != null) {
+                stream.mUnacknowledged += count;
+                if (stream.mUnacknowledged >= STREAM_WINDOW_SIZE / 2) {
+                    streamIncrement = stream.mUnacknowledged;
+                    stream.mUnacknowledged = 0;
+                }
+            }
+            mUnacknowledged += count;
+            if (mUnacknowledged >= CONNECTION_WINDOW_SIZE / 2) {
+                connectionIncrement = mUnacknowledged;
+                mUnacknowledged = 0;
+            }
+        }
+
+        try {
+            if (streamIncrement > 0 && !stream.isInputFinished()) writeWindowUpdate(stream.id(), streamIncrement);
+            if (connectionIncrement > 0) writeWindowUpdate(0, connectionIncrement);
+        } catch (IOException ignored) {
+            // The reader fails the streams when the connection is broken.
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        synchronized (mWriteLock) {
+            writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, streamId);
+            mOutput.writeInt(increment);
+            mOutput.flush();
+        }
+    }
+
+    /**
+     * The stream is finished in both directions or reset.
+     */
+    void remove(Http2Stream stream) {
+        boolean close;
+        synchronized (this) {
+            if (mStreams.remove(stream.id()) == null) return;
+            notifyAll();
+            close = mShutdown && mStreams.isEmpty();
+        }
+        if (close) close();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                readFrame();
+            }
+        } catch (ProtocolException e) {
+            writeGoAway(ERROR_PROTOCOL);
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readFrame() throws IOException {
+        int length = (mInput.readUnsignedByte() << 16) | (mInput.readUnsignedByte() << 8) | mInput.readUnsignedByte();
+        int type = mInput.readUnsignedByte();
+        int flags = mInput.readUnsignedByte();
+        int streamId = mInput.readInt() & Integer.MAX_VALUE;
+        if (length > MAX_FRAME_SIZE) throw new ProtocolException("The frame is too large: " + length + ".");
+        byte[] payload = new byte[length];
+        mInput.readFully(payload);
+
+        switch (type) {
+            case TYPE_DATA: {
+                readData(streamId, flags, payload);
+                break;
+            }
+            case TYPE_HEADERS: {
+                readHeaders(streamId, flags, payload);
+                break;
+            }
+            case TYPE_RST_STREAM: {
+                if (length != 4) throw new ProtocolException("Unexpected RST_STREAM length: " + length + ".");
+                Http2Stream stream = stream(streamId);
+                if (stream != null) stream.receiveReset(readInt(payload, 0));
+                break;
+            }
+            case TYPE_SETTINGS: {
+                if ((flags & FLAG_ACK) == 0) readSettings(payload);
+                break;
+            }
+            case TYPE_PUSH_PROMISE: {
+                throw new ProtocolException("The server push is disabled.");
+            }
+            case TYPE_PING: {
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (mWriteLock) {
+                        writeFrameHeader(length, TYPE_PING, FLAG_ACK, 0);
+                        mOutput.write(payload);
+                        mOutput.flush();
+                    }
+                }
+                break;
+            }
+            case TYPE_GOAWAY: {
+                readGoAway(payload);
+                break;
+            }
+            case TYPE_WINDOW_UPDATE: {
+                readWindowUpdate(streamId, payload);
+                break;
+            }
+            case TYPE_CONTINUATION: {
+                throw new ProtocolException("Unexpected CONTINUATION.");
+            }
+            default: {
+                // PRIORITY and the unknown frames are ignored.
+                break;
+            }
+        }
+    }
+
+    private void readData(int streamId, int flags, byte[] payload) throws IOException {
+        int offset = 0;
+        int length = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload[0] & 0xFF;
+            offset = 1;
+            length -= padding + 1;
+            if (length < 0) throw new ProtocolException("Invalid padding.");
+        }
+
+        Http2Stream stream = stream(streamId);
+        if (stream == null) {
+            consumed(null, payload.length);
+            return;
+        }
+        // The padding is counted in the window but never read.
+        consumed(stream, payload.length - length);
+        stream.receiveData(payload, offset, length, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    private void readHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        int offset = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            offset = 1;
+            end -= payload[0] & 0xFF;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) offset += 5;
+        if (offset > end) throw new ProtocolException("Invalid HEADERS frame.");
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(end - offset);
+        block.write(payload, offset, end - offset);
+        int headerFlags = flags;
+        while ((headerFlags & FLAG_END_HEADERS) == 0) {
+            int length = (mInput.readUnsignedByte() << 16) | (mInput.readUnsignedByte() << 8) | mInput.readUnsignedByte();
+            int type = mInput.readUnsignedByte();
+            headerFlags = mInput.readUnsignedByte();
+            int id = mInput.readInt() & Integer.MAX_VALUE;
+            if (type != TYPE_CONTINUATION || id != streamId || length > MAX_FRAME_SIZE) {
+                throw new ProtocolException("Expected CONTINUATION of stream " + streamId + ".");
+            }
+            byte[] continuation = new byte[length];
+            mInput.readFully(continuation);
+            block.write(continuation, 0, length);
+        }
+
+        // The block must be decoded to keep the dynamic table in sync, even if the stream is gone.
+        byte[] bytes = block.toByteArray();
+        List<String[]> headers = mHpackReader.decode(bytes, 0, bytes.length);
+        Http2Stream stream = stream(streamId);
+        if (stream != null) stream.receiveHeaders(headers, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    private void readSettings(byte[] payload) throws IOException {
+        if (payload.length % 6 != 0) throw new ProtocolException("Unexpected SETTINGS length: " + payload.length + ".");
+        synchronized (mWriteLock) {
+            for (int i = 0; i < payload.length; i += 6) {
+                int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+                int value = readInt(payload, i + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE: {
+                        mHpackWriter.setMaxTableSize(value);
+                        break;
+                    }
+                    case SETTINGS_MAX_CONCURRENT_STREAMS: {
+                        synchronized (this) {
+                            mPeerMaxConcurrentStreams = value;
+                            notifyAll();
+                        }
+                        break;
+                    }
+                    case SETTINGS_INITIAL_WINDOW_SIZE: {
+                        if (value < 0) throw new ProtocolException("Invalid initial window size: " + value + ".");
+                        synchronized (this) {
+                            int delta = value - mPeerInitialWindowSize;
+                            mPeerInitialWindowSize = value;
+                            for (Http2Stream stream : mStreams.values()) {
+                                stream.mSendWindow += delta;
+                            }
+                            notifyAll();
+                        }
+                        break;
+                    }
+                    case SETTINGS_MAX_FRAME_SIZE: {
+                        if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                            throw new ProtocolException("Invalid max frame size: " + value + ".");
+                        }
+                        synchronized (this) {
+                            mPeerMaxFrameSize = value;
+                        }
+                        break;
+                    }
+                    default: {
+                        break;
+                    }
+                }
+            }
+            writeFrameHeader(0, TYPE_SETTINGS, FLAG_ACK, 0);
+            mOutput.flush();
+        }
+    }
+
+    private void readGoAway(byte[] payload) throws IOException {
+        if (payload.length < 8) throw new ProtocolException("Unexpected GOAWAY length: " + payload.length + ".");
+        int lastStreamId = readInt(payload, 0) & Integer.MAX_VALUE;
+        int errorCode = readInt(payload, 4);
+
+        List<Http2Stream> refused = new ArrayList<>();
+        boolean close;
+        synchronized (this) {
+            mShutdown = true;
+            for (Http2Stream stream : mStreams.values()) {
+                if (stream.id() > lastStreamId) refused.add(stream);
+            }
+            notifyAll();
+        }
+        IOException e = new IOException("The connection is shutdown by the server, the error code is " + errorCode + ".");
+        for (Http2Stream stream : refused) {
+            stream.receiveError(e);
+            remove(stream);
+        }
+        synchronized (this) {
+            close = mStreams.isEmpty();
+        }
+        if (close) close();
+    }
+
+    private void readWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) throw new ProtocolException("Unexpected WINDOW_UPDATE length: " + payload.length + ".");
+        int increment = readInt(payload, 0) & Integer.MAX_VALUE;
+        if (increment == 0) throw new ProtocolException("The window increment is 0.");
+
+        synchronized (this) {
+            if (streamId == 0) {
+                mSendWindow += increment;
+            } else {
+                Http2Stream stream = mStreams.get(streamId);
+                if (stream != null) stream.mSendWindow += increment;
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized Http2Stream stream(int streamId) {
+        return mStreams.get(streamId);
+    }
+
+    private void writeGoAway(int errorCode) {
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(8, TYPE_GOAWAY, 0, 0);
+                mOutput.writeInt(0);
+                mOutput.writeInt(errorCode);
+                mOutput.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void fail(IOException e) {
+        List<Http2Stream> streams;
+        synchronized (this) {
+            mShutdown = true;
+            if (mFailure == null) mFailure = e;
+            streams = new ArrayList<>(mStreams.values());
+            mStreams.clear();
+            notifyAll();
+        }
+        for (Http2Stream stream : streams) {
+            stream.receiveError(e);
+        }
+        IOUtils.closeQuietly(mSocket);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mShutdown = true;
+            notifyAll();
+        }
+        IOUtils.closeQuietly(mSocket);
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        mOutput.writeByte((length >>> 16) & 0xFF);
+        mOutput.writeByte((length >>> 8) & 0xFF);
+        mOutput.writeByte(length & 0xFF);
+        mOutput.writeByte(type);
+        mOutput.writeByte(flags);
+        mOutput.writeInt(streamId & Integer.MAX_VALUE);
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        mOutput.writeShort(id);
+        mOutput.writeInt(value);
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return ((source[offset] & 0xFF) << 24)
+                | ((source[offset + 1] & 0xFF) << 16)
+                | ((source[offset + 2] & 0xFF) << 8)
+                | (source[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Wait on the monitor of this connection until it is notified or the deadline passes.
+     */
+    void waitUntil(long deadline) throws IOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return;
+            }
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0) throw new SocketTimeoutException("timeout");
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The waiting is interrupted.");
+        }
+    }
+
+    /**
+     * @return the deadline in nanoseconds, 0 means no deadline.
+     */
+    static long deadline(int timeoutMillis) {
+        return timeoutMillis <= 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.stream.NullStream;
+import com.yanzhenjie.kalle.connect.stream.SourceStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
+
+/**
+ * <p>
+ * A request and its response on a {@link Http2Connection}, the body is streamed in both directions.
+ * </p>
+ */
+final class Http2Stream implements Connection {
+
+    private final Http2Connection mConnection;
+    private final int mId;
+    private final Request mRequest;
+
+    /**
+     * The send window, guarded by the connection.
+     */
+    long mSendWindow;
+    /**
+     * The bytes consumed but not returned to the peer, guarded by the connection.
+     */
+    int mUnacknowledged;
+
+    private final DataSink mSink;
+    private final DataSource mSource = new DataSource();
+    private boolean mOutputFinished;
+
+    private List<String[]> mResponseHeaders;
+    private final ArrayDeque<byte[]> mData = new ArrayDeque<>();
+    private int mDataOffset;
+    private boolean mInputFinished;
+    private IOException mError;
+    private boolean mClosed;
+
+    Http2Stream(Http2Connection connection, int id, Request request, int sendWindow, boolean outputFinished) {
+        this.mConnection = connection;
+        this.mId = id;
+        this.mRequest = request;
+        this.mSendWindow = sendWindow;
+        this.mOutputFinished = outputFinished;
+        this.mSink = outputFinished ? null : new DataSink();
+    }
+
+    int id() {
+        return mId;
+    }
+
+    synchronized IOException error() {
+        return mError;
+    }
+
+    synchronized boolean isInputFinished() {
+        return mInputFinished;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mSink == null) {
+            throw new ProtocolException(String.format("Method %1$s does not support request body.", mRequest.method()));
+        }
+        return mSink;
+    }
+
+    @Override
+    public int getCode() throws IOException {
+        String status = pseudoHeader(":status");
+        try {
+            return Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status: " + status);
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() throws IOException {
+        List<String[]> headers = awaitHeaders();
+        Map<String, List<String>> headerMap = new LinkedHashMap<>();
+        for (String[] header : headers) {
+            if (header[0].startsWith(":")) continue;
+            List<String> values = headerMap.get(header[0]);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                headerMap.put(header[0], values);
+            }
+            values.add(header[1]);
+        }
+        return Collections.unmodifiableMap(headerMap);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        int code = getCode();
+        if (!hasBody(mRequest.method(), code)) return new NullStream(this);
+
+        InputStream stream = new SourceStream(this, mSource);
+        return Kalle.getConfig().getContentDecoders().decode(header(KEY_CONTENT_ENCODING), stream);
+    }
+
+    private String pseudoHeader(String name) throws IOException {
+        for (String[] header : awaitHeaders()) {
+            if (header[0].equals(name)) return header[1];
+        }
+        throw new ProtocolException("The response has no " + name + ".");
+    }
+
+    private String header(String name) throws IOException {
+        for (String[] header : awaitHeaders()) {
+            if (header[0].equalsIgnoreCase(name)) return header[1];
+        }
+        return null;
+    }
+
+    private List<String[]> awaitHeaders() throws IOException {
+        // The request is complete when the response is wanted.
+        if (mSink != null) mSink.close();
+
+        long deadline = Http2Connection.deadline(mRequest.readTimeout());
+        synchronized (this) {
+            while (mResponseHeaders == null && mError == null) {
+                waitUntil(deadline);
+            }
+            if (mResponseHeaders == null) throw mError;
+            return mResponseHeaders;
+        }
+    }
+
+    void receiveHeaders(List<String[]> headers, boolean endStream) {
+        synchronized (this) {
+            if (mResponseHeaders == null) {
+                String status = null;
+                for (String[] header : headers) {
+                    if (":status".equals(header[0])) status = header[1];
+                }
+                // The interim responses are skipped, such as 100 Continue.
+                if (status == null || !status.startsWith("1") || endStream) mResponseHeaders = headers;
+            }
+            if (endStream) mInputFinished = true;
+            notifyAll();
+        }
+        if (endStream) removeIfFinished();
+    }
+
+    void receiveData(byte[] data, int offset, int count, boolean endStream) {
+        boolean discarded;
+        synchronized (this) {
+            discarded = mClosed;
+            if (!mClosed && count > 0) {
+                byte[] copy = new byte[count];
+                System.arraycopy(data, offset, copy, 0, count);
+                mData.addLast(copy);
+            }
+            if (endStream) mInputFinished = true;
+            notifyAll();
+        }
+        if (discarded) mConnection.consumed(this, count);
+        if (endStream) removeIfFinished();
+    }
+
+    void receiveReset(int errorCode) {
+        receiveError(new IOException("The stream is reset by the server, the error code is " + errorCode + "."));
+        mConnection.remove(this);
+    }
+
+    void receiveError(IOException e) {
+        synchronized (this) {
+            if (mError == null) mError = e;
+            notifyAll();
+        }
+        // Wake up the writer waiting for the window.
+        synchronized (mConnection) {
+            mConnection.notifyAll();
+        }
+    }
+
+    private void removeIfFinished() {
+        boolean finished;
+        synchronized (this) {
+            finished = mInputFinished && mOutputFinished;
+        }
+        if (finished) mConnection.remove(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        int unread = 0;
+        boolean reset;
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            for (byte[] data : mData) {
+                unread += data.length;
+            }
+            unread -= mDataOffset;
+            mData.clear();
+            reset = mError == null && !(mInputFinished && mOutputFinished);
+            notifyAll();
+        }
+
+        // Give back the window of the bytes nobody will read.
+        mConnection.consumed(this, unread);
+        if (reset) mConnection.writeReset(mId, Http2Connection.ERROR_CANCEL);
+        mConnection.remove(this);
+    }
+
+    private void waitUntil(long deadline) throws IOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return;
+            }
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0) throw new SocketTimeoutException("timeout");
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The waiting is interrupted.");
+        }
+    }
+
+    private static boolean hasBody(RequestMethod method, int code) {
+        return method != RequestMethod.HEAD && code > 100 && code != 204 && code != 205 && !(code >= 300 && code < 400);
+    }
+
+    private final class DataSource extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) return 0;
+
+            int read;
+            long deadline = Http2Connection.deadline(mRequest.readTimeout());
+            synchronized (Http2Stream.this) {
+                while (mData.isEmpty() && !mInputFinished && mError == null && !mClosed) {
+                    waitUntil(deadline);
+                }
+                if (mClosed) throw new IOException("The stream is closed.");
+                if (mData.isEmpty()) {
+                    if (mError != null) throw mError;
+                    return -1;
+                }
+
+                byte[] data = mData.peekFirst();
+                read = Math.min(count, data.length - mDataOffset);
+                System.arraycopy(data, mDataOffset, buffer, offset, read);
+                mDataOffset += read;
+                if (mDataOffset == data.length) {
+                    mData.removeFirst();
+                    mDataOffset = 0;
+                }
+            }
+            mConnection.consumed(Http2Stream.this, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            synchronized (Http2Stream.this) {
+                int available = 0;
+                for (byte[] data : mData) {
+                    available += data.length;
+                }
+                return available - mDataOffset;
+            }
+        }
+    }
+
+    private final class DataSink extends OutputStream {
+
+        private final byte[] mBuffer = new byte[16 * 1024];
+        private int mCount;
+        private boolean mSinkClosed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) emit(false);
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int count) throws IOException {
+            if (mSinkClosed) throw new IOException("The stream is closed.");
+            while (count > 0) {
+                if (mCount == mBuffer.length) emit(false);
+                int length = Math.min(count, mBuffer.length - mCount);
+                System.arraycopy(source, offset, mBuffer, mCount, length);
+                mCount += length;
+                offset += length;
+                count -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!mSinkClosed && mCount > 0) emit(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mSinkClosed) return;
+            mSinkClosed = true;
+            emit(true);
+            synchronized (Http2Stream.this) {
+                mOutputFinished = true;
+            }
+            removeIfFinished();
+        }
+
+        private void emit(boolean endStream) throws IOException {
+            long deadline = Http2Connection.deadline(mRequest.readTimeout());
+            int offset = 0;
+            while (offset < mCount) {
+                int count = mConnection.acquireSendWindow(Http2Stream.this, mCount - offset, deadline);
+                boolean last = offset + count == mCount;
+                mConnection.writeData(mId, mBuffer, offset, count, endStream && last);
+                offset += count;
+            }
+            if (mCount == 0 && endStream) mConnection.writeData(mId, mBuffer, 0, 0, true);
+            mCount = 0;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+import static com.yanzhenjie.kalle.Headers.KEY_TRANSFER_ENCODING;
+
+/**
+ * <p>
+ * Adapt the asynchronous exchange to the blocking {@link Connection}, it is used by the interceptor chain.
+ * </p>
+ */
+final class BlockingConnection implements Connection, ConnectCallback {
+
+    private final NioConnectFactory mFactory;
+    private final Request mRequest;
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    private RequestPipe mBody;
+    private Canceller mCanceller;
+    private Response mResponse;
+    private IOException mException;
+
+    BlockingConnection(NioConnectFactory factory, Request request) {
+        this.mFactory = factory;
+        this.mRequest = request;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!mRequest.method().allowBody()) {
+            throw new ProtocolException(String.format("Method %1$s does not support request body.", mRequest.method()));
+        }
+        if (mBody == null) {
+            // The exchange starts now, the loop sends the body while it is being written.
+            mBody = NioConnectFactory.pipe(mRequest);
+            mCanceller = mFactory.enqueue(mRequest, mBody, this);
+        }
+        return mBody;
+    }
+
+    @Override
+    public int getCode() throws IOException {
+        await();
+        return mResponse.code();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() throws IOException {
+        await();
+        return mResponse.headers().toMap();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        await();
+        return mResponse.body().stream();
+    }
+
+    private void await() throws IOException {
+        if (mCanceller == null) {
+            if (mRequest.method().allowBody()) {
+                Headers headers = mRequest.headers();
+                headers.remove(KEY_TRANSFER_ENCODING);
+                headers.set(KEY_CONTENT_LENGTH, "0");
+                getOutputStream();
+            } else {
+                mCanceller = mFactory.enqueue(mRequest, null, this);
+            }
+        }
+        if (mBody != null) {
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                // The body does not match its headers, the exchange can not complete.
+                mBody.abort(e);
+                throw e;
+            }
+        }
+        try {
+            mLatch.await();
+        } catch (InterruptedException e) {
+            mCanceller.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The request is interrupted.");
+        }
+        if (mException != null) throw mException;
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        this.mResponse = response;
+        mLatch.countDown();
+    }
+
+    @Override
+    public void onFailure(IOException e) {
+        this.mException = e;
+        mLatch.countDown();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mCanceller != null && mLatch.getCount() > 0) mCanceller.cancel();
+        IOUtils.closeQuietly(mResponse);
+    }
+}
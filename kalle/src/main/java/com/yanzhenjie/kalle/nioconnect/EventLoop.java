@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.exception.ConnectException;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+
+/**
+ * <p>
+ * One I/O thread multiplexes the connections of many routes with a {@link Selector}.
+ * All the state of a route lives in exactly one loop, so it is only touched by that thread.
+ * </p>
+ */
+final class EventLoop implements Runnable {
+
+    private final NioConnectFactory mFactory;
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final Map<Route, RouteQueue> mRoutes = new HashMap<>();
+    private final Thread mThread;
+
+    EventLoop(NioConnectFactory factory, String name) throws IOException {
+        this.mFactory = factory;
+        this.mSelector = Selector.open();
+
+        this.mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    Selector selector() {
+        return mSelector;
+    }
+
+    /**
+     * The calling thread is the thread of this loop.
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    SSLEngine createEngine(Route route) {
+        return mFactory.createEngine(route);
+    }
+
+    long keepAliveNanos() {
+        return mFactory.keepAliveNanos();
+    }
+
+    /**
+     * Run the task on the thread of this loop.
+     */
+    void execute(Runnable task) {
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Send the exchange on an idle connection of its route, or a new one when the route has not reached the limit.
+     */
+    void submit(Exchange exchange) {
+        if (exchange.isCancelled()) return;
+        if (exchange.isPreconnect()) {
+            RouteQueue existing = mRoutes.get(exchange.route());
+            if (existing != null && existing.mConnections > 0) return;
+        }
+        RouteQueue queue = queue(exchange.route());
+        queue.mPending.addLast(exchange);
+        dispatch(queue);
+    }
+
+    void cancel(Exchange exchange) {
+        RouteQueue queue = mRoutes.get(exchange.route());
+        if (queue != null && queue.mPending.remove(exchange)) return;
+
+        NioConnection connection = exchange.connection();
+        if (connection != null) connection.abort();
+    }
+
+    /**
+     * The connection is idle and can serve the next exchange.
+     */
+    void onIdle(NioConnection connection) {
+        RouteQueue queue = queue(connection.route());
+        queue.mIdle.addFirst(connection);
+        dispatch(queue);
+    }
+
+    /**
+     * The connection is closed.
+     *
+     * @param retry the exchange to send again on another connection, null if there is not.
+     */
+    void onClosed(NioConnection connection, Exchange retry) {
+        RouteQueue queue = queue(connection.route());
+        queue.mIdle.remove(connection);
+        queue.mConnections--;
+        if (retry != null && !retry.isCancelled()) queue.mPending.addFirst(retry);
+        dispatch(queue);
+    }
+
+    private RouteQueue queue(Route route) {
+        RouteQueue queue = mRoutes.get(route);
+        if (queue == null) {
+            queue = new RouteQueue(route);
+            mRoutes.put(route, queue);
+        }
+        return queue;
+    }
+
+    private void dispatch(RouteQueue queue) {
+        while (!queue.mPending.isEmpty()) {
+            NioConnection idle = queue.mIdle.pollFirst();
+            if (idle != null) {
+                idle.start(queue.mPending.pollFirst());
+                continue;
+            }
+            if (queue.mConnections >= mFactory.maxConnectionsPerRoute()) break;
+
+            Exchange exchange = queue.mPending.pollFirst();
+            try {
+                NioConnection.open(this, exchange);
+                queue.mConnections++;
+            } catch (Exception e) {
+                exchange.fail(new ConnectException(String.format("An unknown exception: %1$s.", exchange.request().url()), e));
+            }
+        }
+
+        if (queue.mConnections <= 0 && queue.mPending.isEmpty()) mRoutes.remove(queue.mRoute);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                mSelector.select(selectTimeout());
+            } catch (IOException e) {
+                continue;
+            }
+
+            // A failure is confined to its task or connection, the loop keeps serving the others.
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    uncaught(t);
+                }
+            }
+
+            Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid()) connection.onReady();
+                } catch (Throwable t) {
+                    connection.onError(t);
+                }
+            }
+
+            expire();
+        }
+    }
+
+    /**
+     * The milliseconds until the nearest deadline, 0 means no deadline.
+     */
+    private long selectTimeout() {
+        long nearest = Long.MAX_VALUE;
+        for (SelectionKey key : mSelector.keys()) {
+            if (!key.isValid()) continue;
+            long deadline = ((NioConnection) key.attachment()).deadline();
+            if (deadline != 0 && deadline < nearest) nearest = deadline;
+        }
+        if (nearest == Long.MAX_VALUE) return 0;
+        long millis = TimeUnit.NANOSECONDS.toMillis(nearest - System.nanoTime()) + 1;
+        return Math.max(1, millis);
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        List<NioConnection> expired = null;
+        for (SelectionKey key : mSelector.keys()) {
+            if (!key.isValid()) continue;
+            NioConnection connection = (NioConnection) key.attachment();
+            long deadline = connection.deadline();
+            if (deadline != 0 && deadline - now <= 0) {
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(connection);
+            }
+        }
+        if (expired == null) return;
+        for (NioConnection connection : expired) {
+            try {
+                connection.onTimeout();
+            } catch (Throwable t) {
+                connection.onError(t);
+            }
+        }
+    }
+
+    /**
+     * Report the failure which belongs to no connection, such as the exception of a callback.
+     */
+    static void uncaught(Throwable t) {
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        if (handler != null) handler.uncaughtException(thread, t);
+    }
+
+    private static class RouteQueue {
+        private final Route mRoute;
+        private final Deque<Exchange> mPending = new ArrayDeque<>();
+        private final Deque<NioConnection> mIdle = new ArrayDeque<>();
+        private int mConnections;
+
+        RouteQueue(Route route) {
+            this.mRoute = route;
+        }
+    }
+}
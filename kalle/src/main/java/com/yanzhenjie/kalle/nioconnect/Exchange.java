@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.Route;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * <p>
+ * A request waiting for a connection or in flight on one, it is only touched by the thread of its {@link EventLoop}.
+ * </p>
+ */
+final class Exchange implements Canceller {
+
+    private final EventLoop mLoop;
+    private final Request mRequest;
+    private final Route mRoute;
+    private final byte[] mHead;
+    private final RequestPipe mBody;
+    private final ConnectCallback mCallback;
+
+    private List<InetSocketAddress> mAddresses;
+    private int mAddressIndex;
+
+    private volatile boolean mCancelled;
+    private boolean mFinished;
+    private boolean mRetried;
+    private NioConnection mConnection;
+
+    Exchange(EventLoop loop, Request request, Route route, byte[] head, RequestPipe body, ConnectCallback callback) {
+        this.mLoop = loop;
+        this.mRequest = request;
+        this.mRoute = route;
+        this.mHead = head;
+        this.mBody = body;
+        this.mCallback = callback;
+    }
+
+    EventLoop loop() {
+        return mLoop;
+    }
+
+    Request request() {
+        return mRequest;
+    }
+
+    Route route() {
+        return mRoute;
+    }
+
+    /**
+     * Set the addresses resolved for the route, in the order of connecting.
+     */
+    void addresses(List<InetSocketAddress> addresses) {
+        this.mAddresses = addresses;
+        this.mAddressIndex = 0;
+    }
+
+    /**
+     * The address of the socket, it is the proxy if the request goes through a proxy.
+     */
+    InetSocketAddress address() {
+        return mAddresses.get(mAddressIndex);
+    }
+
+    /**
+     * Move to the next address after the current one failed to connect.
+     *
+     * @return false if there is no more address.
+     */
+    boolean nextAddress() {
+        if (mAddressIndex + 1 >= mAddresses.size()) return false;
+        mAddressIndex++;
+        return true;
+    }
+
+    /**
+     * An exchange without data only opens a connection, which becomes idle once it is established.
+     */
+    boolean isPreconnect() {
+        return mHead == null;
+    }
+
+    /**
+     * The request line and headers.
+     */
+    ByteBuffer head() {
+        return ByteBuffer.wrap(mHead);
+    }
+
+    /**
+     * The body of the request, null if the request has no body.
+     */
+    RequestPipe body() {
+        return mBody;
+    }
+
+    /**
+     * The request can be sent again on another connection, it does not change the server and its body can be replayed.
+     */
+    boolean isRepeatable() {
+        return mRequest.isIdempotent() && (mBody == null || mBody.isRepeatable());
+    }
+
+    NioConnection connection() {
+        return mConnection;
+    }
+
+    void connection(NioConnection connection) {
+        this.mConnection = connection;
+    }
+
+    /**
+     * Mark the exchange as retried, a exchange can only be retried once.
+     *
+     * @return true if the exchange has not been retried.
+     */
+    boolean retry() {
+        if (mRetried) return false;
+        mRetried = true;
+        return true;
+    }
+
+    void succeed(Response response) {
+        mConnection = null;
+        if (mFinished || mCancelled) return;
+        mFinished = true;
+        try {
+            mCallback.onResponse(response);
+        } catch (RuntimeException e) {
+            // The exception of the callback must not stop the loop, which serves other requests.
+            EventLoop.uncaught(e);
+        }
+    }
+
+    void fail(IOException e) {
+        mConnection = null;
+        if (mBody != null) mBody.fail(e);
+        if (mFinished || mCancelled) return;
+        mFinished = true;
+        try {
+            mCallback.onFailure(e);
+        } catch (RuntimeException t) {
+            EventLoop.uncaught(t);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (mCancelled) return;
+        mCancelled = true;
+        // The writer of the body may be waiting for the loop.
+        if (mBody != null) mBody.fail(new InterruptedIOException("The request is cancelled."));
+        // The exchange failed before reaching a loop.
+        if (mLoop == null) return;
+        mLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                mLoop.cancel(Exchange.this);
+            }
+        });
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.StreamBody;
+import com.yanzhenjie.kalle.connect.stream.SourceStream;
+import com.yanzhenjie.kalle.exception.ConnectException;
+import com.yanzhenjie.kalle.exception.ConnectTimeoutError;
+import com.yanzhenjie.kalle.exception.HostError;
+import com.yanzhenjie.kalle.exception.ReadException;
+import com.yanzhenjie.kalle.exception.ReadTimeoutError;
+import com.yanzhenjie.kalle.exception.URLError;
+import com.yanzhenjie.kalle.exception.WriteException;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A request the event loops can not carry, such as through a socks proxy or with a custom SSLSocketFactory,
+ * it is executed by the blocking factory on a worker thread.
+ * </p>
+ */
+final class FallbackCall implements Runnable, Canceller {
+
+    private final ConnectFactory mFactory;
+    private final Request mRequest;
+    private final ConnectCallback mCallback;
+
+    private Connection mConnection;
+    private volatile boolean mCancelled;
+
+    FallbackCall(ConnectFactory factory, Request request, ConnectCallback callback) {
+        this.mFactory = factory;
+        this.mRequest = request;
+        this.mCallback = callback;
+    }
+
+    @Override
+    public void run() {
+        if (mCancelled) return;
+
+        Connection connection;
+        try {
+            connection = mFactory.connect(mRequest);
+        } catch (MalformedURLException e) {
+            fail(new URLError(String.format("The url is malformed: %1$s.", mRequest.url()), e));
+            return;
+        } catch (UnknownHostException e) {
+            fail(new HostError(String.format("Hostname can not be resolved: %1$s.", mRequest.url()), e));
+            return;
+        } catch (SocketTimeoutException e) {
+            fail(new ConnectTimeoutError(String.format("Connect time out: %1$s.", mRequest.url()), e));
+            return;
+        } catch (Exception e) {
+            fail(new ConnectException(String.format("An unknown exception: %1$s.", mRequest.url()), e));
+            return;
+        }
+        synchronized (this) {
+            mConnection = connection;
+        }
+        if (mCancelled) {
+            IOUtils.closeQuietly(connection);
+            return;
+        }
+
+        if (mRequest.method().allowBody()) {
+            try {
+                OutputStream stream = connection.getOutputStream();
+                mRequest.body().writeTo(stream);
+                stream.flush();
+                stream.close();
+            } catch (Exception e) {
+                IOUtils.closeQuietly(connection);
+                fail(new WriteException(e));
+                return;
+            }
+        }
+
+        Response response;
+        try {
+            int code = connection.getCode();
+            Headers headers = new Headers();
+            for (Map.Entry<String, List<String>> entry : connection.getHeaders().entrySet()) {
+                headers.add(entry.getKey(), entry.getValue());
+            }
+            InputStream stream = new SourceStream(connection, connection.getInputStream());
+            response = Response.newBuilder()
+                    .code(code)
+                    .headers(headers)
+                    .body(new StreamBody(headers.getContentType(), stream))
+                    .build();
+        } catch (SocketTimeoutException e) {
+            IOUtils.closeQuietly(connection);
+            fail(new ReadTimeoutError(String.format("Read data time out: %1$s.", mRequest.url()), e));
+            return;
+        } catch (Exception e) {
+            IOUtils.closeQuietly(connection);
+            fail(new ReadException(e));
+            return;
+        }
+        if (mCancelled) IOUtils.closeQuietly(response);
+        else mCallback.onResponse(response);
+    }
+
+    private void fail(IOException e) {
+        if (mCancelled) return;
+        mCallback.onFailure(e);
+    }
+
+    @Override
+    public void cancel() {
+        Connection connection;
+        synchronized (this) {
+            if (mCancelled) return;
+            mCancelled = true;
+            connection = mConnection;
+        }
+        // Closing the connection unblocks the worker thread.
+        IOUtils.closeQuietly(connection);
+        mCallback.onFailure(new InterruptedIOException("The request is cancelled."));
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.connect.AsyncConnectFactory;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.PreconnectFactory;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.connect.SocketConnector;
+import com.yanzhenjie.kalle.exception.ConnectException;
+import com.yanzhenjie.kalle.exception.HostError;
+import com.yanzhenjie.kalle.exception.WriteException;
+import com.yanzhenjie.kalle.ssl.CompatSSLSocketFactory;
+import com.yanzhenjie.kalle.urlconnect.URLConnectionFactory;
+import com.yanzhenjie.kalle.util.IOExecutor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocketFactory;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+import static com.yanzhenjie.kalle.Headers.KEY_HOST;
+import static com.yanzhenjie.kalle.Headers.KEY_TRANSFER_ENCODING;
+import static com.yanzhenjie.kalle.Headers.VALUE_CHUNKED;
+
+/**
+ * <p>
+ * Network connection actuator based on NIO, a few I/O threads multiplex all the connections,
+ * so the requests in flight do not occupy any thread while waiting for the server.
+ * The requests through a socks proxy or with a SSLSocketFactory the engines can not honour
+ * are executed by the fallback factory.
+ * </p>
+ */
+public class NioConnectFactory implements AsyncConnectFactory, PreconnectFactory {
+
+    /**
+     * Nobody waits for the connection of a preconnect, it is used by the later requests or expires.
+     */
+    private static final ConnectCallback PRECONNECT_CALLBACK = new ConnectCallback() {
+        @Override
+        public void onResponse(Response response) {
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+        }
+    };
+
+    /**
+     * The dns and the fallback requests may block, so they run here instead of the calling thread or the I/O thread.
+     */
+    private static final Executor WORKER = IOExecutor.get();
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final int mIoThreads;
+    private final int mMaxConnectionsPerRoute;
+    private final long mKeepAliveNanos;
+    private final SSLContext mSSLContext;
+    private final SSLSocketFactory mSSLSocketFactory;
+    private final ConnectFactory mFallback;
+
+    private EventLoop[] mLoops;
+
+    private NioConnectFactory(Builder builder) {
+        this.mIoThreads = builder.mIoThreads;
+        this.mMaxConnectionsPerRoute = builder.mMaxConnectionsPerRoute;
+        this.mKeepAliveNanos = builder.mKeepAliveNanos;
+        this.mSSLContext = builder.mSSLContext == null ? defaultSSLContext() : builder.mSSLContext;
+        this.mSSLSocketFactory = mSSLContext.getSocketFactory();
+        this.mFallback = builder.mFallback == null ? URLConnectionFactory.newBuilder().build() : builder.mFallback;
+    }
+
+    /**
+     * Get the SSLSocketFactory of the engines, the https requests with it are sent by the I/O threads.
+     */
+    public SSLSocketFactory sslSocketFactory() {
+        return mSSLSocketFactory;
+    }
+
+    int maxConnectionsPerRoute() {
+        return mMaxConnectionsPerRoute;
+    }
+
+    long keepAliveNanos() {
+        return mKeepAliveNanos;
+    }
+
+    /**
+     * Create the engine of the route, it trusts the same servers as the SSLSocketFactory of the route.
+     */
+    SSLEngine createEngine(Route route) {
+        SSLSocketFactory factory = route.sslSocketFactory();
+        SSLEngine engine = null;
+        if (factory instanceof CompatSSLSocketFactory) {
+            engine = ((CompatSSLSocketFactory) factory).createSSLEngine(route.host(), route.port());
+        }
+        if (engine == null) engine = mSSLContext.createSSLEngine(route.host(), route.port());
+        engine.setUseClientMode(true);
+        return engine;
+    }
+
+    /**
+     * The engine can be created for the route, otherwise the trust managers and the pinning of the SSLSocketFactory
+     * would be lost, and the socks proxy is not supported by the channels.
+     */
+    private boolean isSupported(Route route) {
+        if (route.proxy().type() == Proxy.Type.SOCKS) return false;
+        if (!route.isSecure()) return true;
+
+        SSLSocketFactory factory = route.sslSocketFactory();
+        if (factory == mSSLSocketFactory) return true;
+        return factory instanceof CompatSSLSocketFactory && ((CompatSSLSocketFactory) factory).getSSLContext() != null;
+    }
+
+    /**
+     * The exchange runs on the I/O thread, the calling thread writes the body and reads the response through pipes.
+     */
+    @Override
+    public Connection connect(Request request) throws IOException {
+        if (!isSupported(Route.get(request))) return mFallback.connect(request);
+        return new BlockingConnection(this, request);
+    }
+
+    /**
+     * The body is written on a worker thread, the callback receives the response once its headers arrive.
+     */
+    @Override
+    public Canceller enqueue(final Request request, ConnectCallback callback) {
+        if (!isSupported(Route.get(request))) {
+            FallbackCall call = new FallbackCall(mFallback, request, callback);
+            WORKER.execute(call);
+            return call;
+        }
+        if (!request.method().allowBody()) return enqueue(request, null, callback);
+
+        final RequestPipe body = pipe(request);
+        Exchange exchange = enqueue(request, body, callback);
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    request.body().writeTo(body);
+                    body.close();
+                } catch (IOException e) {
+                    body.abort(new WriteException(e));
+                }
+            }
+        });
+        return exchange;
+    }
+
+    /**
+     * The host is resolved and the connection is established in the background, this method returns at once.
+     */
+    @Override
+    public void preconnect(Request request) throws IOException {
+        Route route = Route.get(request);
+        if (!isSupported(route)) {
+            if (mFallback instanceof PreconnectFactory) ((PreconnectFactory) mFallback).preconnect(request);
+            return;
+        }
+        EventLoop loop = loop(route);
+        submit(new Exchange(loop, request, route, null, null, PRECONNECT_CALLBACK), null);
+    }
+
+    /**
+     * Create the pipe of the body, the body without a length is chunked.
+     */
+    static RequestPipe pipe(Request request) {
+        Headers headers = request.headers();
+        if (headers.isChunked()) return new RequestPipe(true, -1);
+        if (!headers.containsKey(KEY_CONTENT_LENGTH)) {
+            headers.set(KEY_TRANSFER_ENCODING, VALUE_CHUNKED);
+            return new RequestPipe(true, -1);
+        }
+        return new RequestPipe(false, headers.getContentLength());
+    }
+
+    /**
+     * Send the request, the body is written to the pipe meanwhile.
+     *
+     * @param body the pipe of the body, null if the request has no body.
+     */
+    Exchange enqueue(Request request, RequestPipe body, ConnectCallback callback) {
+        Route route = Route.get(request);
+        EventLoop loop;
+        try {
+            loop = loop(route);
+        } catch (IOException e) {
+            ConnectException error = new ConnectException(String.format("An unknown exception: %1$s.", request.url()), e);
+            if (body != null) body.fail(error);
+            callback.onFailure(error);
+            return new Exchange(null, request, route, null, body, callback);
+        }
+
+        byte[] head = null;
+        IOException error = null;
+        try {
+            head = encode(request, route);
+        } catch (IOException e) {
+            error = new ConnectException(String.format("An unknown exception: %1$s.", request.url()), e);
+        }
+        Exchange exchange = new Exchange(loop, request, route, head, body, callback);
+        submit(exchange, error);
+        return exchange;
+    }
+
+    /**
+     * Resolve the host on a worker thread, the dns may block, then hand the exchange to its loop.
+     */
+    private void submit(final Exchange exchange, final IOException error) {
+        final EventLoop loop = exchange.loop();
+        if (error != null) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.fail(error);
+                }
+            });
+            return;
+        }
+
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (exchange.isCancelled()) return;
+
+                IOException failure = null;
+                try {
+                    exchange.addresses(addresses(exchange.route()));
+                } catch (UnknownHostException e) {
+                    failure = new HostError(String.format("Hostname can not be resolved: %1$s.", exchange.request().url()), e);
+                } catch (IOException e) {
+                    failure = new ConnectException(String.format("An unknown exception: %1$s.", exchange.request().url()), e);
+                }
+
+                final IOException result = failure;
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == null) loop.submit(exchange);
+                        else exchange.fail(result);
+                    }
+                });
+            }
+        });
+    }
+
+    private synchronized EventLoop loop(Route route) throws IOException {
+        if (mLoops == null) {
+            EventLoop[] loops = new EventLoop[mIoThreads];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(this, "Kalle NIO " + i);
+            }
+            mLoops = loops;
+        }
+        return mLoops[(route.hashCode() & Integer.MAX_VALUE) % mLoops.length];
+    }
+
+    /**
+     * The addresses are tried one by one, the family which won last time comes first.
+     */
+    private static List<InetSocketAddress> addresses(Route route) throws IOException {
+        List<InetSocketAddress> addresses = SocketConnector.sort(route, route.addresses(Kalle.getConfig().getDns()));
+        if (addresses.isEmpty()) throw new UnknownHostException("No address of " + route + ".");
+        return addresses;
+    }
+
+    private static byte[] encode(Request request, Route route) throws IOException {
+        Headers headers = request.headers();
+        RequestMethod method = request.method();
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(method.toString()).append(' ').append(requestTarget(request.url(), route)).append(" HTTP/1.1\r\n");
+        builder.append(KEY_HOST).append(": ").append(route.hostHeader()).append("\r\n");
+        Map<String, String> requestHeaders = Headers.getRequestHeaders(headers);
+        for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+            String key = entry.getKey();
+            if (KEY_HOST.equalsIgnoreCase(key)) continue;
+            builder.append(key).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        builder.append("\r\n");
+
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private static String requestTarget(Url url, Route route) {
+        String path = url.getPath();
+        String target = (TextUtils.isEmpty(path) ? "/" : path) + url.getQuery();
+        // The plain request through the http proxy uses the absolute url.
+        if (!route.isSecure() && route.proxy().type() == Proxy.Type.HTTP) {
+            return "http://" + route.hostHeader() + target;
+        }
+        return target;
+    }
+
+    private static SSLContext defaultSSLContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Builder {
+
+        private int mIoThreads = 2;
+        private int mMaxConnectionsPerRoute = 5;
+        private long mKeepAliveNanos = TimeUnit.MINUTES.toNanos(5);
+        private SSLContext mSSLContext;
+        private ConnectFactory mFallback;
+
+        private Builder() {
+        }
+
+        /**
+         * The count of the I/O threads.
+         */
+        public Builder ioThreads(int count) {
+            if (count <= 0) throw new IllegalArgumentException("The count must be greater than 0.");
+            this.mIoThreads = count;
+            return this;
+        }
+
+        /**
+         * The maximum count of connections to one route, the requests beyond it wait for a connection.
+         */
+        public Builder maxConnectionsPerRoute(int count) {
+            if (count <= 0) throw new IllegalArgumentException("The count must be greater than 0.");
+            this.mMaxConnectionsPerRoute = count;
+            return this;
+        }
+
+        /**
+         * The time to keep an idle connection.
+         */
+        public Builder keepAlive(long time, TimeUnit timeUnit) {
+            this.mKeepAliveNanos = timeUnit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * The SSLContext creates the engines of the https requests with {@link #sslSocketFactory()},
+         * the default is {@link SSLContext#getDefault()} because the engine can not be taken from a SSLSocketFactory.
+         * The requests with a {@link CompatSSLSocketFactory} use its own context,
+         * the requests with any other SSLSocketFactory are executed by the fallback.
+         */
+        public Builder sslContext(SSLContext sslContext) {
+            this.mSSLContext = sslContext;
+            return this;
+        }
+
+        /**
+         * The factory executes the requests which can not be sent by the I/O threads,
+         * the default is {@link URLConnectionFactory}.
+         */
+        public Builder fallback(ConnectFactory fallback) {
+            this.mFallback = fallback;
+            return this;
+        }
+
+        public NioConnectFactory build() {
+            return new NioConnectFactory(this);
+        }
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.connect.SocketConnector;
+import com.yanzhenjie.kalle.connect.StatusLine;
+import com.yanzhenjie.kalle.connect.StreamBody;
+import com.yanzhenjie.kalle.exception.ConnectException;
+import com.yanzhenjie.kalle.exception.ConnectTimeoutError;
+import com.yanzhenjie.kalle.exception.ReadException;
+import com.yanzhenjie.kalle.exception.ReadTimeoutError;
+import com.yanzhenjie.kalle.exception.WriteException;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONNECTION;
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
+import static com.yanzhenjie.kalle.Headers.VALUE_CLOSE;
+import static com.yanzhenjie.kalle.Headers.VALUE_KEEP_ALIVE;
+
+/**
+ * <p>
+ * A non-blocking connection driven by the readiness events of its {@link EventLoop}.
+ * </p>
+ */
+final class NioConnection implements RequestPipe.Listener, ResponsePipe.Listener {
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_TUNNELING = 1;
+    private static final int STATE_HANDSHAKING = 2;
+    private static final int STATE_WRITING = 3;
+    private static final int STATE_READING = 4;
+    private static final int STATE_IDLE = 5;
+    private static final int STATE_CLOSED = 6;
+
+    /**
+     * Open a connection for the exchange, the connection is established asynchronously.
+     */
+    static NioConnection open(EventLoop loop, Exchange exchange) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            NioConnection connection = new NioConnection(loop, exchange.route(), channel);
+            connection.mExchange = exchange;
+            connection.mState = STATE_CONNECTING;
+            connection.mDeadline = deadline(exchange.request().connectTimeout());
+            exchange.connection(connection);
+
+            boolean connected = channel.connect(exchange.address());
+            // When the connection is established immediately, the writable event continues the work.
+            connection.mKey = channel.register(loop.selector(), connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+            return connection;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    private final EventLoop mLoop;
+    private final Route mRoute;
+    private final SocketChannel mChannel;
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(16 * 1024);
+    private SelectionKey mKey;
+    private TlsLayer mTls;
+
+    private int mState;
+    private long mDeadline;
+    private boolean mReused;
+
+    private Exchange mExchange;
+    private ByteBuffer mOutput;
+    private RequestPipe mBody;
+    private ResponseParser mParser;
+    private ResponsePipe mResponseBody;
+    private boolean mDelivered;
+
+    private NioConnection(EventLoop loop, Route route, SocketChannel channel) {
+        this.mLoop = loop;
+        this.mRoute = route;
+        this.mChannel = channel;
+    }
+
+    Route route() {
+        return mRoute;
+    }
+
+    /**
+     * The time in nanoseconds when the current step times out, 0 means no deadline.
+     */
+    long deadline() {
+        return mDeadline;
+    }
+
+    /**
+     * Start the exchange on this idle connection.
+     */
+    void start(Exchange exchange) {
+        mExchange = exchange;
+        exchange.connection(this);
+        mReused = true;
+        try {
+            startWriting();
+        } catch (RuntimeException e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * The channel is ready for the operations of its interest.
+     */
+    void onReady() {
+        try {
+            switch (mState) {
+                case STATE_CONNECTING: {
+                    if (mChannel.isConnectionPending() && !mChannel.finishConnect()) return;
+                    onConnected();
+                    break;
+                }
+                case STATE_TUNNELING: {
+                    tunnel();
+                    break;
+                }
+                case STATE_HANDSHAKING: {
+                    handshake();
+                    break;
+                }
+                case STATE_WRITING: {
+                    write();
+                    break;
+                }
+                case STATE_READING: {
+                    read();
+                    break;
+                }
+                case STATE_IDLE: {
+                    // The server closed the idle connection, or sent bytes nobody asked for.
+                    close();
+                    mLoop.onClosed(this, null);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * An unexpected exception is thrown while the connection is served, such as by the SSLEngine.
+     */
+    void onError(Throwable t) {
+        if (mState == STATE_CLOSED) {
+            EventLoop.uncaught(t);
+            return;
+        }
+        fail(t instanceof IOException ? (IOException) t : new IOException(t));
+    }
+
+    /**
+     * The deadline has passed.
+     */
+    void onTimeout() {
+        if (mState == STATE_IDLE) {
+            close();
+            mLoop.onClosed(this, null);
+        } else {
+            fail(new SocketTimeoutException("timeout"));
+        }
+    }
+
+    /**
+     * Close the connection without notifying the exchange.
+     */
+    void abort() {
+        if (mDelivered) mResponseBody.fail(new InterruptedIOException("The request is cancelled."));
+        mExchange = null;
+        close();
+        mLoop.onClosed(this, null);
+    }
+
+    @Override
+    public void onReadable(RequestPipe pipe) {
+        resume(pipe);
+    }
+
+    @Override
+    public void onDrained(ResponsePipe pipe) {
+        resume(pipe);
+    }
+
+    @Override
+    public void onAbandoned(final ResponsePipe pipe) {
+        mLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The rest of the body is not wanted, it is cheaper to close the connection than to drain it.
+                if (pipe == mResponseBody) abort();
+            }
+        });
+    }
+
+    /**
+     * Continue the exchange which waits for the caller, on the thread of the loop.
+     */
+    private void resume(final Object pipe) {
+        mLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_CLOSED || (pipe != mBody && pipe != mResponseBody)) return;
+                try {
+                    onReady();
+                } catch (RuntimeException e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    void close() {
+        mState = STATE_CLOSED;
+        mDeadline = 0;
+        if (mKey != null) mKey.cancel();
+        IOUtils.closeQuietly(mChannel);
+    }
+
+    private void onConnected() throws IOException {
+        SocketConnector.remember(mRoute, mExchange.address());
+        if (mRoute.isSecure() && mRoute.proxy().type() == Proxy.Type.HTTP) {
+            String target = mRoute.host() + ":" + mRoute.port();
+            String connect = "CONNECT " + target + " HTTP/1.1\r\nHost: " + target + "\r\nProxy-Connection: Keep-Alive\r\n\r\n";
+            mOutput = ByteBuffer.wrap(connect.getBytes("ISO-8859-1"));
+            mParser = new ResponseParser(true, null);
+            mState = STATE_TUNNELING;
+            tunnel();
+        } else if (mRoute.isSecure()) {
+            startHandshake();
+        } else {
+            startWriting();
+        }
+    }
+
+    private void tunnel() throws IOException {
+        if (mOutput.hasRemaining()) {
+            mChannel.write(mOutput);
+            if (mOutput.hasRemaining()) {
+                interest(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        while (true) {
+            mReadBuffer.clear();
+            int count = mChannel.read(mReadBuffer);
+            if (count < 0) throw new EOFException("The proxy closed the connection.");
+            if (count == 0) {
+                interest(SelectionKey.OP_READ);
+                return;
+            }
+            mReadBuffer.flip();
+            if (mParser.feed(mReadBuffer)) break;
+        }
+
+        int code = mParser.statusLine().code();
+        if (code != 200) throw new IOException("Unable to tunnel through the proxy, the response code is " + code + ".");
+        startHandshake();
+    }
+
+    private void startHandshake() throws IOException {
+        SSLEngine engine = mLoop.createEngine(mRoute);
+        mTls = new TlsLayer(engine);
+        mState = STATE_HANDSHAKING;
+        handshake();
+    }
+
+    private void handshake() throws IOException {
+        if (!mTls.handshake(mChannel)) {
+            interest(mTls.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            return;
+        }
+
+        HostnameVerifier verifier = mRoute.hostnameVerifier();
+        if (verifier != null && !verifier.verify(mRoute.host(), mTls.engine().getSession())) {
+            throw new SSLPeerUnverifiedException("Hostname " + mRoute.host() + " not verified.");
+        }
+        startWriting();
+    }
+
+    private void startWriting() {
+        if (mExchange.isPreconnect()) {
+            Exchange exchange = mExchange;
+            mExchange = null;
+            idle();
+            exchange.succeed(null);
+            return;
+        }
+        mState = STATE_WRITING;
+        mOutput = mExchange.head();
+        mBody = mExchange.body();
+        if (mBody != null) mBody.listener(this);
+        mResponseBody = new ResponsePipe(mLoop, this);
+        mDelivered = false;
+        mParser = new ResponseParser(mExchange.request().method() == RequestMethod.HEAD, mResponseBody);
+        mDeadline = deadline(mExchange.request().readTimeout());
+        interest(SelectionKey.OP_WRITE);
+    }
+
+    private void write() throws IOException {
+        while (true) {
+            if (mTls == null) {
+                mChannel.write(mOutput);
+            } else {
+                mTls.write(mChannel, mOutput);
+            }
+            if (mOutput.hasRemaining() || (mTls != null && mTls.hasPendingOutput())) {
+                mDeadline = deadline(mExchange.request().readTimeout());
+                interest(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (mBody == null) break;
+
+            ByteBuffer segment = mBody.poll();
+            if (segment != null) {
+                mOutput = segment;
+                continue;
+            }
+            if (mBody.isFinished()) break;
+            // The caller has not written the rest, the pipe notifies when it does.
+            mDeadline = 0;
+            interest(0);
+            return;
+        }
+
+        mState = STATE_READING;
+        mDeadline = deadline(mExchange.request().readTimeout());
+        interest(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        while (true) {
+            mReadBuffer.clear();
+            int count = mTls == null ? mChannel.read(mReadBuffer) : mTls.read(mChannel, mReadBuffer);
+            if (count < 0) {
+                mParser.endOfInput();
+                complete(false);
+                return;
+            }
+            if (count == 0) {
+                interest(SelectionKey.OP_READ);
+                return;
+            }
+
+            mDeadline = deadline(mExchange.request().readTimeout());
+            mReadBuffer.flip();
+            if (mParser.feed(mReadBuffer)) {
+                // The server sent more than the response, the connection can not be trusted.
+                complete(!mReadBuffer.hasRemaining());
+                return;
+            }
+            if (mParser.isHeadComplete() && !mDelivered) {
+                mDelivered = true;
+                mExchange.succeed(response(mParser, mResponseBody));
+            }
+            // The caller is slower than the server, the reading continues when the pipe is drained.
+            if (mResponseBody.pause()) {
+                mDeadline = 0;
+                interest(0);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The whole response has arrived, the connection is reused only now.
+     */
+    private void complete(boolean reusable) {
+        Exchange exchange = mExchange;
+        Request request = exchange.request();
+        ResponseParser parser = mParser;
+        ResponsePipe body = mResponseBody;
+        boolean delivered = mDelivered;
+        boolean keepAlive = reusable && !parser.isUntilClose() && isKeepAlive(request, parser.statusLine(), parser.headers());
+
+        mExchange = null;
+        mParser = null;
+        mOutput = null;
+        mBody = null;
+        mResponseBody = null;
+        mDelivered = false;
+        body.finish();
+        if (keepAlive) {
+            idle();
+        } else {
+            close();
+            mLoop.onClosed(this, null);
+        }
+
+        if (!delivered) exchange.succeed(response(parser, body));
+    }
+
+    private static Response response(ResponseParser parser, ResponsePipe body) {
+        Headers headers = parser.headers();
+        String contentEncoding = headers.getFirst(KEY_CONTENT_ENCODING);
+        InputStream stream = TextUtils.isEmpty(contentEncoding) ? body : new DecodingStream(contentEncoding, body);
+        return Response.newBuilder()
+                .code(parser.statusLine().code())
+                .headers(headers)
+                .body(new StreamBody(headers.getContentType(), stream))
+                .build();
+    }
+
+    private void idle() {
+        mState = STATE_IDLE;
+        mDeadline = System.nanoTime() + mLoop.keepAliveNanos();
+        interest(SelectionKey.OP_READ);
+        mLoop.onIdle(this);
+    }
+
+    private static boolean isKeepAlive(Request request, StatusLine statusLine, Headers headers) {
+        if (statusLine.code() == 101) return false;
+        if (VALUE_CLOSE.equalsIgnoreCase(request.headers().getFirst(KEY_CONNECTION))) return false;
+
+        String connection = headers.getFirst(KEY_CONNECTION);
+        if (statusLine.isHttp11()) return !VALUE_CLOSE.equalsIgnoreCase(connection);
+        return VALUE_KEEP_ALIVE.equalsIgnoreCase(connection);
+    }
+
+    private void fail(IOException e) {
+        int state = mState;
+        Exchange exchange = mExchange;
+        boolean started = mParser != null && mParser.hasStarted();
+        ResponsePipe body = mDelivered ? mResponseBody : null;
+        mExchange = null;
+        close();
+
+        if (exchange == null) {
+            mLoop.onClosed(this, null);
+            return;
+        }
+
+        // The response has been delivered, the caller reading its body receives the exception.
+        if (body != null) {
+            mLoop.onClosed(this, null);
+            body.fail(translate(state, exchange.request(), e));
+            return;
+        }
+
+        // The address can not be connected, the next address of the route is tried on a new connection.
+        if (state == STATE_CONNECTING && exchange.nextAddress()) {
+            exchange.connection(null);
+            mLoop.onClosed(this, exchange);
+            return;
+        }
+
+        // The server closed the pooled connection before processing the request, it is safe to send it again.
+        boolean stale = mReused && !started && !(e instanceof SocketTimeoutException)
+                && (state == STATE_WRITING || state == STATE_READING) && exchange.isRepeatable();
+        if (stale && exchange.retry()) {
+            exchange.connection(null);
+            mLoop.onClosed(this, exchange);
+            return;
+        }
+
+        mLoop.onClosed(this, null);
+        exchange.fail(translate(state, exchange.request(), e));
+    }
+
+    private static IOException translate(int state, Request request, IOException e) {
+        switch (state) {
+            case STATE_CONNECTING:
+            case STATE_TUNNELING:
+            case STATE_HANDSHAKING: {
+                if (e instanceof SocketTimeoutException) {
+                    return new ConnectTimeoutError(String.format("Connect time out: %1$s.", request.url()), e);
+                }
+                return new ConnectException(String.format("An unknown exception: %1$s.", request.url()), e);
+            }
+            case STATE_WRITING: {
+                return new WriteException(e);
+            }
+            default: {
+                if (e instanceof SocketTimeoutException) {
+                    return new ReadTimeoutError(String.format("Read data time out: %1$s.", request.url()), e);
+                }
+                return new ReadException(e);
+            }
+        }
+    }
+
+    private void interest(int ops) {
+        if (mKey.isValid()) mKey.interestOps(ops);
+    }
+
+    private static long deadline(int timeoutMillis) {
+        return timeoutMillis <= 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * The decoders read the header of the coding when they are created,
+     * so the decoder is created at the first read, on the thread of the caller.
+     */
+    private static final class DecodingStream extends InputStream {
+
+        private final String mContentEncoding;
+        private final InputStream mSource;
+        private InputStream mStream;
+
+        DecodingStream(String contentEncoding, InputStream source) {
+            this.mContentEncoding = contentEncoding;
+            this.mSource = source;
+        }
+
+        private InputStream stream() throws IOException {
+            if (mStream == null) {
+                try {
+                    mStream = Kalle.getConfig().getContentDecoders().decode(mContentEncoding, mSource);
+                } catch (RuntimeException e) {
+                    throw new IOException(e);
+                }
+            }
+            return mStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return stream().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return stream().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mStream == null ? 0 : mStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mStream == null) mSource.close();
+            else mStream.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <p>
+ * The body of the request, the caller writes it and the {@link EventLoop} sends it as the channel allows.
+ * The bytes are handed over in segments of 8 KiB, the writer waits when the loop falls behind by 8 segments.
+ * </p>
+ */
+final class RequestPipe extends OutputStream {
+
+    private static final int SEGMENT_SIZE = 8 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    interface Listener {
+
+        /**
+         * A segment is available or the body ends, it is called on the thread of the writer.
+         */
+        void onReadable(RequestPipe pipe);
+    }
+
+    private final boolean mChunked;
+    private final long mLength;
+    private final Deque<ByteBuffer> mSegments = new ArrayDeque<>();
+
+    private byte[] mBuffer = new byte[SEGMENT_SIZE];
+    private int mCount;
+    private long mWritten;
+    private boolean mClosed;
+    private boolean mStarted;
+    private boolean mWaiting;
+    private IOException mAbort;
+    private IOException mFailure;
+    private Listener mListener;
+
+    /**
+     * @param chunked the body is sent with the chunked transfer coding.
+     * @param length  the Content-Length of the body, it is ignored if the body is chunked.
+     */
+    RequestPipe(boolean chunked, long length) {
+        this.mChunked = chunked;
+        this.mLength = length;
+    }
+
+    synchronized void listener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (!mChunked && mWritten + len > mLength) {
+            throw new ProtocolException("The body is longer than the Content-Length " + mLength + ".");
+        }
+        mWritten += len;
+        while (len > 0) {
+            int count = Math.min(len, SEGMENT_SIZE - mCount);
+            System.arraycopy(b, off, mBuffer, mCount, count);
+            mCount += count;
+            off += count;
+            len -= count;
+            if (mCount == SEGMENT_SIZE) emit();
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        emit();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) return;
+        checkOpen();
+        emit();
+        if (!mChunked && mWritten != mLength) {
+            throw new ProtocolException("The body is shorter than the Content-Length " + mLength + ".");
+        }
+        if (mChunked) mSegments.addLast(ByteBuffer.wrap(LAST_CHUNK));
+        mClosed = true;
+        signal();
+    }
+
+    /**
+     * The writer can not complete the body, the exchange fails with the exception.
+     */
+    synchronized void abort(IOException e) {
+        if (mClosed || mAbort != null) return;
+        mAbort = e;
+        signal();
+    }
+
+    /**
+     * Take the next segment, it is called on the thread of the loop.
+     *
+     * @return the segment, null if there is not any yet, then the listener is notified of the next one.
+     */
+    synchronized ByteBuffer poll() throws IOException {
+        if (mAbort != null) throw mAbort;
+        ByteBuffer segment = mSegments.pollFirst();
+        if (segment != null) {
+            mStarted = true;
+            notifyAll();
+            return segment;
+        }
+        if (!mClosed) mWaiting = true;
+        return null;
+    }
+
+    /**
+     * The whole body has been taken.
+     */
+    synchronized boolean isFinished() {
+        return mClosed && mSegments.isEmpty();
+    }
+
+    /**
+     * No segment has been taken and the writer has not given up, the body can be sent on another connection.
+     */
+    synchronized boolean isRepeatable() {
+        return !mStarted && mAbort == null;
+    }
+
+    /**
+     * The exchange failed, the writer stops with the exception.
+     */
+    synchronized void fail(IOException e) {
+        if (mFailure != null) return;
+        mFailure = e;
+        mSegments.clear();
+        notifyAll();
+    }
+
+    private void emit() throws IOException {
+        if (mCount == 0) return;
+        while (mSegments.size() >= MAX_SEGMENTS && mFailure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The writing is interrupted.");
+            }
+        }
+        checkOpen();
+
+        ByteBuffer segment;
+        if (mChunked) {
+            byte[] size = (Integer.toHexString(mCount) + "\r\n").getBytes("ISO-8859-1");
+            byte[] chunk = new byte[size.length + mCount + 2];
+            System.arraycopy(size, 0, chunk, 0, size.length);
+            System.arraycopy(mBuffer, 0, chunk, size.length, mCount);
+            chunk[chunk.length - 2] = '\r';
+            chunk[chunk.length - 1] = '\n';
+            segment = ByteBuffer.wrap(chunk);
+        } else {
+            segment = ByteBuffer.wrap(mBuffer, 0, mCount);
+            mBuffer = new byte[SEGMENT_SIZE];
+        }
+        mCount = 0;
+        mSegments.addLast(segment);
+        signal();
+    }
+
+    private void signal() {
+        if (!mWaiting || mListener == null) return;
+        mWaiting = false;
+        mListener.onReadable(this);
+    }
+
+    private void checkOpen() throws IOException {
+        if (mFailure != null) throw new IOException("The request is failed.", mFailure);
+        if (mAbort != null || mClosed) throw new IOException("The body is closed.");
+    }
+}
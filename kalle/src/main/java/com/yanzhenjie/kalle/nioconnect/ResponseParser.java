@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.connect.StatusLine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+
+/**
+ * <p>
+ * Parse the HTTP/1.1 response incrementally, as the bytes arrive from the channel.
+ * </p>
+ */
+final class ResponseParser {
+
+    private static final String KEY_TRANSFER_ENCODING = "Transfer-Encoding";
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int STATE_HEAD = 0;
+    private static final int STATE_FIXED = 1;
+    private static final int STATE_CHUNK_SIZE = 2;
+    private static final int STATE_CHUNK_DATA = 3;
+    private static final int STATE_CHUNK_END = 4;
+    private static final int STATE_TRAILERS = 5;
+    private static final int STATE_UNTIL_CLOSE = 6;
+    private static final int STATE_DONE = 7;
+
+    private final boolean mHeadOnly;
+    private final StringBuilder mLine = new StringBuilder(128);
+    private boolean mStarted;
+    private int mState = STATE_HEAD;
+
+    private StatusLine mStatusLine;
+    private Headers mHeaders;
+    private long mRemaining;
+    private final ResponsePipe mBody;
+
+    /**
+     * @param headOnly the response has no body, such as the response of HEAD or CONNECT.
+     * @param body     receive the bytes of the body, null if the response has no body.
+     */
+    ResponseParser(boolean headOnly, ResponsePipe body) {
+        this.mHeadOnly = headOnly;
+        this.mBody = body;
+    }
+
+    /**
+     * Any byte of the response has been received.
+     */
+    boolean hasStarted() {
+        return mStarted;
+    }
+
+    /**
+     * The status line and the headers have been parsed, the rest is the body.
+     */
+    boolean isHeadComplete() {
+        return mState != STATE_HEAD;
+    }
+
+    /**
+     * The body is delimited by the end of the connection.
+     */
+    boolean isUntilClose() {
+        return mState == STATE_UNTIL_CLOSE || (mState == STATE_DONE && mRemaining < 0);
+    }
+
+    StatusLine statusLine() {
+        return mStatusLine;
+    }
+
+    Headers headers() {
+        return mHeaders;
+    }
+
+    /**
+     * Consume the bytes of the buffer, the bytes of the body are offered to the pipe as they are parsed,
+     * the bytes after the end of the response are not consumed.
+     *
+     * @return true if the response is complete.
+     */
+    boolean feed(ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining()) mStarted = true;
+
+        while (buffer.hasRemaining() && mState != STATE_DONE) {
+            switch (mState) {
+                case STATE_HEAD: {
+                    String line = readLine(buffer);
+                    if (line != null) onHeadLine(line);
+                    break;
+                }
+                case STATE_FIXED:
+                case STATE_CHUNK_DATA: {
+                    int count = (int) Math.min(mRemaining, buffer.remaining());
+                    mBody.offer(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+                    buffer.position(buffer.position() + count);
+                    mRemaining -= count;
+                    if (mRemaining == 0) mState = mState == STATE_FIXED ? STATE_DONE : STATE_CHUNK_END;
+                    break;
+                }
+                case STATE_CHUNK_SIZE: {
+                    String line = readLine(buffer);
+                    if (line != null) onChunkSize(line);
+                    break;
+                }
+                case STATE_CHUNK_END: {
+                    String line = readLine(buffer);
+                    if (line == null) break;
+                    if (line.length() > 0) throw new ProtocolException("Unexpected chunk end: " + line);
+                    mState = STATE_CHUNK_SIZE;
+                    break;
+                }
+                case STATE_TRAILERS: {
+                    String line = readLine(buffer);
+                    if (line != null && line.length() == 0) mState = STATE_DONE;
+                    break;
+                }
+                case STATE_UNTIL_CLOSE: {
+                    int count = buffer.remaining();
+                    mBody.offer(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+                    buffer.position(buffer.limit());
+                    break;
+                }
+            }
+        }
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * The server closed the connection.
+     *
+     * @return true if the response is complete.
+     */
+    boolean endOfInput() throws IOException {
+        if (mState == STATE_UNTIL_CLOSE) {
+            mState = STATE_DONE;
+            mRemaining = -1;
+            return true;
+        }
+        if (mState == STATE_DONE) return true;
+        throw new EOFException("Unexpected end of stream.");
+    }
+
+    private String readLine(ByteBuffer buffer) throws ProtocolException {
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xFF);
+            if (c == '\n') {
+                int length = mLine.length();
+                if (length > 0 && mLine.charAt(length - 1) == '\r') mLine.setLength(length - 1);
+                String line = mLine.toString();
+                mLine.setLength(0);
+                return line;
+            }
+            if (mLine.length() >= MAX_LINE_LENGTH) throw new ProtocolException("The line is too long.");
+            mLine.append(c);
+        }
+        return null;
+    }
+
+    private void onHeadLine(String line) throws IOException {
+        if (mStatusLine == null) {
+            mStatusLine = StatusLine.parse(line);
+            mHeaders = new Headers();
+            return;
+        }
+        if (line.length() > 0) {
+            int index = line.indexOf(':');
+            if (index <= 0) throw new ProtocolException("Unexpected header: " + line);
+            mHeaders.add(line.substring(0, index).trim(), line.substring(index + 1).trim());
+            return;
+        }
+
+        int code = mStatusLine.code();
+        // The interim responses are skipped, such as 100 Continue.
+        if (code >= 100 && code < 200 && code != 101) {
+            mStatusLine = null;
+            mHeaders = null;
+            return;
+        }
+        mState = bodyState(code);
+    }
+
+    private int bodyState(int code) throws ProtocolException {
+        if (mHeadOnly || (code >= 100 && code < 200) || code == 204 || code == 304) return STATE_DONE;
+
+        String transferEncoding = mHeaders.getFirst(KEY_TRANSFER_ENCODING);
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            return STATE_CHUNK_SIZE;
+        }
+
+        String contentLength = mHeaders.getFirst(KEY_CONTENT_LENGTH);
+        if (!TextUtils.isEmpty(contentLength)) {
+            try {
+                mRemaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected Content-Length: " + contentLength);
+            }
+            if (mRemaining < 0) throw new ProtocolException("Unexpected Content-Length: " + contentLength);
+            return mRemaining == 0 ? STATE_DONE : STATE_FIXED;
+        }
+        return STATE_UNTIL_CLOSE;
+    }
+
+    private void onChunkSize(String line) throws ProtocolException {
+        int index = line.indexOf(';');
+        String size = (index < 0 ? line : line.substring(0, index)).trim();
+        try {
+            mRemaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected chunk size: " + line);
+        }
+        if (mRemaining < 0) throw new ProtocolException("Unexpected chunk size: " + line);
+        mState = mRemaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <p>
+ * The body of the response, the {@link EventLoop} offers the bytes as they arrive and the caller reads them.
+ * The loop stops reading the channel when 64 KiB are waiting, and continues when the caller has read half of them.
+ * </p>
+ */
+final class ResponsePipe extends InputStream {
+
+    private static final int MAX_BUFFERED = 64 * 1024;
+
+    interface Listener {
+
+        /**
+         * The caller has read enough, the loop can read the channel again. It is called on the thread of the caller.
+         */
+        void onDrained(ResponsePipe pipe);
+
+        /**
+         * The caller closed the body before its end, the connection can not be reused. It is called on the thread of the caller.
+         */
+        void onAbandoned(ResponsePipe pipe);
+    }
+
+    private final EventLoop mLoop;
+    private final Listener mListener;
+    private final Deque<byte[]> mSegments = new ArrayDeque<>();
+
+    private int mPosition;
+    private int mBuffered;
+    private boolean mPaused;
+    private boolean mFinished;
+    private boolean mClosed;
+    private IOException mFailure;
+
+    ResponsePipe(EventLoop loop, Listener listener) {
+        this.mLoop = loop;
+        this.mListener = listener;
+    }
+
+    /**
+     * Add the bytes of the body, it is called on the thread of the loop.
+     */
+    synchronized void offer(byte[] b, int off, int len) {
+        if (mClosed || len == 0) return;
+        byte[] segment = new byte[len];
+        System.arraycopy(b, off, segment, 0, len);
+        mSegments.addLast(segment);
+        mBuffered += len;
+        notifyAll();
+    }
+
+    /**
+     * Stop reading the channel if too many bytes are waiting.
+     *
+     * @return true if the loop should pause, then the listener is notified when the caller has read enough.
+     */
+    synchronized boolean pause() {
+        if (mBuffered < MAX_BUFFERED || mClosed) return false;
+        mPaused = true;
+        return true;
+    }
+
+    /**
+     * The whole body has been offered.
+     */
+    synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * The connection failed before the end of the body.
+     */
+    synchronized void fail(IOException e) {
+        if (mFinished || mFailure != null) return;
+        mFailure = e;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count = read(b, 0, 1);
+        return count < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        boolean resume;
+        int count;
+        synchronized (this) {
+            while (mSegments.isEmpty()) {
+                if (mClosed) throw new IOException("The body is closed.");
+                if (mFailure != null) throw mFailure;
+                if (mFinished) return -1;
+                // The loop would wait for itself.
+                if (mLoop.inLoop()) {
+                    throw new IOException("The body has not arrived, it can not be read on the I/O thread.");
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("The reading is interrupted.");
+                }
+            }
+
+            byte[] segment = mSegments.peekFirst();
+            count = Math.min(len, segment.length - mPosition);
+            System.arraycopy(segment, mPosition, b, off, count);
+            mPosition += count;
+            if (mPosition == segment.length) {
+                mSegments.pollFirst();
+                mPosition = 0;
+            }
+            mBuffered -= count;
+            resume = mPaused && mBuffered <= MAX_BUFFERED / 2;
+            if (resume) mPaused = false;
+        }
+        if (resume) mListener.onDrained(this);
+        return count;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return mBuffered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean abandoned;
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            abandoned = !mFinished && mFailure == null;
+            mSegments.clear();
+            mBuffered = 0;
+            notifyAll();
+        }
+        if (abandoned) mListener.onAbandoned(this);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.nioconnect;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * <p>
+ * TLS over a non-blocking channel, the reads and writes never block and return 0 when the channel is not ready.
+ * </p>
+ */
+final class TlsLayer {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine mEngine;
+    /**
+     * Encrypted bytes from the channel, in write mode.
+     */
+    private ByteBuffer mNetIn;
+    /**
+     * Encrypted bytes for the channel, in read mode.
+     */
+    private ByteBuffer mNetOut;
+    /**
+     * Decrypted bytes which have not been consumed, in read mode.
+     */
+    private ByteBuffer mAppIn;
+
+    TlsLayer(SSLEngine engine) throws SSLException {
+        this.mEngine = engine;
+        SSLSession session = engine.getSession();
+        this.mNetIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.mNetOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.mNetOut.flip();
+        this.mAppIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.mAppIn.flip();
+        engine.beginHandshake();
+    }
+
+    SSLEngine engine() {
+        return mEngine;
+    }
+
+    /**
+     * Continue the handshake as far as the channel allows.
+     *
+     * @return true if the handshake is finished.
+     */
+    boolean handshake(SocketChannel channel) throws IOException {
+        while (true) {
+            if (!flush(channel)) return false;
+            switch (mEngine.getHandshakeStatus()) {
+                case NOT_HANDSHAKING:
+                case FINISHED: {
+                    return true;
+                }
+                case NEED_TASK: {
+                    runDelegatedTasks();
+                    break;
+                }
+                case NEED_WRAP: {
+                    wrap(EMPTY);
+                    break;
+                }
+                default: {
+                    SSLEngineResult result = unwrap();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("The connection is closed during the handshake.");
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        int count = channel.read(mNetIn);
+                        if (count < 0) throw new EOFException("The connection is closed during the handshake.");
+                        if (count == 0) return false;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * There are encrypted bytes waiting for the channel to be writable.
+     */
+    boolean hasPendingOutput() {
+        return mNetOut.hasRemaining();
+    }
+
+    /**
+     * Encrypt and send the bytes of the buffer.
+     *
+     * @return the count of bytes consumed from the buffer.
+     */
+    int write(SocketChannel channel, ByteBuffer source) throws IOException {
+        int consumed = 0;
+        while (flush(channel) && source.hasRemaining()) {
+            consumed += wrap(source).bytesConsumed();
+        }
+        return consumed;
+    }
+
+    /**
+     * Read and decrypt bytes into the buffer.
+     *
+     * @return the count of bytes read, 0 if the channel has no data, -1 if the connection is closed.
+     */
+    int read(SocketChannel channel, ByteBuffer target) throws IOException {
+        while (!mAppIn.hasRemaining()) {
+            SSLEngineResult result = null;
+            if (mNetIn.position() > 0) {
+                result = unwrap();
+                if (mAppIn.hasRemaining()) break;
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) return -1;
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) runDelegatedTasks();
+            }
+            if (result == null || result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || result.bytesConsumed() == 0) {
+                int count = channel.read(mNetIn);
+                if (count < 0) return -1;
+                if (count == 0) return 0;
+            }
+        }
+
+        int count = Math.min(mAppIn.remaining(), target.remaining());
+        if (count == mAppIn.remaining()) {
+            target.put(mAppIn);
+        } else {
+            ByteBuffer slice = mAppIn.duplicate();
+            slice.limit(slice.position() + count);
+            target.put(slice);
+            mAppIn.position(mAppIn.position() + count);
+        }
+        return count;
+    }
+
+    /**
+     * Write the pending encrypted bytes.
+     *
+     * @return true if all bytes have been written.
+     */
+    boolean flush(SocketChannel channel) throws IOException {
+        while (mNetOut.hasRemaining()) {
+            if (channel.write(mNetOut) == 0) return false;
+        }
+        return true;
+    }
+
+    private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+        mNetOut.compact();
+        SSLEngineResult result;
+        try {
+            result = mEngine.wrap(source, mNetOut);
+        } finally {
+            mNetOut.flip();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("The SSLEngine is closed.");
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            mNetOut = enlarge(mNetOut, mEngine.getSession().getPacketBufferSize());
+        }
+        return result;
+    }
+
+    private SSLEngineResult unwrap() throws IOException {
+        mNetIn.flip();
+        mAppIn.compact();
+        SSLEngineResult result;
+        try {
+            result = mEngine.unwrap(mNetIn, mAppIn);
+        } finally {
+            mNetIn.compact();
+            mAppIn.flip();
+        }
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW: {
+                mAppIn = enlarge(mAppIn, mEngine.getSession().getApplicationBufferSize());
+                break;
+            }
+            case BUFFER_UNDERFLOW: {
+                // The record is larger than the buffer.
+                if (!mNetIn.hasRemaining()) {
+                    mNetIn.flip();
+                    mNetIn = enlarge(mNetIn, mEngine.getSession().getPacketBufferSize());
+                    mNetIn.position(mNetIn.limit()).limit(mNetIn.capacity());
+                }
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = mEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Copy the readable bytes of the buffer into a larger buffer, the result is in read mode.
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.remaining() + minCapacity));
+        larger.put(buffer);
+        larger.flip();
+        return larger;
+    }
+}
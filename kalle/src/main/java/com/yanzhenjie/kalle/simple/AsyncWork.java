@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * The work does not hold a thread while the request is in flight,
+ * the cache and the converter run on the executor, the network runs on the I/O threads.
+ * </p>
+ */
+final class AsyncWork<T extends SimpleRequest, S, F> implements Runnable, Canceller, ConnectCallback {
+
+    private final BasicWorker<T, S, F> mWorker;
+    private final Callback<S, F> mCallback;
+    private final Executor mExecutor;
+
+    private final AtomicBoolean mFinished = new AtomicBoolean(false);
+    private volatile boolean mCancelled;
+    private volatile Canceller mNetwork;
+
+    AsyncWork(BasicWorker<T, S, F> worker, Callback<S, F> callback, Executor executor) {
+        this.mWorker = worker;
+        this.mCallback = callback;
+        this.mExecutor = executor;
+    }
+
+    @Override
+    public void run() {
+        if (mCancelled) return;
+        mCallback.onStart();
+
+        try {
+            SimpleResponse<S, F> cacheResponse = mWorker.beforeNetwork();
+            if (cacheResponse != null) {
+                succeed(cacheResponse);
+                return;
+            }
+
+            mNetwork = mWorker.enqueue(this);
+            if (mCancelled) mNetwork.cancel();
+        } catch (IOException e) {
+            onNetworkFailure(e);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onResponse(final Response response) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    succeed(mWorker.onNetworkResponse(response));
+                } catch (IOException e) {
+                    onNetworkFailure(e);
+                } catch (Exception e) {
+                    fail(e);
+                } finally {
+                    IOUtils.closeQuietly(response);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onFailure(final IOException e) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onNetworkFailure(e);
+            }
+        });
+    }
+
+    private void onNetworkFailure(IOException e) {
+        try {
+            succeed(mWorker.onNetworkFailure(e));
+        } catch (Exception exception) {
+            fail(exception);
+        }
+    }
+
+    private void succeed(SimpleResponse<S, F> response) {
+        if (!mFinished.compareAndSet(false, true)) return;
+        mCallback.onResponse(response);
+        mCallback.onEnd();
+    }
+
+    private void fail(Exception e) {
+        if (!mFinished.compareAndSet(false, true)) return;
+        mCallback.onException(e);
+        mCallback.onEnd();
+    }
+
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        Canceller network = mNetwork;
+        if (network != null) network.cancel();
+
+        if (!mFinished.compareAndSet(false, true)) return;
+        mCallback.onCancel();
+        mCallback.onEnd();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
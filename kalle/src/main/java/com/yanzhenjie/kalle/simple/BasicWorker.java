@@ -15,9 +15,12 @@
  */
 package com.yanzhenjie.kalle.simple;
 
+import com.yanzhenjie.kalle.Canceller;
 import com.yanzhenjie.kalle.Headers;
 import com.yanzhenjie.kalle.Kalle;
 import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.exception.CircuitOpenError;
 import com.yanzhenjie.kalle.exception.NoCacheError;
 import com.yanzhenjie.kalle.exception.ParseError;
 import com.yanzhenjie.kalle.simple.cache.Cache;
@@ -55,37 +58,65 @@ abstract class BasicWorker<T extends SimpleRequest, Succeed, Failed> implements
 
     @Override
     public final SimpleResponse<Succeed, Failed> call() throws Exception {
+        SimpleResponse<Succeed, Failed> cacheResponse = beforeNetwork();
+        if (cacheResponse != null) return cacheResponse;
+
+        Response response = null;
+        try {
+            response = requestNetwork(mRequest);
+            return onNetworkResponse(response);
+        } catch (IOException e) {
+            return onNetworkFailure(e);
+        } finally {
+            IOUtils.closeQuietly(response);
+        }
+    }
+
+    /**
+     * Read the cache before the network, and attach the validators of the cache to the request.
+     *
+     * @return the response from the cache, null if the network is needed.
+     */
+    final SimpleResponse<Succeed, Failed> beforeNetwork() throws IOException {
         Response response = tryReadCacheBefore();
         if (response != null) return buildSimpleResponse(response, true);
 
         tryAttachCache();
+        return null;
+    }
 
-        try {
-            response = requestNetwork(mRequest);
+    /**
+     * Handle the response of the network, it reads the body and updates the cache.
+     *
+     * @throws IOException the body can not be read or parsed, it should go to {@link #onNetworkFailure(IOException)}.
+     */
+    final SimpleResponse<Succeed, Failed> onNetworkResponse(Response response) throws IOException {
+        int code = response.code();
+        if (code == 304) {
+            Response cacheResponse = tryReadCacheAfter(-1);
+            if (cacheResponse != null) return buildSimpleResponse(cacheResponse, true);
+            else return buildSimpleResponse(response, false);
+        }
+        Headers headers = response.headers();
+        byte[] body = response.body().byteArray();
+        IOUtils.closeQuietly(response);
 
-            int code = response.code();
-            if (code == 304) {
-                Response cacheResponse = tryReadCacheAfter(-1);
-                if (cacheResponse != null) return buildSimpleResponse(cacheResponse, true);
-                else return buildSimpleResponse(response, false);
-            }
-            Headers headers = response.headers();
-            byte[] body = response.body().byteArray();
-            IOUtils.closeQuietly(response);
+        tryDetachCache(code, headers, body);
 
-            tryDetachCache(code, headers, body);
+        response = buildResponse(code, headers, body);
+        return buildSimpleResponse(response, false);
+    }
 
-            response = buildResponse(code, headers, body);
-            return buildSimpleResponse(response, false);
-        } catch (IOException e) {
-            Response cacheResponse = tryReadCacheAfter(-1);
-            if (cacheResponse != null) {
-                return buildSimpleResponse(cacheResponse, true);
-            }
-            throw e;
-        } finally {
-            IOUtils.closeQuietly(response);
+    /**
+     * The network failed, read the cache instead of it if the cache mode allows.
+     */
+    final SimpleResponse<Succeed, Failed> onNetworkFailure(IOException e) throws IOException {
+        Response cacheResponse = tryReadCacheAfter(-1);
+        if (cacheResponse == null && e instanceof CircuitOpenError) cacheResponse = tryReadCacheOpen();
+        if (cacheResponse != null) {
+            return buildSimpleResponse(cacheResponse, true);
         }
+        throw e;
     }
 
     /**
@@ -97,6 +128,23 @@ abstract class BasicWorker<T extends SimpleRequest, Succeed, Failed> implements
      */
     protected abstract Response requestNetwork(T request) throws IOException;
 
+    /**
+     * Perform a network request without occupying the calling thread.
+     *
+     * @param request  target request.
+     * @param callback receive the {@link Response}, it is called on the I/O thread.
+     * @return this request corresponds to the task cancel handle.
+     * @throws IOException the request can not be sent.
+     */
+    protected abstract Canceller enqueueNetwork(T request, ConnectCallback callback) throws IOException;
+
+    /**
+     * Send the request to the network, the response goes to the callback.
+     */
+    final Canceller enqueue(ConnectCallback callback) throws IOException {
+        return enqueueNetwork(mRequest, callback);
+    }
+
     private Response tryReadCacheBefore() throws NoCacheError {
         CacheMode cacheMode = mRequest.cacheMode();
         switch (cacheMode) {
@@ -242,6 +290,24 @@ abstract class BasicWorker<T extends SimpleRequest, Succeed, Failed> implements
         return null;
     }
 
+    /**
+     * The circuit of the server is open, the expired cache is better than nothing unless the mode is network only.
+     */
+    private Response tryReadCacheOpen() {
+        CacheMode cacheMode = mRequest.cacheMode();
+        switch (cacheMode) {
+            case NETWORK:
+            case NETWORK_YES_THEN_WRITE_CACHE: {
+                return null;
+            }
+            default: {
+                Cache cache = mCacheStore.get(mRequest.cacheKey());
+                if (cache == null) return null;
+                return buildResponse(cache.getCode(), cache.getHeaders(), cache.getBody());
+            }
+        }
+    }
+
     private void attachCache(Headers cacheHeaders) {
         Headers headers = mRequest.headers();
         String eTag = cacheHeaders.getETag();
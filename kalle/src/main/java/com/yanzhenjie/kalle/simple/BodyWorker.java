@@ -15,7 +15,9 @@
  */
 package com.yanzhenjie.kalle.simple;
 
+import com.yanzhenjie.kalle.Canceller;
 import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
 import com.yanzhenjie.kalle.connect.http.Call;
 
 import java.io.IOException;
@@ -34,4 +36,9 @@ final class BodyWorker<S, F> extends BasicWorker<SimpleBodyRequest, S, F> {
     protected Response requestNetwork(SimpleBodyRequest request) throws IOException {
         return new Call(request).execute();
     }
+
+    @Override
+    protected Canceller enqueueNetwork(SimpleBodyRequest request, ConnectCallback callback) throws IOException {
+        return new Call(request).enqueue(callback);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.connect.http.Call;
+import com.yanzhenjie.kalle.connect.http.ResponseFuture;
+import com.yanzhenjie.kalle.util.IOExecutor;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Execute a {@link Call} which is not owned by the calling thread, such as it is shared or raced.
+ * The call is enqueued if it supports, otherwise it runs on a thread of its own.
+ * </p>
+ */
+final class CallExecutor {
+
+    /**
+     * When all its threads are busy the call runs on the calling thread, the future is complete once it returns.
+     */
+    private static final ExecutorService EXECUTOR = IOExecutor.get();
+
+    private CallExecutor() {
+    }
+
+    /**
+     * Run the task which may block on a thread of the executor, such as reading a body off the I/O thread.
+     */
+    static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Execute the request, cancelling the future cancels the call, or closes its connection and interrupts its thread.
+     */
+    static ResponseFuture execute(final Request request) {
+        if (Call.isAsyncSupported()) return new Call(request).executeAsync();
+
+        final ResponseFuture future = new ResponseFuture();
+        final Call call = new Call(request);
+        final Future<?> task = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.onResponse(call.execute());
+                } catch (IOException e) {
+                    future.fail(e);
+                }
+            }
+        });
+        future.setCanceller(new Canceller() {
+            @Override
+            public void cancel() {
+                // The interruption does not reach a thread blocked in the socket, closing the connection does.
+                call.cancel();
+                task.cancel(true);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+        });
+        return future;
+    }
+}
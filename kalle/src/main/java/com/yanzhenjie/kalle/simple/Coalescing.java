@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.http.Call;
+import com.yanzhenjie.kalle.connect.http.ResponseFuture;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.yanzhenjie.kalle.Headers.KEY_COOKIE;
+
+/**
+ * <p>
+ * The identical requests in flight which ask for it share one call, such as several views load the same url at once.
+ * Each caller receives its own response of the shared body, and the call is cancelled when all the callers cancel.
+ * </p>
+ */
+final class Coalescing {
+
+    private final Map<String, Flight> mFlights = new HashMap<>();
+    private final Hedging mHedging;
+
+    Coalescing(Hedging hedging) {
+        this.mHedging = hedging;
+    }
+
+    /**
+     * Whether the request shares a call, it is asked for and only the requests which read are shared.
+     */
+    static boolean isCoalesced(SimpleUrlRequest request) {
+        RequestMethod method = request.method();
+        return request.coalesce() && (method == RequestMethod.GET || method == RequestMethod.HEAD) && request.isIdempotent();
+    }
+
+    /**
+     * Join the call of the identical request or start one, the calling thread waits for the response.
+     */
+    Response execute(SimpleUrlRequest request) throws IOException {
+        return join(request, true).await();
+    }
+
+    /**
+     * Join the call of the identical request or start one, the callback receives the response.
+     */
+    Canceller enqueue(SimpleUrlRequest request, ConnectCallback callback) {
+        ResponseFuture future = join(request, false);
+        future.addCallback(callback);
+        return future;
+    }
+
+    /**
+     * @param inline the calling thread is going to wait, it executes the blocking call itself.
+     */
+    private ResponseFuture join(SimpleUrlRequest request, boolean inline) {
+        String key = key(request);
+        Flight flight;
+        ResponseFuture future;
+        boolean owner = false;
+        synchronized (mFlights) {
+            flight = mFlights.get(key);
+            future = flight == null ? null : flight.join();
+            if (future == null) {
+                flight = new Flight(key);
+                mFlights.put(key, flight);
+                future = flight.join();
+                owner = true;
+            }
+        }
+        if (owner) {
+            if (inline && !Call.isAsyncSupported() && !Hedging.isHedged(request)) flight.run(request, future);
+            else flight.start(request);
+        }
+        return future;
+    }
+
+    /**
+     * The requests are identical when the method, the cache key and the headers are the same,
+     * the headers include the validators of the cache.
+     */
+    private static String key(SimpleUrlRequest request) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(request.method()).append(' ').append(request.url()).append('\n');
+        builder.append(request.cacheKey()).append('\n');
+        Headers headers = request.headers();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            builder.append(entry.getKey()).append(':');
+            for (String value : entry.getValue()) {
+                builder.append(value).append(',');
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A shared call, the body is read once and every caller gets a response of it.
+     */
+    private final class Flight implements ConnectCallback {
+
+        private final String mKey;
+        private final List<ResponseFuture> mCallers = new ArrayList<>();
+        private int mReferences;
+        private boolean mFinished;
+        private ResponseFuture mNetwork;
+
+        private Flight(String key) {
+            this.mKey = key;
+        }
+
+        /**
+         * Add a caller.
+         *
+         * @return the future of the caller, null if the call can not be joined any more.
+         */
+        private synchronized ResponseFuture join() {
+            if (mFinished) return null;
+            final ResponseFuture future = new ResponseFuture();
+            future.setCanceller(new Canceller() {
+                @Override
+                public void cancel() {
+                    leave(future);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return future.isCancelled();
+                }
+            });
+            mCallers.add(future);
+            mReferences++;
+            return future;
+        }
+
+        private void start(SimpleUrlRequest request) {
+            ResponseFuture network = Hedging.isHedged(request) ? mHedging.start(request) : CallExecutor.execute(request);
+            boolean cancelled;
+            synchronized (this) {
+                mNetwork = network;
+                cancelled = mFinished;
+            }
+            if (cancelled) network.cancel();
+            else network.addCallback(this);
+        }
+
+        /**
+         * Execute the call on the thread of the owner, it is sent again for the other callers if the owner is interrupted.
+         */
+        private void run(SimpleUrlRequest request, ResponseFuture owner) {
+            Response response;
+            try {
+                response = new Call(request).execute();
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted() && hasOthers(owner)) {
+                    leave(owner);
+                    owner.fail(e);
+                    SimpleUrlRequest copy = request.copy();
+                    copy.headers().remove(KEY_COOKIE);
+                    start(copy);
+                } else {
+                    onFailure(e);
+                }
+                return;
+            }
+            share(response);
+        }
+
+        private synchronized boolean hasOthers(ResponseFuture owner) {
+            return !mFinished && mReferences > (mCallers.contains(owner) ? 1 : 0);
+        }
+
+        /**
+         * A caller cancels, the call is cancelled when no caller is left.
+         */
+        private void leave(ResponseFuture future) {
+            ResponseFuture network;
+            synchronized (this) {
+                if (mFinished || !mCallers.remove(future)) return;
+                if (--mReferences > 0) return;
+                mFinished = true;
+                network = mNetwork;
+            }
+            remove();
+            if (network != null) network.cancel();
+        }
+
+        @Override
+        public void onResponse(final Response response) {
+            // The body may still be arriving, it is not read on the I/O thread.
+            CallExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    share(response);
+                }
+            });
+        }
+
+        /**
+         * Read the body once and complete every caller with a response of it.
+         */
+        private void share(Response response) {
+            byte[] body;
+            try {
+                body = response.body().byteArray();
+            } catch (IOException e) {
+                onFailure(e);
+                return;
+            } finally {
+                IOUtils.closeQuietly(response);
+            }
+
+            for (ResponseFuture caller : finish()) {
+                Headers headers = new Headers();
+                headers.add(response.headers());
+                caller.complete(Response.newBuilder()
+                        .code(response.code())
+                        .headers(headers)
+                        .body(new ByteArrayBody(headers.getContentType(), body))
+                        .build());
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            for (ResponseFuture caller : finish()) {
+                caller.fail(e);
+            }
+        }
+
+        /**
+         * The later requests start a new call, the callers so far receive the result.
+         */
+        private List<ResponseFuture> finish() {
+            List<ResponseFuture> callers;
+            synchronized (this) {
+                mFinished = true;
+                callers = new ArrayList<>(mCallers);
+                mCallers.clear();
+            }
+            remove();
+            return callers;
+        }
+
+        private void remove() {
+            synchronized (mFlights) {
+                if (mFlights.get(mKey) == this) mFlights.remove(mKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.simple;
+
+import com.yanzhenjie.kalle.Canceller;
+import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.http.ResponseFuture;
+import com.yanzhenjie.kalle.util.IOExecutor;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Send a second identical request when the first one is slow, the first response wins and the other one is cancelled.
+ * Each host has a budget of hedges, a request earns a part of a hedge, so the extra load is at most a tenth.
+ * </p>
+ */
+final class Hedging {
+
+    private static final int MAX_HOSTS = 256;
+    private static final int SAMPLES = 64;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_TOKENS = 10;
+    private static final double TOKEN_RATIO = 0.1;
+
+    private static final ThreadFactory THREAD_FACTORY = IOExecutor.threadFactory("Kalle Hedge");
+
+    private final Map<String, Host> mHosts = new LinkedHashMap<String, Host>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Host> eldest) {
+            return size() > MAX_HOSTS;
+        }
+    };
+
+    private ScheduledExecutorService mScheduler;
+
+    Hedging() {
+    }
+
+    /**
+     * Whether the request is hedged, the non-idempotent requests are never hedged.
+     */
+    static boolean isHedged(SimpleUrlRequest request) {
+        return request.hedgeDelay() != 0 && request.isIdempotent();
+    }
+
+    /**
+     * Execute the request and the hedge, the calling thread waits for the winner.
+     */
+    Response execute(SimpleUrlRequest request) throws IOException {
+        return start(request).await();
+    }
+
+    /**
+     * Execute the request and the hedge, the callback receives the winner.
+     */
+    Canceller enqueue(SimpleUrlRequest request, ConnectCallback callback) {
+        ResponseFuture future = start(request);
+        future.addCallback(callback);
+        return future;
+    }
+
+    /**
+     * Execute the request and the hedge, the future is completed by the winner.
+     */
+    ResponseFuture start(SimpleUrlRequest request) {
+        Host host = host(request);
+        host.deposit();
+
+        // The copy is taken before the request is sent, the connector adds the headers to the original.
+        Race race = new Race(host, request.copy());
+        race.launch(request);
+
+        long delay = request.hedgeDelay() == SimpleUrlRequest.HEDGE_ADAPTIVE ? host.p95() : request.hedgeDelay();
+        if (delay > 0) race.mTimer = scheduler().schedule(race, delay, TimeUnit.MILLISECONDS);
+        return race.mResult;
+    }
+
+    private Host host(SimpleUrlRequest request) {
+        String host = request.url().getHost();
+        String key = host == null ? "" : host.toLowerCase(Locale.ENGLISH);
+        synchronized (mHosts) {
+            Host value = mHosts.get(key);
+            if (value == null) {
+                value = new Host();
+                mHosts.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (mScheduler == null) mScheduler = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+        return mScheduler;
+    }
+
+    /**
+     * The latencies and the hedge budget of a host.
+     */
+    private static final class Host {
+
+        private final long[] mSamples = new long[SAMPLES];
+        private int mCount;
+        private double mTokens = MAX_TOKENS;
+
+        private synchronized void record(long latency) {
+            mSamples[mCount % SAMPLES] = latency;
+            mCount++;
+        }
+
+        /**
+         * The p95 of the recent latencies, 0 if there are not enough samples.
+         */
+        private long p95() {
+            long[] samples;
+            synchronized (this) {
+                if (mCount < MIN_SAMPLES) return 0;
+                samples = Arrays.copyOf(mSamples, Math.min(mCount, SAMPLES));
+            }
+            Arrays.sort(samples);
+            return Math.max(1, samples[(int) Math.ceil(samples.length * 0.95) - 1]);
+        }
+
+        private synchronized void deposit() {
+            mTokens = Math.min(MAX_TOKENS, mTokens + TOKEN_RATIO);
+        }
+
+        private synchronized boolean acquire() {
+            if (mTokens < 1) return false;
+            mTokens -= 1;
+            return true;
+        }
+    }
+
+    /**
+     * The attempts of a request, the timer sends the hedge.
+     */
+    private final class Race implements Runnable, Canceller {
+
+        private final Host mHost;
+        private final SimpleUrlRequest mHedge;
+        private final ResponseFuture mResult = new ResponseFuture();
+        private final ResponseFuture[] mAttempts = new ResponseFuture[2];
+        private int mLaunched;
+        private int mFailed;
+        private Future<?> mTimer;
+
+        private Race(Host host, SimpleUrlRequest hedge) {
+            this.mHost = host;
+            this.mHedge = hedge;
+            mResult.setCanceller(this);
+        }
+
+        /**
+         * The delay is over without a response.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mResult.isDone() || mLaunched > 1) return;
+            }
+            if (mHost.acquire()) launch(mHedge);
+        }
+
+        private void launch(SimpleUrlRequest request) {
+            final ResponseFuture attempt = CallExecutor.execute(request);
+            synchronized (this) {
+                mAttempts[mLaunched++] = attempt;
+            }
+
+            final long start = System.nanoTime();
+            attempt.addCallback(new ConnectCallback() {
+                @Override
+                public void onResponse(Response response) {
+                    mHost.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    if (mResult.complete(response)) cancelOthers(attempt);
+                    else IOUtils.closeQuietly(response);
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    onAttemptFailure(e);
+                }
+            });
+        }
+
+        /**
+         * The request fails when all the attempts fail, a failure before the delay is not hedged.
+         */
+        private void onAttemptFailure(IOException e) {
+            boolean failed;
+            synchronized (this) {
+                mFailed++;
+                failed = mFailed == mLaunched;
+            }
+            if (failed && mResult.fail(e)) cancelOthers(null);
+        }
+
+        private void cancelOthers(ResponseFuture winner) {
+            Future<?> timer;
+            ResponseFuture[] attempts;
+            synchronized (this) {
+                timer = mTimer;
+                attempts = mAttempts.clone();
+            }
+            if (timer != null) timer.cancel(false);
+            for (ResponseFuture attempt : attempts) {
+                if (attempt != null && attempt != winner) attempt.cancel();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelOthers(null);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mResult.isCancelled();
+        }
+    }
+}
@@ -18,6 +18,8 @@ package com.yanzhenjie.kalle.simple;
 import com.yanzhenjie.kalle.CancelerManager;
 import com.yanzhenjie.kalle.Canceller;
 import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.connect.http.Call;
 
 import java.lang.reflect.Type;
 import java.util.concurrent.Executor;
@@ -42,10 +44,14 @@ public class RequestManager {
 
     private final Executor mExecutor;
     private final CancelerManager mCancelManager;
+    private final Hedging mHedging;
+    private final Coalescing mCoalescing;
 
     private RequestManager() {
         this.mExecutor = Kalle.getConfig().getWorkExecutor();
         this.mCancelManager = new CancelerManager();
+        this.mHedging = new Hedging();
+        this.mCoalescing = new Coalescing(mHedging);
     }
 
     /**
@@ -57,17 +63,8 @@ public class RequestManager {
      * @param <F>      target object parameter.
      * @return this request corresponds to the task cancel handle.
      */
-    public <S, F> Canceller perform(final SimpleUrlRequest request, Callback<S, F> callback) {
-        final Work<SimpleUrlRequest, S, F> work = new Work<>(new UrlWorker<S, F>(request, callback.getSucceed(), callback.getFailed()), new AsyncCallback<S, F>(callback) {
-            @Override
-            public void onEnd() {
-                super.onEnd();
-                mCancelManager.removeCancel(request);
-            }
-        });
-        mCancelManager.addCancel(request, work);
-        mExecutor.execute(work);
-        return work;
+    public <S, F> Canceller perform(SimpleUrlRequest request, Callback<S, F> callback) {
+        return perform(request, new UrlWorker<S, F>(request, callback.getSucceed(), callback.getFailed(), mHedging, mCoalescing), callback);
     }
 
     /**
@@ -81,7 +78,7 @@ public class RequestManager {
      * @return the response to this request.
      */
     public <S, F> SimpleResponse<S, F> perform(SimpleUrlRequest request, Type succeed, Type failed) throws Exception {
-        return new UrlWorker<S, F>(request, succeed, failed).call();
+        return new UrlWorker<S, F>(request, succeed, failed, mHedging, mCoalescing).call();
     }
 
     /**
@@ -93,17 +90,8 @@ public class RequestManager {
      * @param <F>      target object parameter.
      * @return this request corresponds to the task cancel handle.
      */
-    public <S, F> Canceller perform(final SimpleBodyRequest request, Callback<S, F> callback) {
-        Work<SimpleBodyRequest, S, F> work = new Work<>(new BodyWorker<S, F>(request, callback.getSucceed(), callback.getFailed()), new AsyncCallback<S, F>(callback) {
-            @Override
-            public void onEnd() {
-                super.onEnd();
-                mCancelManager.removeCancel(request);
-            }
-        });
-        mCancelManager.addCancel(request, work);
-        mExecutor.execute(work);
-        return work;
+    public <S, F> Canceller perform(SimpleBodyRequest request, Callback<S, F> callback) {
+        return perform(request, new BodyWorker<S, F>(request, callback.getSucceed(), callback.getFailed()), callback);
     }
 
     /**
@@ -120,6 +108,34 @@ public class RequestManager {
         return new BodyWorker<S, F>(request, succeed, failed).call();
     }
 
+    /**
+     * The work does not hold a thread while waiting for the server if the {@link Call} supports it.
+     */
+    private <T extends SimpleRequest, S, F> Canceller perform(final Request request, BasicWorker<T, S, F> worker, Callback<S, F> callback) {
+        Callback<S, F> asyncCallback = new AsyncCallback<S, F>(callback) {
+            @Override
+            public void onEnd() {
+                super.onEnd();
+                mCancelManager.removeCancel(request);
+            }
+        };
+
+        Runnable runnable;
+        Canceller canceller;
+        if (Call.isAsyncSupported()) {
+            AsyncWork<T, S, F> work = new AsyncWork<>(worker, asyncCallback, mExecutor);
+            runnable = work;
+            canceller = work;
+        } else {
+            Work<T, S, F> work = new Work<>(worker, asyncCallback);
+            runnable = work;
+            canceller = work;
+        }
+        mCancelManager.addCancel(request, canceller);
+        mExecutor.execute(runnable);
+        return canceller;
+    }
+
     /**
      * Cancel multiple requests based on tag.
      *
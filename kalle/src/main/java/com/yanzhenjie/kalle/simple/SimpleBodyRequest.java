@@ -44,7 +44,7 @@ public class SimpleBodyRequest extends BodyRequest implements SimpleRequest {
     private SimpleBodyRequest(Api api) {
         super(api);
         this.mCacheMode = api.mCacheMode == null ? HTTP : api.mCacheMode;
-        this.mCacheKey = TextUtils.isEmpty(api.mCacheKey) ? url().toString() : api.mCacheKey;
+        this.mCacheKey = TextUtils.isEmpty(api.mCacheKey) ? url().getCacheKey() : api.mCacheKey;
 
         this.mConverter = api.mConverter;
     }
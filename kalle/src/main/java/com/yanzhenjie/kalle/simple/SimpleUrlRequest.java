@@ -24,6 +24,7 @@ import com.yanzhenjie.kalle.UrlRequest;
 import com.yanzhenjie.kalle.simple.cache.CacheMode;
 
 import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
 
 import static com.yanzhenjie.kalle.simple.cache.CacheMode.HTTP;
 
@@ -32,6 +33,11 @@ import static com.yanzhenjie.kalle.simple.cache.CacheMode.HTTP;
  */
 public class SimpleUrlRequest extends UrlRequest implements SimpleRequest {
 
+    /**
+     * The hedge is sent after the observed p95 latency of the host.
+     */
+    static final long HEDGE_ADAPTIVE = -1;
+
     public static SimpleUrlRequest.Api newApi(Url.Builder builder, RequestMethod method) {
         return new SimpleUrlRequest.Api(builder, method);
     }
@@ -40,13 +46,48 @@ public class SimpleUrlRequest extends UrlRequest implements SimpleRequest {
     private final String mCacheKey;
 
     private final Converter mConverter;
+    private final long mHedgeDelay;
+    private final boolean mCoalesce;
 
     private SimpleUrlRequest(Api api) {
         super(api);
         this.mCacheMode = api.mCacheMode == null ? HTTP : api.mCacheMode;
-        this.mCacheKey = TextUtils.isEmpty(api.mCacheKey) ? url().toString() : api.mCacheKey;
+        this.mCacheKey = TextUtils.isEmpty(api.mCacheKey) ? url().getCacheKey() : api.mCacheKey;
 
         this.mConverter = api.mConverter;
+        this.mHedgeDelay = api.mHedgeDelay;
+        this.mCoalesce = api.mCoalesce;
+    }
+
+    private SimpleUrlRequest(SimpleUrlRequest request) {
+        super(request);
+        this.mCacheMode = request.mCacheMode;
+        this.mCacheKey = request.mCacheKey;
+
+        this.mConverter = request.mConverter;
+        this.mHedgeDelay = request.mHedgeDelay;
+        this.mCoalesce = request.mCoalesce;
+    }
+
+    /**
+     * An identical request which can be sent at the same time as this one.
+     */
+    SimpleUrlRequest copy() {
+        return new SimpleUrlRequest(this);
+    }
+
+    /**
+     * The milliseconds to wait for the response before sending a hedge, 0 means no hedge.
+     */
+    long hedgeDelay() {
+        return mHedgeDelay;
+    }
+
+    /**
+     * Whether the request shares the call of an identical request in flight.
+     */
+    boolean coalesce() {
+        return mCoalesce;
     }
 
     @Override
@@ -70,6 +111,8 @@ public class SimpleUrlRequest extends UrlRequest implements SimpleRequest {
         private String mCacheKey;
 
         private Converter mConverter;
+        private long mHedgeDelay;
+        private boolean mCoalesce;
 
         private Api(Url.Builder builder, RequestMethod method) {
             super(builder, method);
@@ -90,12 +133,45 @@ public class SimpleUrlRequest extends UrlRequest implements SimpleRequest {
             return this;
         }
 
+        /**
+         * Send an identical request if there is no response after the delay, the first response wins.
+         * It only applies to the idempotent requests, and the hedges of a host are limited by its budget.
+         */
+        public Api hedge(long delay, TimeUnit timeUnit) {
+            if (delay <= 0) throw new IllegalArgumentException("The delay must be greater than 0.");
+            this.mHedgeDelay = Math.max(1, timeUnit.toMillis(delay));
+            return this;
+        }
+
+        /**
+         * Send an identical request if there is no response after the p95 latency of the host,
+         * nothing is hedged until the latency of the host is known.
+         */
+        public Api hedge() {
+            this.mHedgeDelay = HEDGE_ADAPTIVE;
+            return this;
+        }
+
+        /**
+         * Share the call of an identical request in flight instead of sending another one,
+         * the requests are identical when they have the same method, url, cache key and headers.
+         * It only applies to the idempotent GET and HEAD requests.
+         */
+        public Api coalesce() {
+            this.mCoalesce = true;
+            return this;
+        }
+
         public <S, F> SimpleResponse<S, F> perform(Type succeed, Type failed) throws Exception {
-            return RequestManager.getInstance().perform(new SimpleUrlRequest(this), succeed, failed);
+            return RequestManager.getInstance().perform(build(), succeed, failed);
         }
         
         public <S, F> Canceller perform(Callback<S, F> callback) {
-            return RequestManager.getInstance().perform(new SimpleUrlRequest(this), callback);
+            return RequestManager.getInstance().perform(build(), callback);
+        }
+
+        SimpleUrlRequest build() {
+            return new SimpleUrlRequest(this);
         }
     }
 }
\ No newline at end of file
@@ -15,7 +15,9 @@
  */
 package com.yanzhenjie.kalle.simple;
 
+import com.yanzhenjie.kalle.Canceller;
 import com.yanzhenjie.kalle.Response;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
 import com.yanzhenjie.kalle.connect.http.Call;
 
 import java.io.IOException;
@@ -26,12 +28,26 @@ import java.lang.reflect.Type;
  */
 final class UrlWorker<S, F> extends BasicWorker<SimpleUrlRequest, S, F> {
 
-    UrlWorker(SimpleUrlRequest request, Type succeed, Type failed) {
+    private final Hedging mHedging;
+    private final Coalescing mCoalescing;
+
+    UrlWorker(SimpleUrlRequest request, Type succeed, Type failed, Hedging hedging, Coalescing coalescing) {
         super(request, succeed, failed);
+        this.mHedging = hedging;
+        this.mCoalescing = coalescing;
     }
 
     @Override
     protected Response requestNetwork(SimpleUrlRequest request) throws IOException {
+        if (Coalescing.isCoalesced(request)) return mCoalescing.execute(request);
+        if (Hedging.isHedged(request)) return mHedging.execute(request);
         return new Call(request).execute();
     }
+
+    @Override
+    protected Canceller enqueueNetwork(SimpleUrlRequest request, ConnectCallback callback) throws IOException {
+        if (Coalescing.isCoalesced(request)) return mCoalescing.enqueue(request, callback);
+        if (Hedging.isHedged(request)) return mHedging.enqueue(request, callback);
+        return new Call(request).enqueue(callback);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+/**
+ * <p>
+ * The response body on a {@link RealConnection}, it knows whether the body has been fully read.
+ * </p>
+ */
+abstract class BodyInputStream extends InputStream {
+
+    protected final RealConnection mConnection;
+    private boolean mExhausted;
+    private boolean mClosed;
+
+    BodyInputStream(RealConnection connection) {
+        this.mConnection = connection;
+    }
+
+    /**
+     * All data of the body has been read, the connection can carry the next exchange.
+     */
+    final boolean isExhausted() {
+        return mExhausted;
+    }
+
+    protected final void setExhausted() {
+        this.mExhausted = true;
+    }
+
+    /**
+     * Read the body from the connection.
+     */
+    protected abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (mClosed) throw new IOException("Stream closed.");
+        return readBody(b, off, len);
+    }
+
+    /**
+     * Read and drop the remaining data, so that the connection can be reused.
+     *
+     * @param timeout milliseconds, the longest time to wait for the server.
+     * @return true if all data has been dropped.
+     */
+    final boolean discard(int timeout) {
+        if (mExhausted) return true;
+        Socket socket = mConnection.socket();
+        try {
+            int readTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(timeout);
+            try {
+                byte[] buffer = new byte[8 * 1024];
+                long deadline = System.nanoTime() + timeout * 1000000L;
+                while (readBody(buffer, 0, buffer.length) != -1) {
+                    if (System.nanoTime() > deadline) break;
+                }
+            } finally {
+                socket.setSoTimeout(readTimeout);
+            }
+        } catch (IOException ignored) {
+        }
+        return mExhausted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import com.yanzhenjie.kalle.connect.stream.ChannelOutput;
+import com.yanzhenjie.kalle.util.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * The request body on a {@link RealConnection}, it knows whether the body has been fully written.
+ * The files are sent by {@link FileChannel#transferTo(long, long, WritableByteChannel)} on a plain socket.
+ * </p>
+ */
+abstract class BodyOutputStream extends OutputStream implements ChannelOutput {
+
+    protected final OutputStream mOutput;
+    private final WritableByteChannel mChannel;
+    private boolean mClosed;
+
+    /**
+     * @param output  the buffered output of the socket.
+     * @param channel the channel of the socket, null if the socket has no channel or the data is encrypted.
+     */
+    BodyOutputStream(OutputStream output, WritableByteChannel channel) {
+        this.mOutput = output;
+        this.mChannel = channel;
+    }
+
+    /**
+     * All data of the body has been written, the response can be read.
+     */
+    abstract boolean isComplete();
+
+    /**
+     * Whether the bytes of a file can be sent by {@link #transfer(FileChannel, long, long)}.
+     */
+    protected final boolean canTransfer() {
+        return mChannel != null;
+    }
+
+    /**
+     * Send the bytes of the file through the channel of the socket.
+     */
+    protected final void transfer(FileChannel channel, long position, long count) throws IOException {
+        // The buffered bytes go before the file.
+        mOutput.flush();
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, mChannel);
+            if (transferred <= 0) throw new EOFException("The file is shorter than " + end + " bytes.");
+            position += transferred;
+        }
+    }
+
+    /**
+     * Write the bytes of the file through a pooled buffer.
+     */
+    protected final void copy(FileChannel channel, long position, long count) throws IOException {
+        byte[] buffer = BufferPool.obtain();
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            while (count > 0) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, count));
+                int read = channel.read(byteBuffer, position);
+                if (read < 0) throw new EOFException("The file is shorter than " + (position + count) + " bytes.");
+                write(buffer, 0, read);
+                position += read;
+                count -= read;
+            }
+            mOutput.flush();
+        } finally {
+            BufferPool.recycle(buffer);
+        }
+    }
+
+    protected final void checkNotClosed() throws IOException {
+        if (mClosed) throw new IOException("Stream closed.");
+    }
+
+    protected final boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mClosed) return;
+        mOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        mOutput.flush();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * <p>
+ * The response body with {@code Transfer-Encoding: chunked}.
+ * </p>
+ */
+final class ChunkedInputStream extends BodyInputStream {
+
+    private static final long NO_CHUNK_YET = -1L;
+
+    private long mChunkRemaining = NO_CHUNK_YET;
+    private boolean mHasMoreChunks = true;
+
+    ChunkedInputStream(RealConnection connection) {
+        super(connection);
+    }
+
+    @Override
+    protected int readBody(byte[] b, int off, int len) throws IOException {
+        if (!mHasMoreChunks) return -1;
+
+        if (mChunkRemaining == 0 || mChunkRemaining == NO_CHUNK_YET) {
+            readChunkSize();
+            if (!mHasMoreChunks) return -1;
+        }
+
+        int count = mConnection.input().read(b, off, (int) Math.min(len, mChunkRemaining));
+        if (count == -1) throw new EOFException("Unexpected end of stream, the chunk is incomplete.");
+        mChunkRemaining -= count;
+        return count;
+    }
+
+    private void readChunkSize() throws IOException {
+        // The CRLF at the end of the previous chunk.
+        if (mChunkRemaining != NO_CHUNK_YET) mConnection.readLine();
+
+        String line = mConnection.readLine();
+        int index = line.indexOf(';');
+        if (index != -1) line = line.substring(0, index);
+        try {
+            mChunkRemaining = Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Expected a hex chunk size but was: " + line);
+        }
+        if (mChunkRemaining < 0) throw new ProtocolException("Expected a hex chunk size but was: " + line);
+
+        if (mChunkRemaining == 0) {
+            // The trailers are not supported, read them until the empty line.
+            while (mConnection.readLine().length() > 0) {
+                // Skip the trailer.
+            }
+            mHasMoreChunks = false;
+            setExhausted();
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (!mHasMoreChunks || mChunkRemaining == NO_CHUNK_YET) return 0;
+        return (int) Math.min(mConnection.input().available(), mChunkRemaining);
+    }
+}
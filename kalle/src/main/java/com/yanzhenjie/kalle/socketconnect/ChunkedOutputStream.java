@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * The request body of unknown length, the small writes are gathered into a chunk of up to 8 KiB,
+ * which is sent when it is full or the stream is flushed, a large write is sent as a chunk of its own.
+ * Closing it sends the last chunk.
+ * </p>
+ */
+final class ChunkedOutputStream extends BodyOutputStream {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final byte[] mBuffer = new byte[CHUNK_SIZE];
+    private int mCount;
+
+    /**
+     * @param output  the buffered output of the socket.
+     * @param channel the channel of the socket, null if the socket has no channel or the data is encrypted.
+     */
+    ChunkedOutputStream(OutputStream output, WritableByteChannel channel) {
+        super(output, channel);
+    }
+
+    /**
+     * The last chunk has been written.
+     */
+    @Override
+    boolean isComplete() {
+        return isClosed();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkNotClosed();
+        // A chunk of zero length would end the body.
+        if (len == 0) return;
+        if (len >= CHUNK_SIZE) {
+            writeBuffer();
+            writeChunk(b, off, len);
+            return;
+        }
+        if (mCount + len > CHUNK_SIZE) writeBuffer();
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    @Override
+    public void transferFrom(FileChannel channel, long position, long count) throws IOException {
+        checkNotClosed();
+        if (count == 0) return;
+        writeBuffer();
+        if (canTransfer()) {
+            writeChunkSize(count);
+            transfer(channel, position, count);
+            mOutput.write(CRLF);
+        } else {
+            copy(channel, position, count);
+            flush();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (mCount == 0) return;
+        writeChunk(mBuffer, 0, mCount);
+        mCount = 0;
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        writeChunkSize(len);
+        mOutput.write(b, off, len);
+        mOutput.write(CRLF);
+    }
+
+    private void writeChunkSize(long size) throws IOException {
+        mOutput.write(Long.toHexString(size).getBytes("ISO-8859-1"));
+        mOutput.write(CRLF);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (isClosed()) return;
+        writeBuffer();
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed()) return;
+        writeBuffer();
+        mOutput.write(LAST_CHUNK);
+        super.close();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Keep the idle connections of each {@link Route}, the connections idle longer than keep-alive are closed.
+ * </p>
+ */
+public class ConnectionPool {
+
+    /**
+     * Connections idle longer than this are checked by reading the socket before they are reused.
+     */
+    private static final long EXTENSIVE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int mMaxIdlePerRoute;
+    private final long mKeepAliveNanos;
+    private final Map<Route, Deque<RealConnection>> mIdleConnections = new HashMap<>();
+
+    private boolean mCleanupRunning;
+    private final Runnable mCleanup = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                long waitNanos = cleanup(System.nanoTime());
+                if (waitNanos < 0) return;
+                synchronized (ConnectionPool.this) {
+                    try {
+                        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+                        ConnectionPool.this.wait(waitMillis, (int) (waitNanos - TimeUnit.MILLISECONDS.toNanos(waitMillis)));
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Keep at most 5 idle connections for each route, for at most 5 minutes.
+     */
+    public ConnectionPool() {
+        this(5, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param maxIdlePerRoute the maximum number of idle connections of each route.
+     * @param keepAlive       how long a idle connection is kept.
+     * @param timeUnit        unit of keepAlive.
+     */
+    public ConnectionPool(int maxIdlePerRoute, long keepAlive, TimeUnit timeUnit) {
+        if (maxIdlePerRoute < 0) throw new IllegalArgumentException("The maxIdlePerRoute can not be less than 0.");
+        this.mMaxIdlePerRoute = maxIdlePerRoute;
+        this.mKeepAliveNanos = timeUnit.toNanos(keepAlive);
+    }
+
+    /**
+     * Take a healthy idle connection of the route.
+     *
+     * @return null if there is no idle connection.
+     */
+    RealConnection get(Route route) {
+        List<RealConnection> broken = null;
+        RealConnection connection = null;
+        long now = System.nanoTime();
+        synchronized (this) {
+            Deque<RealConnection> deque = mIdleConnections.get(route);
+            if (deque == null) return null;
+            while (!deque.isEmpty()) {
+                // The most recently used is the most likely to be alive.
+                RealConnection candidate = deque.pollFirst();
+                if (now - candidate.idleAtNanos() < mKeepAliveNanos) {
+                    connection = candidate;
+                    break;
+                }
+                if (broken == null) broken = new ArrayList<>();
+                broken.add(candidate);
+            }
+            if (deque.isEmpty()) mIdleConnections.remove(route);
+        }
+        closeAll(broken);
+
+        if (connection != null) {
+            boolean extensive = now - connection.idleAtNanos() > EXTENSIVE_CHECK_NANOS;
+            if (connection.isHealthy(extensive)) return connection;
+            connection.close();
+            return get(route);
+        }
+        return null;
+    }
+
+    /**
+     * Whether the route has an idle connection, its health is not checked.
+     */
+    synchronized boolean hasIdle(Route route) {
+        return mIdleConnections.containsKey(route);
+    }
+
+    /**
+     * Return the connection, it will be reused by the next request of the same route.
+     */
+    void put(RealConnection connection) {
+        if (mMaxIdlePerRoute == 0 || mKeepAliveNanos <= 0) {
+            connection.close();
+            return;
+        }
+        RealConnection evicted = null;
+        synchronized (this) {
+            Route route = connection.route();
+            Deque<RealConnection> deque = mIdleConnections.get(route);
+            if (deque == null) {
+                deque = new ArrayDeque<>();
+                mIdleConnections.put(route, deque);
+            }
+            connection.setIdleAtNanos(System.nanoTime());
+            deque.addFirst(connection);
+            if (deque.size() > mMaxIdlePerRoute) evicted = deque.pollLast();
+
+            if (!mCleanupRunning) {
+                mCleanupRunning = true;
+                Thread thread = new Thread(mCleanup, "Kalle ConnectionPool");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        if (evicted != null) evicted.close();
+    }
+
+    /**
+     * Close the idle connections that have exceeded the keep-alive.
+     *
+     * @return the nanoseconds to wait before the next cleanup, -1 if there is no idle connection.
+     */
+    private long cleanup(long now) {
+        List<RealConnection> expired = new ArrayList<>();
+        long waitNanos = -1;
+        synchronized (this) {
+            Iterator<Map.Entry<Route, Deque<RealConnection>>> iterator = mIdleConnections.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Deque<RealConnection> deque = iterator.next().getValue();
+                Iterator<RealConnection> dequeIterator = deque.iterator();
+                while (dequeIterator.hasNext()) {
+                    RealConnection connection = dequeIterator.next();
+                    long remaining = mKeepAliveNanos - (now - connection.idleAtNanos());
+                    if (remaining <= 0) {
+                        dequeIterator.remove();
+                        expired.add(connection);
+                    } else if (waitNanos < 0 || remaining < waitNanos) {
+                        waitNanos = remaining;
+                    }
+                }
+                if (deque.isEmpty()) iterator.remove();
+            }
+            if (waitNanos < 0) mCleanupRunning = false;
+        }
+        closeAll(expired);
+        return waitNanos;
+    }
+
+    /**
+     * Get the count of idle connections.
+     */
+    public synchronized int idleConnectionCount() {
+        int count = 0;
+        for (Deque<RealConnection> deque : mIdleConnections.values()) count += deque.size();
+        return count;
+    }
+
+    /**
+     * Close all idle connections.
+     */
+    public void evictAll() {
+        List<RealConnection> connections = new ArrayList<>();
+        synchronized (this) {
+            for (Deque<RealConnection> deque : mIdleConnections.values()) connections.addAll(deque);
+            mIdleConnections.clear();
+            notifyAll();
+        }
+        closeAll(connections);
+    }
+
+    private static void closeAll(List<RealConnection> connections) {
+        if (connections == null) return;
+        for (RealConnection connection : connections) IOUtils.closeQuietly(connection);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * <p>
+ * The response body with {@code Content-Length}.
+ * </p>
+ */
+final class FixedLengthInputStream extends BodyInputStream {
+
+    private long mRemaining;
+
+    FixedLengthInputStream(RealConnection connection, long length) {
+        super(connection);
+        this.mRemaining = length;
+        if (mRemaining == 0) setExhausted();
+    }
+
+    @Override
+    protected int readBody(byte[] b, int off, int len) throws IOException {
+        if (mRemaining == 0) return -1;
+
+        int count = mConnection.input().read(b, off, (int) Math.min(len, mRemaining));
+        if (count == -1) {
+            throw new EOFException("Unexpected end of stream, " + mRemaining + " bytes of the body are missing.");
+        }
+        mRemaining -= count;
+        if (mRemaining == 0) setExhausted();
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (mRemaining == 0) return 0;
+        return (int) Math.min(mConnection.input().available(), mRemaining);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * The request body with {@code Content-Length}.
+ * </p>
+ */
+final class FixedLengthOutputStream extends BodyOutputStream {
+
+    private long mRemaining;
+
+    /**
+     * @param output  the buffered output of the socket.
+     * @param channel the channel of the socket, null if the socket has no channel or the data is encrypted.
+     * @param length  the length of the body.
+     */
+    FixedLengthOutputStream(OutputStream output, WritableByteChannel channel, long length) {
+        super(output, channel);
+        this.mRemaining = length;
+    }
+
+    /**
+     * All data declared by {@code Content-Length} has been written.
+     */
+    @Override
+    boolean isComplete() {
+        return mRemaining == 0;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkWrite(len);
+        mOutput.write(b, off, len);
+        mRemaining -= len;
+    }
+
+    @Override
+    public void transferFrom(FileChannel channel, long position, long count) throws IOException {
+        checkWrite(count);
+        if (canTransfer()) {
+            transfer(channel, position, count);
+            mRemaining -= count;
+        } else {
+            copy(channel, position, count);
+        }
+    }
+
+    private void checkWrite(long count) throws IOException {
+        checkNotClosed();
+        if (count > mRemaining) {
+            throw new ProtocolException("Expected " + mRemaining + " bytes but received " + count + ".");
+        }
+    }
+}
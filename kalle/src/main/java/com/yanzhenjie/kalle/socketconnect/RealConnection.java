@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.connect.SocketConnector;
+import com.yanzhenjie.kalle.connect.StatusLine;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * <p>
+ * A socket to the server of a {@link Route}, it can carry several exchanges in sequence.
+ * </p>
+ */
+final class RealConnection implements Closeable {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Connect to the server of the route, tunnel through the http proxy and complete the handshake if necessary.
+     * The plain socket has a channel if the connection is opened for sending files.
+     */
+    static RealConnection connect(Route route, int connectTimeout, int readTimeout, boolean channel) throws IOException {
+        Socket socket = SocketConnector.connect(route, Kalle.getConfig().getDns(), connectTimeout, channel);
+        try {
+            socket.setSoTimeout(readTimeout);
+            if (route.isSecure()) {
+                if (route.proxy().type() == Proxy.Type.HTTP) tunnel(socket, route);
+                socket = handshake(socket, route);
+            }
+            return new RealConnection(route, socket);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Open a tunnel through the http proxy to the server, https requests are sent through it.
+     */
+    private static void tunnel(Socket socket, Route route) throws IOException {
+        String target = route.host() + ":" + route.port();
+        OutputStream output = socket.getOutputStream();
+        String connect = "CONNECT " + target + " HTTP/1.1\r\n"
+                + "Host: " + target + "\r\n"
+                + "Proxy-Connection: Keep-Alive\r\n\r\n";
+        output.write(connect.getBytes("ISO-8859-1"));
+        output.flush();
+
+        // Read byte by byte, nothing after the response headers may be consumed before the handshake.
+        InputStream input = socket.getInputStream();
+        String statusLine = readLine(input);
+        int code = StatusLine.parse(statusLine).code();
+        while (readLine(input).length() > 0) {
+            // Skip the headers of the proxy.
+        }
+        if (code != 200) throw new ProtocolException("Unexpected response code for CONNECT: " + statusLine);
+    }
+
+    private static Socket handshake(Socket socket, Route route) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) route.sslSocketFactory().createSocket(socket, route.host(), route.port(), true);
+        sslSocket.startHandshake();
+        HostnameVerifier hostnameVerifier = route.hostnameVerifier();
+        if (hostnameVerifier != null && !hostnameVerifier.verify(route.host(), sslSocket.getSession())) {
+            IOUtils.closeQuietly(sslSocket);
+            throw new SSLPeerUnverifiedException("Hostname " + route.host() + " not verified.");
+        }
+        return sslSocket;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') builder.setLength(length - 1);
+                return builder.toString();
+            }
+            builder.append((char) b);
+        }
+        throw new EOFException("Unexpected end of stream.");
+    }
+
+    private final Route mRoute;
+    private final Socket mSocket;
+    private final BufferedInputStream mInput;
+    private final BufferedOutputStream mOutput;
+
+    private long mIdleAtNanos = System.nanoTime();
+
+    private RealConnection(Route route, Socket socket) throws IOException {
+        this.mRoute = route;
+        this.mSocket = socket;
+        this.mInput = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.mOutput = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    Route route() {
+        return mRoute;
+    }
+
+    Socket socket() {
+        return mSocket;
+    }
+
+    /**
+     * Get the channel of the plain socket, null if the socket is encrypted or opened without a channel.
+     */
+    WritableByteChannel channel() {
+        return mSocket.getChannel();
+    }
+
+    BufferedInputStream input() {
+        return mInput;
+    }
+
+    BufferedOutputStream output() {
+        return mOutput;
+    }
+
+    long idleAtNanos() {
+        return mIdleAtNanos;
+    }
+
+    void setIdleAtNanos(long idleAtNanos) {
+        this.mIdleAtNanos = idleAtNanos;
+    }
+
+    /**
+     * Read a line of the response head, the trailing CRLF is not contained.
+     */
+    String readLine() throws IOException {
+        return readLine(mInput);
+    }
+
+    /**
+     * Wait for the first byte of the response, it is left in the buffer.
+     *
+     * @return false if the server closed the connection without responding.
+     */
+    boolean awaitResponse() throws IOException {
+        mInput.mark(1);
+        int b = mInput.read();
+        mInput.reset();
+        return b != -1;
+    }
+
+    /**
+     * Whether the socket can carry a new exchange.
+     *
+     * @param extensive peek the socket, to find out whether the server has closed it.
+     */
+    boolean isHealthy(boolean extensive) {
+        if (mSocket.isClosed() || mSocket.isInputShutdown() || mSocket.isOutputShutdown()) return false;
+        if (!extensive) return true;
+
+        try {
+            int readTimeout = mSocket.getSoTimeout();
+            try {
+                mSocket.setSoTimeout(1);
+                // An idle connection has nothing to read, the end of stream or unexpected data makes it unusable.
+                mInput.read();
+                return false;
+            } finally {
+                mSocket.setSoTimeout(readTimeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(mSocket);
+    }
+}
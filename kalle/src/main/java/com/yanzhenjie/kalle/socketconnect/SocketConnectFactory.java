@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import com.yanzhenjie.kalle.BodyRequest;
+import com.yanzhenjie.kalle.FileBody;
+import com.yanzhenjie.kalle.FormBody;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestBody;
+import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.PreconnectFactory;
+import com.yanzhenjie.kalle.connect.Route;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Network connection actuator based on Socket, it speaks HTTP/1.1 and keeps connections alive in a {@link ConnectionPool}.
+ * </p>
+ */
+public class SocketConnectFactory implements PreconnectFactory {
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final ConnectionPool mConnectionPool;
+
+    private SocketConnectFactory(Builder builder) {
+        this.mConnectionPool = builder.mConnectionPool == null ? new ConnectionPool() : builder.mConnectionPool;
+    }
+
+    /**
+     * Get the pool of the idle connections.
+     */
+    public ConnectionPool connectionPool() {
+        return mConnectionPool;
+    }
+
+    @Override
+    public Connection connect(Request request) throws IOException {
+        Route route = Route.get(request);
+        RealConnection connection = mConnectionPool.get(route);
+        boolean reused = connection != null;
+        if (!reused) connection = newConnection(request);
+
+        SocketConnection socketConnection = new SocketConnection(this, request, connection, reused);
+        socketConnection.writeRequestHeaders();
+        return socketConnection;
+    }
+
+    @Override
+    public void preconnect(Request request) throws IOException {
+        Route route = Route.get(request);
+        if (mConnectionPool.hasIdle(route)) return;
+        mConnectionPool.put(newConnection(request));
+    }
+
+    /**
+     * Open a new connection to the route, it is also used when the pooled connection turns out to be stale.
+     */
+    RealConnection newConnection(Request request) throws IOException {
+        return RealConnection.connect(Route.get(request), request.connectTimeout(), request.readTimeout(), hasFile(request));
+    }
+
+    /**
+     * The files are sent through the channel of the socket, the other bodies do not need one.
+     */
+    private static boolean hasFile(Request request) {
+        if (!(request instanceof BodyRequest)) return false;
+        RequestBody body = request.body();
+        return body instanceof FileBody || (body instanceof FormBody && ((FormBody) body).hasFile());
+    }
+
+    /**
+     * The exchange is done, return the connection to the pool.
+     */
+    void release(RealConnection connection) {
+        mConnectionPool.put(connection);
+    }
+
+    public static class Builder {
+
+        private ConnectionPool mConnectionPool;
+
+        private Builder() {
+        }
+
+        /**
+         * Connection pool, the factories with the same pool share the idle connections.
+         */
+        public Builder connectionPool(ConnectionPool connectionPool) {
+            this.mConnectionPool = connectionPool;
+            return this;
+        }
+
+        public SocketConnectFactory build() {
+            return new SocketConnectFactory(this);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.Headers;
+import com.yanzhenjie.kalle.Kalle;
+import com.yanzhenjie.kalle.OneShotBody;
+import com.yanzhenjie.kalle.Request;
+import com.yanzhenjie.kalle.RequestMethod;
+import com.yanzhenjie.kalle.Url;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.Route;
+import com.yanzhenjie.kalle.connect.StatusLine;
+import com.yanzhenjie.kalle.connect.stream.NullStream;
+import com.yanzhenjie.kalle.connect.stream.SourceStream;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONNECTION;
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+import static com.yanzhenjie.kalle.Headers.KEY_HOST;
+import static com.yanzhenjie.kalle.Headers.VALUE_CLOSE;
+import static com.yanzhenjie.kalle.Headers.VALUE_KEEP_ALIVE;
+
+/**
+ * <p>
+ * A exchange of request and response on a {@link RealConnection}.
+ * </p>
+ */
+public class SocketConnection implements Connection {
+
+    private static final String KEY_TRANSFER_ENCODING = "Transfer-Encoding";
+
+    /**
+     * When the body is closed before it is fully read, the time to read the rest so the connection can be reused.
+     */
+    private static final int DISCARD_TIMEOUT = 100;
+
+    private final SocketConnectFactory mFactory;
+    private final Request mRequest;
+    private RealConnection mConnection;
+    private boolean mReused;
+
+    private BodyOutputStream mRequestStream;
+
+    private StatusLine mStatusLine;
+    private Map<String, List<String>> mHeaders;
+    private BodyInputStream mResponseStream;
+    private boolean mKeepAlive;
+    private boolean mClosed;
+
+    SocketConnection(SocketConnectFactory factory, Request request, RealConnection connection, boolean reused) {
+        this.mFactory = factory;
+        this.mRequest = request;
+        this.mConnection = connection;
+        this.mReused = reused;
+    }
+
+    /**
+     * Send the request line and headers, the pooled connection is replaced if it has been closed by the server.
+     */
+    void writeRequestHeaders() throws IOException {
+        try {
+            writeHead();
+        } catch (IOException e) {
+            if (!mReused) {
+                mConnection.close();
+                throw e;
+            }
+            replaceStaleConnection();
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        mConnection.socket().setSoTimeout(mRequest.readTimeout());
+
+        RequestMethod method = mRequest.method();
+        Route route = mConnection.route();
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(method.toString()).append(' ').append(requestTarget(route)).append(" HTTP/1.1\r\n");
+        builder.append(KEY_HOST).append(": ").append(route.hostHeader()).append("\r\n");
+
+        Headers headers = mRequest.headers();
+        Map<String, String> requestHeaders = Headers.getRequestHeaders(headers);
+        for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+            String key = entry.getKey();
+            if (KEY_HOST.equalsIgnoreCase(key)) continue;
+            builder.append(key).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        builder.append("\r\n");
+
+        OutputStream output = mConnection.output();
+        output.write(builder.toString().getBytes("UTF-8"));
+        if (method.allowBody()) {
+            WritableByteChannel channel = mConnection.channel();
+            mRequestStream = headers.isChunked() ? new ChunkedOutputStream(output, channel)
+                    : new FixedLengthOutputStream(output, channel, headers.getContentLength());
+        } else {
+            mRequestStream = null;
+            output.flush();
+        }
+    }
+
+    private String requestTarget(Route route) {
+        Url url = mRequest.url();
+        String path = url.getPath();
+        String target = (TextUtils.isEmpty(path) ? "/" : path) + url.getQuery();
+        // The plain request through the http proxy uses the absolute url.
+        if (!route.isSecure() && route.proxy().type() == Proxy.Type.HTTP) {
+            return "http://" + route.hostHeader() + target;
+        }
+        return target;
+    }
+
+    /**
+     * The server closed the pooled connection when it was idle, open a new connection instead of it.
+     */
+    private void replaceStaleConnection() throws IOException {
+        mConnection.close();
+        mConnection = mFactory.newConnection(mRequest);
+        mReused = false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mRequestStream == null) {
+            throw new ProtocolException(String.format("Method %1$s does not support request body.", mRequest.method()));
+        }
+        return mRequestStream;
+    }
+
+    @Override
+    public int getCode() throws IOException {
+        readResponseHeaders();
+        return mStatusLine.code();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() throws IOException {
+        readResponseHeaders();
+        return mHeaders;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        readResponseHeaders();
+        int code = mStatusLine.code();
+        if (!hasBody(mRequest.method(), code)) return new NullStream(this);
+
+        InputStream stream = new SourceStream(this, mResponseStream);
+        return Kalle.getConfig().getContentDecoders().decode(header(KEY_CONTENT_ENCODING), stream);
+    }
+
+    private void readResponseHeaders() throws IOException {
+        if (mStatusLine != null) return;
+        if (mRequestStream != null && !mRequestStream.isComplete()) {
+            throw new ProtocolException("The request body has not been completely written.");
+        }
+
+        try {
+            mConnection.output().flush();
+            if (!mConnection.awaitResponse()) throw new EOFException("The connection is closed by the server.");
+        } catch (SocketTimeoutException e) {
+            throw e;
+        } catch (IOException e) {
+            if (!mReused || !isRepeatable()) throw e;
+
+            // Nothing of the response has arrived, the idle connection was closed before the request reached it.
+            replaceStaleConnection();
+            writeHead();
+            if (mRequestStream != null) {
+                mRequest.body().writeTo(mRequestStream);
+                mRequestStream.close();
+            }
+            mConnection.output().flush();
+        }
+        readHead();
+    }
+
+    /**
+     * The server may have processed the request before the connection failed,
+     * so it is sent again only when it is idempotent and the body can be written twice.
+     */
+    private boolean isRepeatable() {
+        if (!mRequest.isIdempotent()) return false;
+        return mRequestStream == null || !(mRequest.body() instanceof OneShotBody);
+    }
+
+    private void readHead() throws IOException {
+        StatusLine statusLine;
+        Map<String, List<String>> headers;
+        do {
+            statusLine = StatusLine.parse(mConnection.readLine());
+            headers = readHeaderFields();
+            // The interim responses are skipped, such as 100 Continue.
+        } while (statusLine.code() >= 100 && statusLine.code() < 200 && statusLine.code() != 101);
+
+        this.mStatusLine = statusLine;
+        this.mHeaders = Collections.unmodifiableMap(headers);
+        this.mResponseStream = newResponseStream(statusLine.code());
+        this.mKeepAlive = isKeepAlive(statusLine) && !(mResponseStream instanceof UnknownLengthInputStream);
+    }
+
+    private Map<String, List<String>> readHeaderFields() throws IOException {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = mConnection.readLine()).length() > 0) {
+            int index = line.indexOf(':');
+            if (index <= 0) throw new ProtocolException("Unexpected header: " + line);
+            String key = line.substring(0, index).trim();
+            String value = line.substring(index + 1).trim();
+            List<String> values = headers.get(key);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                headers.put(key, values);
+            }
+            values.add(value);
+        }
+        return headers;
+    }
+
+    private BodyInputStream newResponseStream(int code) throws IOException {
+        if (mRequest.method() == RequestMethod.HEAD || (code >= 100 && code < 200) || code == 204 || code == 304) {
+            return new FixedLengthInputStream(mConnection, 0);
+        }
+
+        String transferEncoding = header(KEY_TRANSFER_ENCODING);
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            return new ChunkedInputStream(mConnection);
+        }
+
+        String contentLength = header(KEY_CONTENT_LENGTH);
+        if (!TextUtils.isEmpty(contentLength)) {
+            try {
+                return new FixedLengthInputStream(mConnection, Long.parseLong(contentLength));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected Content-Length: " + contentLength);
+            }
+        }
+        return new UnknownLengthInputStream(mConnection);
+    }
+
+    private boolean isKeepAlive(StatusLine statusLine) {
+        String requestConnection = mRequest.headers().getFirst(KEY_CONNECTION);
+        if (VALUE_CLOSE.equalsIgnoreCase(requestConnection)) return false;
+
+        String responseConnection = header(KEY_CONNECTION);
+        if (statusLine.isHttp11()) return !VALUE_CLOSE.equalsIgnoreCase(responseConnection);
+        return VALUE_KEEP_ALIVE.equalsIgnoreCase(responseConnection);
+    }
+
+    private String header(String key) {
+        for (Map.Entry<String, List<String>> entry : mHeaders.entrySet()) {
+            if (key.equalsIgnoreCase(entry.getKey())) {
+                List<String> values = entry.getValue();
+                return values.isEmpty() ? null : values.get(0);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+
+        if (mKeepAlive && mResponseStream.discard(DISCARD_TIMEOUT)) {
+            mFactory.release(mConnection);
+        } else {
+            IOUtils.closeQuietly(mConnection);
+        }
+    }
+
+    private static boolean hasBody(RequestMethod method, int code) {
+        return method != RequestMethod.HEAD && hasBody(code);
+    }
+
+    private static boolean hasBody(int code) {
+        return code > 100 && code != 204 && code != 205 && !(code >= 300 && code < 400);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * The response body without length, it is delimited by the server closing the connection.
+ * </p>
+ */
+final class UnknownLengthInputStream extends BodyInputStream {
+
+    private boolean mInputExhausted;
+
+    UnknownLengthInputStream(RealConnection connection) {
+        super(connection);
+    }
+
+    @Override
+    protected int readBody(byte[] b, int off, int len) throws IOException {
+        if (mInputExhausted) return -1;
+
+        int count = mConnection.input().read(b, off, len);
+        // The connection has been closed by the server, so it can not be reused.
+        if (count == -1) mInputExhausted = true;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mInputExhausted ? 0 : mConnection.input().available();
+    }
+}
@@ -22,21 +22,38 @@ import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 /**
  * <p>Add CipherSuites to the lower version.</p>
+ * <p>The client sessions are cached by host and port, the sockets created with the host of the server
+ * resume the cached session with an abbreviated handshake.</p>
  * Created by YanZhenjie on 2017/6/13.
  */
 public class CompatSSLSocketFactory extends SSLSocketFactory {
 
     private static final String PROTOCOL_ARRAY[] = {"SSLv3", "TLSv1", "TLSv1.1", "TLSv1.2"};
 
+    /**
+     * The default count of the cached sessions.
+     */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+    /**
+     * The default lifetime of the cached sessions, in seconds.
+     */
+    public static final int DEFAULT_SESSION_TIMEOUT = (int) TimeUnit.HOURS.toSeconds(12);
+
     private static final X509TrustManager DEFAULT_TRUST_MANAGERS = new X509TrustManager() {
 
         @Override
@@ -62,21 +79,96 @@ public class CompatSSLSocketFactory extends SSLSocketFactory {
     }
 
     private SSLSocketFactory delegate;
+    private SSLContext mSSLContext;
+    private SSLSessionContext mSessionContext;
+
+    private final AtomicInteger mResumedCount = new AtomicInteger();
+    private final AtomicInteger mFullCount = new AtomicInteger();
 
     public CompatSSLSocketFactory() {
+        this(DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * @param sessionCacheSize the count of the cached sessions, 0 means no limit.
+     * @param sessionTimeout   the lifetime of the cached sessions in seconds, 0 means no limit.
+     */
+    public CompatSSLSocketFactory(int sessionCacheSize, int sessionTimeout) {
         try {
             SSLContext sslContext = SSLContext.getInstance("TLS");
             sslContext.init(null, new TrustManager[]{DEFAULT_TRUST_MANAGERS}, new SecureRandom());
             delegate = sslContext.getSocketFactory();
+            mSSLContext = sslContext;
+            mSessionContext = sslContext.getClientSessionContext();
         } catch (GeneralSecurityException e) {
             throw new AssertionError(); // The system has no TLS. Just give up.
         }
+        if (mSessionContext != null) {
+            mSessionContext.setSessionCacheSize(sessionCacheSize);
+            mSessionContext.setSessionTimeout(sessionTimeout);
+        }
     }
 
     public CompatSSLSocketFactory(SSLSocketFactory factory) {
         this.delegate = factory;
     }
 
+    /**
+     * Get the cache of the client sessions, null if the factory is created with a delegate.
+     */
+    public SSLSessionContext getSessionContext() {
+        return mSessionContext;
+    }
+
+    /**
+     * Get the context of the sockets, null if the factory is created with a delegate.
+     */
+    public SSLContext getSSLContext() {
+        return mSSLContext;
+    }
+
+    /**
+     * Create an engine with the same configurations as the sockets, it shares the session cache with them.
+     *
+     * @return the engine, null if the factory is created with a delegate.
+     */
+    public SSLEngine createSSLEngine(String host, int port) {
+        if (mSSLContext == null) return null;
+        SSLEngine engine = mSSLContext.createSSLEngine(host, port);
+        engine.setEnabledProtocols(PROTOCOL_ARRAY);
+        return engine;
+    }
+
+    /**
+     * Get the count of the handshakes which resumed a cached session.
+     */
+    public int getResumedCount() {
+        return mResumedCount.get();
+    }
+
+    /**
+     * Get the count of the full handshakes.
+     */
+    public int getFullCount() {
+        return mFullCount.get();
+    }
+
+    /**
+     * Count the handshake of the socket, a resumed session was created before the socket.
+     */
+    private Socket track(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            final long createdAt = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    if (event.getSession().getCreationTime() < createdAt) mResumedCount.incrementAndGet();
+                    else mFullCount.incrementAndGet();
+                }
+            });
+        }
+        return socket;
+    }
 
     @Override
     public String[] getDefaultCipherSuites() {
@@ -92,41 +184,41 @@ public class CompatSSLSocketFactory extends SSLSocketFactory {
     public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
         Socket ssl = delegate.createSocket(s, host, port, autoClose);
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 
     @Override
     public Socket createSocket(String host, int port) throws IOException {
         Socket ssl = delegate.createSocket(host, port);
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 
     @Override
     public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
         Socket ssl = delegate.createSocket(host, port, localHost, localPort);
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 
     @Override
     public Socket createSocket(InetAddress host, int port) throws IOException {
         Socket ssl = delegate.createSocket(host, port);
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 
     @Override
     public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
         Socket ssl = delegate.createSocket(address, port, localAddress, localPort);
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 
     @Override
     public Socket createSocket() throws IOException {
         Socket ssl = delegate.createSocket();
         setSupportProtocolAndCipherSuites(ssl);
-        return ssl;
+        return track(ssl);
     }
 }
@@ -15,8 +15,7 @@
  */
 package com.yanzhenjie.kalle.urlconnect;
 
-import android.text.TextUtils;
-
+import com.yanzhenjie.kalle.Kalle;
 import com.yanzhenjie.kalle.connect.Connection;
 import com.yanzhenjie.kalle.connect.stream.NullStream;
 import com.yanzhenjie.kalle.connect.stream.SourceStream;
@@ -27,7 +26,6 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 /**
  * <p>
@@ -74,10 +72,7 @@ public class URLConnection implements Connection {
     }
 
     private static InputStream getInputStream(String contentEncoding, InputStream stream) throws IOException {
-        if (!TextUtils.isEmpty(contentEncoding) && contentEncoding.contains("gzip")) {
-            stream = new GZIPInputStream(stream);
-        }
-        return stream;
+        return Kalle.getConfig().getContentDecoders().decode(contentEncoding, stream);
     }
 
     private static boolean hasBody(String method, int code) {
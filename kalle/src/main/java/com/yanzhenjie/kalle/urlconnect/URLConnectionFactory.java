@@ -35,6 +35,7 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
 import static com.yanzhenjie.kalle.Headers.KEY_CONNECTION;
+import static com.yanzhenjie.kalle.Headers.KEY_TRANSFER_ENCODING;
 import static com.yanzhenjie.kalle.Headers.VALUE_CLOSE;
 
 /**
@@ -86,7 +87,9 @@ public class URLConnectionFactory implements ConnectFactory {
 
         if (isAllowBody) {
             long contentLength = headers.getContentLength();
-            if (contentLength <= Integer.MAX_VALUE)
+            if (headers.isChunked())
+                connection.setChunkedStreamingMode(0);
+            else if (contentLength <= Integer.MAX_VALUE)
                 connection.setFixedLengthStreamingMode((int) contentLength);
             else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
                 connection.setFixedLengthStreamingMode(contentLength);
@@ -97,6 +100,8 @@ public class URLConnectionFactory implements ConnectFactory {
         headers.set(KEY_CONNECTION, Build.VERSION.SDK_INT > Build.VERSION_CODES.KITKAT ? values.get(0) : VALUE_CLOSE);
         Map<String, String> requestHeaders = Headers.getRequestHeaders(headers);
         for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+            // The chunked streaming mode writes its own header.
+            if (KEY_TRANSFER_ENCODING.equalsIgnoreCase(entry.getKey())) continue;
             connection.setRequestProperty(entry.getKey(), entry.getValue());
         }
 
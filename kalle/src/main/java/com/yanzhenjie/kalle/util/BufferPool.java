@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <p>
+ * Reuse the large buffers of copying the streams, such as uploading and downloading files.
+ * </p>
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_IDLE = 4;
+    private static final Deque<byte[]> IDLE = new ArrayDeque<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Take an idle buffer of {@link #BUFFER_SIZE}, or create one.
+     */
+    public static byte[] obtain() {
+        synchronized (IDLE) {
+            byte[] buffer = IDLE.pollFirst();
+            if (buffer != null) return buffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Return the buffer, it must not be used by the caller any more.
+     */
+    public static void recycle(byte[] buffer) {
+        if (buffer.length != BUFFER_SIZE) return;
+        synchronized (IDLE) {
+            if (IDLE.size() < MAX_IDLE) IDLE.addFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.util;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Parse and format the dates of HTTP without {@link java.text.SimpleDateFormat}, it is thread-safe.
+ * The three formats of RFC 7231 are parsed, such as {@code Sun, 06 Nov 1994 08:49:37 GMT},
+ * {@code Sunday, 06-Nov-94 08:49:37 GMT} and {@code Sun Nov  6 08:49:37 1994},
+ * the dates are formatted in the first one. The recent values are cached.
+ * </p>
+ */
+public final class HttpDate {
+
+    private static final String[] DAYS = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final int MAX_CACHE = 32;
+
+    private static final Map<String, Long> PARSED = new LinkedHashMap<String, Long>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CACHE;
+        }
+    };
+
+    private static volatile Formatted sLastFormatted;
+
+    private HttpDate() {
+    }
+
+    /**
+     * Parse the date to the milliseconds since 1970-01-01 00:00:00 GMT.
+     *
+     * @throws ParseException the date is not in a format of HTTP.
+     */
+    public static long parse(String date) throws ParseException {
+        if (date == null) throw new ParseException("The date is null.", 0);
+        synchronized (PARSED) {
+            Long millis = PARSED.get(date);
+            if (millis != null) return millis;
+        }
+        long millis = parseDate(date);
+        synchronized (PARSED) {
+            PARSED.put(date, millis);
+        }
+        return millis;
+    }
+
+    /**
+     * Format the milliseconds to the date of HTTP, the milliseconds less than a second are dropped.
+     */
+    public static String format(long millis) {
+        long seconds = millis >= 0 ? millis / 1000 : (millis - 999) / 1000;
+        Formatted formatted = sLastFormatted;
+        if (formatted != null && formatted.mSeconds == seconds) return formatted.mDate;
+
+        String date = formatDate(seconds);
+        sLastFormatted = new Formatted(seconds, date);
+        return date;
+    }
+
+    private static long parseDate(String date) throws ParseException {
+        int day = -1, month = -1, year = -1, hour = -1, minute = -1, second = -1;
+
+        int length = date.length();
+        int i = 0;
+        while (i < length) {
+            char c = date.charAt(i);
+            if (c == ' ' || c == ',' || c == '-') {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            if (isDigit(c)) {
+                int value = 0;
+                while (i < length && isDigit(date.charAt(i))) {
+                    value = value * 10 + (date.charAt(i++) - '0');
+                }
+                int digits = i - start;
+                if (i < length && date.charAt(i) == ':') {
+                    // hh:mm:ss
+                    if (hour >= 0 || digits > 2) throw new ParseException("Unexpected time: " + date, start);
+                    hour = value;
+                    int[] next = {i};
+                    minute = parseTimeField(date, next);
+                    second = parseTimeField(date, next);
+                    i = next[0];
+                } else if (day < 0 && digits <= 2) {
+                    day = value;
+                } else if (year < 0 && (digits == 2 || digits == 4)) {
+                    // RFC 850 has the years of two digits.
+                    year = digits == 4 ? value : value + (value < 70 ? 2000 : 1900);
+                } else {
+                    throw new ParseException("Unexpected number: " + date, start);
+                }
+            } else {
+                while (i < length && isLetter(date.charAt(i))) i++;
+                if (i == start) throw new ParseException("Unexpected char: " + date, start);
+                // The names of the day and the zone are skipped.
+                if (month < 0 && i - start == 3) month = indexOf(MONTHS, date, start);
+            }
+        }
+
+        if (day < 1 || day > 31 || month < 0 || year < 0
+                || hour < 0 || hour > 23 || minute > 59 || second > 60) {
+            throw new ParseException("Unparseable date: " + date, 0);
+        }
+        long days = daysFromCivil(year, month + 1, day);
+        return days * MILLIS_PER_DAY + ((hour * 60L + minute) * 60L + Math.min(second, 59)) * 1000L;
+    }
+
+    private static int parseTimeField(String date, int[] index) throws ParseException {
+        int i = index[0];
+        if (i + 2 >= date.length() || date.charAt(i) != ':' || !isDigit(date.charAt(i + 1)) || !isDigit(date.charAt(i + 2))) {
+            throw new ParseException("Unexpected time: " + date, i);
+        }
+        index[0] = i + 3;
+        return (date.charAt(i + 1) - '0') * 10 + (date.charAt(i + 2) - '0');
+    }
+
+    private static String formatDate(long seconds) {
+        long days = seconds >= 0 ? seconds / 86400 : (seconds - 86399) / 86400;
+        int secondOfDay = (int) (seconds - days * 86400);
+
+        // Civil from days, by Howard Hinnant.
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder builder = new StringBuilder(29);
+        builder.append(DAYS[(int) (((days % 7) + 7) % 7)]).append(", ");
+        appendTwoDigits(builder, day).append(' ').append(MONTHS[month - 1]).append(' ').append(year).append(' ');
+        appendTwoDigits(builder, secondOfDay / 3600).append(':');
+        appendTwoDigits(builder, secondOfDay / 60 % 60).append(':');
+        appendTwoDigits(builder, secondOfDay % 60).append(" GMT");
+        return builder.toString();
+    }
+
+    /**
+     * Days from civil, by Howard Hinnant.
+     */
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yoe = (int) (year - era * 400);
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private static int indexOf(String[] names, String date, int start) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].regionMatches(true, 0, date, start, 3)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static final class Formatted {
+
+        private final long mSeconds;
+        private final String mDate;
+
+        private Formatted(long seconds, String date) {
+            this.mSeconds = seconds;
+            this.mDate = date;
+        }
+    }
+}
@@ -19,6 +19,8 @@ import android.os.Build;
 import android.os.StatFs;
 import android.text.TextUtils;
 
+import com.yanzhenjie.kalle.connect.stream.ChannelOutput;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -28,6 +30,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,6 +39,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -319,11 +323,32 @@ public class IOUtils {
     }
 
     public static void write(InputStream input, OutputStream output) throws IOException {
-        int len;
-        byte[] buffer = new byte[4096];
-        while ((len = input.read(buffer)) != -1) {
-            output.write(buffer, 0, len);
+        byte[] buffer = BufferPool.obtain();
+        try {
+            int len;
+            while ((len = input.read(buffer)) != -1) {
+                output.write(buffer, 0, len);
+            }
             output.flush();
+        } finally {
+            BufferPool.recycle(buffer);
+        }
+    }
+
+    /**
+     * Write the file, the {@link ChannelOutput} takes it without copying through the heap.
+     */
+    public static void write(File file, OutputStream output) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            if (output instanceof ChannelOutput) {
+                FileChannel channel = input.getChannel();
+                ((ChannelOutput) output).transferFrom(channel, 0, channel.size());
+            } else {
+                write(input, output);
+            }
+        } finally {
+            closeQuietly(input);
         }
     }
 
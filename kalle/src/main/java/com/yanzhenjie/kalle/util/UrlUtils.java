@@ -24,7 +24,77 @@ import java.nio.charset.Charset;
  * Created by YanZhenjie on 2018/2/20.
  */
 public class UrlUtils {
-    
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The chars are not encoded, the same as {@code android.net.Uri#encode(String)}.
+     */
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        for (char c : "_-!.~'()*".toCharArray()) UNRESERVED[c] = true;
+    }
+
+    /**
+     * Percent-encode the UTF-8 of the text, the text is returned if nothing needs to be encoded.
+     */
+    public static String percentEncode(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (!isUnreserved(text.charAt(i))) {
+                return percentEncode(new StringBuilder(length + 16), text).toString();
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Percent-encode the UTF-8 of the text into the builder, the runs of the unreserved chars are appended at once.
+     */
+    public static StringBuilder percentEncode(StringBuilder builder, CharSequence text) {
+        int length = text.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (isUnreserved(c)) continue;
+
+            builder.append(text, runStart, i);
+            if (c < 0x80) {
+                appendEscaped(builder, c);
+            } else if (c < 0x800) {
+                appendEscaped(builder, 0xC0 | c >> 6);
+                appendEscaped(builder, 0x80 | c & 0x3F);
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                appendEscaped(builder, 0xE0 | c >> 12);
+                appendEscaped(builder, 0x80 | c >> 6 & 0x3F);
+                appendEscaped(builder, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                appendEscaped(builder, 0xF0 | codePoint >> 18);
+                appendEscaped(builder, 0x80 | codePoint >> 12 & 0x3F);
+                appendEscaped(builder, 0x80 | codePoint >> 6 & 0x3F);
+                appendEscaped(builder, 0x80 | codePoint & 0x3F);
+            } else {
+                // The malformed surrogate is replaced like String#getBytes(String).
+                appendEscaped(builder, '?');
+            }
+            runStart = i + 1;
+        }
+        return builder.append(text, runStart, length);
+    }
+
+    private static boolean isUnreserved(char c) {
+        return c < 128 && UNRESERVED[c];
+    }
+
+    private static void appendEscaped(StringBuilder builder, int b) {
+        builder.append('%').append(HEX_DIGITS[b >> 4 & 0xF]).append(HEX_DIGITS[b & 0xF]);
+    }
+
     public static String urlEncode(String target, String charset) {
         try {
             return URLEncoder.encode(target, charset);
@@ -50,6 +50,13 @@ public class WorkExecutor implements Executor {
         mPoolExecutor.allowCoreThreadTimeOut(true);
     }
 
+    /**
+     * Start the core threads, then the first requests do not wait for creating them.
+     */
+    public void prestart() {
+        mPoolExecutor.prestartAllCoreThreads();
+    }
+
     @Override
     public void execute(Runnable command) {
         mPoolExecutor.execute(command);
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheDnsTest {
+
+    private final CountingDns mDns = new CountingDns();
+
+    @Test
+    public void cachedUntilTtl() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns).ttl(100, TimeUnit.MILLISECONDS).build();
+        assertEquals(mDns.mAddresses, dns.lookup("example.com"));
+        assertEquals(mDns.mAddresses, dns.lookup("EXAMPLE.com"));
+        assertEquals(1, mDns.mCalls.get());
+
+        Thread.sleep(150);
+        dns.lookup("example.com");
+        assertEquals(2, mDns.mCalls.get());
+    }
+
+    @Test
+    public void failureCachedUntilNegativeTtl() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns).negativeTtl(100, TimeUnit.MILLISECONDS).build();
+        mDns.mFail = true;
+        assertFails(dns, "example.com");
+        assertFails(dns, "example.com");
+        assertEquals(1, mDns.mCalls.get());
+
+        Thread.sleep(150);
+        mDns.mFail = false;
+        assertEquals(mDns.mAddresses, dns.lookup("example.com"));
+        assertEquals(2, mDns.mCalls.get());
+    }
+
+    @Test
+    public void staleAfterFailure() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns)
+                .ttl(50, TimeUnit.MILLISECONDS)
+                .negativeTtl(0, TimeUnit.MILLISECONDS)
+                .build();
+        dns.lookup("example.com");
+        Thread.sleep(100);
+        mDns.mFail = true;
+        assertEquals(mDns.mAddresses, dns.lookup("example.com"));
+        assertEquals(2, mDns.mCalls.get());
+    }
+
+    @Test
+    public void staleExpires() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns)
+                .ttl(50, TimeUnit.MILLISECONDS)
+                .maxStale(0, TimeUnit.MILLISECONDS)
+                .build();
+        dns.lookup("example.com");
+        Thread.sleep(100);
+        mDns.mFail = true;
+        assertFails(dns, "example.com");
+    }
+
+    @Test
+    public void evict() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns).build();
+        dns.lookup("example.com");
+        dns.evict("Example.com");
+        dns.lookup("example.com");
+        dns.evictAll();
+        dns.lookup("example.com");
+        assertEquals(3, mDns.mCalls.get());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns).timeout(50, TimeUnit.MILLISECONDS).build();
+        mDns.mDelay = 500;
+        long start = System.nanoTime();
+        assertFails(dns, "example.com");
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void concurrentLookupsShareQuery() throws Exception {
+        final CacheDns dns = CacheDns.newBuilder().dns(mDns).build();
+        mDns.mDelay = 100;
+        final CountDownLatch latch = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        dns.lookup("example.com");
+                    } catch (UnknownHostException ignored) {
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mDns.mCalls.get());
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        CacheDns dns = CacheDns.newBuilder().dns(mDns).build();
+        dns.prefetch("a.example.com", "b.example.com");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mDns.mCalls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        dns.lookup("a.example.com");
+        dns.lookup("b.example.com");
+        dns.prefetch("a.example.com");
+        assertEquals(2, mDns.mCalls.get());
+    }
+
+    private static void assertFails(CacheDns dns, String hostname) {
+        try {
+            dns.lookup(hostname);
+            fail("The lookup of " + hostname + " succeeded.");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    private static final class CountingDns implements Dns {
+
+        private final List<InetAddress> mAddresses;
+        private final AtomicInteger mCalls = new AtomicInteger();
+        private volatile boolean mFail;
+        private volatile long mDelay;
+
+        private CountingDns() {
+            try {
+                mAddresses = Collections.singletonList(InetAddress.getByAddress("example.com", new byte[]{10, 0, 0, 1}));
+            } catch (UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            mCalls.incrementAndGet();
+            if (mDelay > 0) {
+                try {
+                    Thread.sleep(mDelay);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(hostname);
+                }
+            }
+            if (mFail) throw new UnknownHostException(hostname);
+            return mAddresses;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.connect.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class InflaterStreamTest {
+
+    @Test
+    public void gzipRoundTrip() throws Exception {
+        byte[] data = data(200 * 1024);
+        assertArrayEquals(data, readAll(new GzipInputStream(new ByteArrayInputStream(gzip(data)))));
+    }
+
+    @Test
+    public void gzipMembers() throws Exception {
+        byte[] first = data(10 * 1024);
+        byte[] second = "the second member".getBytes("UTF-8");
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        source.write(gzip(first));
+        source.write(gzip(second));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        assertArrayEquals(expected.toByteArray(), readAll(new GzipInputStream(new ByteArrayInputStream(source.toByteArray()))));
+    }
+
+    @Test
+    public void gzipOptionalHeaders() throws Exception {
+        byte[] data = "hello, gzip".getBytes("UTF-8");
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        // FEXTRA | FNAME | FCOMMENT.
+        source.write(new byte[]{0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 0xff});
+        source.write(new byte[]{3, 0, 'a', 'b', 'c'});
+        source.write("name.txt\0".getBytes("UTF-8"));
+        source.write("comment\0".getBytes("UTF-8"));
+        source.write(deflate(data, true));
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeUInt(source, crc.getValue());
+        writeUInt(source, data.length);
+        assertArrayEquals(data, readAll(new GzipInputStream(new ByteArrayInputStream(source.toByteArray()))));
+    }
+
+    @Test
+    public void gzipTrailingGarbage() throws Exception {
+        byte[] data = data(1024);
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        source.write(gzip(data));
+        source.write("garbage".getBytes("UTF-8"));
+        assertArrayEquals(data, readAll(new GzipInputStream(new ByteArrayInputStream(source.toByteArray()))));
+    }
+
+    @Test
+    public void gzipEmpty() throws Exception {
+        assertEquals(0, readAll(new GzipInputStream(new ByteArrayInputStream(new byte[0]))).length);
+    }
+
+    @Test(expected = ZipException.class)
+    public void gzipCorruptTrailer() throws Exception {
+        byte[] source = gzip(data(1024));
+        source[source.length - 5] ^= 1;
+        readAll(new GzipInputStream(new ByteArrayInputStream(source)));
+    }
+
+    @Test(expected = ZipException.class)
+    public void notGzip() throws Exception {
+        new GzipInputStream(new ByteArrayInputStream("plain text".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void gzipReadAfterClose() throws Exception {
+        InputStream stream = new GzipInputStream(new ByteArrayInputStream(gzip(data(16))));
+        stream.close();
+        stream.read();
+    }
+
+    @Test
+    public void deflateZlib() throws Exception {
+        byte[] data = data(100 * 1024);
+        assertArrayEquals(data, readAll(new DeflateInputStream(new ByteArrayInputStream(deflate(data, false)))));
+    }
+
+    @Test
+    public void deflateRaw() throws Exception {
+        byte[] data = data(100 * 1024);
+        assertArrayEquals(data, readAll(new DeflateInputStream(new ByteArrayInputStream(deflate(data, true)))));
+    }
+
+    @Test
+    public void deflateEmpty() throws Exception {
+        assertEquals(0, readAll(new DeflateInputStream(new ByteArrayInputStream(new byte[0]))).length);
+    }
+
+    @Test
+    public void inflatersAreReused() throws Exception {
+        byte[] data = data(4096);
+        byte[] zlib = deflate(data, false);
+        byte[] raw = deflate(data, true);
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(data, readAll(new DeflateInputStream(new ByteArrayInputStream(i % 2 == 0 ? zlib : raw))));
+            assertArrayEquals(data, readAll(new GzipInputStream(new ByteArrayInputStream(gzip(data)))));
+        }
+    }
+
+    /**
+     * The data is random words, it is compressed but not too much.
+     */
+    private static byte[] data(int length) {
+        String[] words = {"kalle ", "http ", "gzip ", "deflate ", "chunk ", "stream "};
+        Random random = new Random(length);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(length);
+        while (data.size() < length) {
+            String word = words[random.nextInt(words.length)];
+            data.write(word.getBytes(), 0, Math.min(word.length(), length - data.size()));
+            if (random.nextInt(10) == 0) data.write(random.nextInt(256));
+        }
+        return data.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        GZIPOutputStream stream = new GZIPOutputStream(sink);
+        stream.write(data);
+        stream.close();
+        return sink.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        DeflaterOutputStream stream = new DeflaterOutputStream(sink, deflater);
+        stream.write(data);
+        stream.close();
+        deflater.end();
+        return sink.toByteArray();
+    }
+
+    private static void writeUInt(ByteArrayOutputStream sink, long value) {
+        for (int i = 0; i < 4; i++) {
+            sink.write((int) (value >> (i * 8)) & 0xff);
+        }
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        try {
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            byte[] buffer = new byte[3000];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                sink.write(buffer, 0, count);
+            }
+            return sink.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+}
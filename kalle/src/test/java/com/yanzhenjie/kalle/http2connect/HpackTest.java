@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.yanzhenjie.kalle.http2connect.HuffmanTest.hex;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HpackTest {
+
+    @Test
+    public void encodeStaticEntries() throws Exception {
+        byte[] block = new Hpack.Writer().encode(headers(
+                ":method", "GET",
+                ":scheme", "http",
+                ":path", "/",
+                ":authority", "www.example.com"));
+        // The authority is a literal without indexing, its name is the static entry 1.
+        assertArrayEquals(hex("828684018cf1e3c2e5f23a6ba0ab90f4ff"), block);
+    }
+
+    @Test
+    public void encodeLiteralName() throws Exception {
+        byte[] block = new Hpack.Writer().encode(headers("custom-key", "custom-value"));
+        assertArrayEquals(hex("008825a849e95ba97d7f8925a849e95bb8e8b4bf"), block);
+    }
+
+    @Test
+    public void encodeTableSizeUpdateOnce() throws Exception {
+        Hpack.Writer writer = new Hpack.Writer();
+        writer.setMaxTableSize(0);
+        assertArrayEquals(hex("2082"), writer.encode(headers(":method", "GET")));
+        assertArrayEquals(hex("82"), writer.encode(headers(":method", "GET")));
+    }
+
+    @Test
+    public void decodeRfcRequests() throws Exception {
+        // RFC 7541 Appendix C.4, the later blocks refer to the dynamic table filled by the earlier ones.
+        Hpack.Reader reader = new Hpack.Reader(4096);
+        assertHeaders(reader.decode(hex("828684418cf1e3c2e5f23a6ba0ab90f4ff"), 0, 17),
+                ":method", "GET",
+                ":scheme", "http",
+                ":path", "/",
+                ":authority", "www.example.com");
+        assertHeaders(reader.decode(hex("828684be5886a8eb10649cbf"), 0, 12),
+                ":method", "GET",
+                ":scheme", "http",
+                ":path", "/",
+                ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertHeaders(reader.decode(hex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"), 0, 24),
+                ":method", "GET",
+                ":scheme", "https",
+                ":path", "/index.html",
+                ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<String[]> headers = headers(
+                ":status", "200",
+                ":status", "404",
+                "content-type", "text/html; charset=utf-8",
+                "x-request-id", "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0",
+                "x-binary", "äöü中文",
+                "accept-encoding", "gzip, deflate");
+        byte[] block = new Hpack.Writer().encode(headers);
+        assertHeaders(new Hpack.Reader(4096).decode(block, 0, block.length), flatten(headers));
+    }
+
+    @Test
+    public void evictOldestEntry() throws Exception {
+        // Each entry is 32 + 2 bytes, the table of 64 bytes holds one of them.
+        Hpack.Reader reader = new Hpack.Reader(64);
+        reader.decode(hex("4001610162"), 0, 5);
+        reader.decode(hex("4001630164"), 0, 5);
+        assertHeaders(reader.decode(hex("be"), 0, 1), "c", "d");
+        try {
+            reader.decode(hex("bf"), 0, 1);
+            throw new AssertionError("The evicted entry is still indexed.");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void tableSizeOverMaximum() throws Exception {
+        new Hpack.Reader(4096).decode(hex("3fe21f"), 0, 3);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void truncatedBlock() throws Exception {
+        new Hpack.Reader(4096).decode(hex("418cf1e3"), 0, 4);
+    }
+
+    private static List<String[]> headers(String... namesAndValues) {
+        List<String[]> headers = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new String[]{namesAndValues[i], namesAndValues[i + 1]});
+        }
+        return headers;
+    }
+
+    private static String[] flatten(List<String[]> headers) {
+        List<String> namesAndValues = new ArrayList<>();
+        for (String[] header : headers) {
+            namesAndValues.addAll(Arrays.asList(header));
+        }
+        return namesAndValues.toArray(new String[namesAndValues.size()]);
+    }
+
+    private static void assertHeaders(List<String[]> actual, String... expected) {
+        assertArrayEquals(expected, flatten(actual));
+    }
+}
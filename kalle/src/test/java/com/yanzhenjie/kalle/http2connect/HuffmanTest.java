@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.http2connect;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HuffmanTest {
+
+    @Test
+    public void encodeRfcExamples() throws Exception {
+        // RFC 7541 Appendix C.4.
+        assertArrayEquals(hex("f1e3c2e5f23a6ba0ab90f4ff"), encode("www.example.com"));
+        assertArrayEquals(hex("a8eb10649cbf"), encode("no-cache"));
+        assertArrayEquals(hex("25a849e95ba97d7f"), encode("custom-key"));
+        assertArrayEquals(hex("25a849e95bb8e8b4bf"), encode("custom-value"));
+    }
+
+    @Test
+    public void encodedLength() throws Exception {
+        assertEquals(12, Huffman.encodedLength("www.example.com".getBytes("UTF-8")));
+        assertEquals(0, Huffman.encodedLength(new byte[0]));
+    }
+
+    @Test
+    public void decodeRfcExamples() throws Exception {
+        assertEquals("www.example.com", decode(hex("f1e3c2e5f23a6ba0ab90f4ff")));
+        assertEquals("custom-value", decode(hex("25a849e95bb8e8b4bf")));
+    }
+
+    @Test
+    public void roundTripAllBytes() throws Exception {
+        byte[] source = new byte[256 * 3];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (byte) (i * 7);
+        }
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        Huffman.encode(source, sink);
+        byte[] encoded = sink.toByteArray();
+        assertEquals(Huffman.encodedLength(source), encoded.length);
+        assertArrayEquals(source, Huffman.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void decodeWithOffset() throws Exception {
+        byte[] source = hex("00a8eb10649cbf00");
+        assertEquals("no-cache", new String(Huffman.decode(source, 1, 6), "UTF-8"));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void paddingNotOnes() throws Exception {
+        // '0' is 00000, the padding must be the ones of EOS.
+        Huffman.decode(new byte[]{0x00}, 0, 1);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void paddingTooLong() throws Exception {
+        Huffman.decode(new byte[]{(byte) 0xFF}, 0, 1);
+    }
+
+    private static byte[] encode(String text) throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        Huffman.encode(text.getBytes("UTF-8"), sink);
+        return sink.toByteArray();
+    }
+
+    private static String decode(byte[] source) throws Exception {
+        return new String(Huffman.decode(source, 0, source.length), "UTF-8");
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.socketconnect;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedOutputStreamTest {
+
+    private final ByteArrayOutputStream mSink = new ByteArrayOutputStream();
+    private final ChunkedOutputStream mStream = new ChunkedOutputStream(mSink, null);
+
+    @Test
+    public void smallWritesAreGathered() throws Exception {
+        mStream.write("hello".getBytes("UTF-8"));
+        mStream.write(' ');
+        mStream.write("world".getBytes("UTF-8"));
+        assertEquals(0, mSink.size());
+        mStream.close();
+        assertEquals("b\r\nhello world\r\n0\r\n\r\n", framing());
+    }
+
+    @Test
+    public void flushSendsChunk() throws Exception {
+        mStream.write("ab".getBytes("UTF-8"));
+        mStream.flush();
+        assertEquals("2\r\nab\r\n", framing());
+        mStream.write("cd".getBytes("UTF-8"));
+        mStream.flush();
+        mStream.flush();
+        mStream.close();
+        assertEquals("2\r\nab\r\n2\r\ncd\r\n0\r\n\r\n", framing());
+    }
+
+    @Test
+    public void fullBufferIsSent() throws Exception {
+        mStream.write(new byte[8000]);
+        mStream.write(new byte[300]);
+        mStream.close();
+        assertChunks(8000, 300);
+    }
+
+    @Test
+    public void largeWriteIsOneChunk() throws Exception {
+        mStream.write(new byte[5]);
+        mStream.write(new byte[10000]);
+        mStream.write(new byte[8192]);
+        mStream.close();
+        assertChunks(5, 10000, 8192);
+    }
+
+    @Test
+    public void emptyBody() throws Exception {
+        mStream.write(new byte[0]);
+        mStream.flush();
+        mStream.close();
+        assertEquals("0\r\n\r\n", framing());
+        assertTrue(mStream.isComplete());
+    }
+
+    @Test
+    public void closeOnce() throws Exception {
+        mStream.write('a');
+        mStream.close();
+        mStream.close();
+        mStream.flush();
+        assertEquals("1\r\na\r\n0\r\n\r\n", framing());
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterClose() throws Exception {
+        mStream.close();
+        mStream.write('a');
+    }
+
+    @Test
+    public void transferWithoutChannel() throws Exception {
+        File file = File.createTempFile("kalle", ".txt");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write("0123456789".getBytes("UTF-8"));
+            output.close();
+
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                mStream.write('x');
+                mStream.transferFrom(input.getChannel(), 2, 5);
+                mStream.close();
+            } finally {
+                input.close();
+            }
+            assertEquals("1\r\nx\r\n5\r\n23456\r\n0\r\n\r\n", framing());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void randomWrites() throws Exception {
+        Random random = new Random(0);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            byte[] b = new byte[random.nextInt(i % 50 == 0 ? 20000 : 700)];
+            random.nextBytes(b);
+            mStream.write(b);
+            expected.write(b);
+            if (random.nextInt(20) == 0) mStream.flush();
+        }
+        mStream.close();
+        assertArrayEquals(expected.toByteArray(), decode(mSink.toByteArray()));
+    }
+
+    private String framing() throws Exception {
+        return new String(mSink.toByteArray(), "ISO-8859-1");
+    }
+
+    private void assertChunks(int... sizes) throws Exception {
+        byte[] body = mSink.toByteArray();
+        int position = 0;
+        for (int size : sizes) {
+            int end = indexOfCrlf(body, position);
+            assertEquals(Integer.toHexString(size), new String(body, position, end - position, "ISO-8859-1"));
+            position = end + 2 + size;
+            assertEquals("\r\n", new String(body, position, 2, "ISO-8859-1"));
+            position += 2;
+        }
+        assertEquals("0\r\n\r\n", new String(body, position, body.length - position, "ISO-8859-1"));
+    }
+
+    /**
+     * Decode the chunks, each chunk must have data and the body ends with the last chunk.
+     */
+    private static byte[] decode(byte[] body) throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int end = indexOfCrlf(body, position);
+            int size = Integer.parseInt(new String(body, position, end - position, "ISO-8859-1"), 16);
+            position = end + 2;
+            if (size == 0) break;
+            data.write(body, position, size);
+            position += size;
+            assertEquals("\r\n", new String(body, position, 2, "ISO-8859-1"));
+            position += 2;
+        }
+        assertEquals("\r\n", new String(Arrays.copyOfRange(body, position, body.length), "ISO-8859-1"));
+        return data.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] body, int from) {
+        for (int i = from; i < body.length - 1; i++) {
+            if (body[i] == '\r' && body[i + 1] == '\n') return i;
+        }
+        throw new AssertionError("No CRLF after " + from + ".");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.util;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpDateTest {
+
+    private static final long EXAMPLE = 784111777000L;
+
+    @Test
+    public void parseRfc1123() throws Exception {
+        assertEquals(EXAMPLE, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void parseRfc850() throws Exception {
+        assertEquals(EXAMPLE, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+    }
+
+    @Test
+    public void parseAsctime() throws Exception {
+        assertEquals(EXAMPLE, HttpDate.parse("Sun Nov  6 08:49:37 1994"));
+    }
+
+    @Test
+    public void parseLeapSecond() throws Exception {
+        assertEquals(HttpDate.parse("Sat, 31 Dec 2016 23:59:59 GMT"), HttpDate.parse("Sat, 31 Dec 2016 23:59:60 GMT"));
+    }
+
+    @Test
+    public void format() throws Exception {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(EXAMPLE));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(EXAMPLE + 999));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDate.format(0));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", HttpDate.format(-1));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT", HttpDate.format(951825600000L));
+    }
+
+    @Test
+    public void formatLikeSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            long millis = (random.nextLong() & Long.MAX_VALUE) % 4102444800000L / 1000 * 1000;
+            String date = format.format(millis);
+            assertEquals(date, HttpDate.format(millis));
+            assertEquals(date, millis, HttpDate.parse(date));
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseNull() throws Exception {
+        HttpDate.parse(null);
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseGarbage() throws Exception {
+        HttpDate.parse("yesterday");
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseInvalidHour() throws Exception {
+        HttpDate.parse("Sun, 06 Nov 1994 24:49:37 GMT");
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseMissingMonth() throws Exception {
+        HttpDate.parse("Sun, 06 1994 08:49:37 GMT");
+    }
+}
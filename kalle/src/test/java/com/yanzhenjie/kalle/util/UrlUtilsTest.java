@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle.util;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class UrlUtilsTest {
+
+    @Test
+    public void unreservedIsNotEncoded() {
+        String text = "azAZ09_-!.~'()*";
+        assertSame(text, UrlUtils.percentEncode(text));
+    }
+
+    @Test
+    public void reservedIsEncoded() {
+        assertEquals("a%20b%2Bc%26d%3De%2Ff%3Fg%23h%25", UrlUtils.percentEncode("a b+c&d=e/f?g#h%"));
+    }
+
+    @Test
+    public void utf8IsEncoded() {
+        assertEquals("%C3%A9", UrlUtils.percentEncode("é"));
+        assertEquals("%E4%B8%AD%E6%96%87", UrlUtils.percentEncode("中文"));
+        assertEquals("%F0%9F%98%80", UrlUtils.percentEncode("😀"));
+    }
+
+    @Test
+    public void malformedSurrogateIsReplaced() {
+        assertEquals("a%3Fb", UrlUtils.percentEncode("a\uD83Db"));
+    }
+
+    @Test
+    public void appendToBuilder() {
+        StringBuilder builder = new StringBuilder("k=");
+        assertSame(builder, UrlUtils.percentEncode(builder, "v v"));
+        assertEquals("k=v%20v", builder.toString());
+    }
+
+    @Test
+    public void decodeRoundTrip() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (char c = 0x20; c < 0x300; c++) {
+            text.append(c);
+        }
+        text.append("中文😀");
+        // The spaces are %20, so the plus signs of the decoder do not matter.
+        assertEquals(text.toString(), UrlUtils.urlDecode(UrlUtils.percentEncode(text.toString()), "UTF-8"));
+    }
+
+    @Test
+    public void urlEncodeLikeUrlEncoder() throws Exception {
+        String text = "a b&c=中";
+        assertEquals(URLEncoder.encode(text, "UTF-8"), UrlUtils.urlEncode(text, "UTF-8"));
+    }
+}
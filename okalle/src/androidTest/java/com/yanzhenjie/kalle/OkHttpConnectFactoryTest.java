@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.yanzhenjie.kalle.connect.ConnectCallback;
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.util.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_LENGTH;
+import static com.yanzhenjie.kalle.Headers.KEY_TRANSFER_ENCODING;
+import static com.yanzhenjie.kalle.Headers.VALUE_CHUNKED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class OkHttpConnectFactoryTest {
+
+    /**
+     * Larger than the pipe between the writer and the dispatcher thread.
+     */
+    private static final int BODY_SIZE = 1024 * 1024;
+
+    private ServerSocket mServerSocket;
+    private OkHttpConnectFactory mFactory;
+
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mFactory = OkHttpConnectFactory.newBuilder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServerSocket.close();
+    }
+
+    @Test
+    public void streamBodyWithLength() throws Exception {
+        startEchoServer();
+        byte[] body = body();
+        Request request = post().setHeader(KEY_CONTENT_LENGTH, Integer.toString(body.length)).build();
+
+        assertEquals(summary(body), exchange(mFactory.connect(request), body));
+    }
+
+    @Test
+    public void streamChunkedBody() throws Exception {
+        startEchoServer();
+        byte[] body = body();
+        Request request = post().setHeader(KEY_TRANSFER_ENCODING, VALUE_CHUNKED).build();
+
+        assertEquals(summary(body), exchange(mFactory.connect(request), body));
+    }
+
+    @Test
+    public void failureUnblocksTheWriter() throws Exception {
+        // The connection is refused before the body is read, the writer fails instead of waiting on the full pipe.
+        mServerSocket.close();
+        Request request = post().setHeader(KEY_CONTENT_LENGTH, Integer.toString(BODY_SIZE))
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+        long start = System.nanoTime();
+        Connection connection = mFactory.connect(request);
+        try {
+            OutputStream output = connection.getOutputStream();
+            output.write(body());
+            output.close();
+            connection.getCode();
+            fail("The exchange succeeded.");
+        } catch (IOException expected) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void enqueueStreamsTheResponse() throws Exception {
+        startEchoServer();
+        final byte[] body = body();
+        Request request = BodyRequest.newBuilder(Url.newBuilder(url()), RequestMethod.POST)
+                .setHeader(KEY_CONTENT_LENGTH, Integer.toString(body.length))
+                .body(new RequestBody() {
+                    @Override
+                    public long length() {
+                        return body.length;
+                    }
+
+                    @Override
+                    public String contentType() {
+                        return "application/octet-stream";
+                    }
+
+                    @Override
+                    public void writeTo(OutputStream writer) throws IOException {
+                        writer.write(body);
+                    }
+                })
+                .build();
+
+        final Response[] result = new Response[1];
+        final IOException[] failure = new IOException[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mFactory.enqueue(request, new ConnectCallback() {
+            @Override
+            public void onResponse(Response response) {
+                result[0] = response;
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                failure[0] = e;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        if (failure[0] != null) throw failure[0];
+        assertEquals(200, result[0].code());
+        assertEquals(summary(body), result[0].body().string());
+    }
+
+    private BodyRequest.Builder post() {
+        return BodyRequest.newBuilder(Url.newBuilder(url()), RequestMethod.POST);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    private static String exchange(Connection connection, byte[] body) throws IOException {
+        try {
+            OutputStream output = connection.getOutputStream();
+            output.write(body);
+            output.close();
+            assertEquals(200, connection.getCode());
+            return IOUtils.toString(connection.getInputStream());
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static byte[] body() {
+        byte[] body = new byte[BODY_SIZE];
+        for (int i = 0; i < body.length; i++) body[i] = (byte) (i * 31);
+        return body;
+    }
+
+    private static String summary(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return body.length + ":" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Answer each request with the length and the checksum of its body, the connections are kept alive.
+     */
+    private void startEchoServer() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = mServerSocket.accept();
+                        Thread connection = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                        connection.setDaemon(true);
+                        connection.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void serve(Socket socket) {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(input)) != null && requestLine.length() > 0) {
+                long length = 0;
+                boolean chunked = false;
+                String line;
+                while ((line = readLine(input)).length() > 0) {
+                    String header = line.toLowerCase(Locale.ENGLISH);
+                    if (header.startsWith("content-length:")) length = Long.parseLong(line.substring(15).trim());
+                    if (header.startsWith("transfer-encoding:") && header.contains("chunked")) chunked = true;
+                }
+
+                CRC32 crc = new CRC32();
+                long total = 0;
+                if (chunked) {
+                    long size;
+                    while ((size = Long.parseLong(readLine(input).trim(), 16)) > 0) {
+                        total += read(input, crc, size);
+                        readLine(input);
+                    }
+                    readLine(input);
+                } else {
+                    total = read(input, crc, length);
+                }
+
+                byte[] reply = (total + ":" + Long.toHexString(crc.getValue())).getBytes("UTF-8");
+                output.write(("HTTP/1.1 200 OK\r\nContent-Length: " + reply.length + "\r\n\r\n").getBytes("UTF-8"));
+                output.write(reply);
+                output.flush();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    private static long read(InputStream input, CRC32 crc, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = count;
+        while (remaining > 0) {
+            int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) throw new EOFException();
+            crc.update(buffer, 0, read);
+            remaining -= read;
+        }
+        return count;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') builder.setLength(length - 1);
+                return builder.toString();
+            }
+            builder.append((char) b);
+        }
+        return builder.length() == 0 ? null : builder.toString();
+    }
+}
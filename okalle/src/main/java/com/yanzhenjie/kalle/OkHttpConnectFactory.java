@@ -15,106 +15,396 @@
  */
 package com.yanzhenjie.kalle;
 
-import android.os.Build;
+import android.text.TextUtils;
 
-import com.yanzhenjie.kalle.connect.ConnectFactory;
+import com.yanzhenjie.kalle.connect.AsyncConnectFactory;
+import com.yanzhenjie.kalle.connect.ConnectCallback;
 import com.yanzhenjie.kalle.connect.Connection;
-import com.yanzhenjie.kalle.urlconnect.URLConnection;
+import com.yanzhenjie.kalle.connect.StreamBody;
+import com.yanzhenjie.kalle.exception.ConnectException;
+import com.yanzhenjie.kalle.exception.HostError;
+import com.yanzhenjie.kalle.exception.ReadException;
+import com.yanzhenjie.kalle.exception.ReadTimeoutError;
+import com.yanzhenjie.kalle.exception.WriteException;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.Proxy;
-import java.net.URL;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.internal.huc.OkHttpURLConnection;
-import okhttp3.internal.huc.OkHttpsURLConnection;
+import okio.BufferedSink;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
 
 /**
+ * <p>
+ * Network connection actuator based on OkHttp, the requests are executed as {@link Call}s.
+ * The clients derived for the proxies, the SSL configurations and the timeouts share
+ * the {@link ConnectionPool} and the {@link Dispatcher} of the client given to the builder,
+ * the least recently used of them are dropped when there are too many.
+ * </p>
  * Created by Yan Zhenjie on 2016/10/15.
  */
-public class OkHttpConnectFactory implements ConnectFactory {
+public class OkHttpConnectFactory implements AsyncConnectFactory {
+
+    private static final int MAX_CLIENTS = 16;
 
     public static Builder newBuilder() {
         return new Builder();
     }
 
     private final OkHttpClient mClient;
+    private X509TrustManager mTrustManager;
+    private final Map<ClientKey, OkHttpClient> mClients = new LinkedHashMap<ClientKey, OkHttpClient>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClientKey, OkHttpClient> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
 
     private OkHttpConnectFactory(Builder builder) {
-        this.mClient = builder.mClient == null ? new OkHttpClient.Builder().build() : builder.mClient;
+        this.mTrustManager = builder.mTrustManager;
+        OkHttpClient client = builder.mClient == null ? new OkHttpClient() : builder.mClient;
+        // The redirects are followed by Kalle.
+        OkHttpClient.Builder clientBuilder = client.newBuilder().followRedirects(false).followSslRedirects(false);
+        if (client.dns() == okhttp3.Dns.SYSTEM) clientBuilder.dns(new ConfigDns());
+        this.mClient = clientBuilder.build();
+    }
+
+    /**
+     * Get the connection pool shared by all the requests.
+     */
+    public ConnectionPool connectionPool() {
+        return mClient.connectionPool();
+    }
+
+    /**
+     * Get the dispatcher shared by all the requests.
+     */
+    public Dispatcher dispatcher() {
+        return mClient.dispatcher();
+    }
+
+    /**
+     * Get the count of the connections in the pool, including the connections in use.
+     */
+    public int connectionCount() {
+        return mClient.connectionPool().connectionCount();
     }
 
-    private HttpURLConnection open(URL url, Proxy proxy) {
-        OkHttpClient newClient = mClient.newBuilder().proxy(proxy).build();
-        String protocol = url.getProtocol();
-        if (protocol.equalsIgnoreCase("http")) return new OkHttpURLConnection(url, newClient);
-        if (protocol.equalsIgnoreCase("https")) return new OkHttpsURLConnection(url, newClient);
-        throw new IllegalArgumentException("Unexpected protocol: " + protocol);
+    /**
+     * Get the count of the idle connections in the pool.
+     */
+    public int idleConnectionCount() {
+        return mClient.connectionPool().idleConnectionCount();
+    }
+
+    /**
+     * Get the count of the clients derived for the different configurations of the requests.
+     */
+    public int clientCount() {
+        synchronized (mClients) {
+            return mClients.size();
+        }
     }
 
     @Override
     public Connection connect(Request request) throws IOException {
-        URL url = new URL(request.url().toString());
-        Proxy proxy = request.proxy();
-        HttpURLConnection connection = open(url, proxy);
+        OkHttpClient client = client(request);
+        okhttp3.Request.Builder builder = newRequest(request);
+        if (request.method().allowBody()) return OkHttpConnection.enqueue(client, builder, request);
+
+        Call call = client.newCall(builder.method(request.method().toString(), null).build());
+        return OkHttpConnection.execute(call, request);
+    }
+
+    @Override
+    public Canceller enqueue(final Request request, final ConnectCallback callback) {
+        final Call call;
+        try {
+            okhttp3.RequestBody body = request.method().allowBody() ? new WriterBody(request) : null;
+            okhttp3.Request.Builder builder = newRequest(request).method(request.method().toString(), body);
+            call = client(request).newCall(builder.build());
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return new CallCanceller(null);
+        }
 
-        connection.setConnectTimeout(request.connectTimeout());
-        connection.setReadTimeout(request.readTimeout());
-        connection.setInstanceFollowRedirects(false);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onFailure(translate(request, e));
+            }
 
-        if (connection instanceof HttpsURLConnection) {
-            SSLSocketFactory sslSocketFactory = request.sslSocketFactory();
-            if (sslSocketFactory != null)
-                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
-            HostnameVerifier hostnameVerifier = request.hostnameVerifier();
-            if (hostnameVerifier != null)
-                ((HttpsURLConnection) connection).setHostnameVerifier(hostnameVerifier);
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                Response result;
+                try {
+                    result = readResponse(response);
+                } catch (IOException e) {
+                    response.close();
+                    callback.onFailure(translate(request, e));
+                    return;
+                }
+                callback.onResponse(result);
+            }
+        });
+        return new CallCanceller(call);
+    }
+
+    /**
+     * Get the client for the configuration of the request, the clients are created once and reused.
+     */
+    private OkHttpClient client(Request request) {
+        boolean secure = "https".equalsIgnoreCase(request.url().getScheme());
+        ClientKey key = new ClientKey(request.proxy(),
+                secure ? request.sslSocketFactory() : null,
+                secure ? request.hostnameVerifier() : null,
+                request.connectTimeout(), request.readTimeout());
+
+        synchronized (mClients) {
+            OkHttpClient client = mClients.get(key);
+            if (client == null) {
+                OkHttpClient.Builder builder = mClient.newBuilder()
+                        .connectTimeout(key.mConnectTimeout, TimeUnit.MILLISECONDS)
+                        .readTimeout(key.mReadTimeout, TimeUnit.MILLISECONDS)
+                        .writeTimeout(key.mReadTimeout, TimeUnit.MILLISECONDS);
+                if (key.mProxy != null) builder.proxy(key.mProxy);
+                if (key.mSSLSocketFactory != null) builder.sslSocketFactory(key.mSSLSocketFactory, trustManager());
+                if (key.mHostnameVerifier != null) builder.hostnameVerifier(key.mHostnameVerifier);
+                client = builder.build();
+                mClients.put(key, client);
+            }
+            return client;
         }
+    }
 
-        RequestMethod method = request.method();
-        connection.setRequestMethod(method.toString());
-        connection.setDoInput(true);
-        boolean isAllowBody = method.allowBody();
-        connection.setDoOutput(isAllowBody);
+    /**
+     * The trust is decided by the ssl socket factory of the request,
+     * OkHttp uses the trust manager to clean the certificate chains for the certificate pinner.
+     */
+    private synchronized X509TrustManager trustManager() {
+        if (mTrustManager == null) mTrustManager = systemTrustManager();
+        return mTrustManager;
+    }
 
-        Headers headers = request.headers();
+    private static X509TrustManager systemTrustManager() {
+        try {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init((KeyStore) null);
+            for (TrustManager trustManager : factory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) return (X509TrustManager) trustManager;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e); // The system has no TLS. Just give up.
+        }
+        throw new AssertionError("The system has no X509TrustManager.");
+    }
 
-        if (isAllowBody) {
-            long contentLength = headers.getContentLength();
-            if (contentLength <= Integer.MAX_VALUE) connection.setFixedLengthStreamingMode((int) contentLength);
-            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) connection.setFixedLengthStreamingMode(contentLength);
-            else connection.setChunkedStreamingMode(256 * 1024);
+    private static okhttp3.Request.Builder newRequest(Request request) throws MalformedURLException {
+        String url = request.url().toString();
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) throw new MalformedURLException("Unexpected url: " + url);
+
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(httpUrl);
+        Map<String, String> requestHeaders = Headers.getRequestHeaders(request.headers());
+        for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
+            builder.header(entry.getKey(), entry.getValue());
         }
+        return builder;
+    }
 
-        Map<String, String> requestHeaders = Headers.getRequestHeaders(headers);
-        for (Map.Entry<String, String> headerEntry : requestHeaders.entrySet()) {
-            String headKey = headerEntry.getKey();
-            String headValue = headerEntry.getValue();
-            connection.setRequestProperty(headKey, headValue);
+    private static Response readResponse(okhttp3.Response response) throws IOException {
+        Headers headers = new Headers();
+        okhttp3.Headers responseHeaders = response.headers();
+        for (int i = 0, size = responseHeaders.size(); i < size; i++) {
+            headers.add(responseHeaders.name(i), responseHeaders.value(i));
         }
 
-        connection.connect();
-        return new URLConnection(connection);
+        // The body is read from the connection, it is closed when the body of the result is closed.
+        String contentEncoding = response.header(KEY_CONTENT_ENCODING);
+        InputStream stream = Kalle.getConfig().getContentDecoders().decode(contentEncoding, response.body().byteStream());
+        return Response.newBuilder()
+                .code(response.code())
+                .headers(headers)
+                .body(new StreamBody(headers.getContentType(), stream))
+                .build();
+    }
+
+    /**
+     * The stage of the failure is unknown to the callback, it is inferred from the type of the exception.
+     */
+    private static IOException translate(Request request, IOException e) {
+        if (e instanceof UnknownHostException) {
+            return new HostError(String.format("Hostname can not be resolved: %1$s.", request.url()), e);
+        }
+        if (e instanceof java.net.ConnectException) {
+            return new ConnectException(String.format("An unknown exception: %1$s.", request.url()), e);
+        }
+        if (e instanceof SocketTimeoutException) {
+            return new ReadTimeoutError(String.format("Read data time out: %1$s.", request.url()), e);
+        }
+        return new ReadException(e);
+    }
+
+    /**
+     * Resolve by the dns of {@link KalleConfig}, it is used unless the client has its own dns.
+     */
+    private static final class ConfigDns implements okhttp3.Dns {
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            return Kalle.getConfig().getDns().lookup(hostname);
+        }
+    }
+
+    /**
+     * The body of the request is written to the connection on the dispatcher thread,
+     * it is written again when OkHttp retries, like the body is written again when Kalle retries.
+     */
+    private static final class WriterBody extends okhttp3.RequestBody {
+
+        private final RequestBody mBody;
+        private final MediaType mContentType;
+        private final long mContentLength;
+
+        private WriterBody(Request request) {
+            Headers headers = request.headers();
+            String contentType = headers.getContentType();
+            this.mBody = request.body();
+            this.mContentType = TextUtils.isEmpty(contentType) ? null : MediaType.parse(contentType);
+            this.mContentLength = headers.isChunked() ? -1 : headers.getContentLength();
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mContentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try {
+                mBody.writeTo(sink.outputStream());
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+    }
+
+    private static final class CallCanceller implements Canceller {
+
+        private final Call mCall;
+
+        private CallCanceller(Call call) {
+            this.mCall = call;
+        }
+
+        @Override
+        public void cancel() {
+            if (mCall != null) mCall.cancel();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCall == null || mCall.isCanceled();
+        }
+    }
+
+    /**
+     * The configuration of a request which needs a derived client.
+     */
+    private static final class ClientKey {
+
+        private final Proxy mProxy;
+        private final SSLSocketFactory mSSLSocketFactory;
+        private final HostnameVerifier mHostnameVerifier;
+        private final int mConnectTimeout;
+        private final int mReadTimeout;
+
+        private ClientKey(Proxy proxy, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier,
+                          int connectTimeout, int readTimeout) {
+            this.mProxy = proxy;
+            this.mSSLSocketFactory = sslSocketFactory;
+            this.mHostnameVerifier = hostnameVerifier;
+            this.mConnectTimeout = connectTimeout;
+            this.mReadTimeout = readTimeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            ClientKey other = (ClientKey) o;
+            return mConnectTimeout == other.mConnectTimeout
+                    && mReadTimeout == other.mReadTimeout
+                    && (mProxy == null ? other.mProxy == null : mProxy.equals(other.mProxy))
+                    && mSSLSocketFactory == other.mSSLSocketFactory
+                    && mHostnameVerifier == other.mHostnameVerifier;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mProxy == null ? 0 : mProxy.hashCode();
+            result = 31 * result + (mSSLSocketFactory == null ? 0 : mSSLSocketFactory.hashCode());
+            result = 31 * result + (mHostnameVerifier == null ? 0 : mHostnameVerifier.hashCode());
+            result = 31 * result + mConnectTimeout;
+            result = 31 * result + mReadTimeout;
+            return result;
+        }
     }
 
     public static class Builder {
 
         private OkHttpClient mClient;
+        private X509TrustManager mTrustManager;
 
         private Builder() {
         }
 
+        /**
+         * The client provides the connection pool, the dispatcher and the other configurations.
+         */
         public Builder client(OkHttpClient client) {
             this.mClient = client;
             return this;
         }
 
+        /**
+         * The trust manager is given to OkHttp with the ssl socket factories of the requests,
+         * it cleans the certificate chains for the certificate pinner of the client, the default is the system's.
+         */
+        public Builder trustManager(X509TrustManager trustManager) {
+            this.mTrustManager = trustManager;
+            return this;
+        }
+
         public OkHttpConnectFactory build() {
             return new OkHttpConnectFactory(this);
         }
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2018 Yan Zhenjie.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yanzhenjie.kalle;
+
+import android.text.TextUtils;
+
+import com.yanzhenjie.kalle.connect.Connection;
+import com.yanzhenjie.kalle.connect.stream.NullStream;
+import com.yanzhenjie.kalle.connect.stream.SourceStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Pipe;
+
+import static com.yanzhenjie.kalle.Headers.KEY_CONTENT_ENCODING;
+
+/**
+ * <p>
+ * A exchange on a {@link Call}, the request body is written through a pipe while the call runs on the dispatcher.
+ * </p>
+ */
+final class OkHttpConnection implements Connection, Callback {
+
+    /**
+     * The bytes of the request body buffered between the writer and the dispatcher thread.
+     */
+    private static final long PIPE_SIZE = 64 * 1024;
+
+    /**
+     * Execute the call on the calling thread, the request has no body.
+     */
+    static OkHttpConnection execute(Call call, Request request) throws IOException {
+        OkHttpConnection connection = new OkHttpConnection(call, request, null);
+        connection.mResponse = call.execute();
+        return connection;
+    }
+
+    /**
+     * Enqueue the call to the dispatcher, the body is written to {@link #getOutputStream()} meanwhile.
+     */
+    static OkHttpConnection enqueue(OkHttpClient client, okhttp3.Request.Builder builder, Request request) {
+        Headers headers = request.headers();
+        Pipe pipe = new Pipe(PIPE_SIZE);
+        pipe.sink().timeout().timeout(request.readTimeout(), TimeUnit.MILLISECONDS);
+        long contentLength = headers.isChunked() ? -1 : headers.getContentLength();
+        PipeBody body = new PipeBody(headers.getContentType(), contentLength, pipe);
+
+        Call call = client.newCall(builder.method(request.method().toString(), body).build());
+        OkHttpConnection connection = new OkHttpConnection(call, request, pipe);
+        call.enqueue(connection);
+        return connection;
+    }
+
+    private final Call mCall;
+    private final Request mRequest;
+    private final Pipe mPipe;
+    private final OutputStream mOutput;
+
+    private Response mResponse;
+    private IOException mFailure;
+
+    private OkHttpConnection(Call call, Request request, Pipe pipe) {
+        this.mCall = call;
+        this.mRequest = request;
+        this.mPipe = pipe;
+        this.mOutput = pipe == null ? null : Okio.buffer(pipe.sink()).outputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mOutput == null) {
+            throw new ProtocolException(String.format("Method %1$s does not support request body.", mRequest.method()));
+        }
+        return mOutput;
+    }
+
+    @Override
+    public int getCode() throws IOException {
+        return response().code();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() throws IOException {
+        return response().headers().toMultimap();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        Response response = response();
+        if (!hasBody(mRequest.method(), response.code())) return new NullStream(this);
+
+        InputStream stream = new SourceStream(this, response.body().byteStream());
+        return Kalle.getConfig().getContentDecoders().decode(response.header(KEY_CONTENT_ENCODING), stream);
+    }
+
+    private synchronized Response response() throws IOException {
+        try {
+            while (mResponse == null && mFailure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            mCall.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The waiting is interrupted.");
+        }
+        if (mResponse == null) throw mFailure;
+        return mResponse;
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        synchronized (this) {
+            mResponse = response;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        synchronized (this) {
+            mFailure = e;
+            notifyAll();
+        }
+        // Fail the writer instead of letting it block on the full pipe.
+        closeSource();
+    }
+
+    private void closeSource() {
+        if (mPipe == null) return;
+        try {
+            mPipe.source().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Response response;
+        synchronized (this) {
+            response = mResponse;
+        }
+        if (response != null) response.close();
+        else mCall.cancel();
+        closeSource();
+    }
+
+    private static boolean hasBody(RequestMethod method, int code) {
+        return method != RequestMethod.HEAD && code > 100 && code != 204 && code != 205 && !(code >= 300 && code < 400);
+    }
+
+    /**
+     * The body is read from the pipe, so it can not be written again when OkHttp retries.
+     */
+    private static final class PipeBody extends RequestBody {
+
+        private final MediaType mContentType;
+        private final long mContentLength;
+        private final Pipe mPipe;
+        private final AtomicBoolean mWritten = new AtomicBoolean();
+
+        private PipeBody(String contentType, long contentLength, Pipe pipe) {
+            this.mContentType = TextUtils.isEmpty(contentType) ? null : MediaType.parse(contentType);
+            this.mContentLength = contentLength;
+            this.mPipe = pipe;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mContentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (!mWritten.compareAndSet(false, true)) {
+                throw new ProtocolException("The request body has been sent, it can not be sent again.");
+            }
+            try {
+                sink.writeAll(mPipe.source());
+            } finally {
+                mPipe.source().close();
+            }
+        }
+    }
+}